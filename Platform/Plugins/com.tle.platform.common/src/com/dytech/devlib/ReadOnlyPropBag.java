@@ -0,0 +1,368 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.dytech.devlib;
+
+import com.google.common.base.Preconditions;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+/**
+ * An immutable, compact copy of a {@link PropBagEx} for code that only reads. The DOM is flattened
+ * into arrays once, with elements numbered breadth first so the children of an element are a
+ * contiguous range. Paths are split and parsed once and then shared between all instances.
+ *
+ * <p>Lookups follow the same rules as the equivalent {@link PropBagEx} methods. Instances are safe
+ * to share between threads, unlike a DOM.
+ */
+public final class ReadOnlyPropBag {
+  private static final String WILD = "*"; // $NON-NLS-1$
+  private static final String PATH_SEP = "/"; // $NON-NLS-1$
+  private static final String BLANK = ""; // $NON-NLS-1$
+  private static final String ATTR = "@"; // $NON-NLS-1$
+  private static final int MAX_COMPILED_PATHS = 10000;
+
+  private static final Map<String, Step[]> COMPILED_PATHS = new ConcurrentHashMap<>();
+
+  private final String xml;
+
+  // Per element, indexed breadth first from the root at 0
+  private final String[] names;
+  private final String[] values;
+  private final int[] parents;
+  private final int[] firstChild;
+  private final int[] firstAttribute;
+
+  private final String[] attributeNames;
+  private final String[] attributeValues;
+
+  public ReadOnlyPropBag(String xml) {
+    this(xml, new PropBagEx(xml));
+  }
+
+  /**
+   * @param xml The XML that was parsed to create the bag, returned by {@link #toString()}
+   * @param bag Not modified
+   */
+  public ReadOnlyPropBag(String xml, PropBagEx bag) {
+    this.xml = xml;
+
+    final List<Element> elements = new ArrayList<Element>();
+    final List<Integer> parentList = new ArrayList<Integer>();
+    final List<Integer> firstChildList = new ArrayList<Integer>();
+    final ArrayDeque<Integer> queue = new ArrayDeque<Integer>();
+    elements.add(bag.getRootElement());
+    parentList.add(-1);
+    queue.add(0);
+    while (!queue.isEmpty()) {
+      final int index = queue.poll();
+      firstChildList.add(elements.size());
+      for (Node child = elements.get(index).getFirstChild();
+          child != null;
+          child = child.getNextSibling()) {
+        if (child.getNodeType() == Node.ELEMENT_NODE) {
+          queue.add(elements.size());
+          elements.add((Element) child);
+          parentList.add(index);
+        }
+      }
+    }
+
+    final int count = elements.size();
+    final Map<String, String> interned = new HashMap<String, String>();
+    names = new String[count];
+    values = new String[count];
+    parents = new int[count];
+    firstChild = new int[count + 1];
+    firstAttribute = new int[count + 1];
+    final List<String> attrNames = new ArrayList<String>();
+    final List<String> attrValues = new ArrayList<String>();
+    for (int i = 0; i < count; i++) {
+      final Element element = elements.get(i);
+      names[i] = intern(interned, DOMHelper.stripNamespace(element.getNodeName()));
+      values[i] = DOMHelper.getValueForNode(element, null);
+      parents[i] = parentList.get(i);
+      firstChild[i] = firstChildList.get(i);
+      firstAttribute[i] = attrNames.size();
+      final NamedNodeMap attributes = element.getAttributes();
+      for (int a = 0; a < attributes.getLength(); a++) {
+        final Attr attr = (Attr) attributes.item(a);
+        attrNames.add(intern(interned, attr.getName()));
+        attrValues.add(attr.getValue());
+      }
+    }
+    firstChild[count] = count;
+    firstAttribute[count] = attrNames.size();
+    attributeNames = attrNames.toArray(new String[attrNames.size()]);
+    attributeValues = attrValues.toArray(new String[attrValues.size()]);
+  }
+
+  private static String intern(Map<String, String> interned, String s) {
+    final String existing = interned.putIfAbsent(s, s);
+    return existing != null ? existing : s;
+  }
+
+  /** @see PropBagEx#getNode(String) */
+  public String getNode(String path) {
+    return getNode(path, BLANK);
+  }
+
+  /** @see PropBagEx#getNode(String, String) */
+  public String getNode(String path, String defaultValue) {
+    final Step[] steps = compile(path);
+    final int element = resolve(steps);
+    if (element < 0) {
+      return defaultValue;
+    }
+    if (isAttributePath(steps)) {
+      final int attr = findAttribute(element, steps[steps.length - 1].name);
+      return attr < 0 ? defaultValue : attributeValues[attr];
+    }
+    final String value = values[element];
+    return value == null ? defaultValue : value;
+  }
+
+  /** @see PropBagEx#getIntNode(String, int) */
+  public int getIntNode(String path, int defaultValue) {
+    try {
+      return Integer.parseInt(getNode(path));
+    } catch (NumberFormatException ex) {
+      return defaultValue;
+    }
+  }
+
+  public boolean isNodeTrue(String path) {
+    return getNode(path).equals("true"); // $NON-NLS-1$
+  }
+
+  /** @see PropBagEx#nodeExists(String) */
+  public boolean nodeExists(String path) {
+    final Step[] steps = compile(path);
+    final int element = resolve(steps);
+    if (element < 0) {
+      return false;
+    }
+    return !isAttributePath(steps) || findAttribute(element, steps[steps.length - 1].name) >= 0;
+  }
+
+  /** @see PropBagEx#nodeCount(String) */
+  public int nodeCount(String path) {
+    if (isAttributePath(compile(path))) {
+      return nodeExists(path) ? 1 : 0;
+    }
+    return getNodeList(path).size();
+  }
+
+  /**
+   * The values of the node at the path and its following siblings with the same name.
+   *
+   * @see PropBagEx#getNodeList(String)
+   */
+  public List<String> getNodeList(String path) {
+    final Step[] steps = compile(path);
+    if (path.indexOf(ATTR) >= 0) {
+      return nodeExists(path)
+          ? Collections.singletonList(getNode(path))
+          : Collections.<String>emptyList();
+    }
+
+    final int element = resolve(steps);
+    if (element < 0) {
+      return Collections.emptyList();
+    }
+    if (element == 0) {
+      return Collections.singletonList(value(0));
+    }
+
+    final List<String> results = new ArrayList<String>();
+    final String name = path.endsWith(WILD) ? WILD : names[element];
+    final int end = firstChild[parents[element] + 1];
+    for (int i = element; i < end; i++) {
+      if (matches(i, name)) {
+        results.add(value(i));
+      }
+    }
+    return results;
+  }
+
+  /**
+   * The values of every node matching the path, under any parent.
+   *
+   * @see PropBagEx#iterateAllValues(String)
+   */
+  public List<String> getAllValues(String path) {
+    final List<String> names = new ArrayList<String>();
+    for (String part : path.split(PATH_SEP)) {
+      if (part.trim().length() > 0) {
+        names.add(part);
+      }
+    }
+    final List<String> results = new ArrayList<String>();
+    if (!names.isEmpty()) {
+      findAll(0, names, 0, results);
+    }
+    return results;
+  }
+
+  private void findAll(int parent, List<String> path, int depth, List<String> results) {
+    final String name = path.get(depth);
+    final boolean last = depth == path.size() - 1;
+    if (name.startsWith(ATTR)) {
+      if (!last) {
+        throw new RuntimeException("Xpath has an attribute component before the last component");
+      }
+      final int attr = findAttribute(parent, name.substring(1));
+      results.add(attr < 0 ? BLANK : attributeValues[attr]);
+      return;
+    }
+    for (int i = firstChild[parent]; i < firstChild[parent + 1]; i++) {
+      if (matches(i, name)) {
+        if (last) {
+          results.add(value(i));
+        } else {
+          findAll(i, path, depth + 1, results);
+        }
+      }
+    }
+  }
+
+  /** @return A new, modifiable copy */
+  public PropBagEx toPropBag() {
+    return new PropBagEx(xml);
+  }
+
+  /** A rough estimate of the heap used, for sizing caches. */
+  public long sizeInBytes() {
+    long size = 64L + 2L * xml.length();
+    size += 4L * (names.length * 2 + parents.length + firstChild.length + firstAttribute.length);
+    for (String value : values) {
+      if (value != null) {
+        size += 40 + 2L * value.length();
+      }
+    }
+    for (String value : attributeValues) {
+      size += 40 + 2L * value.length();
+    }
+    return size;
+  }
+
+  @Override
+  public String toString() {
+    return xml;
+  }
+
+  private String value(int element) {
+    final String value = values[element];
+    return value == null ? BLANK : value;
+  }
+
+  private boolean matches(int element, String name) {
+    return name.equals(WILD) || name.equals(names[element]);
+  }
+
+  private int findAttribute(int element, String name) {
+    for (int a = firstAttribute[element]; a < firstAttribute[element + 1]; a++) {
+      if (attributeNames[a].equals(name)) {
+        return a;
+      }
+    }
+    return -1;
+  }
+
+  /** @return The element the path leads to (or owning the attribute), or -1 */
+  private int resolve(Step[] steps) {
+    int element = 0;
+    final int elementSteps = isAttributePath(steps) ? steps.length - 1 : steps.length;
+    for (int s = 0; s < elementSteps; s++) {
+      final Step step = steps[s];
+      int found = -1;
+      int seen = 0;
+      for (int i = firstChild[element]; i < firstChild[element + 1]; i++) {
+        if (matches(i, step.name)) {
+          if (seen == step.index) {
+            found = i;
+            break;
+          }
+          seen++;
+        }
+      }
+      if (found < 0) {
+        return -1;
+      }
+      element = found;
+    }
+    return element;
+  }
+
+  private static boolean isAttributePath(Step[] steps) {
+    return steps.length > 0 && steps[steps.length - 1].attribute;
+  }
+
+  private static Step[] compile(String path) {
+    Preconditions.checkArgument(path != null, "Path must not be null");
+    Step[] steps = COMPILED_PATHS.get(path);
+    if (steps == null) {
+      final List<String> parts = DOMHelper.splitPath(path);
+      steps = new Step[parts.size()];
+      for (int i = 0; i < steps.length; i++) {
+        steps[i] = new Step(parts.get(i));
+      }
+      // Paths mostly come from code and schemas, this just stops a runaway
+      if (COMPILED_PATHS.size() >= MAX_COMPILED_PATHS) {
+        COMPILED_PATHS.clear();
+      }
+      COMPILED_PATHS.put(path, steps);
+    }
+    return steps;
+  }
+
+  private static final class Step {
+    final String name;
+    final int index;
+    final boolean attribute;
+
+    Step(String part) {
+      attribute = part.startsWith(ATTR);
+      if (attribute) {
+        name = part.substring(1);
+        index = 0;
+      } else {
+        final int bracket = part.indexOf('[');
+        if (bracket >= 0) {
+          name = DOMHelper.stripNamespace(part.substring(0, bracket));
+          index =
+              bracket + 1 < part.length()
+                  ? Integer.parseInt(part.substring(bracket + 1, part.length() - 1))
+                  : 0;
+        } else {
+          name = DOMHelper.stripNamespace(part);
+          index = 0;
+        }
+      }
+    }
+  }
+}
@@ -68,7 +68,14 @@ public enum ArchiveType {
 
     @Override
     public ArchiveCreator createArchiver(OutputStream archive) throws IOException {
+      return createArchiver(archive, Deflater.DEFAULT_COMPRESSION, 1);
+    }
+
+    @Override
+    public ArchiveCreator createArchiver(OutputStream archive, int compressionLevel, int threads)
+        throws IOException {
       final ZipOutputStream zout = new ZipOutputStream(archive);
+      zout.setLevel(compressionLevel);
       return new ArchiveCreator() {
         @Override
         public OutputStream newEntry(String name, long size) throws IOException {
@@ -119,6 +126,17 @@ public enum ArchiveType {
     public ArchiveCreator createArchiver(OutputStream archive) throws IOException {
       return createTarXZipArchiver(new GZIPOutputStream(archive));
     }
+
+    @Override
+    public ArchiveCreator createArchiver(OutputStream archive, int compressionLevel, int threads)
+        throws IOException {
+      if (threads > 1) {
+        return createTarXZipArchiver(
+            new ParallelGzipOutputStream(archive, compressionLevel, threads));
+      }
+      return createTarXZipArchiver(
+          ParallelGzipOutputStream.createGzipOutputStream(archive, compressionLevel));
+    }
   };
 
   private final String[] fileExtensions;
@@ -133,6 +151,16 @@ public enum ArchiveType {
 
   public abstract ArchiveCreator createArchiver(OutputStream archive) throws IOException;
 
+  /**
+   * @param compressionLevel A {@link Deflater} compression level, ignored by archive types that do
+   *     not use deflate
+   * @param threads The number of threads to compress on, where the archive type supports it
+   */
+  public ArchiveCreator createArchiver(OutputStream archive, int compressionLevel, int threads)
+      throws IOException {
+    return createArchiver(archive);
+  }
+
   public static List<String> getAllExtensions() {
 
     List<String> rv = new ArrayList<String>();
@@ -0,0 +1,162 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.util.archive;
+
+import com.tle.common.NamedThreadFactory;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gzips its input on several threads by compressing fixed size blocks independently and writing
+ * each one as a separate gzip member. A gzip file made of several members is still a single valid
+ * gzip stream to any reader, including {@link java.util.zip.GZIPInputStream} and the gzip tool.
+ * Only a few blocks are held in memory at once, however much is written.
+ *
+ * <p>{@link #flush()} only writes out the blocks that have already been compressed.
+ */
+public class ParallelGzipOutputStream extends OutputStream {
+  private static final int BLOCK_SIZE = 1024 * 1024;
+
+  private final OutputStream out;
+  private final int level;
+  private final ExecutorService executor;
+  private final int maxPending;
+  private final Deque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+
+  private byte[] block = new byte[BLOCK_SIZE];
+  private int count;
+  private boolean written;
+  private boolean closed;
+
+  /** @param level A {@link java.util.zip.Deflater} compression level */
+  public ParallelGzipOutputStream(OutputStream out, int level, int threads) {
+    this.out = out;
+    this.level = level;
+    this.executor =
+        new ThreadPoolExecutor(
+            threads,
+            threads,
+            0L,
+            TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            new NamedThreadFactory("ParallelGzip"));
+    this.maxPending = threads * 2;
+  }
+
+  /** @return A gzip stream that compresses at the given level on the calling thread */
+  public static GZIPOutputStream createGzipOutputStream(OutputStream out, final int level)
+      throws IOException {
+    return new GZIPOutputStream(out, 64 * 1024) {
+      {
+        def.setLevel(level);
+      }
+    };
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    block[count++] = (byte) b;
+    if (count == block.length) {
+      submitBlock();
+    }
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    while (len > 0) {
+      final int n = Math.min(len, block.length - count);
+      System.arraycopy(b, off, block, count, n);
+      count += n;
+      off += n;
+      len -= n;
+      if (count == block.length) {
+        submitBlock();
+      }
+    }
+  }
+
+  @Override
+  public void flush() throws IOException {
+    while (!pending.isEmpty() && pending.peek().isDone()) {
+      writeNext();
+    }
+    out.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      // An empty stream still needs one member to be valid gzip
+      if (count > 0 || !written) {
+        submitBlock();
+      }
+      while (!pending.isEmpty()) {
+        writeNext();
+      }
+    } finally {
+      executor.shutdownNow();
+      out.close();
+    }
+  }
+
+  private void submitBlock() throws IOException {
+    final byte[] data = block;
+    final int length = count;
+    pending.add(executor.submit(() -> compress(data, length)));
+    written = true;
+    block = new byte[BLOCK_SIZE];
+    count = 0;
+    while (pending.size() >= maxPending) {
+      writeNext();
+    }
+  }
+
+  private void writeNext() throws IOException {
+    try {
+      out.write(pending.poll().get());
+    } catch (InterruptedException e) {
+      throw new InterruptedIOException();
+    } catch (ExecutionException e) {
+      throw new IOException(e.getCause());
+    }
+  }
+
+  private byte[] compress(byte[] data, int length) throws IOException {
+    final ByteArrayOutputStream buffer = new ByteArrayOutputStream(length / 2 + 64);
+    try (GZIPOutputStream gzip = createGzipOutputStream(buffer, level)) {
+      gzip.write(data, 0, length);
+    }
+    return buffer.toByteArray();
+  }
+}
@@ -0,0 +1,79 @@
+package com.dytech.devlib;
+
+import com.google.common.io.ByteStreams;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import junit.framework.TestCase;
+
+@SuppressWarnings("nls")
+public class ReadOnlyPropBagTest extends TestCase {
+  private static final String[] PATHS = {
+    "",
+    "/",
+    "@count",
+    "@missing",
+    "result",
+    "result[1]/xml/@id",
+    "result/xml/@attr2",
+    "result/xml/a",
+    "result/xml/a[1]",
+    "result/xml/blah:a",
+    "result/xml/a/@test",
+    "result/xml/*",
+    "result/xml/*[2]",
+    "result[3]/xml/a",
+    "result[4]/xml/node",
+    "result[4]/xml/node[2]",
+    "result[9]/xml",
+    "nothing/here",
+    "//result/xml/b",
+  };
+
+  private PropBagEx bag;
+  private ReadOnlyPropBag readOnly;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    try (InputStream in = getClass().getResourceAsStream("doc1.xml")) {
+      String xml = new String(ByteStreams.toByteArray(in), StandardCharsets.UTF_8);
+      bag = new PropBagEx(xml);
+      readOnly = new ReadOnlyPropBag(xml);
+    }
+  }
+
+  public void testSameAsPropBag() {
+    for (String path : PATHS) {
+      assertEquals(path, bag.getNode(path, "default"), readOnly.getNode(path, "default"));
+      assertEquals(path, bag.nodeExists(path), readOnly.nodeExists(path));
+      assertEquals(path, bag.nodeCount(path), readOnly.nodeCount(path));
+      assertEquals(path, bag.getNodeList(path), readOnly.getNodeList(path));
+    }
+  }
+
+  public void testAllValues() {
+    for (String path : new String[] {"result/xml/a", "result/xml/@id", "result/*/node", "x"}) {
+      List<String> expected = new ArrayList<String>();
+      for (Iterator<String> iter = bag.iterateAllValues(path); iter.hasNext(); ) {
+        expected.add(iter.next());
+      }
+      assertEquals(path, expected, readOnly.getAllValues(path));
+    }
+  }
+
+  public void testIntNode() {
+    assertEquals(5, readOnly.getIntNode("@count", -1));
+    assertEquals(-1, readOnly.getIntNode("result/xml/b", -1));
+    assertTrue(readOnly.isNodeTrue("result/xml/a/@test"));
+  }
+
+  public void testToPropBag() {
+    PropBagEx copy = readOnly.toPropBag();
+    copy.setNode("result/xml/b", "changed");
+    assertEquals("xx", readOnly.getNode("result/xml/b"));
+    assertEquals("changed", copy.getNode("result/xml/b"));
+  }
+}
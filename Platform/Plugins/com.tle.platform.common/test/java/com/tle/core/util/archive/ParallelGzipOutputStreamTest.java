@@ -0,0 +1,44 @@
+package com.tle.core.util.archive;
+
+import com.google.common.io.ByteStreams;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import junit.framework.TestCase;
+
+public class ParallelGzipOutputStreamTest extends TestCase {
+  public void testRoundTrip() throws IOException {
+    // Several blocks, and a partial one at the end
+    byte[] data = new byte[3 * 1024 * 1024 + 12345];
+    Random random = new Random(1);
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) ('a' + random.nextInt(8));
+    }
+
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    try (ParallelGzipOutputStream out =
+        new ParallelGzipOutputStream(compressed, Deflater.BEST_SPEED, 3)) {
+      out.write(data, 0, 100);
+      out.write(data[100]);
+      out.write(data, 101, data.length - 101);
+    }
+
+    assertTrue(Arrays.equals(data, gunzip(compressed.toByteArray())));
+  }
+
+  public void testEmpty() throws IOException {
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    new ParallelGzipOutputStream(compressed, Deflater.DEFAULT_COMPRESSION, 2).close();
+    assertEquals(0, gunzip(compressed.toByteArray()).length);
+  }
+
+  private static byte[] gunzip(byte[] compressed) throws IOException {
+    try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+      return ByteStreams.toByteArray(in);
+    }
+  }
+}
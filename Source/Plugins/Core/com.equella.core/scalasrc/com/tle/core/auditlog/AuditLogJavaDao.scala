@@ -18,7 +18,6 @@
 
 package com.tle.core.auditlog
 
-import java.time.Instant
 import java.util
 import java.util.Date
 
@@ -30,12 +29,13 @@ import com.tle.core.auditlog.convert.AuditLogEntryXml
 import com.tle.core.db.tables.{AuditLogEntry, AuditLogMeta}
 import com.tle.core.db.types.UserId
 import com.tle.core.db.{DBSchema, RunWithDB}
+import com.tle.core.hibernate.CurrentDataSource
 import com.tle.core.institution.convert.{DefaultMessageCallback, XmlHelper}
 import fs2.Stream
 import io.doolse.simpledba.WriteOp
 import io.doolse.simpledba.jdbc._
 import io.doolse.simpledba.syntax._
-import javax.servlet.http.HttpServletRequest
+import javax.sql.DataSource
 
 import scala.collection.JavaConverters._
 
@@ -56,80 +56,43 @@ object AuditLogJavaDao {
     Kleisli.liftF(queries.countForInst(institution).compile.last.map(_.getOrElse(0)))
   }
 
-  def log(userId: String,
-          sessionId: String,
-          category: String,
-          `type`: String,
-          d1: String,
-          d2: String,
-          d3: String,
-          d4: String,
-          institution: Institution): Unit =
-    logWithRequest(userId, sessionId, category, `type`, d1, d2, d3, d4, institution, null)
-
-  def logWithRequest(userId: String,
-                     sessionId: String,
-                     category: String,
-                     `type`: String,
-                     d1: String,
-                     d2: String,
-                     d3: String,
-                     d4: String,
-                     institution: Institution,
-                     request: HttpServletRequest): Unit = {
-    RunWithDB.executeWithHibernate(Kleisli { _ =>
-      queries
-        .insertNew(
-          id =>
-            AuditLogEntry(id,
-                          d1,
-                          d2,
-                          d3,
-                          Option(d4),
-                          category,
-                          `type`,
-                          sessionId,
-                          AuditLogMeta(referrer(request)),
-                          Instant.now(),
-                          UserId(userId),
-                          institution))
-        .compile
-        .drain
-    })
+  /**
+    * Writes the entries in a single transaction. If the calling thread is already in a hibernate
+    * transaction on the same data source they will be written as part of it, otherwise a new
+    * transaction is used.
+    */
+  def writeEntries(ds: DataSource, entries: util.Collection[QueuedAuditEntry]): Unit = {
+    val inserts = Stream
+      .emits(entries.asScala.toSeq)
+      .covary[JDBCIO]
+      .flatMap(e => queries.insertNew(id => toAuditLogEntry(id, e)))
+      .compile
+      .drain
+    val sessionHolder = Option(RunWithDB.getSessionHolder())
+    val inTransaction = sessionHolder.flatMap(h => Option(h.getTransaction)).exists(_.isActive)
+    val sameDataSource = Option(CurrentDataSource.get()).exists(_.getDataSource == ds)
+    if (inTransaction && sameDataSource) {
+      RunWithDB.executeWithHibernate(Kleisli.liftF(inserts))
+    } else {
+      RunWithDB.executeTransaction(ds, inserts)
+    }
   }
 
-  def referrer(req: HttpServletRequest): Option[String] =
-    Option(req).flatMap(r => Option(r.getHeader("Referer")))
-
-  def logHttp(category: String,
-              `type`: String,
-              d1: String,
-              d2: String,
-              d3: String,
-              d4: String,
-              request: HttpServletRequest): Unit = {
-    RunWithDB.executeWithHibernate(Kleisli { uc =>
-      queries
-        .insertNew(
-          id =>
-            AuditLogEntry(
-              id,
-              d1,
-              d2,
-              d3,
-              Option(d4),
-              category,
-              `type`,
-              uc.user.getSessionID,
-              AuditLogMeta(referrer(request)),
-              Instant.now(),
-              UserId(uc.user.getUserBean.getUniqueID),
-              uc.inst
-          ))
-        .compile
-        .drain
-    })
-  }
+  private def toAuditLogEntry(id: Long, e: QueuedAuditEntry): AuditLogEntry =
+    AuditLogEntry(
+      id,
+      e.getData1,
+      e.getData2,
+      e.getData3,
+      Option(e.getData4),
+      e.getCategory,
+      e.getType,
+      e.getSessionId,
+      AuditLogMeta(Option(e.getReferrer)),
+      e.getTimestamp,
+      UserId(e.getUserId),
+      e.getInstitution
+    )
 
   def writeExport(folder: SubTemporaryFile,
                   perFile: Int,
@@ -0,0 +1,235 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.item
+
+import java.time.Instant
+import java.util.concurrent.{ConcurrentHashMap, Executors, ScheduledExecutorService, TimeUnit}
+
+import com.tle.beans.Institution
+import com.tle.core.application.StartupBean
+import com.tle.core.db.types.DbUUID
+import com.tle.core.guice.Bind
+import com.tle.core.item.ViewCountBuffer._
+import javax.inject.{Inject, Singleton}
+import org.slf4j.LoggerFactory
+
+import scala.collection.mutable
+import scala.util.control.NonFatal
+
+object ViewCountBuffer {
+
+  val logger = LoggerFactory.getLogger(classOf[ViewCountBuffer])
+
+  val FlushIntervalSeconds = 10
+
+  private val StripeCount = 32
+
+  case class ViewKey(inst: Long, uuid: DbUUID, version: Int, attachment: Option[DbUUID])
+
+  case class PendingViews(count: Int, lastViewed: Instant) {
+    def +(other: PendingViews): PendingViews =
+      PendingViews(count + other.count,
+                   if (other.lastViewed.isAfter(lastViewed)) other.lastViewed else lastViewed)
+  }
+
+  /**
+    * @param stored The count and last view currently stored for a key, if there is a row for it
+    * @return The count and last view to store once the pending views have been added
+    */
+  def addToStored(stored: Option[PendingViews], views: PendingViews): PendingViews =
+    stored.map(_ + views).getOrElse(views)
+
+  /**
+    * Writes flushed views to the database.
+    */
+  trait Writer {
+
+    /**
+      * Adds the views to the stored counts of an institution, in one transaction.
+      */
+    def addViews(inst: Institution, views: Seq[(ViewKey, PendingViews)]): Unit
+
+    /**
+      * Deletes the stored counts of items and their attachments.
+      */
+    def deleteViews(inst: Institution, items: Seq[(DbUUID, Int)]): Unit
+  }
+
+  private class Stripe {
+    var pending = mutable.HashMap[ViewKey, PendingViews]()
+  }
+}
+
+/**
+  * Aggregates item and attachment views in memory and writes them to the database in batches,
+  * so that viewing an item doesn't need its own transaction and a read-then-write on a hot row.
+  *
+  * Increments are held in striped maps and flushed every [[ViewCountBuffer.FlushIntervalSeconds]]
+  * seconds by a thread which is started with the server and stopped by [[stop]], which flushes
+  * once more. Each flush adds the pending deltas to the stored counts with one transaction per
+  * institution.
+  */
+@Bind
+@Singleton
+class ViewCountBuffer @Inject()(writer: Writer) extends StartupBean {
+
+  private val stripes      = Array.fill(StripeCount)(new Stripe)
+  private val institutions = new ConcurrentHashMap[Long, Institution]()
+  private val flushLock    = new Object
+
+  // Deltas which have been taken out of the stripes but not yet committed
+  @volatile private var inFlight: Map[ViewKey, PendingViews] = Map.empty
+  private val inFlightLock = new Object
+
+  // Items discarded while a flush is running, whose views that flush must not write back
+  private val discarded = ConcurrentHashMap.newKeySet[(Long, DbUUID, Int)]()
+
+  private var flusher: Option[ScheduledExecutorService] = None
+
+  override def startup(): Unit = synchronized {
+    if (flusher.isEmpty) {
+      val exec = Executors.newSingleThreadScheduledExecutor { r: Runnable =>
+        val t = new Thread(r, "ViewCountBuffer.flusher")
+        t.setDaemon(true)
+        t
+      }
+      exec.scheduleWithFixedDelay(() => flush(),
+                                  FlushIntervalSeconds,
+                                  FlushIntervalSeconds,
+                                  TimeUnit.SECONDS)
+      // The server doesn't stop its beans, so views buffered when it exits are written here
+      Runtime.getRuntime.addShutdownHook(new Thread(() => stop(), "ViewCountBuffer.stop"))
+      flusher = Some(exec)
+    }
+  }
+
+  /**
+    * Stops the flushing thread and writes the views which are still pending.
+    */
+  def stop(): Unit = {
+    synchronized {
+      flusher.foreach(_.shutdown())
+      flusher = None
+    }
+    flush()
+  }
+
+  private def itemOf(key: ViewKey): (Long, DbUUID, Int) = (key.inst, key.uuid, key.version)
+
+  private def updateInFlight(
+      f: Map[ViewKey, PendingViews] => Map[ViewKey, PendingViews]): Unit =
+    inFlightLock.synchronized {
+      inFlight = f(inFlight)
+    }
+
+  private def stripeFor(key: ViewKey): Stripe =
+    stripes((key.hashCode & Int.MaxValue) % StripeCount)
+
+  def increment(key: ViewKey, inst: Institution): Unit = {
+    institutions.putIfAbsent(key.inst, inst)
+    val views  = PendingViews(1, Instant.now())
+    val stripe = stripeFor(key)
+    stripe.synchronized {
+      stripe.pending.update(key, stripe.pending.get(key).map(_ + views).getOrElse(views))
+    }
+  }
+
+  /**
+    * @return The views which have not yet been written to the database for the key
+    */
+  def pendingCount(key: ViewKey): Int = {
+    val stripe = stripeFor(key)
+    val queued = stripe.synchronized {
+      stripe.pending.get(key).map(_.count).getOrElse(0)
+    }
+    queued + inFlight.get(key).map(_.count).getOrElse(0)
+  }
+
+  /**
+    * Drops any pending views for an item and its attachments, e.g. when the item is deleted.
+    * Views a running flush has already taken are dropped too, and deleted again if that flush
+    * had already written them.
+    */
+  def discard(inst: Long, uuid: DbUUID, version: Int): Unit = {
+    val item = (inst, uuid, version)
+    discarded.add(item)
+    stripes.foreach { stripe =>
+      stripe.synchronized {
+        stripe.pending.retain((k, _) => itemOf(k) != item)
+      }
+    }
+    updateInFlight(_.filter { case (k, _) => itemOf(k) != item })
+  }
+
+  /**
+    * Writes all pending views to the database. Deltas which fail to be written are put back to be
+    * retried on the next flush.
+    */
+  def flush(): Unit = flushLock.synchronized {
+    val batch = mutable.HashMap[ViewKey, PendingViews]()
+    stripes.foreach { stripe =>
+      val taken = stripe.synchronized {
+        val p = stripe.pending
+        stripe.pending = mutable.HashMap()
+        p
+      }
+      batch ++= taken
+    }
+    if (batch.nonEmpty) {
+      updateInFlight(_ => batch.toMap)
+      try {
+        batch.groupBy(_._1.inst).foreach {
+          case (instId, all) =>
+            val views = all.filterNot { case (k, _) => discarded.contains(itemOf(k)) }
+            try {
+              if (views.nonEmpty) {
+                val inst = institutions.get(instId)
+                writer.addViews(inst, views.toSeq)
+                // Items deleted while their views were being written must not keep them
+                val deleted = views.keySet.map(itemOf).filter(discarded.contains)
+                if (deleted.nonEmpty) {
+                  writer.deleteViews(inst, deleted.toSeq.map { case (_, u, v) => (u, v) })
+                }
+              }
+              updateInFlight(_ -- all.keys)
+            } catch {
+              case NonFatal(e) =>
+                logger.warn(s"Failed to write ${views.size} view counts for institution $instId", e)
+                requeue(views)
+            }
+        }
+      } finally {
+        updateInFlight(_ => Map.empty)
+        discarded.clear()
+      }
+    } else {
+      discarded.clear()
+    }
+  }
+
+  private def requeue(views: collection.Map[ViewKey, PendingViews]): Unit = {
+    views.filterNot { case (k, _) => discarded.contains(itemOf(k)) }.foreach {
+      case (key, v) =>
+        val stripe = stripeFor(key)
+        stripe.synchronized {
+          stripe.pending.update(key, stripe.pending.get(key).map(_ + v).getOrElse(v))
+        }
+    }
+  }
+}
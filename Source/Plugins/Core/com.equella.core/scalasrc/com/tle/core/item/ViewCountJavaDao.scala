@@ -26,7 +26,10 @@ import com.tle.beans.Institution
 import com.tle.beans.entity.itemdef.ItemDefinition
 import com.tle.beans.item.ItemKey
 import com.tle.core.db.tables.{AttachmentViewCount, ItemViewCount}
+import com.tle.core.db.types.DbUUID
 import com.tle.core.db.{DBSchema, RunWithDB, UserContext}
+import com.tle.core.item.ViewCountBuffer.ViewKey
+import com.tle.legacy.LegacyGuice
 import io.doolse.simpledba.jdbc._
 import io.doolse.simpledba.syntax._
 import scala.collection.JavaConverters._
@@ -35,24 +38,11 @@ object ViewCountJavaDao {
 
   val queries = DBSchema.queries.viewCountQueries
 
-  def incrementSummaryViews(itemKey: ItemKey): Unit = RunWithDB.executeWithHibernate {
-    Kleisli { uc =>
-      queries
-        .itemCount((uc.inst, itemKey.getUuid, itemKey.getVersion))
-        .last
-        .flatMap {
-          case Some(c) =>
-            queries.writeItemCounts.update(c,
-                                           c.copy(count = c.count + 1, last_viewed = Instant.now()))
-          case _ =>
-            val newCount =
-              ItemViewCount(uc.inst, itemKey.getUuid, itemKey.getVersion, 1, Instant.now())
-            queries.writeItemCounts.insert(newCount)
-        }
-        .flush
-        .compile
-        .drain
-    }
+  def incrementSummaryViews(itemKey: ItemKey): Unit = {
+    val uc = UserContext.fromThreadLocals()
+    LegacyGuice.viewCountBuffer.increment(
+      ViewKey(uc.inst.getDatabaseId, itemKey.getUuid, itemKey.getVersion, None),
+      uc.inst)
   }
 
   def setSummaryViews(itemKey: ItemKey, views: Int, lastViewed: Instant): Unit =
@@ -75,31 +65,14 @@ object ViewCountJavaDao {
       }
     }
 
-  def incrementAttachmentViews(itemKey: ItemKey, attachment: String): Unit =
-    RunWithDB.executeWithHibernate {
-      Kleisli { uc =>
-        queries
-          .attachmentCount((uc.inst, itemKey.getUuid, itemKey.getVersion, attachment))
-          .last
-          .flatMap {
-            case Some(c) =>
-              queries.writeAttachmentCounts.update(c,
-                                                   c.copy(count = c.count + 1,
-                                                          last_viewed = Instant.now()))
-            case _ =>
-              val newCount = AttachmentViewCount(uc.inst,
-                                                 itemKey.getUuid,
-                                                 itemKey.getVersion,
-                                                 attachment,
-                                                 1,
-                                                 Instant.now())
-              queries.writeAttachmentCounts.insert(newCount)
-          }
-          .flush
-          .compile
-          .drain
-      }
-    }
+  def incrementAttachmentViews(itemKey: ItemKey, attachment: String): Unit = {
+    val uc = UserContext.fromThreadLocals()
+    LegacyGuice.viewCountBuffer.increment(ViewKey(uc.inst.getDatabaseId,
+                                                  itemKey.getUuid,
+                                                  itemKey.getVersion,
+                                                  Some(DbUUID.fromString(attachment))),
+                                          uc.inst)
+  }
 
   def setAttachmentViews(itemKey: ItemKey,
                          attachment: String,
@@ -127,15 +100,23 @@ object ViewCountJavaDao {
     }
   }
 
-  def getAllSummaryViewCount(inst: Institution): java.util.List[ItemViewCount] =
+  def getAllSummaryViewCount(inst: Institution): java.util.List[ItemViewCount] = {
+    LegacyGuice.viewCountBuffer.flush()
     RunWithDB.executeWithHibernate {
       Kleisli.liftF(queries.allItemCount(inst).compile.toVector.map(_.asJava))
     }
+  }
 
   def getSummaryViewCount(itemKey: ItemKey): Int = RunWithDB.executeWithHibernate {
     Kleisli { uc: UserContext =>
-      queries.itemCount((uc.inst, itemKey.getUuid, itemKey.getVersion)).map(_.count).compile.last
-    }.map(_.getOrElse(0))
+      queries
+        .itemCount((uc.inst, itemKey.getUuid, itemKey.getVersion))
+        .map(_.count)
+        .compile
+        .last
+        .map(_.getOrElse(0) + LegacyGuice.viewCountBuffer.pendingCount(
+          ViewKey(uc.inst.getDatabaseId, itemKey.getUuid, itemKey.getVersion, None)))
+    }
   }
 
   def getAttachmentViewCount(itemKey: ItemKey, attachment: String): Int =
@@ -146,7 +127,12 @@ object ViewCountJavaDao {
           .map(_.count)
           .compile
           .last
-      }.map(_.getOrElse(0))
+          .map(_.getOrElse(0) + LegacyGuice.viewCountBuffer.pendingCount(
+            ViewKey(uc.inst.getDatabaseId,
+                    itemKey.getUuid,
+                    itemKey.getVersion,
+                    Some(DbUUID.fromString(attachment)))))
+      }
     }
 
   def getAllAttachmentViewCount(inst: Institution,
@@ -174,6 +160,7 @@ object ViewCountJavaDao {
 
   def deleteForItem(item: ItemKey): Unit = RunWithDB.executeWithHibernate {
     Kleisli { uc: UserContext =>
+      LegacyGuice.viewCountBuffer.discard(uc.inst.getDatabaseId, item.getUuid, item.getVersion)
       queries.deleteForItemId(uc.inst, item.getUuid, item.getVersion).flush.compile.drain
     }
   }
@@ -0,0 +1,110 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.item
+
+import cats.data.Kleisli
+import com.tle.beans.Institution
+import com.tle.core.db.RunWithDB
+import com.tle.core.db.tables.{AttachmentViewCount, ItemViewCount}
+import com.tle.core.db.types.{DbUUID, InstId}
+import com.tle.core.guice.Bind
+import com.tle.core.institution.RunAsInstitution
+import com.tle.core.item.ViewCountBuffer.{PendingViews, ViewKey, addToStored}
+import fs2.Stream
+import io.doolse.simpledba.WriteOp
+import io.doolse.simpledba.jdbc._
+import io.doolse.simpledba.syntax._
+import javax.inject.{Inject, Singleton}
+import org.springframework.transaction.annotation.Transactional
+
+/**
+  * Writes the views flushed by [[ViewCountBuffer]] with the view count queries, as the system
+  * user of the institution they were recorded in.
+  */
+@Bind(classOf[ViewCountBuffer.Writer])
+@Singleton
+class ViewCountWriter extends ViewCountBuffer.Writer {
+
+  @Inject var runAs: RunAsInstitution = _
+
+  private def queries = ViewCountJavaDao.queries
+
+  override def addViews(inst: Institution, views: Seq[(ViewKey, PendingViews)]): Unit =
+    runAs.executeAsSystem(inst, new Runnable {
+      override def run(): Unit = writeViews(views)
+    })
+
+  override def deleteViews(inst: Institution, items: Seq[(DbUUID, Int)]): Unit =
+    runAs.executeAsSystem(inst, new Runnable {
+      override def run(): Unit = removeViews(items)
+    })
+
+  @Transactional
+  def writeViews(views: Seq[(ViewKey, PendingViews)]): Unit = RunWithDB.executeWithHibernate {
+    Kleisli.liftF(Stream.emits(views).flatMap((addView _).tupled).flush.compile.drain)
+  }
+
+  @Transactional
+  def removeViews(items: Seq[(DbUUID, Int)]): Unit = RunWithDB.executeWithHibernate {
+    Kleisli { uc =>
+      Stream
+        .emits(items)
+        .flatMap { case (uuid, version) => queries.deleteForItemId((uc.inst, uuid, version)) }
+        .flush
+        .compile
+        .drain
+    }
+  }
+
+  private def addView(key: ViewKey, views: PendingViews): Stream[JDBCIO, WriteOp] = {
+    val inst = InstId(key.inst)
+    key.attachment match {
+      case None =>
+        queries.itemCount((inst, key.uuid, key.version)).last.flatMap { stored =>
+          val total = addToStored(stored.map(c => PendingViews(c.count, c.last_viewed)), views)
+          stored match {
+            case Some(c) =>
+              queries.writeItemCounts
+                .update(c, c.copy(count = total.count, last_viewed = total.lastViewed))
+            case None =>
+              queries.writeItemCounts.insert(
+                ItemViewCount(inst, key.uuid, key.version, total.count, total.lastViewed))
+          }
+        }
+      case Some(attachment) =>
+        queries.attachmentCount((inst, key.uuid, key.version, attachment)).last.flatMap {
+          stored =>
+            val total = addToStored(stored.map(c => PendingViews(c.count, c.last_viewed)), views)
+            stored match {
+              case Some(c) =>
+                queries.writeAttachmentCounts
+                  .update(c, c.copy(count = total.count, last_viewed = total.lastViewed))
+              case None =>
+                queries.writeAttachmentCounts.insert(
+                  AttachmentViewCount(inst,
+                                      key.uuid,
+                                      key.version,
+                                      attachment,
+                                      total.count,
+                                      total.lastViewed))
+            }
+        }
+    }
+  }
+}
@@ -0,0 +1,36 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.auditlog.impl;
+
+import com.tle.core.auditlog.AuditLogJavaDao;
+import com.tle.core.auditlog.QueuedAuditEntry;
+import com.tle.core.guice.Bind;
+import java.util.List;
+import javax.inject.Singleton;
+import javax.sql.DataSource;
+
+/** Writes queued audit entries through the audit log DAO. */
+@Bind(AuditLogWriter.Store.class)
+@Singleton
+public class AuditLogDaoStore implements AuditLogWriter.Store {
+  @Override
+  public void write(DataSource dataSource, List<QueuedAuditEntry> entries) {
+    AuditLogJavaDao.writeEntries(dataSource, entries);
+  }
+}
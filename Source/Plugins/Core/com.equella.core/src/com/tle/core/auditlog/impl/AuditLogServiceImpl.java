@@ -30,18 +30,27 @@ import com.tle.common.usermanagement.user.valuebean.UserBean;
 import com.tle.core.auditlog.AuditLogExtension;
 import com.tle.core.auditlog.AuditLogJavaDao;
 import com.tle.core.auditlog.AuditLogService;
+import com.tle.core.auditlog.QueuedAuditEntry;
 import com.tle.core.guice.Bind;
+import com.tle.core.hibernate.CurrentDataSource;
+import com.tle.core.hibernate.DataSourceHolder;
+import com.tle.core.institution.InstitutionService;
 import com.tle.core.plugins.PluginService;
 import com.tle.core.plugins.PluginTracker;
+import com.tle.core.system.service.SchemaDataSourceService;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.Date;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import javax.servlet.http.HttpServletRequest;
+import javax.sql.DataSource;
 import org.springframework.transaction.annotation.Transactional;
 
-/** Generic audit logging service. */
+/**
+ * Generic audit logging service. Entries are handed to the {@link AuditLogWriter} rather than being
+ * inserted as part of the request.
+ */
 @Bind(AuditLogService.class)
 @Singleton
 @SuppressWarnings("nls")
@@ -65,6 +74,10 @@ public class AuditLogServiceImpl implements AuditLogService {
 
   private static final String TRUNCED = "...";
 
+  @Inject private AuditLogWriter auditLogWriter;
+  @Inject private InstitutionService institutionService;
+  @Inject private SchemaDataSourceService schemaDataSourceService;
+
   private PluginTracker<AuditLogExtension> extensionTracker;
 
   @Override
@@ -84,7 +97,7 @@ public class AuditLogServiceImpl implements AuditLogService {
 
   private void logUserEvent(String type, UserState us, HttpServletRequest request) {
     UserBean ub = us.getUserBean();
-    AuditLogJavaDao.logWithRequest(
+    log(
         ub.getUniqueID(),
         us.getSessionID(),
         USER_CATEGORY,
@@ -98,52 +111,44 @@ public class AuditLogServiceImpl implements AuditLogService {
   }
 
   @Override
-  @Transactional
   public void logUserLoggedIn(UserState us, HttpServletRequest request) {
     logUserEvent("LOGIN", us, request);
   }
 
   @Override
-  @Transactional
   public void logUserFailedAuthentication(String username, WebAuthenticationDetails wad) {
     logGeneric(USER_CATEGORY, "AUTH ERROR", wad.getIpAddress(), username, "BAD CREDENTIALS", null);
   }
 
   @Override
-  @Transactional
   public void logUserLoggedOut(UserState us, HttpServletRequest request) {
     logUserEvent("LOGOUT", us, request);
   }
 
   @Override
-  @Transactional
   public void logEntityCreated(long entityId) {
     logEntityGeneric(CREATED_TYPE, entityId);
   }
 
   @Override
-  @Transactional
   public void logEntityModified(long entityId) {
     logEntityGeneric(MODIFIED_TYPE, entityId);
   }
 
   @Override
-  @Transactional
   public void logEntityDeleted(long entityId) {
     logEntityGeneric(DELETED_TYPE, entityId);
   }
 
   @Override
-  @Transactional
   public void logObjectDeleted(long objectId, String friendlyName) {
     logGeneric(
         friendlyName, DELETED_TYPE, CurrentUser.getUserID(), Long.toString(objectId), null, null);
   }
 
   @Override
-  @Transactional
   public void logSummaryViewed(String category, ItemKey item, HttpServletRequest request) {
-    AuditLogJavaDao.logHttp(
+    logHttp(
         category,
         SUMMARY_VIEWED_TYPE,
         item.getUuid(),
@@ -154,20 +159,18 @@ public class AuditLogServiceImpl implements AuditLogService {
   }
 
   @Override
-  @Transactional
   public void logItemSummaryViewed(Item item, HttpServletRequest request) {
     logSummaryViewed(ITEM_CATEGORY, item.getItemId(), request);
   }
 
   @Override
-  @Transactional
   public void logContentViewed(
       String category,
       ItemKey itemId,
       String contentType,
       String path,
       HttpServletRequest request) {
-    AuditLogJavaDao.logHttp(
+    logHttp(
         category,
         CONTENT_VIEWED_TYPE,
         itemId.getUuid(),
@@ -178,7 +181,6 @@ public class AuditLogServiceImpl implements AuditLogService {
   }
 
   @Override
-  @Transactional
   public void logItemContentViewed(
       ItemKey itemId,
       String contentType,
@@ -189,7 +191,6 @@ public class AuditLogServiceImpl implements AuditLogService {
   }
 
   @Override
-  @Transactional
   public void logItemPurged(Item item) {
     logGeneric(
         ITEM_CATEGORY,
@@ -220,19 +221,16 @@ public class AuditLogServiceImpl implements AuditLogService {
   }
 
   @Override
-  @Transactional
   public void logSearch(String type, String freeText, String within, long resultCount) {
     logGeneric(SEARCH_CATEGORY, type, freeText, within, Long.toString(resultCount), null);
   }
 
   @Override
-  @Transactional
   public void logFederatedSearch(String freeText, String searchId) {
     logGeneric(SEARCH_CATEGORY, SEARCH_FEDERATED_TYPE, freeText, searchId, null, null);
   }
 
   @Override
-  @Transactional
   public void logGeneric(String category, String type, String d1, String d2, String d3, String d4) {
     log(
         CurrentUser.getUserID(),
@@ -243,7 +241,30 @@ public class AuditLogServiceImpl implements AuditLogService {
         d2,
         d3,
         d4,
-        CurrentInstitution.get());
+        CurrentInstitution.get(),
+        null);
+  }
+
+  private void logHttp(
+      String category,
+      String type,
+      String d1,
+      String d2,
+      String d3,
+      String d4,
+      HttpServletRequest request) {
+    UserState us = CurrentUser.getUserState();
+    log(
+        us.getUserBean().getUniqueID(),
+        us.getSessionID(),
+        category,
+        type,
+        d1,
+        d2,
+        d3,
+        d4,
+        CurrentInstitution.get(),
+        request);
   }
 
   private void log(
@@ -255,8 +276,37 @@ public class AuditLogServiceImpl implements AuditLogService {
       String d2,
       String d3,
       String d4,
-      Institution institution) {
-    AuditLogJavaDao.log(userId, sessionId, category, type, d1, d2, d3, d4, institution);
+      Institution institution,
+      HttpServletRequest request) {
+    String referrer = request != null ? request.getHeader("Referer") : null;
+    auditLogWriter.write(
+        new QueuedAuditEntry(
+            userId,
+            sessionId,
+            category,
+            type,
+            d1,
+            d2,
+            d3,
+            d4,
+            referrer,
+            institution,
+            getDataSource(institution)));
+  }
+
+  /**
+   * The data source is captured when the entry is queued, since the writer thread has none. Outside
+   * of a request, such as in a scheduled task, it may not have been set for the calling thread
+   * either, so it comes from the institution's schema instead.
+   */
+  private DataSource getDataSource(Institution institution) {
+    DataSourceHolder current = CurrentDataSource.get();
+    if (current != null) {
+      return current.getDataSource();
+    }
+    return schemaDataSourceService
+        .getDataSourceForId(institutionService.getSchemaIdForInstitution(institution))
+        .getDataSource();
   }
 
   @Override
@@ -0,0 +1,234 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.auditlog.impl;
+
+import com.tle.core.application.StartupBean;
+import com.tle.core.auditlog.QueuedAuditEntry;
+import com.tle.core.guice.Bind;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import javax.sql.DataSource;
+import org.apache.log4j.Logger;
+
+/**
+ * Writes audit log entries from a dedicated thread so that the request doesn't wait for the insert.
+ * Entries are queued in a bounded buffer and written in batches, one transaction per batch and
+ * data source. What happens when the buffer is full is controlled by the {@link OverflowPolicy}
+ * configured in optional-config.properties. Entries are written on the calling thread until the
+ * writer has been started, and anything still queued when it stops is written before exiting.
+ */
+@Bind
+@Singleton
+@SuppressWarnings("nls")
+public class AuditLogWriter implements StartupBean {
+  private static final Logger LOGGER = Logger.getLogger(AuditLogWriter.class);
+
+  /** Inserts a batch of entries into their data source, in a single transaction. */
+  public interface Store {
+    void write(DataSource dataSource, List<QueuedAuditEntry> entries);
+  }
+
+  public enum OverflowPolicy {
+    /** Wait for space in the buffer */
+    BLOCK,
+    /** Discard the entry and count it */
+    DROP,
+    /** Write the entry on the calling thread */
+    SYNCHRONOUS
+  }
+
+  @Inject
+  @Named("auditlog.async.queueSize")
+  int queueSize;
+
+  @Inject
+  @Named("auditlog.async.batchSize")
+  int batchSize;
+
+  @Inject
+  @Named("auditlog.async.overflowPolicy")
+  String overflowPolicyName;
+
+  private final Store store;
+
+  private OverflowPolicy overflowPolicy;
+  private BlockingQueue<QueuedAuditEntry> queue;
+  private Thread writerThread;
+  private volatile boolean running;
+
+  private final AtomicLong written = new AtomicLong();
+  private final AtomicLong dropped = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+
+  @Inject
+  public AuditLogWriter(Store store) {
+    this.store = store;
+  }
+
+  @Override
+  public synchronized void startup() {
+    if (writerThread != null) {
+      return;
+    }
+    overflowPolicy = OverflowPolicy.valueOf(overflowPolicyName.trim().toUpperCase());
+    queue = new ArrayBlockingQueue<QueuedAuditEntry>(queueSize);
+    running = true;
+
+    writerThread = new Thread(this::writeLoop, "AuditLogWriter");
+    writerThread.setDaemon(true);
+    writerThread.start();
+    // The server doesn't stop its beans, so entries queued when it exits are written here
+    Runtime.getRuntime().addShutdownHook(new Thread(this::stop, "AuditLogWriter.stop"));
+  }
+
+  /** Stops the writer thread and writes everything still queued on the calling thread. */
+  public synchronized void stop() {
+    if (!running) {
+      return;
+    }
+    running = false;
+    writerThread.interrupt();
+    try {
+      writerThread.join(5000);
+    } catch (InterruptedException e) {
+      // Carry on and drain
+    }
+    flush();
+    LOGGER.info(
+        "Audit log writer stopped, "
+            + written.get()
+            + " entries written, "
+            + dropped.get()
+            + " dropped, "
+            + failed.get()
+            + " failed");
+  }
+
+  public void write(QueuedAuditEntry entry) {
+    if (!running) {
+      writeNow(Collections.singletonList(entry));
+      return;
+    }
+    if (queue.offer(entry)) {
+      return;
+    }
+    switch (overflowPolicy) {
+      case BLOCK:
+        try {
+          queue.put(entry);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          writeNow(Collections.singletonList(entry));
+        }
+        break;
+      case DROP:
+        long count = dropped.incrementAndGet();
+        if (count == 1 || count % 1000 == 0) {
+          LOGGER.warn("Audit log buffer is full, " + count + " entries have been dropped");
+        }
+        break;
+      default:
+        writeNow(Collections.singletonList(entry));
+    }
+  }
+
+  /** Writes everything currently queued on the calling thread. */
+  public void flush() {
+    if (queue == null) {
+      return;
+    }
+    List<QueuedAuditEntry> batch = new ArrayList<QueuedAuditEntry>();
+    while (queue.drainTo(batch, batchSize) > 0) {
+      writeBatch(batch);
+      batch.clear();
+    }
+  }
+
+  public long getWrittenCount() {
+    return written.get();
+  }
+
+  public long getDroppedCount() {
+    return dropped.get();
+  }
+
+  public long getFailedCount() {
+    return failed.get();
+  }
+
+  public int getQueueSize() {
+    return queue == null ? 0 : queue.size();
+  }
+
+  private void writeLoop() {
+    List<QueuedAuditEntry> batch = new ArrayList<QueuedAuditEntry>(batchSize);
+    while (running) {
+      try {
+        batch.add(queue.take());
+        queue.drainTo(batch, batchSize - 1);
+        writeBatch(batch);
+      } catch (InterruptedException e) {
+        break;
+      } catch (Throwable t) {
+        LOGGER.error("Error writing audit log entries", t);
+      } finally {
+        batch.clear();
+      }
+    }
+  }
+
+  private void writeBatch(List<QueuedAuditEntry> batch) {
+    Map<DataSource, List<QueuedAuditEntry>> byDataSource =
+        new LinkedHashMap<DataSource, List<QueuedAuditEntry>>();
+    for (QueuedAuditEntry entry : batch) {
+      byDataSource.computeIfAbsent(entry.getDataSource(), ds -> new ArrayList<>()).add(entry);
+    }
+    for (List<QueuedAuditEntry> entries : byDataSource.values()) {
+      try {
+        writeNow(entries);
+      } catch (RuntimeException e) {
+        // Don't let one bad entry lose the rest of the batch
+        LOGGER.warn("Failed to write batch of " + entries.size() + " audit entries, retrying", e);
+        for (QueuedAuditEntry entry : entries) {
+          try {
+            writeNow(Collections.singletonList(entry));
+          } catch (RuntimeException ex) {
+            failed.incrementAndGet();
+            LOGGER.error(
+                "Failed to write audit entry " + entry.getCategory() + "/" + entry.getType(), ex);
+          }
+        }
+      }
+    }
+  }
+
+  private void writeNow(List<QueuedAuditEntry> entries) {
+    store.write(entries.get(0).getDataSource(), entries);
+    written.addAndGet(entries.size());
+  }
+}
@@ -52,4 +52,7 @@ public interface EmailService {
   Future<EmailResult<String>> sendSystemEmail(String subject, String message);
 
   boolean hasMailSettings();
+
+  /** @return Counts of the emails sent, failed and retried, and the SMTP connections used */
+  String getDeliveryStatistics();
 }
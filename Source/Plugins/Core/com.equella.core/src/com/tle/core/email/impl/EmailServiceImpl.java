@@ -19,10 +19,14 @@
 package com.tle.core.email.impl;
 
 import com.dytech.edge.common.Constants;
+import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
+import com.google.common.hash.Hashing;
 import com.tle.common.Check;
+import com.tle.common.NamedThreadFactory;
 import com.tle.common.institution.CurrentInstitution;
 import com.tle.common.settings.standard.MailSettings;
+import com.tle.core.application.StartupBean;
 import com.tle.core.email.EmailResult;
 import com.tle.core.email.EmailService;
 import com.tle.core.encryption.EncryptionService;
@@ -30,6 +34,7 @@ import com.tle.core.guice.Bind;
 import com.tle.core.settings.service.ConfigurationService;
 import com.tle.core.system.SystemConfigService;
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
@@ -37,14 +42,17 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PostConstruct;
 import javax.inject.Inject;
+import javax.inject.Named;
 import javax.inject.Singleton;
 import javax.mail.Message;
 import javax.mail.Message.RecipientType;
 import javax.mail.MessagingException;
 import javax.mail.PasswordAuthentication;
 import javax.mail.Session;
-import javax.mail.Transport;
 import javax.mail.internet.AddressException;
 import javax.mail.internet.InternetAddress;
 import javax.mail.internet.MimeMessage;
@@ -52,7 +60,7 @@ import javax.mail.internet.MimeMessage;
 @Singleton
 @Bind(EmailService.class)
 @SuppressWarnings("nls")
-public class EmailServiceImpl implements EmailService {
+public class EmailServiceImpl implements EmailService, StartupBean {
   private static final String SMTP_AUTH_PROP = "mail.smtp.auth";
   private static final String SUBMITTER_PROP = "mail.smtp.submitter";
   private static final String XMAILER = "EQUELLA";
@@ -64,7 +72,33 @@ public class EmailServiceImpl implements EmailService {
   private static final String HTML_MIME_TYPE = "text/html; charset=UTF-8";
   private static final String TEXT_MIME_TYPE = "text/plain; charset=UTF-8";
 
-  private final ExecutorService emailThread = Executors.newSingleThreadExecutor();
+  @com.google.inject.Inject(optional = true)
+  @Named("email.smtpConnections")
+  private int smtpConnections = 4;
+
+  @com.google.inject.Inject(optional = true)
+  @Named("email.messagesPerConnection")
+  private int messagesPerConnection = 100;
+
+  @com.google.inject.Inject(optional = true)
+  @Named("email.connectionIdleSeconds")
+  private int connectionIdleSeconds = 30;
+
+  @com.google.inject.Inject(optional = true)
+  @Named("email.messagesPerSecond")
+  private int messagesPerSecond = 0;
+
+  @com.google.inject.Inject(optional = true)
+  @Named("email.retries")
+  private int retries = 3;
+
+  @com.google.inject.Inject(optional = true)
+  @Named("email.retryBackoffMillis")
+  private int retryBackoffMillis = 2000;
+
+  private ExecutorService emailThread;
+  private ScheduledExecutorService idleCloser;
+  private SmtpTransportPool transportPool;
 
   @Inject private EncryptionService encryptionService;
 
@@ -72,6 +106,46 @@ public class EmailServiceImpl implements EmailService {
 
   @Inject private SystemConfigService systemConfigService;
 
+  @PostConstruct
+  public void setupTransportPool() {
+    transportPool =
+        new SmtpTransportPool(
+            smtpConnections,
+            messagesPerConnection,
+            TimeUnit.SECONDS.toMillis(connectionIdleSeconds),
+            messagesPerSecond,
+            retries,
+            retryBackoffMillis);
+    emailThread =
+        Executors.newFixedThreadPool(
+            smtpConnections, new NamedThreadFactory("EmailServiceImpl.emailThread"));
+  }
+
+  @Override
+  public synchronized void startup() {
+    if (idleCloser != null) {
+      return;
+    }
+    // Connections are only checked for expiry when borrowed, so close them once mail stops
+    final long idleCheckSeconds = Math.max(1, connectionIdleSeconds);
+    idleCloser =
+        Executors.newSingleThreadScheduledExecutor(
+            new NamedThreadFactory("EmailServiceImpl.idleCloser"));
+    idleCloser.scheduleWithFixedDelay(
+        transportPool::closeExpired, idleCheckSeconds, idleCheckSeconds, TimeUnit.SECONDS);
+
+    // The server doesn't stop its beans, so connections open when it exits are closed here
+    Runtime.getRuntime().addShutdownHook(new Thread(this::stop, "EmailServiceImpl.stop"));
+  }
+
+  /** Stops checking for idle connections and closes those not in use. */
+  public synchronized void stop() {
+    if (idleCloser != null) {
+      idleCloser.shutdownNow();
+    }
+    transportPool.closeIdle();
+  }
+
   @Override
   public boolean isValidAddress(String emailAddress) {
     try {
@@ -117,6 +191,17 @@ public class EmailServiceImpl implements EmailService {
             "Incorrect mail settings - No server set on institution: "
                 + CurrentInstitution.get().getName());
       }
+      // Connections are only shared by messages sent to the same server as the same user, and
+      // connections made with an old password are not used once it changes
+      final String transportKey =
+          server
+              + '|'
+              + Strings.nullToEmpty(settings.getUsername())
+              + '|'
+              + Hashing.sha256()
+                  .hashString(Strings.nullToEmpty(settings.getPassword()), StandardCharsets.UTF_8)
+              + '|'
+              + senderEmail;
       int ind = server.indexOf(':');
       if (ind != -1) {
         props.put("mail.smtp.port", server.substring(ind + 1));
@@ -155,7 +240,7 @@ public class EmailServiceImpl implements EmailService {
       }
       mimeMessage.setHeader("Content-Type", type);
       mimeMessage.setContent(message, type);
-      return new EmailCallable<T>(mimeMessage, key);
+      return new EmailCallable<T>(transportPool, mailSession, transportKey, mimeMessage, key);
     } catch (UnsupportedEncodingException e) {
       throw new RuntimeException(e);
     } catch (MessagingException e) {
@@ -225,10 +310,21 @@ public class EmailServiceImpl implements EmailService {
   }
 
   public static class EmailCallable<T> implements Callable<EmailResult<T>> {
+    private final SmtpTransportPool transportPool;
+    private final Session session;
+    private final String transportKey;
     private final Message message;
     private final T key;
 
-    public EmailCallable(Message message, T key) {
+    public EmailCallable(
+        SmtpTransportPool transportPool,
+        Session session,
+        String transportKey,
+        Message message,
+        T key) {
+      this.transportPool = transportPool;
+      this.session = session;
+      this.transportKey = transportKey;
       this.message = message;
       this.key = key;
     }
@@ -236,7 +332,7 @@ public class EmailServiceImpl implements EmailService {
     @Override
     public EmailResult<T> call() throws Exception {
       try {
-        Transport.send(message);
+        transportPool.send(session, transportKey, message);
       } catch (Exception t) {
         return new EmailResult<T>(t, key);
       }
@@ -257,6 +353,11 @@ public class EmailServiceImpl implements EmailService {
     }
   }
 
+  @Override
+  public String getDeliveryStatistics() {
+    return transportPool.getStatistics();
+  }
+
   @Override
   public boolean hasMailSettings() {
     MailSettings ms = getMailSettings();
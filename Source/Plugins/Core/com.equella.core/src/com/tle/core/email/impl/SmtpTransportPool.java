@@ -0,0 +1,295 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.email.impl;
+
+import com.google.common.util.concurrent.RateLimiter;
+import com.sun.mail.smtp.SMTPAddressFailedException;
+import com.sun.mail.smtp.SMTPSendFailedException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.mail.AuthenticationFailedException;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import org.apache.log4j.Logger;
+
+/**
+ * Sends messages over a bounded set of SMTP connections which are kept open between messages, so
+ * that sending many emails does not connect, say hello and authenticate for every one of them.
+ * Connections are kept per mail server and account, and are closed after a number of messages or
+ * once they have been idle for a while, since many servers limit both.
+ *
+ * <p>Messages that fail with a connection error or a temporary (4xx) reply are retried on a fresh
+ * connection, waiting twice as long before each retry. Permanent failures, such as rejected
+ * addresses, are not retried.
+ */
+@SuppressWarnings("nls")
+public class SmtpTransportPool {
+  private static final Logger LOGGER = Logger.getLogger(SmtpTransportPool.class);
+
+  private static final int LOG_EVERY = 1000;
+
+  private final int maxConnections;
+  private final int maxMessagesPerConnection;
+  private final long maxIdleMillis;
+  private final int retries;
+  private final long backoffMillis;
+  private final RateLimiter rateLimiter;
+
+  private final Semaphore permits;
+  private final Deque<PooledTransport> idle = new ArrayDeque<PooledTransport>();
+  private int open;
+
+  private final AtomicLong sent = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+  private final AtomicLong retried = new AtomicLong();
+  private final AtomicLong connections = new AtomicLong();
+  private final AtomicLong sendMillis = new AtomicLong();
+  private final AtomicLong throttledMillis = new AtomicLong();
+
+  /** @param ratePerSecond The most messages sent each second, or zero for no limit */
+  public SmtpTransportPool(
+      int maxConnections,
+      int maxMessagesPerConnection,
+      long maxIdleMillis,
+      int ratePerSecond,
+      int retries,
+      long backoffMillis) {
+    this.maxConnections = Math.max(1, maxConnections);
+    this.maxMessagesPerConnection = maxMessagesPerConnection;
+    this.maxIdleMillis = maxIdleMillis;
+    this.retries = retries;
+    this.backoffMillis = backoffMillis;
+    this.rateLimiter = ratePerSecond > 0 ? RateLimiter.create(ratePerSecond) : null;
+    this.permits = new Semaphore(this.maxConnections, true);
+  }
+
+  /**
+   * @param server Identifies the server and account the session connects to, connections are only
+   *     reused for messages with the same server
+   */
+  public void send(Session session, String server, Message message)
+      throws MessagingException, InterruptedException {
+    if (rateLimiter != null) {
+      throttledMillis.addAndGet((long) (rateLimiter.acquire() * 1000));
+    }
+    // Transport.send() does this, Transport.sendMessage() does not
+    message.saveChanges();
+
+    final long start = System.currentTimeMillis();
+    for (int attempt = 0; ; attempt++) {
+      permits.acquire();
+      PooledTransport pt = null;
+      boolean ok = false;
+      try {
+        pt = take(session, server);
+        pt.transport.sendMessage(message, message.getAllRecipients());
+        pt.messages++;
+        ok = true;
+        sendMillis.addAndGet(System.currentTimeMillis() - start);
+        if (sent.incrementAndGet() % LOG_EVERY == 0) {
+          LOGGER.info("SMTP delivery " + getStatistics());
+        }
+        return;
+      } catch (MessagingException e) {
+        if (attempt >= retries || !isTransient(e)) {
+          failed.incrementAndGet();
+          throw e;
+        }
+        retried.incrementAndGet();
+        LOGGER.debug("Retrying message to " + server + " after: " + e.getMessage());
+      } finally {
+        if (pt != null) {
+          release(pt, ok);
+        }
+        permits.release();
+      }
+      Thread.sleep(backoffMillis << Math.min(attempt, 16));
+    }
+  }
+
+  static boolean isTransient(MessagingException e) {
+    if (e instanceof SMTPSendFailedException) {
+      return isTemporaryReply(((SMTPSendFailedException) e).getReturnCode());
+    }
+    if (e instanceof SendFailedException) {
+      final Exception next = e.getNextException();
+      if (next instanceof SMTPAddressFailedException) {
+        return isTemporaryReply(((SMTPAddressFailedException) next).getReturnCode());
+      }
+      return ((SendFailedException) e).getInvalidAddresses() == null;
+    }
+    return !(e instanceof AuthenticationFailedException);
+  }
+
+  private static boolean isTemporaryReply(int code) {
+    return code >= 400 && code < 500;
+  }
+
+  private PooledTransport take(Session session, String server) throws MessagingException {
+    final long now = System.currentTimeMillis();
+    PooledTransport reuse = null;
+    synchronized (this) {
+      closeExpired(now);
+      final Iterator<PooledTransport> iter = idle.iterator();
+      while (reuse == null && iter.hasNext()) {
+        final PooledTransport pt = iter.next();
+        if (pt.server.equals(server)) {
+          iter.remove();
+          reuse = pt;
+        }
+      }
+      if (reuse == null && open >= maxConnections && !idle.isEmpty()) {
+        // Make room by closing the least recently used connection to another server
+        close(idle.pollLast());
+      }
+      if (reuse == null) {
+        open++;
+      }
+    }
+
+    // isConnected() sends a NOOP, which finds connections the server has dropped
+    if (reuse != null && reuse.transport.isConnected()) {
+      return reuse;
+    }
+    if (reuse != null) {
+      close(reuse.transport);
+    }
+
+    try {
+      final Transport transport = session.getTransport();
+      transport.connect();
+      connections.incrementAndGet();
+      return new PooledTransport(server, transport);
+    } catch (MessagingException | RuntimeException e) {
+      synchronized (this) {
+        open--;
+      }
+      throw e;
+    }
+  }
+
+  private void release(PooledTransport pt, boolean ok) {
+    if (ok && pt.messages < maxMessagesPerConnection) {
+      synchronized (this) {
+        pt.since = System.currentTimeMillis();
+        idle.addFirst(pt);
+      }
+    } else {
+      synchronized (this) {
+        close(pt);
+      }
+    }
+  }
+
+  /**
+   * Closes the connections which have been idle for longer than allowed. Called periodically, so
+   * that connections are not left open once no more mail is being sent.
+   */
+  public synchronized void closeExpired() {
+    closeExpired(System.currentTimeMillis());
+  }
+
+  /** Must be called holding the lock on this */
+  private void closeExpired(long now) {
+    // The least recently used are at the end
+    PooledTransport pt;
+    while ((pt = idle.peekLast()) != null && now - pt.since > maxIdleMillis) {
+      close(idle.pollLast());
+    }
+  }
+
+  /** Closes idle connections. Connections in use are closed when they are returned. */
+  public synchronized void closeIdle() {
+    PooledTransport pt;
+    while ((pt = idle.pollFirst()) != null) {
+      close(pt);
+    }
+  }
+
+  /** Must be called holding the lock on this */
+  private void close(PooledTransport pt) {
+    open--;
+    close(pt.transport);
+  }
+
+  private static void close(Transport transport) {
+    try {
+      transport.close();
+    } catch (MessagingException e) {
+      LOGGER.debug("Error closing SMTP connection", e);
+    }
+  }
+
+  public long getSent() {
+    return sent.get();
+  }
+
+  public long getFailed() {
+    return failed.get();
+  }
+
+  public long getRetried() {
+    return retried.get();
+  }
+
+  /** @return Connections opened, including those since closed */
+  public long getConnections() {
+    return connections.get();
+  }
+
+  public synchronized int getOpen() {
+    return open;
+  }
+
+  public String getStatistics() {
+    final long count = sent.get();
+    return "sent="
+        + count
+        + " failed="
+        + failed.get()
+        + " retried="
+        + retried.get()
+        + " connections="
+        + connections.get()
+        + " open="
+        + getOpen()
+        + " avgSendMillis="
+        + (count == 0 ? 0 : sendMillis.get() / count)
+        + " throttledMillis="
+        + throttledMillis.get();
+  }
+
+  private static final class PooledTransport {
+    final String server;
+    final Transport transport;
+    int messages;
+    long since;
+
+    PooledTransport(String server, Transport transport) {
+      this.server = server;
+      this.transport = transport;
+    }
+  }
+}
@@ -21,12 +21,27 @@ package com.tle.core.freetext.extracter.standard;
 import com.tle.beans.mime.MimeEntry;
 import com.tle.core.TextExtracterExtension;
 import com.tle.core.plugins.AbstractPluginService;
+import java.io.IOException;
+import org.apache.tika.config.TikaConfig;
+import org.apache.tika.exception.TikaException;
+import org.apache.tika.parser.AutoDetectParser;
+import org.apache.tika.parser.Parser;
 
 /** @author aholland */
 public abstract class AbstractTextExtracterExtension implements TextExtracterExtension {
   private static String PFX_KEY =
       AbstractPluginService.getMyPluginId(AbstractTextExtracterExtension.class) + ".";
 
+  /** Thread-safe, so it is built once for each extracter rather than for every file. */
+  private Parser autoDetectParser;
+
+  protected synchronized Parser getAutoDetectParser() throws TikaException, IOException {
+    if (autoDetectParser == null) {
+      autoDetectParser = new AutoDetectParser(new TikaConfig(getClass().getClassLoader()));
+    }
+    return autoDetectParser;
+  }
+
   protected String getKey() {
     return this.getClass().getSimpleName();
   }
@@ -23,11 +23,8 @@ import com.tle.core.guice.Bind;
 import java.io.IOException;
 import java.io.InputStream;
 import javax.inject.Singleton;
-import org.apache.tika.config.TikaConfig;
 import org.apache.tika.metadata.Metadata;
-import org.apache.tika.parser.AutoDetectParser;
 import org.apache.tika.parser.ParseContext;
-import org.apache.tika.parser.Parser;
 import org.apache.tika.sax.BodyContentHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -52,8 +49,7 @@ public class MsExcelExtracter extends AbstractTextExtracterExtension {
     try {
       Metadata meta = new Metadata();
       ContentHandler handler = new BodyContentHandler();
-      Parser parser = new AutoDetectParser(new TikaConfig(getClass().getClassLoader()));
-      parser.parse(input, handler, meta, new ParseContext());
+      getAutoDetectParser().parse(input, handler, meta, new ParseContext());
 
       String content = handler.toString();
 
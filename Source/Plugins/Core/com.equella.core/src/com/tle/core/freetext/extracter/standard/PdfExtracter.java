@@ -25,11 +25,8 @@ import com.tle.core.guice.Bind;
 import java.io.IOException;
 import java.io.InputStream;
 import javax.inject.Singleton;
-import org.apache.tika.config.TikaConfig;
 import org.apache.tika.metadata.Metadata;
-import org.apache.tika.parser.AutoDetectParser;
 import org.apache.tika.parser.ParseContext;
-import org.apache.tika.parser.Parser;
 import org.apache.tika.sax.WriteOutContentHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -55,8 +52,7 @@ public class PdfExtracter extends AbstractTextExtracterExtension {
     ContentHandler handler = new CappedBodyContentHandler(wrapped, parseDuration);
     try {
       Metadata meta = new Metadata();
-      Parser parser = new AutoDetectParser(new TikaConfig(getClass().getClassLoader()));
-      parser.parse(input, handler, meta, new ParseContext());
+      getAutoDetectParser().parse(input, handler, meta, new ParseContext());
 
       appendText(handler, outputText, maxSize);
 
@@ -0,0 +1,185 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.freetext.filters;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import com.tle.annotation.NonNullByDefault;
+import com.tle.annotation.Nullable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.log4j.Logger;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.util.OpenBitSet;
+
+/**
+ * Caches the bitsets built by {@link SecurityFilter} per index segment. Entries are keyed on the
+ * segment core cache key and a signature of the user's ACL expressions, so a segment that has not
+ * changed is reused across NRT reopens, and users with the same expressions share an entry. Once
+ * the bitsets pass the size limit the least recently used are evicted first.
+ *
+ * <p>The cached bitsets are shared and must not be modified.
+ */
+@SuppressWarnings("nls")
+@NonNullByDefault
+public class SecurityBitSetCache {
+  private static final Logger LOGGER = Logger.getLogger(SecurityBitSetCache.class);
+
+  public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+  private final AtomicLong segmentIds = new AtomicLong();
+
+  /**
+   * Numbers each live segment core. Once a segment is merged away its core key is collected, and
+   * the bitsets cached against its number are dropped.
+   */
+  private final LoadingCache<Object, Long> segments =
+      CacheBuilder.newBuilder()
+          .weakKeys()
+          .removalListener(
+              new RemovalListener<Object, Long>() {
+                @Override
+                public void onRemoval(RemovalNotification<Object, Long> notification) {
+                  dropSegment(notification.getValue());
+                }
+              })
+          .build(
+              new CacheLoader<Object, Long>() {
+                @Override
+                public Long load(Object coreKey) {
+                  return segmentIds.incrementAndGet();
+                }
+              });
+
+  private final Cache<EntryKey, OpenBitSet> bitSets;
+
+  public SecurityBitSetCache() {
+    this(DEFAULT_MAX_BYTES);
+  }
+
+  public SecurityBitSetCache(long maxBytes) {
+    bitSets =
+        CacheBuilder.newBuilder()
+            .maximumWeight(maxBytes)
+            .weigher(
+                new Weigher<EntryKey, OpenBitSet>() {
+                  @Override
+                  public int weigh(EntryKey key, OpenBitSet value) {
+                    return (int) Math.min(Integer.MAX_VALUE, sizeInBytes(key, value));
+                  }
+                })
+            .recordStats()
+            .build();
+  }
+
+  /**
+   * @param segment The reader the bitset is built against, ideally a single segment
+   * @param signature Identifies the ACL expressions (and owner where it matters) the bitset
+   *     depends on
+   * @param builder Builds the bitset on a cache miss
+   */
+  public OpenBitSet get(IndexReader segment, String signature, Callable<OpenBitSet> builder)
+      throws IOException {
+    final Long segmentId = segments.getUnchecked(segment.getCoreCacheKey());
+    try {
+      return bitSets.get(new EntryKey(segmentId, signature), builder);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  /** @return An estimate of the heap used by all cached bitsets, in bytes */
+  public long getMemoryUsage() {
+    long total = 0;
+    for (Map.Entry<EntryKey, OpenBitSet> entry : bitSets.asMap().entrySet()) {
+      total += sizeInBytes(entry.getKey(), entry.getValue());
+    }
+    return total;
+  }
+
+  /** @return The fraction of lookups served from the cache, or 0 if there have been none */
+  public double getHitRate() {
+    CacheStats stats = bitSets.stats();
+    return stats.requestCount() == 0 ? 0 : stats.hitRate();
+  }
+
+  public void clear() {
+    bitSets.invalidateAll();
+    segments.invalidateAll();
+  }
+
+  private void dropSegment(@Nullable Long segmentId) {
+    if (segmentId == null) {
+      return;
+    }
+    int dropped = 0;
+    Iterator<EntryKey> keys = bitSets.asMap().keySet().iterator();
+    while (keys.hasNext()) {
+      if (keys.next().segmentId == segmentId.longValue()) {
+        keys.remove();
+        dropped++;
+      }
+    }
+    if (dropped > 0 && LOGGER.isDebugEnabled()) {
+      LOGGER.debug("Dropped " + dropped + " security bitsets for a closed segment");
+    }
+  }
+
+  private static long sizeInBytes(EntryKey key, OpenBitSet bits) {
+    // The words of the bitset plus the signature chars and object headers
+    return 8L * bits.getNumWords() + 2L * key.signature.length() + 64;
+  }
+
+  private static final class EntryKey {
+    final long segmentId;
+    final String signature;
+
+    EntryKey(long segmentId, String signature) {
+      this.segmentId = segmentId;
+      this.signature = signature;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * Long.hashCode(segmentId) + signature.hashCode();
+    }
+
+    @Override
+    public boolean equals(@Nullable Object obj) {
+      if (!(obj instanceof EntryKey)) {
+        return false;
+      }
+      EntryKey other = (EntryKey) obj;
+      return segmentId == other.segmentId && signature.equals(other.signature);
+    }
+  }
+}
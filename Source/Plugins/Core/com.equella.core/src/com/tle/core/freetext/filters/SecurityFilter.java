@@ -19,6 +19,7 @@
 package com.tle.core.freetext.filters;
 
 import com.dytech.edge.queries.FreeTextQuery;
+import com.tle.annotation.Nullable;
 import com.tle.common.usermanagement.user.CurrentUser;
 import com.tle.common.usermanagement.user.UserState;
 import java.io.IOException;
@@ -36,6 +37,7 @@ import org.apache.lucene.search.DocIdSet;
 import org.apache.lucene.search.Filter;
 import org.apache.lucene.util.OpenBitSet;
 
+@SuppressWarnings("nls")
 public class SecurityFilter extends Filter {
   private static final long serialVersionUID = 1L;
 
@@ -47,12 +49,25 @@ public class SecurityFilter extends Filter {
   private TermValueComparator comparator = new TermValueComparator();
   private int ownerSizes;
   private boolean systemUser;
+  private String userId;
+  private String signature;
+  @Nullable private transient SecurityBitSetCache cache;
 
   public SecurityFilter(String aclType) {
+    this(aclType, null);
+  }
+
+  /**
+   * @param cache Shares the bitset for each segment with other filters for the same ACL
+   *     expressions, may be null to always build it
+   */
+  public SecurityFilter(String aclType, @Nullable SecurityBitSetCache cache) {
+    this.cache = cache;
     ownerExprMap = new HashMap<String, Boolean>();
 
     UserState userState = CurrentUser.getUserState();
     systemUser = userState.isSystem();
+    userId = CurrentUser.getUserID();
     Collection<Long> aclExpressions = userState.getCommonAclExpressions();
     Collection<Long> ownerAclExpressions = userState.getOwnerAclExpressions();
     Collection<Long> notOwnerAclExpressions = userState.getNotOwnerAclExpressions();
@@ -83,8 +98,36 @@ public class SecurityFilter extends Filter {
         ownerExprMap.put(aclStr, false);
       }
     }
+
+    signature =
+        systemUser
+            ? "*"
+            : aclType
+                + canonical(aclExpressions)
+                + '/'
+                + canonical(ownerAclExpressions)
+                + '/'
+                + canonical(notOwnerAclExpressions)
+                + (ownerSizes > 0 ? '@' + userId : "");
+  }
+
+  /**
+   * The order of the expressions makes no difference to the results, so they are sorted to let
+   * users with the same expressions share cached bitsets.
+   */
+  private static String canonical(@Nullable Collection<Long> expressions) {
+    return expressions == null ? "" : new TreeSet<Long>(expressions).toString();
   }
 
+  /** @return Filters with the same signature match the same documents */
+  public String getSignature() {
+    return signature;
+  }
+
+  /**
+   * @return The bitset from the last call to getDocIdSet, which may be shared through the cache and
+   *     must not be modified
+   */
   public OpenBitSet getResults() {
     return results;
   }
@@ -94,15 +137,33 @@ public class SecurityFilter extends Filter {
   }
 
   @Override
-  public DocIdSet getDocIdSet(IndexReader reader) throws IOException {
+  public DocIdSet getDocIdSet(final IndexReader reader) throws IOException {
     final int max = reader.maxDoc();
-    results = new OpenBitSet(max);
+    if (cache == null) {
+      results = buildResults(reader);
+    } else {
+      results = cache.get(reader, signature, () -> buildResults(reader));
+    }
+
+    // If we are only collecting results, we return a full bitset to match
+    // every document.
+    if (onlyCollectResults) {
+      OpenBitSet fullBitSet = new OpenBitSet(max);
+      fullBitSet.set(0, max);
+      return fullBitSet;
+    } else {
+      return results;
+    }
+  }
+
+  private OpenBitSet buildResults(IndexReader reader) throws IOException {
+    final int max = reader.maxDoc();
+    final OpenBitSet results = new OpenBitSet(max);
 
     if (!systemUser) {
       OpenBitSet owned = new OpenBitSet(max);
       if (ownerSizes > 0) {
-        TermDocs odocs =
-            reader.termDocs(new Term(FreeTextQuery.FIELD_OWNER, CurrentUser.getUserID()));
+        TermDocs odocs = reader.termDocs(new Term(FreeTextQuery.FIELD_OWNER, userId));
         while (odocs.next()) {
           owned.set(odocs.doc());
         }
@@ -153,16 +214,7 @@ public class SecurityFilter extends Filter {
       }
       docs.close();
     }
-
-    // If we are only collecting results, we return a full bitset to match
-    // every document.
-    if (onlyCollectResults) {
-      OpenBitSet fullBitSet = new OpenBitSet(max);
-      fullBitSet.set(0, max);
-      return fullBitSet;
-    } else {
-      return results;
-    }
+    return results;
   }
 
   public static class TermValueComparator implements Comparator<Term>, Serializable {
@@ -36,6 +36,17 @@ public class FreetextModule extends PropertiesModule {
     bindBoolean("textExtracter.indexAttachments");
     bindBoolean("textExtracter.indexImsPackages");
     bindLong("textExtracter.parseDurationCap");
+    bindLong("textExtracter.cacheSizeMB");
+    bindBoolean("textExtracter.cacheEnabled");
+    bindInt("textExtracter.threads");
+    bindInt("textExtracter.threadsPerFormat");
+    bindInt("textExtracter.slowPathThreads");
+    bindLong("textExtracter.slowPathBytes");
+    bindLong("textExtracter.maxFileBytes");
+    bindBoolean("freetextIndex.legacyMatrixSearch");
+    bindLong("freetextIndex.securityCacheBytes");
+    bindInt("freetextIndex.resultCacheSize");
+    bindProp("freetextIndex.resultCacheDisabledTypes");
     install(new FreetextMandatoryModule());
     install(new FreetextOptionalModule());
   }
@@ -191,6 +191,11 @@ public abstract class AbstractIndexEngine {
     }
   }
 
+  /** @return A generation that any searcher acquired from now on includes the changes up to */
+  protected long getSearchingGeneration() {
+    return nrtManager.getCurrentSearchingGen();
+  }
+
   public void setStopWordsFile(File stopWordsFile) {
     this.stopWordsFile = stopWordsFile;
   }
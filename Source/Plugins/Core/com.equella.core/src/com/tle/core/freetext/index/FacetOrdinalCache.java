@@ -0,0 +1,278 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.freetext.index;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.tle.annotation.NonNullByDefault;
+import com.tle.core.freetext.filters.XPathFieldIterator;
+import it.uniroma3.mat.extendedset.intset.ConciseSet;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import org.apache.log4j.Logger;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.util.OpenBitSet;
+import org.apache.lucene.util.ReaderUtil;
+
+/**
+ * Caches the terms of a facet field per index segment, along with the term ordinals of each
+ * document in that segment. Segments are keyed on their core cache key, so an entry survives NRT
+ * reopens for as long as the segment itself is live, and is dropped once the segment is merged
+ * away. Documents deleted after a segment has been cached remain in it, but are never matched by a
+ * search so they do not affect the counts.
+ */
+@SuppressWarnings("nls")
+@NonNullByDefault
+public class FacetOrdinalCache {
+  private static final Logger LOGGER = Logger.getLogger(FacetOrdinalCache.class);
+
+  private final LoadingCache<Object, Cache<String, SegmentOrdinals>> segments =
+      CacheBuilder.newBuilder()
+          .weakKeys()
+          .build(
+              new CacheLoader<Object, Cache<String, SegmentOrdinals>>() {
+                @Override
+                public Cache<String, SegmentOrdinals> load(Object coreKey) {
+                  return CacheBuilder.newBuilder().build();
+                }
+              });
+
+  /**
+   * Counts the matching documents for each term of the field, visiting each matching document
+   * only once.
+   *
+   * @param reader The top level reader the matching docs were collected against
+   * @param field The field, which may contain [] xpath patterns
+   * @param matchingDocs Top level document ids to be counted
+   * @return Counts greater than zero, in term order
+   */
+  public SortedMap<Term, Integer> count(IndexReader reader, String field, OpenBitSet matchingDocs)
+      throws IOException {
+    final SortedMap<Term, Integer> counts = new TreeMap<Term, Integer>();
+
+    final List<IndexReader> subReaders = new ArrayList<IndexReader>();
+    ReaderUtil.gatherSubReaders(subReaders, reader);
+
+    int docBase = 0;
+    for (IndexReader segment : subReaders) {
+      final int maxDoc = segment.maxDoc();
+      final SegmentOrdinals ordinals = getOrdinals(segment, field);
+      if (ordinals.terms.length > 0) {
+        final int[] termCounts = new int[ordinals.terms.length];
+        final int end = docBase + maxDoc;
+        for (int doc = matchingDocs.nextSetBit(docBase);
+            doc >= 0 && doc < end;
+            doc = matchingDocs.nextSetBit(doc + 1)) {
+          final int segDoc = doc - docBase;
+          for (int i = ordinals.docStarts[segDoc]; i < ordinals.docStarts[segDoc + 1]; i++) {
+            termCounts[ordinals.ords[i]]++;
+          }
+        }
+
+        for (int ord = 0; ord < termCounts.length; ord++) {
+          final int count = termCounts[ord];
+          if (count > 0) {
+            final Term term = ordinals.terms[ord];
+            final Integer existing = counts.get(term);
+            counts.put(term, existing == null ? count : existing + count);
+          }
+        }
+      }
+      docBase += maxDoc;
+    }
+    return counts;
+  }
+
+  /**
+   * Collects the matching documents for each term of the field into compressed sets, visiting each
+   * matching document only once.
+   *
+   * @param fieldDocs Receives every matching document which has at least one term in the field
+   * @return Non-empty doc sets, in term order
+   */
+  public SortedMap<Term, ConciseSet> docSets(
+      IndexReader reader, String field, OpenBitSet matchingDocs, ConciseSet fieldDocs)
+      throws IOException {
+    final SortedMap<Term, ConciseSet> sets = new TreeMap<Term, ConciseSet>();
+
+    final List<IndexReader> subReaders = new ArrayList<IndexReader>();
+    ReaderUtil.gatherSubReaders(subReaders, reader);
+
+    // Docs are visited in ascending order so every add is an append to the compressed sets
+    int docBase = 0;
+    for (IndexReader segment : subReaders) {
+      final int maxDoc = segment.maxDoc();
+      final SegmentOrdinals ordinals = getOrdinals(segment, field);
+      if (ordinals.terms.length > 0) {
+        final ConciseSet[] termSets = new ConciseSet[ordinals.terms.length];
+        final int end = docBase + maxDoc;
+        for (int doc = matchingDocs.nextSetBit(docBase);
+            doc >= 0 && doc < end;
+            doc = matchingDocs.nextSetBit(doc + 1)) {
+          final int segDoc = doc - docBase;
+          final int start = ordinals.docStarts[segDoc];
+          final int stop = ordinals.docStarts[segDoc + 1];
+          if (start < stop) {
+            fieldDocs.add(doc);
+          }
+          for (int i = start; i < stop; i++) {
+            final int ord = ordinals.ords[i];
+            ConciseSet set = termSets[ord];
+            if (set == null) {
+              final Term term = ordinals.terms[ord];
+              set = sets.get(term);
+              if (set == null) {
+                set = new ConciseSet();
+                sets.put(term, set);
+              }
+              termSets[ord] = set;
+            }
+            set.add(doc);
+          }
+        }
+      }
+      docBase += maxDoc;
+    }
+    return sets;
+  }
+
+  /** @return An estimate of the heap used by all cached segments, in bytes */
+  public long getMemoryUsage() {
+    long total = 0;
+    for (Cache<String, SegmentOrdinals> fields : segments.asMap().values()) {
+      for (SegmentOrdinals ordinals : fields.asMap().values()) {
+        total += ordinals.sizeInBytes();
+      }
+    }
+    return total;
+  }
+
+  public void clear() {
+    segments.invalidateAll();
+  }
+
+  private SegmentOrdinals getOrdinals(final IndexReader segment, final String field)
+      throws IOException {
+    try {
+      return segments
+          .getUnchecked(segment.getCoreCacheKey())
+          .get(
+              field,
+              () -> {
+                SegmentOrdinals ordinals = SegmentOrdinals.build(segment, field);
+                if (LOGGER.isDebugEnabled()) {
+                  LOGGER.debug(
+                      "Cached "
+                          + ordinals.terms.length
+                          + " facet terms for "
+                          + field
+                          + " ("
+                          + ordinals.sizeInBytes()
+                          + " bytes), total facet cache size is "
+                          + getMemoryUsage()
+                          + " bytes");
+                }
+                return ordinals;
+              });
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  /**
+   * The terms of a field in a single segment, with the ordinals for each document stored in
+   * compressed row form: the ordinals of document d are ords[docStarts[d]] to
+   * ords[docStarts[d+1]-1].
+   */
+  static final class SegmentOrdinals {
+    final Term[] terms;
+    final int[] docStarts;
+    final int[] ords;
+
+    private SegmentOrdinals(Term[] terms, int[] docStarts, int[] ords) {
+      this.terms = terms;
+      this.docStarts = docStarts;
+      this.ords = ords;
+    }
+
+    static SegmentOrdinals build(IndexReader segment, String field) throws IOException {
+      final int maxDoc = segment.maxDoc();
+      final List<Term> terms = new ArrayList<Term>();
+      for (Term term : new XPathFieldIterator(segment, field, "")) {
+        terms.add(term);
+      }
+
+      // First pass counts the terms per doc, second pass fills in the ordinals
+      final int[] docStarts = new int[maxDoc + 1];
+      final int[] docs = new int[64];
+      final int[] freqs = new int[64];
+      TermDocs termDocs = segment.termDocs();
+      try {
+        for (Term term : terms) {
+          termDocs.seek(term);
+          int read;
+          while ((read = termDocs.read(docs, freqs)) > 0) {
+            for (int i = 0; i < read; i++) {
+              docStarts[docs[i] + 1]++;
+            }
+          }
+        }
+        for (int doc = 0; doc < maxDoc; doc++) {
+          docStarts[doc + 1] += docStarts[doc];
+        }
+
+        final int[] ords = new int[docStarts[maxDoc]];
+        final int[] filled = new int[maxDoc];
+        for (int ord = 0; ord < terms.size(); ord++) {
+          termDocs.seek(terms.get(ord));
+          int read;
+          while ((read = termDocs.read(docs, freqs)) > 0) {
+            for (int i = 0; i < read; i++) {
+              final int doc = docs[i];
+              ords[docStarts[doc] + filled[doc]++] = ord;
+            }
+          }
+        }
+        return new SegmentOrdinals(terms.toArray(new Term[terms.size()]), docStarts, ords);
+      } finally {
+        termDocs.close();
+      }
+    }
+
+    long sizeInBytes() {
+      long size = 4L * (docStarts.length + ords.length);
+      for (Term term : terms) {
+        // Object headers plus the chars of the text, the field name is interned and shared
+        size += 64 + 2L * term.text().length();
+      }
+      return size;
+    }
+  }
+}
@@ -22,17 +22,24 @@ import com.dytech.edge.exceptions.InvalidDateRangeException;
 import com.dytech.edge.exceptions.InvalidSearchQueryException;
 import com.dytech.edge.exceptions.RuntimeApplicationException;
 import com.dytech.edge.queries.FreeTextQuery;
+import com.google.common.base.Splitter;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
 import com.tle.annotation.NonNullByDefault;
 import com.tle.annotation.Nullable;
 import com.tle.beans.item.ItemId;
 import com.tle.beans.item.ItemIdKey;
 import com.tle.common.Check;
 import com.tle.common.Pair;
+import com.tle.common.institution.CurrentInstitution;
 import com.tle.common.searching.DateFilter.Format;
 import com.tle.common.searching.Field;
 import com.tle.common.searching.Search;
@@ -47,6 +54,7 @@ import com.tle.core.freetext.filters.DateFilter;
 import com.tle.core.freetext.filters.InstitutionFilter;
 import com.tle.core.freetext.filters.MustFilter;
 import com.tle.core.freetext.filters.MustNotFilter;
+import com.tle.core.freetext.filters.SecurityBitSetCache;
 import com.tle.core.freetext.filters.SecurityFilter;
 import com.tle.core.freetext.filters.XPathFieldIterator;
 import com.tle.core.freetext.queries.FreeTextAutocompleteQuery;
@@ -62,12 +70,14 @@ import com.tle.freetext.LuceneConstants;
 import com.tle.freetext.TLEQueryParser;
 import it.uniroma3.mat.extendedset.intset.ConciseSet;
 import it.uniroma3.mat.extendedset.intset.FastSet;
+import it.uniroma3.mat.extendedset.intset.IntSet.IntIterator;
 import it.uniroma3.mat.extendedset.wrappers.LongSet;
 import java.io.IOException;
 import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -76,9 +86,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import java.util.regex.Pattern;
 import javax.annotation.PostConstruct;
-import javax.inject.Inject;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
@@ -97,6 +108,7 @@ import org.apache.lucene.queryParser.QueryParser.Operator;
 import org.apache.lucene.search.BooleanClause;
 import org.apache.lucene.search.BooleanClause.Occur;
 import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.CachingWrapperFilter;
 import org.apache.lucene.search.ChainedFilter;
 import org.apache.lucene.search.Collector;
 import org.apache.lucene.search.DocIdSetIterator;
@@ -143,7 +155,7 @@ public abstract class ItemIndex<T extends FreetextResult> extends AbstractIndexE
           "DOWNLOAD_ITEM",
           "ACLL-");
 
-  @Inject private FreetextIndex freetextIndex;
+  @Inject FreetextIndex freetextIndex;
 
   private float titleBoost;
   private float descriptionBoost;
@@ -154,6 +166,34 @@ public abstract class ItemIndex<T extends FreetextResult> extends AbstractIndexE
 
   private FieldSelector keyFieldSelector;
 
+  private final FacetOrdinalCache facetOrdinals = new FacetOrdinalCache();
+
+  @Inject(optional = true)
+  @Named("freetextIndex.legacyMatrixSearch")
+  private boolean legacyMatrixSearch;
+
+  @Inject(optional = true)
+  @Named("freetextIndex.securityCacheBytes")
+  private long securityCacheBytes = SecurityBitSetCache.DEFAULT_MAX_BYTES;
+
+  private SecurityBitSetCache securityBitSets;
+
+  @Inject(optional = true)
+  @Named("freetextIndex.resultCacheSize")
+  private int resultCacheSize = SearchResultCache.DEFAULT_MAX_RESULTS;
+
+  /** Comma separated search types whose results are never cached */
+  @Inject(optional = true)
+  @Named("freetextIndex.resultCacheDisabledTypes")
+  private String resultCacheDisabledTypes = "";
+
+  @Nullable private SearchResultCache<T> resultCache;
+  private Set<String> resultCacheDisabled;
+
+  /** Counts from {@link #count(List, List, boolean)}, keyed by the version of the index counted */
+  private final Cache<String, Integer> counts =
+      CacheBuilder.newBuilder().maximumSize(10000).expireAfterWrite(10, TimeUnit.MINUTES).build();
+
   @PostConstruct
   @Override
   public void afterPropertiesSet() throws IOException {
@@ -161,6 +201,12 @@ public abstract class ItemIndex<T extends FreetextResult> extends AbstractIndexE
     setDefaultOperator(freetextIndex.getDefaultOperator());
     setAnalyzerLanguage(freetextIndex.getAnalyzerLanguage());
     keyFieldSelector = new SetBasedFieldSelector(getKeyFields(), new HashSet<String>());
+    securityBitSets = new SecurityBitSetCache(securityCacheBytes);
+    // Recreated along with the index, whose generations start again
+    resultCache = resultCacheSize > 0 ? new SearchResultCache<T>(resultCacheSize) : null;
+    resultCacheDisabled =
+        ImmutableSet.copyOf(
+            Splitter.on(',').trimResults().omitEmptyStrings().split(resultCacheDisabledTypes));
 
     super.afterPropertiesSet();
   }
@@ -265,6 +311,35 @@ public abstract class ItemIndex<T extends FreetextResult> extends AbstractIndexE
    * @param requestedCount 0 or greater. Less than one returns all results.
    */
   public SearchResults<T> search(
+      Search searchreq, int requestedStart, int requestedCount, boolean searchAttachment) {
+    final SearchResultCache<T> cache = resultCache;
+    final String key =
+        getResultKey(
+            cache,
+            searchreq,
+            searchAttachment,
+            "search:"
+                + requestedStart
+                + ':'
+                + requestedCount
+                + ':'
+                + freetextIndex.getSearchSettings().getAttachmentBoost());
+    if (key != null) {
+      final SearchResults<T> cached = cache.get(key);
+      if (cached != null) {
+        return cached;
+      }
+    }
+
+    final SearchResults<T> results =
+        searchIndex(searchreq, requestedStart, requestedCount, searchAttachment);
+    if (key != null) {
+      cache.put(key, results);
+    }
+    return results;
+  }
+
+  private SearchResults<T> searchIndex(
       final Search searchreq,
       final int requestedStart,
       final int requestedCount,
@@ -279,7 +354,8 @@ public abstract class ItemIndex<T extends FreetextResult> extends AbstractIndexE
             SecurityFilter deleteablesFilter = null;
             String collectPriv = searchreq.getPrivilegeToCollect();
             if (collectPriv != null) {
-              deleteablesFilter = new SecurityFilter(getPrefixForPrivilege(collectPriv));
+              deleteablesFilter =
+                  new SecurityFilter(getPrefixForPrivilege(collectPriv), securityBitSets);
               deleteablesFilter.setOnlyCollectResults(true);
               filters.add(deleteablesFilter);
             }
@@ -423,7 +499,8 @@ public abstract class ItemIndex<T extends FreetextResult> extends AbstractIndexE
             SecurityFilter deleteablesFilter = null;
             String collectPriv = searchreq.getPrivilegeToCollect();
             if (collectPriv != null) {
-              deleteablesFilter = new SecurityFilter(getPrefixForPrivilege(collectPriv));
+              deleteablesFilter =
+                  new SecurityFilter(getPrefixForPrivilege(collectPriv), securityBitSets);
               deleteablesFilter.setOnlyCollectResults(true);
               filters.add(deleteablesFilter);
             }
@@ -554,7 +631,24 @@ public abstract class ItemIndex<T extends FreetextResult> extends AbstractIndexE
    * Counts the number of documents that a query matches without actually retrieving the documents.
    * Should be pretty damn fast.
    */
-  public int count(final Search searchreq, final boolean isSearchAttachment) {
+  public int count(Search searchreq, boolean isSearchAttachment) {
+    final SearchResultCache<T> cache = resultCache;
+    final String key = getResultKey(cache, searchreq, isSearchAttachment, "count");
+    if (key != null) {
+      final SearchResults<T> cached = cache.get(key);
+      if (cached != null) {
+        return cached.getAvailable();
+      }
+    }
+
+    final int count = countIndex(searchreq, isSearchAttachment);
+    if (key != null) {
+      cache.put(key, new SimpleSearchResults<T>(Collections.<T>emptyList(), 0, 0, count));
+    }
+    return count;
+  }
+
+  private int countIndex(final Search searchreq, final boolean isSearchAttachment) {
     return search(
         new Searcher<Integer>() {
           @Override
@@ -578,6 +672,158 @@ public abstract class ItemIndex<T extends FreetextResult> extends AbstractIndexE
         });
   }
 
+  /**
+   * Counts the documents matching each search with one searcher. The filters the searches have in
+   * common, such as the institution, security, item status and collections, are worked out once for
+   * each segment and shared between the searches.
+   *
+   * @param cacheKeys Null, or a key for each search. Counts for searches with a key are remembered
+   *     until the index changes, under the key combined with the search's query and filters.
+   * @return The count for each search, or -1 for null searches
+   */
+  public int[] count(
+      final List<? extends Search> searchreqs,
+      @Nullable final List<String> cacheKeys,
+      final boolean isSearchAttachment) {
+    return search(
+        new Searcher<int[]>() {
+          @Override
+          public int[] search(IndexSearcher searcher) throws IOException {
+            final long version = searcher.getIndexReader().getVersion();
+            final Map<Object, Filter> shared = new HashMap<Object, Filter>();
+            final int[] results = new int[searchreqs.size()];
+            int cached = 0;
+            for (int i = 0; i < results.length; i++) {
+              final Search searchreq = searchreqs.get(i);
+              if (searchreq == null) {
+                results[i] = -1;
+                continue;
+              }
+
+              final Collection<Filter> filters = getFilters(searchreq, shared);
+              final Query query = getQuery(searchreq, null, isSearchAttachment);
+              final String cacheKey = cacheKeys == null ? null : cacheKeys.get(i);
+              String key = null;
+              if (cacheKey != null) {
+                key = getCountKey(version, searchreq, filters, query, cacheKey);
+                final Integer count = counts.getIfPresent(key);
+                if (count != null) {
+                  results[i] = count;
+                  cached++;
+                  continue;
+                }
+              }
+
+              final CountingCollector collector = new CountingCollector();
+              searcher.search(
+                  query,
+                  new ChainedFilter(filters.toArray(new Filter[filters.size()]), ChainedFilter.AND),
+                  collector);
+              results[i] = collector.getCount();
+              if (key != null) {
+                counts.put(key, results[i]);
+              }
+            }
+            if (LOGGER.isDebugEnabled()) {
+              LOGGER.debug("Counted " + results.length + " searches, " + cached + " from cache");
+            }
+            return results;
+          }
+        });
+  }
+
+  /**
+   * The filters and query are part of the key, so that changes to what the caller searches for are
+   * counted
+   */
+  private String getCountKey(
+      long version, Search searchreq, Collection<Filter> filters, Query query, String cacheKey) {
+    final StringBuilder key = new StringBuilder();
+    key.append(version).append(':').append(CurrentInstitution.get().getUniqueId()).append(':');
+    for (Filter filter : filters) {
+      if (filter instanceof SecurityFilter) {
+        key.append(((SecurityFilter) filter).getSignature());
+      }
+    }
+    key.append(':').append(cacheKey);
+    appendFilterKey(key, searchreq);
+    return key.append(":query=").append(query).toString();
+  }
+
+  /**
+   * Describes everything the results of a search depend on other than the documents of the
+   * institution, which the cache keeps track of.
+   *
+   * @return The key to cache the results under, or null if they should not be cached
+   */
+  @Nullable
+  private String getResultKey(
+      @Nullable SearchResultCache<T> cache,
+      Search searchreq,
+      boolean searchAttachment,
+      String kind) {
+    if (cache == null || resultCacheDisabled.contains(searchreq.getSearchType())) {
+      return null;
+    }
+    final StringBuilder key = new StringBuilder(kind);
+    key.append(':').append(searchAttachment).append(':').append(searchreq.isSortReversed());
+    final com.tle.common.searching.SortField[] sortfields = searchreq.getSortFields();
+    if (sortfields != null) {
+      for (com.tle.common.searching.SortField sortfield : sortfields) {
+        // A comparator may sort on anything
+        if (sortfield.getType() == Type.CUSTOM) {
+          return null;
+        }
+        key.append(":sort=")
+            .append(sortfield.getField())
+            .append(sortfield.getType())
+            .append(sortfield.isReverse());
+      }
+    }
+
+    final String prefix = getSecurityPrefix(searchreq);
+    if (prefix != null) {
+      key.append(":acl=").append(new SecurityFilter(prefix, null).getSignature());
+    }
+    final String collectPriv = searchreq.getPrivilegeToCollect();
+    if (collectPriv != null) {
+      key.append(":collect=")
+          .append(new SecurityFilter(getPrefixForPrivilege(collectPriv), null).getSignature());
+    }
+
+    appendFilterKey(key, searchreq);
+    key.append(":query=").append(getQuery(searchreq, null, searchAttachment));
+
+    return cache.getKey(
+        CurrentInstitution.get().getUniqueId(), getSearchingGeneration(), key.toString());
+  }
+
+  /** Describes the filters of a search other than the security and institution filters. */
+  private static void appendFilterKey(StringBuilder key, Search searchreq) {
+    final Date[] dateRange = searchreq.getDateRange();
+    if (dateRange != null) {
+      appendDates(key.append(":modified="), dateRange);
+    }
+    final Collection<com.tle.common.searching.DateFilter> dateFilters =
+        searchreq.getDateFilters();
+    if (dateFilters != null) {
+      for (com.tle.common.searching.DateFilter dateFilter : dateFilters) {
+        key.append(':').append(dateFilter.getIndexFieldName()).append(dateFilter.getFormat());
+        appendDates(key.append('='), dateFilter.getRange());
+      }
+    }
+    key.append(":tz=").append(searchreq.useServerTimeZone());
+    key.append(":must=").append(searchreq.getMust());
+    key.append(":mustNot=").append(searchreq.getMustNot());
+    key.append(":matrix=").append(searchreq.getMatrixFields());
+  }
+
+  private static void appendDates(StringBuilder key, Date[] range) {
+    for (Date date : range) {
+      key.append(date == null ? "*" : Long.toString(date.getTime())).append(',');
+    }
+  }
+
   /**
    * A simplified implementation of matrixSearch() that only works on a single field, and currently
    * only returns the count per term. It could easily be extended to return a list of ItemIds per
@@ -588,6 +834,9 @@ public abstract class ItemIndex<T extends FreetextResult> extends AbstractIndexE
    * creates *many* BitSets that it holds on to to reuse as it recurse through a list of fields.
    * Since we only care about a single field in this implementation, we can avoid generating and
    * holding onto BitSets.
+   *
+   * <p>Term ordinals are cached per segment by {@link FacetOrdinalCache}, so counting is a single
+   * pass over the matching documents rather than a walk of every term's postings.
    */
   public Multimap<String, Pair<String, Integer>> facetCount(
       @Nullable final Search searchreq, final Collection<String> fields) {
@@ -602,20 +851,9 @@ public abstract class ItemIndex<T extends FreetextResult> extends AbstractIndexE
 
             final Multimap<String, Pair<String, Integer>> rv = ArrayListMultimap.create();
             for (String field : fields) {
-              for (Term term : new XPathFieldIterator(reader, field, "")) {
-                int count = 0;
-
-                TermDocs docs = reader.termDocs(term);
-                while (docs.next()) {
-                  if (filteredBits.get(docs.doc())) {
-                    count++;
-                  }
-                }
-                docs.close();
-
-                if (count > 0) {
-                  rv.put(field, new Pair<String, Integer>(term.text(), count));
-                }
+              for (Map.Entry<Term, Integer> entry :
+                  facetOrdinals.count(reader, field, filteredBits).entrySet()) {
+                rv.put(field, new Pair<String, Integer>(entry.getKey().text(), entry.getValue()));
               }
             }
             return rv;
@@ -623,6 +861,33 @@ public abstract class ItemIndex<T extends FreetextResult> extends AbstractIndexE
         });
   }
 
+  /** @return Estimated heap used by the cached facet term ordinals, in bytes */
+  public long getFacetCacheSize() {
+    return facetOrdinals.getMemoryUsage();
+  }
+
+  /** @return Estimated heap used by the cached per-segment security bitsets, in bytes */
+  public long getSecurityCacheSize() {
+    return securityBitSets.getMemoryUsage();
+  }
+
+  /** @return The fraction of security bitset lookups served from the cache */
+  public double getSecurityCacheHitRate() {
+    return securityBitSets.getHitRate();
+  }
+
+  /** @return The fraction of searches and counts served from the result cache */
+  public double getResultCacheHitRate() {
+    final SearchResultCache<T> cache = resultCache;
+    return cache == null ? 0 : cache.getHitRate();
+  }
+
+  /** @return The number of searches and counts held in the result cache */
+  public long getResultCacheSize() {
+    final SearchResultCache<T> cache = resultCache;
+    return cache == null ? 0 : cache.getSize();
+  }
+
   public MatrixResults matrixSearch(
       @Nullable final Search searchreq,
       final List<String> fields,
@@ -636,70 +901,139 @@ public abstract class ItemIndex<T extends FreetextResult> extends AbstractIndexE
 
             OpenBitSet filteredBits =
                 searchRequestToBitSet(searchreq, searcher, reader, searchAttachments);
-            int maxDoc = reader.maxDoc();
-
-            Map<String, Map<String, List<TermBitSet>>> xpathMap =
-                new HashMap<String, Map<String, List<TermBitSet>>>();
-
-            List<OpenBitSet> perFieldBitSets = new ArrayList<OpenBitSet>();
-            OpenBitSet allDocs = new OpenBitSet();
-            for (String field : fields) {
-              boolean hasXpaths = field.indexOf('[') != -1;
-              OpenBitSet perFieldBitSet = new OpenBitSet(maxDoc);
-              for (Term term : new XPathFieldIterator(reader, field, "")) {
-                OpenBitSet set = new OpenBitSet(maxDoc);
-                TermDocs docs = reader.termDocs(term);
-                while (docs.next()) {
-                  set.set(docs.doc());
-                }
-                docs.close();
-                perFieldBitSet.or(set);
-                allDocs.or(set);
-                String xpathKey = "";
-                if (hasXpaths) {
-                  String fieldName = term.field();
-                  int ind = fieldName.lastIndexOf(']');
-                  if (ind != -1) {
-                    xpathKey = fieldName.substring(0, ind + 1);
-                  }
-                }
-                addFieldBitSet(term, set, xpathKey, xpathMap, field);
-              }
-              // Simulate blank Term's for each field, that has at least
-              // one
-              // matching field
-              addFieldBitSet(new Term(field, ""), perFieldBitSet, "", xpathMap, field);
-              perFieldBitSets.add(perFieldBitSet);
-            }
-            for (OpenBitSet set : perFieldBitSets) {
-              set.xor(allDocs);
+            if (legacyMatrixSearch) {
+              return bitSetMatrix(reader, filteredBits, fields, countOnly);
             }
+            return compressedMatrix(reader, filteredBits, fields, countOnly);
+          }
+        });
+  }
 
-            MatrixResults results = new MatrixResults();
-            results.setFields(fields);
+  /**
+   * The original matrix implementation, which creates a maxDoc sized bitset for every term of every
+   * field.
+   */
+  MatrixResults bitSetMatrix(
+      IndexReader reader, OpenBitSet filteredBits, List<String> fields, boolean countOnly)
+      throws IOException {
+    int maxDoc = reader.maxDoc();
+
+    Map<String, Map<String, List<TermBitSet>>> xpathMap =
+        new HashMap<String, Map<String, List<TermBitSet>>>();
+
+    List<OpenBitSet> perFieldBitSets = new ArrayList<OpenBitSet>();
+    OpenBitSet allDocs = new OpenBitSet();
+    for (String field : fields) {
+      boolean hasXpaths = field.indexOf('[') != -1;
+      OpenBitSet perFieldBitSet = new OpenBitSet(maxDoc);
+      for (Term term : new XPathFieldIterator(reader, field, "")) {
+        OpenBitSet set = new OpenBitSet(maxDoc);
+        TermDocs docs = reader.termDocs(term);
+        while (docs.next()) {
+          set.set(docs.doc());
+        }
+        docs.close();
+        perFieldBitSet.or(set);
+        allDocs.or(set);
+        String xpathKey = "";
+        if (hasXpaths) {
+          String fieldName = term.field();
+          int ind = fieldName.lastIndexOf(']');
+          if (ind != -1) {
+            xpathKey = fieldName.substring(0, ind + 1);
+          }
+        }
+        addFieldBitSet(term, set, xpathKey, xpathMap, field);
+      }
+      // Simulate blank Term's for each field, that has at least
+      // one
+      // matching field
+      addFieldBitSet(new Term(field, ""), perFieldBitSet, "", xpathMap, field);
+      perFieldBitSets.add(perFieldBitSet);
+    }
+    for (OpenBitSet set : perFieldBitSets) {
+      set.xor(allDocs);
+    }
+
+    MatrixResults results = new MatrixResults();
+    results.setFields(fields);
+
+    Map<String, List<TermBitSet>> blankPaths = xpathMap.get("");
+    for (Map<String, List<TermBitSet>> map : xpathMap.values()) {
+      List<List<TermBitSet>> fieldsToRecurse = new ArrayList<List<TermBitSet>>();
+      for (String field : fields) {
+        List<TermBitSet> list = map.get(field);
+        if (list == null) {
+          list = blankPaths.get(field);
+        }
+        fieldsToRecurse.add(list);
+      }
+      recurseTerms(
+          fieldsToRecurse, 0, new String[fields.size()], filteredBits, results, reader, countOnly);
+    }
+    return results;
+  }
 
-            Map<String, List<TermBitSet>> blankPaths = xpathMap.get("");
-            for (Map<String, List<TermBitSet>> map : xpathMap.values()) {
-              List<List<TermBitSet>> fieldsToRecurse = new ArrayList<List<TermBitSet>>();
-              for (String field : fields) {
-                List<TermBitSet> list = map.get(field);
-                if (list == null) {
-                  list = blankPaths.get(field);
-                }
-                fieldsToRecurse.add(list);
-              }
-              recurseTerms(
-                  fieldsToRecurse,
-                  0,
-                  new String[fields.size()],
-                  filteredBits,
-                  results,
-                  reader,
-                  countOnly);
-            }
-            return results;
+  /**
+   * Builds the matrix from compressed doc id sets which only contain the documents matching the
+   * search, using the per-segment term ordinals from {@link FacetOrdinalCache} rather than walking
+   * the postings of every term. Blank values are the matching docs which have a value for at least
+   * one of the other fields, as with {@link #bitSetMatrix}.
+   */
+  MatrixResults compressedMatrix(
+      IndexReader reader, OpenBitSet filteredBits, List<String> fields, boolean countOnly)
+      throws IOException {
+    Map<String, Map<String, List<TermDocSet>>> xpathMap =
+        new HashMap<String, Map<String, List<TermDocSet>>>();
+
+    List<ConciseSet> perFieldSets = new ArrayList<ConciseSet>();
+    ConciseSet allDocs = new ConciseSet();
+    for (String field : fields) {
+      boolean hasXpaths = field.indexOf('[') != -1;
+      ConciseSet perFieldSet = new ConciseSet();
+      for (Map.Entry<Term, ConciseSet> entry :
+          facetOrdinals.docSets(reader, field, filteredBits, perFieldSet).entrySet()) {
+        Term term = entry.getKey();
+        String xpathKey = "";
+        if (hasXpaths) {
+          String fieldName = term.field();
+          int ind = fieldName.lastIndexOf(']');
+          if (ind != -1) {
+            xpathKey = fieldName.substring(0, ind + 1);
           }
-        });
+        }
+        addFieldDocSet(new TermDocSet(term, entry.getValue()), xpathKey, xpathMap, field);
+      }
+      perFieldSets.add(perFieldSet);
+      allDocs = allDocs.union(perFieldSet);
+    }
+
+    for (int i = 0; i < fields.size(); i++) {
+      String field = fields.get(i);
+      addFieldDocSet(
+          new TermDocSet(new Term(field, ""), allDocs.difference(perFieldSets.get(i))),
+          "",
+          xpathMap,
+          field);
+    }
+
+    MatrixResults results = new MatrixResults();
+    results.setFields(fields);
+
+    Map<String, List<TermDocSet>> blankPaths = xpathMap.get("");
+    for (Map<String, List<TermDocSet>> map : xpathMap.values()) {
+      List<List<TermDocSet>> fieldsToRecurse = new ArrayList<List<TermDocSet>>();
+      for (String field : fields) {
+        List<TermDocSet> list = map.get(field);
+        if (list == null) {
+          list = blankPaths.get(field);
+        }
+        fieldsToRecurse.add(list);
+      }
+      recurseDocSets(
+          fieldsToRecurse, 0, new String[fields.size()], null, results, reader, countOnly);
+    }
+    return results;
   }
 
   private OpenBitSet searchRequestToBitSet(
@@ -824,6 +1158,16 @@ public abstract class ItemIndex<T extends FreetextResult> extends AbstractIndexE
     }
   }
 
+  private static class TermDocSet {
+    final Term term;
+    final ConciseSet docs;
+
+    TermDocSet(Term term, ConciseSet docs) {
+      this.term = term;
+      this.docs = docs;
+    }
+  }
+
   public static class TermBitSet {
     Term term;
     OpenBitSet bitSet;
@@ -871,6 +1215,70 @@ public abstract class ItemIndex<T extends FreetextResult> extends AbstractIndexE
     }
   }
 
+  private void addFieldDocSet(
+      TermDocSet termDocs,
+      String xpathKey,
+      Map<String, Map<String, List<TermDocSet>>> xpathMap,
+      String field) {
+    Map<String, List<TermDocSet>> map = xpathMap.get(xpathKey);
+    if (map == null) {
+      map = new HashMap<String, List<TermDocSet>>();
+      xpathMap.put(xpathKey, map);
+    }
+    List<TermDocSet> list = map.get(field);
+    if (list == null) {
+      list = new ArrayList<TermDocSet>();
+      map.put(field, list);
+    }
+    list.add(termDocs);
+  }
+
+  /**
+   * @param curDocs The docs matching all the values chosen so far, or null at the first level
+   */
+  private void recurseDocSets(
+      List<List<TermDocSet>> docSets,
+      int index,
+      String[] curValues,
+      @Nullable ConciseSet curDocs,
+      MatrixResults results,
+      IndexReader reader,
+      boolean countOnly) {
+    boolean last = index == curValues.length - 1;
+    for (TermDocSet termDocSet : docSets.get(index)) {
+      ConciseSet docs = curDocs == null ? termDocSet.docs : curDocs.intersection(termDocSet.docs);
+      // Stop expanding this branch as soon as nothing intersects
+      if (docs.isEmpty()) {
+        continue;
+      }
+      curValues[index] = termDocSet.term.text();
+      if (last) {
+        List<ItemIdKey> ids = null;
+        if (!countOnly) {
+          ids = getIdsForDocSet(docs, reader);
+        }
+        results.addEntry(
+            new MatrixResults.MatrixEntry(
+                new ArrayList<String>(Arrays.asList(curValues)), ids, docs.size()));
+      } else {
+        recurseDocSets(docSets, index + 1, curValues, docs, results, reader, countOnly);
+      }
+    }
+  }
+
+  private List<ItemIdKey> getIdsForDocSet(ConciseSet docs, IndexReader reader) {
+    List<ItemIdKey> keys = new ArrayList<ItemIdKey>(docs.size());
+    IntIterator iter = docs.iterator();
+    while (iter.hasNext()) {
+      try {
+        keys.add(getKeyForDocument(reader.document(iter.next())));
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+    return keys;
+  }
+
   private List<ItemIdKey> getIdsForBitset(OpenBitSet docBits, IndexReader reader) {
     int docid = 0;
     List<ItemIdKey> keys = new ArrayList<ItemIdKey>();
@@ -981,6 +1389,15 @@ public abstract class ItemIndex<T extends FreetextResult> extends AbstractIndexE
    * required.
    */
   protected Collection<Filter> getFilters(Search request) {
+    return getFilters(request, null);
+  }
+
+  /**
+   * @param shared Null, or filters to reuse for the parts of the request that are the same as
+   *     earlier requests. Their results are kept for each segment, so they must not be used with
+   *     another searcher or for another user.
+   */
+  private Collection<Filter> getFilters(Search request, @Nullable Map<Object, Filter> shared) {
     List<Filter> filters = Lists.newArrayList();
 
     Date[] dateRange = request.getDateRange();
@@ -1009,34 +1426,67 @@ public abstract class ItemIndex<T extends FreetextResult> extends AbstractIndexE
       }
     }
 
-    String privPrefix = request.getPrivilegePrefix();
-    String privilege = request.getPrivilege();
-    if (privPrefix == null && privilege != null) {
-      privPrefix = getPrefixForPrivilege(privilege);
-    }
-    if (privPrefix != null) {
-      filters.add(new SecurityFilter(privPrefix));
+    final String prefix = getSecurityPrefix(request);
+    if (prefix != null) {
+      filters.add(
+          getShared(
+              shared,
+              Pair.pair("security", prefix),
+              () -> new SecurityFilter(prefix, securityBitSets)));
     }
 
     List<List<Field>> must = request.getMust();
     List<List<Field>> mustNot = request.getMustNot();
     if (LOGGER.isDebugEnabled()) {
-      LOGGER.debug("Must " + must + ": Must Not: " + mustNot + " Privilege:" + privilege);
+      LOGGER.debug(
+          "Must " + must + ": Must Not: " + mustNot + " Privilege:" + request.getPrivilege());
     }
     if (must != null && !must.isEmpty()) {
-      filters.add(new MustFilter(must));
+      if (shared == null) {
+        filters.add(new MustFilter(must));
+      } else {
+        // Searches usually differ in only some of their clauses, such as the collection
+        for (List<Field> clause : must) {
+          final List<List<Field>> terms = Collections.singletonList(clause);
+          filters.add(
+              getShared(
+                  shared,
+                  Pair.pair("must", clause),
+                  () -> new CachingWrapperFilter(new MustFilter(terms))));
+        }
+      }
     }
     if (mustNot != null && !mustNot.isEmpty()) {
-      filters.add(new MustNotFilter(mustNot));
+      filters.add(
+          getShared(
+              shared,
+              Pair.pair("mustNot", mustNot),
+              () -> new CachingWrapperFilter(new MustNotFilter(mustNot))));
     }
     List<Field> matrixFields = request.getMatrixFields();
     if (matrixFields != null) {
       filters.add(new MatrixFilter(matrixFields));
     }
-    filters.add(new InstitutionFilter());
+    filters.add(
+        getShared(shared, "institution", () -> new CachingWrapperFilter(new InstitutionFilter())));
     return filters;
   }
 
+  @Nullable
+  private String getSecurityPrefix(Search request) {
+    final String privPrefix = request.getPrivilegePrefix();
+    final String privilege = request.getPrivilege();
+    if (privPrefix == null && privilege != null) {
+      return getPrefixForPrivilege(privilege);
+    }
+    return privPrefix;
+  }
+
+  private static Filter getShared(
+      @Nullable Map<Object, Filter> shared, Object key, Supplier<Filter> filter) {
+    return shared == null ? filter.get() : shared.computeIfAbsent(key, k -> filter.get());
+  }
+
   protected DateFilter createDateFilter(
       String fieldName, Date[] range, Dates indexDateFormat, boolean useServerTimeZone) {
     if (range.length != 2 || (range[0] != null && range[1] != null && range[0].after(range[1]))) {
@@ -1382,8 +1832,17 @@ public abstract class ItemIndex<T extends FreetextResult> extends AbstractIndexE
           public long buildIndex(NRTManager nrtManager, TrackingIndexWriter writer)
               throws Exception {
             long generation = -1;
-            generation = Math.max(generation, removeDocuments(batch, nrtManager, writer));
-            generation = Math.max(generation, addDocuments(batch, nrtManager, writer));
+            try {
+              generation = Math.max(generation, removeDocuments(batch, nrtManager, writer));
+              generation = Math.max(generation, addDocuments(batch, nrtManager, writer));
+            } finally {
+              final SearchResultCache<T> cache = resultCache;
+              if (cache != null) {
+                for (IndexedItem item : batch) {
+                  cache.changed(item.getInstitution().getUniqueId(), writer.getGeneration());
+                }
+              }
+            }
             return generation;
           }
         });
@@ -1481,6 +1940,10 @@ public abstract class ItemIndex<T extends FreetextResult> extends AbstractIndexE
           public long buildIndex(NRTManager nrtManager, TrackingIndexWriter writer)
               throws Exception {
             writer.deleteDocuments(new Term(FreeTextQuery.FIELD_INSTITUTION, Long.toString(id)));
+            final SearchResultCache<T> cache = resultCache;
+            if (cache != null) {
+              cache.changed(id, writer.getGeneration());
+            }
             return -1;
           }
         });
@@ -18,12 +18,17 @@
 
 package com.tle.core.freetext.index;
 
+import com.dytech.edge.queries.FreeTextQuery;
 import com.tle.beans.item.ItemIdKey;
+import com.tle.common.util.Dates;
+import com.tle.common.util.UtcDate;
 import com.tle.core.guice.Bind;
 import com.tle.core.services.item.FreetextResult;
 import com.tle.freetext.FreetextIndex;
 import java.io.File;
 import java.io.IOException;
+import java.text.ParseException;
+import java.util.Set;
 import javax.annotation.PostConstruct;
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -42,9 +47,26 @@ public class NormalItemIndex extends ItemIndex<FreetextResult> {
     super.afterPropertiesSet();
   }
 
+  /** Loads the date modified too, which OAI-PMH lists resume from */
+  @Override
+  protected Set<String> getKeyFields() {
+    final Set<String> fields = super.getKeyFields();
+    fields.add(FreeTextQuery.FIELD_REALLASTMODIFIED);
+    return fields;
+  }
+
   @Override
   protected FreetextResult createResult(
       ItemIdKey key, Document doc, float relevance, boolean sortByRelevance) {
-    return new FreetextResult(key, relevance, sortByRelevance);
+    final FreetextResult result = new FreetextResult(key, relevance, sortByRelevance);
+    final String modified = doc.get(FreeTextQuery.FIELD_REALLASTMODIFIED);
+    if (modified != null) {
+      try {
+        result.setDateModified(new UtcDate(modified, Dates.ISO).toDate());
+      } catch (ParseException e) {
+        // Left unknown
+      }
+    }
+    return result;
   }
 }
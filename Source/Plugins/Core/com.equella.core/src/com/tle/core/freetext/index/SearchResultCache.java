@@ -0,0 +1,133 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.freetext.index;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+import com.tle.annotation.NonNullByDefault;
+import com.tle.annotation.Nullable;
+import com.tle.common.searching.SearchResults;
+import com.tle.common.searching.SimpleSearchResults;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers the results of searches against an index, so that a search repeated before the index
+ * changes, such as paging back or many users with the same access running the same query, is not
+ * run again.
+ *
+ * <p>Keys include the index generation of the last change to the documents of the institution
+ * searched. A change to one institution therefore only makes its own entries unreachable, and the
+ * results cached for other institutions survive the searcher being reopened. Unreachable entries
+ * are evicted along with the least recently used once the cache is full.
+ */
+@SuppressWarnings("nls")
+@NonNullByDefault
+public class SearchResultCache<T> {
+  /** The most results (plus one per search) held */
+  public static final int DEFAULT_MAX_RESULTS = 50000;
+
+  private final Cache<String, SearchResults<T>> results;
+
+  /** The generation of the latest change to each institution's documents */
+  private final ConcurrentMap<Long, Long> changes = new ConcurrentHashMap<Long, Long>();
+
+  private final AtomicLong bypassed = new AtomicLong();
+
+  public SearchResultCache(long maxResults) {
+    results =
+        CacheBuilder.newBuilder()
+            .maximumWeight(maxResults)
+            .weigher(
+                new Weigher<String, SearchResults<T>>() {
+                  @Override
+                  public int weigh(String key, SearchResults<T> value) {
+                    return value.getResults().size() + 1;
+                  }
+                })
+            .recordStats()
+            .build();
+  }
+
+  /**
+   * Records that documents of the institution have been written. Must be called after the writes,
+   * with a generation no earlier than theirs.
+   */
+  public void changed(long institutionId, long generation) {
+    changes.merge(institutionId, generation, Math::max);
+  }
+
+  /**
+   * @param searchingGeneration A generation that the searcher about to be used is known to include
+   * @param search Describes everything else the results depend on
+   * @return The key for the results, or null if the searcher may not include the latest changes to
+   *     the institution, in which case the results must not be cached
+   */
+  @Nullable
+  public String getKey(long institutionId, long searchingGeneration, String search) {
+    final Long changed = changes.get(institutionId);
+    final long generation = changed == null ? -1 : changed;
+    if (generation > searchingGeneration) {
+      bypassed.incrementAndGet();
+      return null;
+    }
+    return institutionId + ":" + generation + ":" + search;
+  }
+
+  /** @return A copy of the cached results, or null if there are none */
+  @Nullable
+  public SearchResults<T> get(String key) {
+    final SearchResults<T> cached = results.getIfPresent(key);
+    return cached == null ? null : copy(cached);
+  }
+
+  public void put(String key, SearchResults<T> value) {
+    results.put(key, copy(value));
+  }
+
+  private static <T> SearchResults<T> copy(SearchResults<T> value) {
+    final SearchResults<T> copy =
+        new SimpleSearchResults<T>(
+            new ArrayList<T>(value.getResults()),
+            value.getCount(),
+            value.getOffset(),
+            value.getAvailable());
+    copy.setErrorMessage(value.getErrorMessage());
+    return copy;
+  }
+
+  /** @return The fraction of lookups served from the cache, or 0 if there have been none */
+  public double getHitRate() {
+    final CacheStats stats = results.stats();
+    return stats.requestCount() == 0 ? 0 : stats.hitRate();
+  }
+
+  public long getSize() {
+    return results.size();
+  }
+
+  /** @return Searches not cached because the searcher was behind the latest changes */
+  public long getBypassed() {
+    return bypassed.get();
+  }
+}
@@ -18,6 +18,7 @@
 
 package com.tle.core.freetext.service;
 
+import com.tle.annotation.Nullable;
 import com.tle.beans.entity.itemdef.ItemDefinition;
 import com.tle.beans.item.ItemIdKey;
 import com.tle.common.searching.Search;
@@ -25,6 +26,7 @@ import com.tle.common.searching.SearchResults;
 import com.tle.core.remoting.MatrixResults;
 import com.tle.core.services.item.FreetextResult;
 import com.tle.core.services.item.FreetextSearchResults;
+import com.tle.freetext.IndexerStatistics;
 import it.uniroma3.mat.extendedset.wrappers.LongSet;
 import java.util.Collection;
 import java.util.List;
@@ -66,12 +68,25 @@ public interface FreeTextService {
 
   int[] countsFromFilters(Collection<? extends Search> filters);
 
+  /**
+   * Counts the searches like {@link #countsFromFilters(Collection)}, remembering the counts until
+   * the index changes.
+   *
+   * @param cacheKeys Null, or a key for each search. The query, dates, must and must not clauses,
+   *     institution and access of the current user are added to it, so it only needs to identify
+   *     the caller's use of the count. Searches without a key are always counted.
+   */
+  int[] countsFromFilters(List<? extends Search> filters, @Nullable List<String> cacheKeys);
+
   List<ItemIdKey> getAutoCompleteTitles(Search request);
 
   String getAutoCompleteTerm(Search request, String prefix);
 
   void waitUntilIndexed(ItemIdKey itemIdKey);
 
+  /** Throughput, queue depth and stage timings of the background indexer for this schema. */
+  IndexerStatistics getIndexerStatistics();
+
   MatrixResults matrixSearch(
       Search searchRequest,
       List<String> fields,
@@ -24,6 +24,7 @@ import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.Multimap;
+import com.tle.annotation.Nullable;
 import com.tle.beans.Institution;
 import com.tle.beans.entity.itemdef.ItemDefinition;
 import com.tle.beans.item.ItemIdKey;
@@ -37,6 +38,7 @@ import com.tle.common.searching.Search;
 import com.tle.common.searching.SearchResults;
 import com.tle.core.freetext.event.ItemReindexEvent;
 import com.tle.core.freetext.event.listener.ItemReindexListener;
+import com.tle.core.freetext.index.ItemIndex;
 import com.tle.core.freetext.queries.FreeTextBooleanQuery;
 import com.tle.core.freetext.queries.FreeTextFieldQuery;
 import com.tle.core.freetext.reindex.InstitutionFilter;
@@ -63,7 +65,10 @@ import com.tle.freetext.BackgroundIndexer;
 import com.tle.freetext.BackgroundIndexerImpl.BackgroundIndexerFactory;
 import com.tle.freetext.FreetextIndex;
 import com.tle.freetext.IndexedItem;
+import com.tle.freetext.IndexerStatistics;
+import com.tle.freetext.TextExtractionPool;
 import it.uniroma3.mat.extendedset.wrappers.LongSet;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
@@ -97,6 +102,7 @@ public class FreeTextServiceImpl
   private static final Logger LOGGER = Logger.getLogger(FreeTextServiceImpl.class);
 
   @Inject private FreetextIndex indexer;
+  @Inject private TextExtractionPool extractionPool;
   @Inject private ItemService itemService;
   @Inject private InstitutionService institutionService;
   @Inject private BackgroundIndexerFactory backgroundProvider;
@@ -204,6 +210,19 @@ public class FreeTextServiceImpl
     }
   }
 
+  @Override
+  public IndexerStatistics getIndexerStatistics() {
+    IndexerStatistics stats = getBackgroundIndexer().getStatistics();
+    ItemIndex<? extends FreetextResult> itemIndex = indexer.getIndexer(Search.INDEX_ITEM);
+    stats.setFacetCacheBytes(itemIndex.getFacetCacheSize());
+    stats.setSecurityCacheBytes(itemIndex.getSecurityCacheSize());
+    stats.setSecurityCacheHitRate(itemIndex.getSecurityCacheHitRate());
+    stats.setResultCacheEntries(itemIndex.getResultCacheSize());
+    stats.setResultCacheHitRate(itemIndex.getResultCacheHitRate());
+    stats.setExtractors(extractionPool.getStatistics());
+    return stats;
+  }
+
   @Override
   public void indexItemNowEvent(IndexItemNowEvent event) {
     try {
@@ -298,13 +317,14 @@ public class FreeTextServiceImpl
 
   @Override
   public int[] countsFromFilters(Collection<? extends Search> filters) {
-    int[] res = new int[filters.size()];
+    return countsFromFilters(new ArrayList<Search>(filters), null);
+  }
 
+  @Override
+  public int[] countsFromFilters(
+      List<? extends Search> filters, @Nullable List<String> cacheKeys) {
     Date t1 = new Date();
-    int rescount = 0;
-    for (Search search : filters) {
-      res[rescount++] = search != null ? indexer.count(search) : -1;
-    }
+    int[] res = indexer.count(filters, cacheKeys);
     Date t2 = new Date();
 
     if (LOGGER.isDebugEnabled()) {
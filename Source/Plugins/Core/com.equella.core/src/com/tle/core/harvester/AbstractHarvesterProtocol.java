@@ -19,22 +19,33 @@
 package com.tle.core.harvester;
 
 import com.dytech.devlib.PropBagEx;
+import com.tle.annotation.Nullable;
+import com.tle.beans.Institution;
 import com.tle.beans.entity.itemdef.ItemDefinition;
+import com.tle.common.NamedThreadFactory;
 import com.tle.common.filesystem.handle.StagingFile;
 import com.tle.common.harvester.HarvesterProfile;
 import com.tle.common.i18n.CurrentLocale;
+import com.tle.common.institution.CurrentInstitution;
 import com.tle.core.harvester.old.ContentRepository;
 import com.tle.core.harvester.old.LearningObject;
 import com.tle.core.harvester.old.TLEItem;
 import com.tle.core.harvester.search.HarvesterSearch;
+import com.tle.core.institution.RunAsInstitution;
 import com.tle.core.plugins.AbstractPluginService;
 import com.tle.core.services.FileSystemService;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import javax.inject.Inject;
+import javax.inject.Named;
 import org.apache.log4j.Logger;
 
 @SuppressWarnings("nls")
@@ -45,6 +56,15 @@ public abstract class AbstractHarvesterProtocol implements ContentRepository {
 
   @Inject private LearningEdge learningEdge;
   @Inject private FileSystemService fileSystemService;
+  @Inject private RunAsInstitution runAs;
+
+  @com.google.inject.Inject(optional = true)
+  @Named("harvester.fetchThreads")
+  private int fetchThreads = 4;
+
+  @com.google.inject.Inject(optional = true)
+  @Named("harvester.batchSize")
+  private int batchSize = 20;
 
   private HarvesterProfile profile;
 
@@ -65,39 +85,74 @@ public abstract class AbstractHarvesterProtocol implements ContentRepository {
   }
 
   private int runProfile(boolean testOnly) throws Exception {
-    Date lastRun = profile.getLastRun();
-    Date started = new Date();
-
-    Collection<LearningObject> results = getUpdatedLearningObjects(lastRun);
-
-    int i = 0;
-    int size = results.size();
+    final Date lastRun = profile.getLastRun();
+    final String server = profile.getAttribute("server");
 
     if (testOnly) {
+      HarvestPage page = getUpdatedLearningObjects(lastRun, null);
+      int size = page.getLearningObjects().size();
+      while (page.getResumptionToken() != null) {
+        page = getUpdatedLearningObjects(lastRun, page.getResumptionToken());
+        size += page.getLearningObjects().size();
+      }
       return size;
     }
 
-    LOGGER.info(
-        CurrentLocale.get("com.tle.core.harvester.log.run", profile.getAttribute("server")));
-    LOGGER.info(CurrentLocale.get("com.tle.core.harvester.log.results", size, lastRun.toString()));
-
-    for (LearningObject lobject : results) {
-      boolean boo = false;
-      processLearningObject(lobject);
-      if (boo) {
-        break;
-      }
+    LOGGER.info(CurrentLocale.get("com.tle.core.harvester.log.run", server));
 
-      LOGGER.info(
-          CurrentLocale.get(
-              "com.tle.core.harvester.log.process", ++i, profile.getAttribute("server")));
+    final ExecutorService fetchers =
+        Executors.newFixedThreadPool(
+            fetchThreads, new NamedThreadFactory("AbstractHarvesterProtocol.fetchers"));
+    final HarvestPipeline<Harvested> pipeline =
+        new HarvestPipeline<Harvested>(
+            new HarvestStages(CurrentInstitution.get()), fetchers, batchSize);
+    final HarvestRun run =
+        new HarvestRun(
+            profile,
+            new HarvestRun.Harvest() {
+              @Override
+              public HarvestPage getPage(@Nullable String resumptionToken) throws Exception {
+                return getUpdatedLearningObjects(lastRun, resumptionToken);
+              }
+
+              @Override
+              public void process(Collection<LearningObject> learningObjects)
+                  throws InterruptedException {
+                LOGGER.info(
+                    CurrentLocale.get(
+                        "com.tle.core.harvester.log.results",
+                        learningObjects.size(),
+                        lastRun.toString()));
+                pipeline.process(learningObjects);
+              }
+
+              @Override
+              public void checkpoint(@Nullable String resumptionToken, Date started) {
+                learningEdge.updateProfileCheckpoint(profile, resumptionToken, started);
+              }
+            });
+    try {
+      run.run();
+    } finally {
+      fetchers.shutdownNow();
     }
 
     LOGGER.info(
-        CurrentLocale.get("com.tle.core.harvester.log.total", i, profile.getAttribute("server")));
+        CurrentLocale.get("com.tle.core.harvester.log.total", pipeline.getUploaded(), server));
+    updateProfileRunDate(run.getStarted());
+    return run.getSize();
+  }
 
-    updateProfileRunDate(started);
-    return size;
+  /**
+   * Gets a page of the learning objects added or changed since the given date. Protocols that can
+   * page through the remote repository should override this, by default every object is returned
+   * in a single page.
+   *
+   * @param resumptionToken The token from the previous page, or null for the first page
+   */
+  protected HarvestPage getUpdatedLearningObjects(Date since, @Nullable String resumptionToken)
+      throws Exception {
+    return new HarvestPage(getUpdatedLearningObjects(since), null);
   }
 
   @Override
@@ -110,8 +165,40 @@ public abstract class AbstractHarvesterProtocol implements ContentRepository {
    */
   @Override
   public void processLearningObject(LearningObject lobject) {
-    String identifier = lobject.getIdentifier();
+    final HarvestStages stages = new HarvestStages(CurrentInstitution.get());
     try {
+      final Harvested harvested = stages.prepare(lobject);
+      if (harvested != null) {
+        fetch(harvested);
+        stages.upload(harvested);
+      }
+    } catch (Exception ex) {
+      stages.failed(lobject, ex);
+    }
+  }
+
+  /** Downloads the item attachment (if applicable) and does any post-processing to the XML */
+  private void fetch(Harvested harvested) throws Exception {
+    final LearningObject lobject = harvested.lobject;
+    if (lobject.hasAttachment()) {
+      String staging = harvested.item.getNode("item/staging");
+      downloadLO(lobject, staging);
+    }
+    postProcessing(harvested.item, lobject);
+  }
+
+  private final class HarvestStages implements HarvestPipeline.Stages<Harvested> {
+    private final Institution institution;
+    private int processed;
+
+    HarvestStages(Institution institution) {
+      this.institution = institution;
+    }
+
+    @Nullable
+    @Override
+    public Harvested prepare(LearningObject lobject) throws Exception {
+      String identifier = lobject.getIdentifier();
       // This will be our new item
       PropBagEx item;
       TLEItem oldItem = null;
@@ -153,7 +240,7 @@ public abstract class AbstractHarvesterProtocol implements ContentRepository {
           }
         } else {
           LOGGER.info(CurrentLocale.get("com.tle.core.harvester.log.exists", identifier));
-          return;
+          return null;
         }
       } else {
         LOGGER.info(CurrentLocale.get("com.tle.core.harvester.log.noprevious", identifier));
@@ -164,31 +251,96 @@ public abstract class AbstractHarvesterProtocol implements ContentRepository {
           item = learningEdge.newItem(itemDefByUuid);
         }
       }
+      return new Harvested(lobject, item);
+    }
+
+    @Override
+    public void fetch(final Harvested harvested) throws Exception {
+      runAs.executeAsSystem(
+          institution,
+          new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+              AbstractHarvesterProtocol.this.fetch(harvested);
+              return null;
+            }
+          });
+    }
 
-      // Download the item attachment (if applicable)
-      if (lobject.hasAttachment()) {
-        String staging = item.getNode("item/staging");
-        downloadLO(lobject, staging);
+    @Override
+    public void upload(List<Harvested> items) throws Exception {
+      final List<PropBagEx> xmls = new ArrayList<PropBagEx>();
+      for (Harvested harvested : items) {
+        uploading(harvested);
+        xmls.add(harvested.item);
+      }
+      learningEdge.uploadItems(xmls, itemDefByUuid);
+      for (int i = 0; i < items.size(); i++) {
+        uploaded();
       }
+    }
 
-      // Do any post-processing to the XML
-      postProcessing(item, lobject);
+    @Override
+    public void upload(Harvested harvested) throws Exception {
+      uploading(harvested);
+      learningEdge.uploadItem(harvested.item, itemDefByUuid);
+      uploaded();
+    }
 
-      // Upload the XML
-      LOGGER.info(CurrentLocale.get("com.tle.core.harvester.log.uploading", lobject.getTitle()));
-      learningEdge.uploadItem(item, itemDefByUuid);
-      LOGGER.info(CurrentLocale.get(KEY_PFX + "log.complete"));
+    private void uploading(Harvested harvested) {
+      LOGGER.info(
+          CurrentLocale.get("com.tle.core.harvester.log.uploading", harvested.lobject.getTitle()));
+    }
 
-    } catch (Exception ex) {
+    private void uploaded() {
+      LOGGER.info(
+          CurrentLocale.get(
+              "com.tle.core.harvester.log.process", ++processed, profile.getAttribute("server")));
+    }
+
+    @Override
+    public void failed(LearningObject lobject, Exception ex) {
       LOGGER.error(
           CurrentLocale.get(
               "com.tle.core.harvester.harvester.error.upload",
-              identifier,
+              lobject.getIdentifier(),
               profile.getAttribute("server")),
           ex);
     }
   }
 
+  private static final class Harvested {
+    final LearningObject lobject;
+    final PropBagEx item;
+
+    Harvested(LearningObject lobject, PropBagEx item) {
+      this.lobject = lobject;
+      this.item = item;
+    }
+  }
+
+  /** A page of the learning objects to harvest, and the token to get the next page with */
+  protected static final class HarvestPage {
+    private final Collection<LearningObject> learningObjects;
+    @Nullable private final String resumptionToken;
+
+    public HarvestPage(
+        Collection<LearningObject> learningObjects, @Nullable String resumptionToken) {
+      this.learningObjects = learningObjects;
+      this.resumptionToken = resumptionToken;
+    }
+
+    public Collection<LearningObject> getLearningObjects() {
+      return learningObjects;
+    }
+
+    /** @return The token for the next page, or null if this is the last */
+    @Nullable
+    public String getResumptionToken() {
+      return resumptionToken;
+    }
+  }
+
   protected OutputStream getOutputStream(StagingFile staging, String filename) throws IOException {
     return fileSystemService.getOutputStream(staging, filename, false);
   }
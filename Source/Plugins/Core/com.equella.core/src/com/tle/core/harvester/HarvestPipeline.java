@@ -0,0 +1,172 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.harvester;
+
+import com.tle.annotation.NonNullByDefault;
+import com.tle.annotation.Nullable;
+import com.tle.core.harvester.old.LearningObject;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import org.apache.log4j.Logger;
+
+/**
+ * Harvests learning objects a batch at a time. For each batch the existing items are looked up and
+ * the new items started on the calling thread, the attachments and metadata are then fetched from
+ * the remote repository by a bounded pool of threads, and the whole batch is uploaded in one
+ * transaction. If that transaction fails the items are uploaded one at a time, so a bad item only
+ * loses itself.
+ */
+@SuppressWarnings("nls")
+@NonNullByDefault
+public class HarvestPipeline<T> {
+  private static final Logger LOGGER = Logger.getLogger(HarvestPipeline.class);
+
+  public interface Stages<T> {
+    /**
+     * Looks up the existing item and starts the new one. Called on the harvesting thread.
+     *
+     * @return The new item, or null if the existing item is current
+     */
+    @Nullable
+    T prepare(LearningObject lobject) throws Exception;
+
+    /** Downloads the attachments and metadata. Called concurrently for the items of a batch. */
+    void fetch(T item) throws Exception;
+
+    /** Uploads the items in a single transaction */
+    void upload(List<T> items) throws Exception;
+
+    void upload(T item) throws Exception;
+
+    void failed(LearningObject lobject, Exception ex);
+  }
+
+  private final Stages<T> stages;
+  private final ExecutorService fetchers;
+  private final int batchSize;
+
+  private int uploaded;
+  private int failed;
+
+  /**
+   * @param fetchers The threads fetching, which bound how many objects are downloaded at once
+   * @param batchSize The most items uploaded in one transaction
+   */
+  public HarvestPipeline(Stages<T> stages, ExecutorService fetchers, int batchSize) {
+    this.stages = stages;
+    this.fetchers = fetchers;
+    this.batchSize = Math.max(1, batchSize);
+  }
+
+  /** Harvests a page of learning objects, returning once they have all been uploaded or failed */
+  public void process(Collection<? extends LearningObject> page) throws InterruptedException {
+    final List<LearningObject> batch = new ArrayList<LearningObject>();
+    final Set<String> identifiers = new HashSet<String>();
+    for (LearningObject lobject : page) {
+      // The same object appearing again must find the item uploaded for its first appearance
+      if (batch.size() == batchSize || !identifiers.add(lobject.getIdentifier())) {
+        processBatch(batch);
+        batch.clear();
+        identifiers.clear();
+        identifiers.add(lobject.getIdentifier());
+      }
+      batch.add(lobject);
+    }
+    processBatch(batch);
+  }
+
+  private void processBatch(List<LearningObject> batch) throws InterruptedException {
+    final List<LearningObject> fetching = new ArrayList<LearningObject>();
+    final List<Future<T>> fetches = new ArrayList<Future<T>>();
+    for (LearningObject lobject : batch) {
+      try {
+        final T item = stages.prepare(lobject);
+        if (item != null) {
+          fetches.add(
+              fetchers.submit(
+                  () -> {
+                    stages.fetch(item);
+                    return item;
+                  }));
+          fetching.add(lobject);
+        }
+      } catch (Exception ex) {
+        failed(lobject, ex);
+      }
+    }
+
+    final List<LearningObject> fetched = new ArrayList<LearningObject>();
+    final List<T> items = new ArrayList<T>();
+    try {
+      for (int i = 0; i < fetches.size(); i++) {
+        try {
+          items.add(fetches.get(i).get());
+          fetched.add(fetching.get(i));
+        } catch (ExecutionException ex) {
+          final Throwable cause = ex.getCause();
+          failed(
+              fetching.get(i),
+              cause instanceof Exception ? (Exception) cause : new RuntimeException(cause));
+        }
+      }
+    } catch (InterruptedException ex) {
+      for (Future<T> fetch : fetches) {
+        fetch.cancel(true);
+      }
+      throw ex;
+    }
+
+    if (items.isEmpty()) {
+      return;
+    }
+    try {
+      stages.upload(items);
+      uploaded += items.size();
+    } catch (Exception ex) {
+      LOGGER.warn("Uploading a batch of " + items.size() + " failed, retrying one at a time", ex);
+      for (int i = 0; i < items.size(); i++) {
+        try {
+          stages.upload(items.get(i));
+          uploaded++;
+        } catch (Exception itemEx) {
+          failed(fetched.get(i), itemEx);
+        }
+      }
+    }
+  }
+
+  private void failed(LearningObject lobject, Exception ex) {
+    failed++;
+    stages.failed(lobject, ex);
+  }
+
+  public int getUploaded() {
+    return uploaded;
+  }
+
+  public int getFailed() {
+    return failed;
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.harvester;
+
+import com.tle.annotation.NonNullByDefault;
+import com.tle.annotation.Nullable;
+import com.tle.common.Check;
+import com.tle.common.harvester.HarvesterProfile;
+import com.tle.core.harvester.AbstractHarvesterProtocol.HarvestPage;
+import com.tle.core.harvester.old.LearningObject;
+import java.util.Collection;
+import java.util.Date;
+import org.apache.log4j.Logger;
+
+/**
+ * Runs a harvest a page at a time. After each page the resumption token for the rest of the list is
+ * checkpointed, so a run which is interrupted carries on from the page it reached. If the remote
+ * repository no longer accepts the checkpointed token the run starts again from the first page.
+ */
+@SuppressWarnings("nls")
+@NonNullByDefault
+public class HarvestRun {
+  private static final Logger LOGGER = Logger.getLogger(HarvestRun.class);
+
+  /** Attributes are limited to 1024 characters, longer tokens can only restart the run */
+  private static final int MAX_CHECKPOINT_LENGTH = 1024;
+
+  public interface Harvest {
+    /** @param resumptionToken The token from the previous page, or null for the first page */
+    HarvestPage getPage(@Nullable String resumptionToken) throws Exception;
+
+    void process(Collection<LearningObject> learningObjects) throws Exception;
+
+    /**
+     * @param resumptionToken The token for the rest of the run, or null to clear the checkpoint
+     * @param started When the run began
+     */
+    void checkpoint(@Nullable String resumptionToken, Date started);
+  }
+
+  private final HarvesterProfile profile;
+  private final Harvest harvest;
+
+  private Date started;
+  private int size;
+
+  public HarvestRun(HarvesterProfile profile, Harvest harvest) {
+    this.profile = profile;
+    this.harvest = harvest;
+    this.started = new Date();
+  }
+
+  /** Harvests every page, resuming from the profile's checkpoint if it has one */
+  public void run() throws Exception {
+    final String server = profile.getAttribute("server");
+    final String resumeToken = profile.getAttribute(HarvesterProfileService.RESUMPTION_TOKEN);
+    final String resumeStarted = profile.getAttribute(HarvesterProfileService.RESUMPTION_STARTED);
+
+    HarvestPage page;
+    boolean checkpointed = false;
+    if (Check.isEmpty(resumeToken) || Check.isEmpty(resumeStarted)) {
+      page = harvest.getPage(null);
+    } else {
+      LOGGER.info("Resuming the interrupted harvest for profile " + server);
+      checkpointed = true;
+      try {
+        page = harvest.getPage(resumeToken);
+        started = new Date(Long.parseLong(resumeStarted));
+      } catch (Exception ex) {
+        // The remote repository has most likely expired the token
+        LOGGER.warn("Could not resume the harvest for profile " + server + ", starting again", ex);
+        page = harvest.getPage(null);
+      }
+    }
+
+    while (true) {
+      size += page.getLearningObjects().size();
+      harvest.process(page.getLearningObjects());
+
+      final String token = page.getResumptionToken();
+      if (token == null) {
+        break;
+      }
+      harvest.checkpoint(token.length() <= MAX_CHECKPOINT_LENGTH ? token : null, started);
+      checkpointed = true;
+      page = harvest.getPage(token);
+    }
+
+    if (checkpointed) {
+      harvest.checkpoint(null, started);
+    }
+  }
+
+  /** @return When the run began, or when the interrupted run it resumed began */
+  public Date getStarted() {
+    return started;
+  }
+
+  /** @return The number of learning objects listed */
+  public int getSize() {
+    return size;
+  }
+}
@@ -18,6 +18,7 @@
 
 package com.tle.core.harvester;
 
+import com.tle.annotation.Nullable;
 import com.tle.common.harvester.HarvesterProfile;
 import com.tle.common.harvester.RemoteHarvesterProfileService;
 import com.tle.core.entity.EntityEditingBean;
@@ -27,5 +28,18 @@ import java.util.Date;
 public interface HarvesterProfileService
     extends AbstractEntityService<EntityEditingBean, HarvesterProfile>,
         RemoteHarvesterProfileService {
+  /** Profile attribute holding the resumption token of an interrupted run */
+  String RESUMPTION_TOKEN = "resumptionToken"; // $NON-NLS-1$
+
+  /** Profile attribute holding when an interrupted run began, in milliseconds */
+  String RESUMPTION_STARTED = "resumptionStarted"; // $NON-NLS-1$
+
   void updateLastRun(HarvesterProfile profile, Date lastRun);
+
+  /**
+   * Saves how far a run has got, or clears it once the run is complete
+   *
+   * @param resumptionToken The token for the rest of the run, or null to clear it
+   */
+  void updateCheckpoint(HarvesterProfile profile, @Nullable String resumptionToken, Date started);
 }
@@ -19,11 +19,13 @@
 package com.tle.core.harvester;
 
 import com.dytech.devlib.PropBagEx;
+import com.tle.annotation.Nullable;
 import com.tle.beans.entity.itemdef.ItemDefinition;
 import com.tle.common.harvester.HarvesterProfile;
 import com.tle.common.searching.Search;
 import com.tle.core.harvester.old.TLEItem;
 import java.util.Date;
+import java.util.List;
 
 public interface LearningEdge {
   /**
@@ -61,6 +63,14 @@ public interface LearningEdge {
    */
   void uploadItem(PropBagEx itemXml, ItemDefinition itemDef) throws Exception;
 
+  /**
+   * Uploads several item xmls in a single transaction, so none are saved if any fails.
+   *
+   * @param itemXmls The item xmls
+   * @param itemDef The collection for them to go in
+   */
+  void uploadItems(List<PropBagEx> itemXmls, ItemDefinition itemDef) throws Exception;
+
   /**
    * Search the institution for an existing item
    *
@@ -76,6 +86,16 @@ public interface LearningEdge {
    */
   void updateProfileRunDate(HarvesterProfile profile, Date date);
 
+  /**
+   * Records how far a run of the profile has got, so that an interrupted run can carry on from
+   * there
+   *
+   * @param resumptionToken The token for the rest of the run, or null once the run is complete
+   * @param started When the run began
+   */
+  void updateProfileCheckpoint(
+      HarvesterProfile profile, @Nullable String resumptionToken, Date started);
+
   /**
    * Convert an ItemDefinition uuid to the object
    *
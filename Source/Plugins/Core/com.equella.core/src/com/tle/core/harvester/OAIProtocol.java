@@ -20,6 +20,7 @@ package com.tle.core.harvester;
 
 import com.dytech.devlib.Code;
 import com.dytech.devlib.PropBagEx;
+import com.tle.annotation.Nullable;
 import com.tle.common.harvester.HarvesterProfile;
 import com.tle.common.i18n.CurrentLocale;
 import com.tle.common.search.whereparser.WhereParser;
@@ -32,6 +33,7 @@ import com.tle.core.harvester.oai.data.List;
 import com.tle.core.harvester.oai.data.Record;
 import com.tle.core.harvester.oai.data.Repository;
 import com.tle.core.harvester.oai.data.ResumptionToken;
+import com.tle.core.harvester.oai.error.BadResumptionTokenException;
 import com.tle.core.harvester.oai.error.CannotDisseminateFormatException;
 import com.tle.core.harvester.oai.error.IdDoesNotExistException;
 import com.tle.core.harvester.oai.error.NoRecordsMatchException;
@@ -92,30 +94,45 @@ public class OAIProtocol extends AbstractHarvesterProtocol {
   @Override
   public Collection<LearningObject> getUpdatedLearningObjects(Date since) throws Exception {
     Collection<LearningObject> updated = new ArrayList<LearningObject>();
-    try {
-      List list = client.listIdentifiers(set, dateFormat.format(since), null, format);
+    HarvestPage page = getUpdatedLearningObjects(since, null);
+    updated.addAll(page.getLearningObjects());
+    while (page.getResumptionToken() != null) {
+      page = getUpdatedLearningObjects(since, page.getResumptionToken());
+      updated.addAll(page.getLearningObjects());
+    }
+    return updated;
+  }
 
-      if (list != null) {
-        addHeaders(updated, list);
+  @Override
+  protected HarvestPage getUpdatedLearningObjects(Date since, @Nullable String resumptionToken)
+      throws Exception {
+    Collection<LearningObject> updated = new ArrayList<LearningObject>();
+    try {
+      List list;
+      if (resumptionToken == null) {
+        list = client.listIdentifiers(set, dateFormat.format(since), null, format);
+        if (list == null) {
+          throw new NoRecordsMatchException();
+        }
       } else {
-        throw new NoRecordsMatchException();
+        ResumptionToken token = new ResumptionToken();
+        token.setToken(resumptionToken);
+        list = client.listIdentifiers(token);
+        if (list == null) {
+          // An error response, such as for an expired token
+          throw new BadResumptionTokenException();
+        }
       }
+      addHeaders(updated, list);
 
       ResumptionToken token = list.getResumptionToken();
-      while (token != null && token.getToken() != null && token.getToken().length() > 0) {
-        list = client.listIdentifiers(token);
-        if (list != null) {
-          addHeaders(updated, list);
-          token = list.getResumptionToken();
-        } else {
-          token = null;
-        }
+      if (token != null && token.getToken() != null && token.getToken().length() > 0) {
+        return new HarvestPage(updated, token.getToken());
       }
     } catch (NoRecordsMatchException e) {
       // Fair enough
     }
-
-    return updated;
+    return new HarvestPage(updated, null);
   }
 
   private void addHeaders(Collection<LearningObject> updated, List list) {
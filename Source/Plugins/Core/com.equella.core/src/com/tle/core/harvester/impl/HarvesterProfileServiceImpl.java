@@ -19,6 +19,7 @@
 package com.tle.core.harvester.impl;
 
 import com.dytech.edge.exceptions.RuntimeApplicationException;
+import com.tle.annotation.Nullable;
 import com.tle.common.beans.exception.ValidationError;
 import com.tle.common.harvester.HarvesterProfile;
 import com.tle.common.harvester.RemoteHarvesterProfileService;
@@ -83,6 +84,20 @@ public class HarvesterProfileServiceImpl
     harvesterProfileDao.updateLastRun(profile, lastRun);
   }
 
+  @Override
+  @Transactional
+  public void updateCheckpoint(
+      HarvesterProfile profile, @Nullable String resumptionToken, Date started) {
+    final HarvesterProfile stored = harvesterProfileDao.findById(profile.getId());
+    if (resumptionToken == null) {
+      stored.removeAttribute(RESUMPTION_TOKEN);
+      stored.removeAttribute(RESUMPTION_STARTED);
+    } else {
+      stored.setAttribute(RESUMPTION_TOKEN, resumptionToken);
+      stored.setAttribute(RESUMPTION_STARTED, Long.toString(started.getTime()));
+    }
+  }
+
   @Override
   protected void doValidation(
       EntityEditingSession<EntityEditingBean, HarvesterProfile> session,
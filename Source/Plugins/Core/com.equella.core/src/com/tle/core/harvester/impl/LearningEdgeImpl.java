@@ -21,6 +21,7 @@ package com.tle.core.harvester.impl;
 import com.dytech.devlib.PropBagEx;
 import com.dytech.edge.exceptions.ItemNotFoundException;
 import com.dytech.edge.exceptions.RuntimeApplicationException;
+import com.tle.annotation.Nullable;
 import com.tle.beans.entity.itemdef.ItemDefinition;
 import com.tle.beans.item.Item;
 import com.tle.beans.item.ItemId;
@@ -290,6 +291,14 @@ public class LearningEdgeImpl implements LearningEdge {
     itemHelper.convertToXml(ret, new ItemHelperSettings(true)).toString();
   }
 
+  @Override
+  @Transactional
+  public void uploadItems(List<PropBagEx> itemXmls, ItemDefinition itemDef) throws Exception {
+    for (PropBagEx itemXml : itemXmls) {
+      uploadItem(itemXml, itemDef);
+    }
+  }
+
   private ItemId getItemId(PropBagEx xml) {
     String uuid = xml.getNode("item/@id");
     int version = xml.getIntNode("item/@version", 0);
@@ -314,6 +323,12 @@ public class LearningEdgeImpl implements LearningEdge {
     harvesterProfileService.updateLastRun(profile, date);
   }
 
+  @Override
+  public void updateProfileCheckpoint(
+      HarvesterProfile profile, @Nullable String resumptionToken, Date started) {
+    harvesterProfileService.updateCheckpoint(profile, resumptionToken, started);
+  }
+
   @Override
   @Transactional
   public ItemDefinition getItemDefByUuid(String itemdef) {
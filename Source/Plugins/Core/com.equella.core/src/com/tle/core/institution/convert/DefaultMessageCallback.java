@@ -81,7 +81,7 @@ public class DefaultMessageCallback implements MessageCallback, Serializable {
     return null;
   }
 
-  public void incrementCurrent() {
+  public synchronized void incrementCurrent() {
     current++;
     values[0] = current;
   }
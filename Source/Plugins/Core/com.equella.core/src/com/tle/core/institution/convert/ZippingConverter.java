@@ -19,28 +19,97 @@
 package com.tle.core.institution.convert;
 
 import com.dytech.edge.common.Constants;
+import com.google.common.io.ByteStreams;
+import com.tle.annotation.Nullable;
 import com.tle.beans.Institution;
+import com.tle.common.filesystem.FileSystemHelper;
 import com.tle.common.filesystem.handle.ExportFile;
+import com.tle.common.filesystem.handle.FileHandle;
 import com.tle.common.filesystem.handle.TemporaryFileHandle;
 import com.tle.core.guice.Bind;
 import com.tle.core.institution.convert.service.InstitutionImportService.ConvertType;
 import com.tle.core.institution.convert.service.impl.InstitutionImportServiceImpl.ConverterTasks;
+import com.tle.core.util.archive.ArchiveCreator;
 import com.tle.core.util.archive.ArchiveProgress;
 import com.tle.core.util.archive.ArchiveType;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.zip.Deflater;
+import javax.inject.Named;
 import javax.inject.Singleton;
+import org.apache.log4j.Logger;
 
 /** @author aholland */
 @Bind
 @Singleton
+@SuppressWarnings("nls")
 public class ZippingConverter extends AbstractConverter<Object> {
+  private static final Logger LOGGER = Logger.getLogger(ZippingConverter.class);
+
   public static String ID = "ZIPFILES";
 
+  /** Lists the folders added with {@link #addFolder}, one per line, in the staging area */
+  private static final String LINKED_FOLDERS = "_linkedfolders.txt";
+
+  private static final String LINKED_FOLDERS_KEY = ZippingConverter.class.getName() + ".linked";
+
+  @com.google.inject.Inject(optional = true)
+  @Named("institutions.export.compressionLevel")
+  private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+
+  @com.google.inject.Inject(optional = true)
+  @Named("institutions.export.compressionThreads")
+  private int compressionThreads = 1;
+
   @Override
   public void doDelete(Institution institution, ConverterParams callback) {
     // nada
   }
 
+  /**
+   * @return Whether the export will be archived, in which case folders can be added to the archive
+   *     with {@link #addFolder} rather than being copied into the staging area
+   */
+  public boolean isArchiving(ConverterParams params) {
+    return params.getAttribute(LINKED_FOLDERS_KEY) != null;
+  }
+
+  /**
+   * Adds the contents of a folder outside the staging area to the archive, as if it had been
+   * copied to the given staging folder. The files are read straight into the archive when it is
+   * written. Files that are also in the staging folder are only taken from the staging folder.
+   */
+  public void addFolder(
+      ConverterParams params,
+      TemporaryFileHandle staging,
+      FileHandle stagingFolder,
+      FileHandle source)
+      throws IOException {
+    final LinkedFolders linked = params.getAttribute(LINKED_FOLDERS_KEY);
+    final Path root = fileSystemService.getExternalFile(staging, Constants.BLANK).toPath();
+    final Path folder = fileSystemService.getExternalFile(stagingFolder, Constants.BLANK).toPath();
+    linked.add(
+        root.resolve(LINKED_FOLDERS),
+        toArchivePath(root.relativize(folder)),
+        fileSystemService.getExternalFile(source, Constants.BLANK));
+  }
+
   @Override
   public void doExport(TemporaryFileHandle staging, Institution institution, ConverterParams params)
       throws IOException {
@@ -49,16 +118,167 @@ public class ZippingConverter extends AbstractConverter<Object> {
         new DefaultMessageCallback("institutions.converter.filestore.zipping"); // $NON-NLS-1$
     params.setMessageCallback(message);
 
-    int numFiles = fileSystemService.grep(staging, Constants.BLANK, "**").size(); // $NON-NLS-1$
+    final LinkedFolders linked = params.getAttribute(LINKED_FOLDERS_KEY);
+    if (linked != null) {
+      linked.close();
+    }
+    final Path root = fileSystemService.getExternalFile(staging, Constants.BLANK).toPath();
+    final Path linkedFolders = root.resolve(LINKED_FOLDERS);
+
+    long numFiles = countFiles(root);
+    if (Files.exists(linkedFolders)) {
+      numFiles--;
+      try (BufferedReader reader = Files.newBufferedReader(linkedFolders, StandardCharsets.UTF_8)) {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          numFiles += countFiles(Paths.get(line.substring(line.indexOf('\t') + 1)));
+        }
+      }
+    }
     message.setTotal(numFiles);
+    final ZippingProgress progress = new ZippingProgress(message);
+
+    try (OutputStream out =
+            fileSystemService.getOutputStream(
+                new ExportFile(staging.getMyPathComponent() + ".tgz"), // $NON-NLS-1$
+                Constants.BLANK,
+                false);
+        ArchiveCreator archiver =
+            ArchiveType.TAR_GZ.createArchiver(out, compressionLevel, compressionThreads)) {
+      archiveFolder(archiver, root, Constants.BLANK, null, linkedFolders, progress);
+
+      if (Files.exists(linkedFolders)) {
+        try (BufferedReader reader =
+            Files.newBufferedReader(linkedFolders, StandardCharsets.UTF_8)) {
+          String line;
+          while ((line = reader.readLine()) != null) {
+            final int tab = line.indexOf('\t');
+            final String archivePath = line.substring(0, tab);
+            archiveFolder(
+                archiver,
+                Paths.get(line.substring(tab + 1)),
+                archivePath + '/',
+                root.resolve(archivePath),
+                null,
+                progress);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Files are read through a channel opened before their entry is written, and the entry has the
+   * size the file had then. A file which grows while it is read is cut off at that size and one
+   * which shrinks is padded with zeros, so that a file changing can't corrupt the archive. Files
+   * and folders which are deleted before they can be read are skipped.
+   *
+   * @param prefix The path of the folder in the archive, ending in a slash unless it is the root
+   * @param stagingFolder If not null, files that exist under this folder are skipped
+   * @param exclude A file not to add to the archive, may be null
+   */
+  static void archiveFolder(
+      ArchiveCreator archiver,
+      Path folder,
+      String prefix,
+      @Nullable Path stagingFolder,
+      @Nullable Path exclude,
+      ArchiveProgress progress)
+      throws IOException {
+    if (!Files.isDirectory(folder)) {
+      return;
+    }
+    Files.walkFileTree(
+        folder,
+        new SkipDeletedVisitor() {
+          @Override
+          public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+              throws IOException {
+            if (Files.isDirectory(file) || file.equals(exclude)) {
+              return FileVisitResult.CONTINUE;
+            }
+            final Path relative = folder.relativize(file);
+            if (stagingFolder == null || !Files.exists(stagingFolder.resolve(relative))) {
+              archiveFile(archiver, file, prefix + toArchivePath(relative), progress);
+            }
+            return FileVisitResult.CONTINUE;
+          }
+        });
+  }
+
+  private static void archiveFile(
+      ArchiveCreator archiver, Path file, String relFilepath, ArchiveProgress progress)
+      throws IOException {
+    final FileChannel channel;
+    try {
+      channel = FileChannel.open(file, StandardOpenOption.READ);
+    } catch (NoSuchFileException e) {
+      skipIfDeleted(file, e);
+      return;
+    }
+    try (InputStream in = Channels.newInputStream(channel)) {
+      final long size = channel.size();
+      final OutputStream entry = archiver.newEntry(FileSystemHelper.decode(relFilepath), size);
+      try {
+        long remaining = size - ByteStreams.copy(ByteStreams.limit(in, size), entry);
+        if (remaining > 0) {
+          LOGGER.warn("File " + file + " shrank while it was being archived");
+          final byte[] zeros = new byte[(int) Math.min(remaining, 8192)];
+          while (remaining > 0) {
+            final int len = (int) Math.min(remaining, zeros.length);
+            entry.write(zeros, 0, len);
+            remaining -= len;
+          }
+        }
+      } finally {
+        archiver.closeEntry();
+      }
+    }
+    progress.nextEntry(relFilepath);
+  }
+
+  /** Skips files and folders which are deleted while the tree is being walked */
+  private static class SkipDeletedVisitor extends SimpleFileVisitor<Path> {
+    @Override
+    public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+      return skipIfDeleted(file, exc);
+    }
 
-    fileSystemService.zipFile(
-        staging,
-        Constants.BLANK,
-        new ExportFile(staging.getMyPathComponent() + ".tgz"), // $NON-NLS-1$
-        Constants.BLANK,
-        ArchiveType.TAR_GZ,
-        new ZippingProgress(message));
+    @Override
+    public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+      return exc == null ? FileVisitResult.CONTINUE : skipIfDeleted(dir, exc);
+    }
+  }
+
+  private static FileVisitResult skipIfDeleted(Path path, IOException exc) throws IOException {
+    if (!(exc instanceof NoSuchFileException)) {
+      throw exc;
+    }
+    LOGGER.warn("Not archiving " + path + " as it was deleted");
+    return FileVisitResult.CONTINUE;
+  }
+
+  private static long countFiles(Path folder) throws IOException {
+    if (!Files.isDirectory(folder)) {
+      return 0;
+    }
+    final long[] count = new long[1];
+    Files.walkFileTree(
+        folder,
+        new SkipDeletedVisitor() {
+          @Override
+          public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+            if (!Files.isDirectory(file)) {
+              count[0]++;
+            }
+            return FileVisitResult.CONTINUE;
+          }
+        });
+    return count[0];
+  }
+
+  private static String toArchivePath(Path relative) {
+    return relative.toString().replace(File.separatorChar, '/');
   }
 
   @Override
@@ -71,6 +291,33 @@ public class ZippingConverter extends AbstractConverter<Object> {
   public void addTasks(ConvertType type, ConverterTasks tasks, ConverterParams params) {
     if (type == ConvertType.EXPORT) {
       tasks.add(getStandardTask(ID));
+      params.setAttribute(LINKED_FOLDERS_KEY, new LinkedFolders());
+    }
+  }
+
+  /**
+   * Writes the folders to be added to the archive to a file, rather than keeping them in memory,
+   * since there is one for every item.
+   */
+  private static class LinkedFolders implements Closeable {
+    private Writer writer;
+
+    synchronized void add(Path file, String archivePath, File source) throws IOException {
+      if (writer == null) {
+        writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+      }
+      writer.write(archivePath);
+      writer.write('\t');
+      writer.write(source.getAbsolutePath());
+      writer.write('\n');
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+      if (writer != null) {
+        writer.close();
+        writer = null;
+      }
     }
   }
 
@@ -57,8 +57,10 @@ import com.tle.core.institution.convert.ConverterParams;
 import com.tle.core.institution.convert.DefaultMessageCallback;
 import com.tle.core.institution.convert.PostReadMigrator;
 import com.tle.core.institution.convert.TransactionThreadPool;
+import com.tle.core.institution.convert.ZippingConverter;
 import com.tle.core.institution.convert.service.InstitutionImportService.ConvertType;
 import com.tle.core.institution.convert.service.impl.InstitutionImportServiceImpl.ConverterTasks;
+import com.tle.core.item.convert.ItemImportBatches.ItemEntry;
 import com.tle.core.item.convert.WorkflowNodeConverter.WorkflowNodeSupplier;
 import com.tle.core.item.dao.ItemDao;
 import com.tle.core.item.dao.ItemLockingDao;
@@ -80,9 +82,15 @@ import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 import javax.annotation.PostConstruct;
 import javax.inject.Inject;
+import javax.inject.Named;
 import javax.inject.Singleton;
+import org.apache.log4j.Logger;
 import org.ccil.cowan.tagsoup.AttributesImpl;
 import org.ccil.cowan.tagsoup.Parser;
 import org.xml.sax.InputSource;
@@ -92,14 +100,32 @@ import org.xml.sax.XMLReader;
 @Bind
 @Singleton
 public class ItemConverter extends AbstractConverter<ItemConverter.ItemConverterInfo> {
+  private static final Logger LOGGER = Logger.getLogger(ItemConverter.class);
+
   private static final String ITEM_XML_FILE = "_ITEM/item.xml";
   private static final String ITEMS_EXPORT_IMPORT_FOLDER = "items";
   private static final String SYSTEM_ITEM_FOLDER = "_ITEM";
+  // Inserts and updates are sent in JDBC batches of this size by the import sessions only
+  private static final int IMPORT_JDBC_BATCH_SIZE = 50;
 
   @Inject private ItemDao itemDao;
   @Inject private ItemLockingDao itemLockingDao;
   @Inject private EntityRegistry registry;
   @Inject private ItemFileService itemFileService;
+  @Inject private ZippingConverter zippingConverter;
+
+  /** Threads importing items. Each thread imports batches of items in their own transaction. */
+  @com.google.inject.Inject(optional = true)
+  @Named("institutions.import.itemThreads")
+  private int importThreads = 1;
+
+  @com.google.inject.Inject(optional = true)
+  @Named("institutions.import.itemBatchSize")
+  private int importBatchSize = 50;
+
+  @com.google.inject.Inject(optional = true)
+  @Named("institutions.export.itemThreads")
+  private int exportThreads = 1;
 
   private final Random random = new Random();
 
@@ -180,106 +206,222 @@ public class ItemConverter extends AbstractConverter<ItemConverter.ItemConverter
     final DefaultMessageCallback message =
         new DefaultMessageCallback("institutions.converter.generic.calculateitems");
     params.setMessageCallback(message);
-    message.setKey("institutions.converter.items.itemsmsg");
 
     final List<String> entries = xmlHelper.getXmlFileList(allImportItemsFolder);
     message.setTotal(entries.size());
+    message.setKey("institutions.converter.items.scanmsg");
+    final long scanStart = System.nanoTime();
+    final List<List<String>> batches = getImportBatches(allImportItemsFolder, entries, message);
+    LOGGER.info(
+        "Scanned "
+            + entries.size()
+            + " items into "
+            + batches.size()
+            + " batches in "
+            + TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - scanStart)
+            + "s");
+
+    message.setCurrent(0);
+    message.setKey("institutions.converter.items.itemsmsg");
 
     final Map<Object, Object> sharedState = Collections.synchronizedMap(Maps.newHashMap());
     final Collection<PostReadMigrator<ItemConverterInfo>> migrations = getMigrations(params);
-    TransactionThreadPool threadPool = newThreadPool(1);
-    for (final String entry : entries) {
+    final ImportTimings timings = new ImportTimings();
+    final AtomicInteger batchesDone = new AtomicInteger();
+    // Log the stage timings so far at every tenth of the batches
+    final int logEvery = Math.max(1, batches.size() / 10);
+    TransactionThreadPool threadPool = new TransactionThreadPool(this, importThreads);
+    for (final List<String> batch : batches) {
       threadPool.doInTransaction(
           new Runnable() {
             @Override
             public void run() {
-              try {
-                final String dataFolderPath = entry.replace(".xml", Constants.BLANK);
-
-                Item item = new Item();
-                DataHolder dh = getXStream().newDataHolder();
-                dh.put(WorkflowNodeSupplier.class, new ItemWorkflowNodeSupplier(item));
-                xmlHelper.readXmlFile(allImportItemsFolder, entry, getXStream(), item, dh);
-                Long origId = item.getId();
-
-                // Fix up some weird cases where Data Created was null
-                // in 4.0 exports. May as well check Date Modified too.
-                Date c = item.getDateCreated();
-                Date m = item.getDateModified();
-                // Add some randomness to make the chance of finding an
-                // old stale
-                // indexed item negligible
-                item.setDateForIndex(new Date(Math.abs(random.nextLong() % 1000L)));
-                if (c == null) {
-                  c = m != null ? m : new Date();
-                  item.setDateCreated(c);
+              itemDao.setJdbcBatchSize(IMPORT_JDBC_BATCH_SIZE);
+              for (String entry : batch) {
+                try {
+                  importItem(
+                      allImportItemsFolder,
+                      entry,
+                      institution,
+                      params,
+                      sharedState,
+                      migrations,
+                      timings);
+                } catch (Exception e) {
+                  throw new RuntimeException("Error in " + entry, e);
                 }
+                message.incrementCurrent();
+              }
+              long start = System.nanoTime();
+              itemDao.flush();
+              itemDao.clear();
+              timings.database.addAndGet(System.nanoTime() - start);
 
-                if (m == null) {
-                  item.setDateModified(c);
-                }
+              final int done = batchesDone.incrementAndGet();
+              if (done % logEvery == 0 && done < batches.size()) {
+                LOGGER.info("Imported " + done + " of " + batches.size() + " batches. " + timings);
+              }
+            }
+          });
+      if (threadPool.hasException()) {
+        break;
+      }
+    }
+    threadPool.close();
+    LOGGER.info(
+        "Imported "
+            + entries.size()
+            + " items in "
+            + batches.size()
+            + " batches on "
+            + importThreads
+            + " threads. "
+            + timings);
+  }
 
-                // If an item def doesn't have a workflow, then the item
-                // should definitely not have any moderation status.
-                if (item.getItemDefinition().getWorkflow() == null) {
-                  ModerationStatus moderation = item.getModeration();
-                  if (moderation != null) {
-                    moderation.getStatuses().clear();
+  /**
+   * Reads the uuid and version of every item so that the items can be split into batches. Reading
+   * is done in parallel since the files are otherwise only read by the import itself.
+   */
+  private List<List<String>> getImportBatches(
+      final SubTemporaryFile allImportItemsFolder,
+      List<String> entries,
+      final DefaultMessageCallback message) {
+    final List<ItemEntry> items =
+        entries
+            .parallelStream()
+            .map(
+                entry -> {
+                  ItemEntry item;
+                  try (InputStream in = fileSystemService.read(allImportItemsFolder, entry)) {
+                    item = ItemImportBatches.readEntry(entry, in);
+                  } catch (Exception e) {
+                    item = new ItemEntry(entry, null, 0);
                   }
-                }
+                  message.incrementCurrent();
+                  return item;
+                })
+            .collect(Collectors.toList());
+    return ItemImportBatches.partition(items, importBatchSize);
+  }
 
-                // data folder
-                final SubTemporaryFile importItemFolder =
-                    new SubTemporaryFile(allImportItemsFolder, dataFolderPath);
-                final ItemFile itemFolder = itemFileService.getItemFile(item);
-                if (!params.hasFlag(ConverterParams.NO_ITEMSATTACHMENTS)) {
-                  fileSystemService.commitFiles(importItemFolder, itemFolder);
-                } else {
-                  fileSystemService.copy(importItemFolder, itemFolder);
-                }
+  private void importItem(
+      SubTemporaryFile allImportItemsFolder,
+      String entry,
+      Institution institution,
+      ConverterParams params,
+      Map<Object, Object> sharedState,
+      Collection<PostReadMigrator<ItemConverterInfo>> migrations,
+      ImportTimings timings)
+      throws IOException {
+    long start = System.nanoTime();
+    final String dataFolderPath = entry.replace(".xml", Constants.BLANK);
+
+    Item item = new Item();
+    DataHolder dh = getXStream().newDataHolder();
+    dh.put(WorkflowNodeSupplier.class, new ItemWorkflowNodeSupplier(item));
+    xmlHelper.readXmlFile(allImportItemsFolder, entry, getXStream(), item, dh);
+    Long origId = item.getId();
+
+    // Fix up some weird cases where Data Created was null
+    // in 4.0 exports. May as well check Date Modified too.
+    Date c = item.getDateCreated();
+    Date m = item.getDateModified();
+    // Add some randomness to make the chance of finding an
+    // old stale
+    // indexed item negligible
+    item.setDateForIndex(new Date(Math.abs(random.nextLong() % 1000L)));
+    if (c == null) {
+      c = m != null ? m : new Date();
+      item.setDateCreated(c);
+    }
 
-                // This needs to happen before the PostReadMigrations
-                changeHardcodedUrls(params, itemFolder);
+    if (m == null) {
+      item.setDateModified(c);
+    }
 
-                ItemConverterInfo info =
-                    new ItemConverterInfo(item, itemFolder, sharedState, params);
-                runMigrations(migrations, info);
-                // just to initialise it
-                item.getNavigationSettings();
-                item.setInstitution(institution);
-                initialiserService.initialiseClones(item);
+    // If an item def doesn't have a workflow, then the item
+    // should definitely not have any moderation status.
+    if (item.getItemDefinition().getWorkflow() == null) {
+      ModerationStatus moderation = item.getModeration();
+      if (moderation != null) {
+        moderation.getStatuses().clear();
+      }
+    }
+    start = timings.parse.lap(start);
+
+    // data folder
+    final SubTemporaryFile importItemFolder =
+        new SubTemporaryFile(allImportItemsFolder, dataFolderPath);
+    final ItemFile itemFolder = itemFileService.getItemFile(item);
+    if (!params.hasFlag(ConverterParams.NO_ITEMSATTACHMENTS)) {
+      fileSystemService.commitFiles(importItemFolder, itemFolder);
+    } else {
+      fileSystemService.copy(importItemFolder, itemFolder);
+    }
 
-                storeXml(params, item, itemFolder, institution);
+    // This needs to happen before the PostReadMigrations
+    changeHardcodedUrls(params, itemFolder);
+    start = timings.files.lap(start);
+
+    ItemConverterInfo info = new ItemConverterInfo(item, itemFolder, sharedState, params);
+    runMigrations(migrations, info);
+    // just to initialise it
+    item.getNavigationSettings();
+    item.setInstitution(institution);
+    initialiserService.initialiseClones(item);
+
+    storeXml(params, item, itemFolder, institution);
+    start = timings.migration.lap(start);
+
+    itemDao.save(item);
+    saveList(item.getComments());
+    saveList(item.getAcceptances());
+    runExtras(
+        info,
+        getXStream(),
+        new SubTemporaryFile(allImportItemsFolder, dataFolderPath + "-extra"),
+        true);
+    timings.database.lap(start);
+
+    // The item is flushed with the rest of the batch, but it has its id
+    params.getItems().put(origId, item.getId());
+  }
 
-                itemDao.save(item);
-                saveList(item.getComments());
-                saveList(item.getAcceptances());
-                runExtras(
-                    info,
-                    getXStream(),
-                    new SubTemporaryFile(allImportItemsFolder, dataFolderPath + "-extra"),
-                    true);
-                itemDao.flush();
-                itemDao.clear();
+  /** Time spent in each stage of importing items, summed over all the threads. */
+  private static final class ImportTimings {
+    final Stage parse = new Stage();
+    final Stage files = new Stage();
+    final Stage migration = new Stage();
+    final Stage database = new Stage();
 
-                params.getItems().put(origId, item.getId());
+    @Override
+    public String toString() {
+      return "Parsing "
+          + parse
+          + ", files "
+          + files
+          + ", migrations "
+          + migration
+          + ", database "
+          + database;
+    }
 
-                message.incrementCurrent();
-              } catch (Exception e) {
-                throw new RuntimeException("Error in " + entry, e);
-              }
-            }
-          });
-      if (threadPool.hasException()) {
-        break;
+    static final class Stage extends AtomicLong {
+      private static final long serialVersionUID = 1L;
+
+      /** @return The time now, for timing the next stage */
+      long lap(long start) {
+        final long now = System.nanoTime();
+        addAndGet(now - start);
+        return now;
       }
-    }
-    threadPool.close();
-  }
 
-  private TransactionThreadPool newThreadPool(int threads) {
-    // FIXME see EQ-2532 come up with a better solution
-    return new TransactionThreadPool(this, 1);
+      @Override
+      public String toString() {
+        return TimeUnit.NANOSECONDS.toSeconds(get()) + "s";
+      }
+    }
   }
 
   void runExtras(
@@ -440,6 +582,8 @@ public class ItemConverter extends AbstractConverter<ItemConverter.ItemConverter
     xmlHelper.writeExportFormatXmlFile(allExportedItemsFolder, true);
 
     final boolean attachments = !params.hasFlag(ConverterParams.NO_ITEMSATTACHMENTS);
+    // Attachments are read straight into the export archive rather than copied to staging
+    final boolean archiving = zippingConverter.isArchiving(params);
     final DefaultMessageCallback message =
         new DefaultMessageCallback("institutions.converter.generic.calculateitems");
     params.setMessageCallback(message);
@@ -447,7 +591,7 @@ public class ItemConverter extends AbstractConverter<ItemConverter.ItemConverter
     message.setKey("institutions.converter.items.itemsmsg");
     message.setTotal(ids.size());
 
-    TransactionThreadPool pool = newThreadPool(4);
+    TransactionThreadPool pool = new TransactionThreadPool(this, exportThreads);
     final Map<Object, Object> sharedState = Collections.synchronizedMap(Maps.newHashMap());
     for (final ItemIdKey id : ids) {
       pool.doInTransaction(
@@ -470,7 +614,9 @@ public class ItemConverter extends AbstractConverter<ItemConverter.ItemConverter
 
                 ItemConverterInfo info = new ItemConverterInfo(item, itemFile, sharedState, params);
                 if (fileSystemService.fileExists(itemFile)) {
-                  if (attachments) {
+                  if (attachments && archiving) {
+                    zippingConverter.addFolder(params, staging, exportedItemFolder, itemFile);
+                  } else if (attachments) {
                     fileSystemService.copyToStaging(itemFile, exportedItemFolder, false);
                   } else {
                     fileSystemService.copyToStaging(
@@ -0,0 +1,123 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.item.convert;
+
+import com.tle.annotation.Nullable;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Splits the items of an institution export into batches that can be imported by separate
+ * threads. Every version of an item is put in the same batch, in version order, so that versions
+ * are always imported oldest first no matter how many threads are importing.
+ */
+@SuppressWarnings("nls")
+final class ItemImportBatches {
+  private static final XMLInputFactory XML_INPUT_FACTORY = XMLInputFactory.newInstance();
+
+  private ItemImportBatches() {
+    throw new Error();
+  }
+
+  static final class ItemEntry {
+    final String path;
+    @Nullable final String uuid;
+    final int version;
+
+    ItemEntry(String path, @Nullable String uuid, int version) {
+      this.path = path;
+      this.uuid = uuid;
+      this.version = version;
+    }
+  }
+
+  /**
+   * Reads the uuid and version of an exported item, which are near the start of the file, without
+   * reading the rest of it.
+   */
+  static ItemEntry readEntry(String path, InputStream in) throws XMLStreamException {
+    String uuid = null;
+    int version = 0;
+    boolean hasVersion = false;
+    final XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(in);
+    try {
+      int depth = 0;
+      while (reader.hasNext() && (uuid == null || !hasVersion)) {
+        final int event = reader.next();
+        if (event == XMLStreamConstants.START_ELEMENT) {
+          depth++;
+          if (depth == 2) {
+            final String name = reader.getLocalName();
+            if (name.equals("uuid")) {
+              uuid = reader.getElementText().trim();
+              depth--;
+            } else if (name.equals("version")) {
+              version = Integer.parseInt(reader.getElementText().trim());
+              hasVersion = true;
+              depth--;
+            }
+          }
+        } else if (event == XMLStreamConstants.END_ELEMENT) {
+          depth--;
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    return new ItemEntry(path, uuid, version);
+  }
+
+  /**
+   * @param batchSize The number of items to aim for in each batch. A batch may be larger when an
+   *     item has many versions.
+   * @return The paths of the items, in batches
+   */
+  static List<List<String>> partition(List<ItemEntry> entries, int batchSize) {
+    final Map<String, List<ItemEntry>> items = new LinkedHashMap<String, List<ItemEntry>>();
+    for (ItemEntry entry : entries) {
+      // Anything unreadable is left to fail when it is imported
+      final String key = entry.uuid != null ? entry.uuid : "#" + entry.path;
+      items.computeIfAbsent(key, k -> new ArrayList<ItemEntry>()).add(entry);
+    }
+
+    final List<List<String>> batches = new ArrayList<List<String>>();
+    List<String> batch = new ArrayList<String>();
+    for (List<ItemEntry> versions : items.values()) {
+      versions.sort((v1, v2) -> Integer.compare(v1.version, v2.version));
+      for (ItemEntry version : versions) {
+        batch.add(version.path);
+      }
+      if (batch.size() >= batchSize) {
+        batches.add(batch);
+        batch = new ArrayList<String>();
+      }
+    }
+    if (!batch.isEmpty()) {
+      batches.add(batch);
+    }
+    return batches;
+  }
+}
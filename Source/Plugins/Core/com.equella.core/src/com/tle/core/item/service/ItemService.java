@@ -19,6 +19,7 @@
 package com.tle.core.item.service;
 
 import com.dytech.devlib.PropBagEx;
+import com.dytech.devlib.ReadOnlyPropBag;
 import com.dytech.edge.common.ScriptContext;
 import com.dytech.edge.exceptions.AttachmentNotFoundException;
 import com.dytech.edge.exceptions.ItemNotFoundException;
@@ -90,6 +91,16 @@ public interface ItemService
   /** Use the other version if possible */
   PropBagEx getItemXmlPropBag(ItemKey key);
 
+  /**
+   * A shared copy of the item's XML that is parsed once and cached, for pages that list or report
+   * on many items and only read their XML. Code that modifies the XML or hands it on, such as the
+   * summary page, the serialisers and the indexer, must use {@link #getItemXmlPropBag(Item)}.
+   */
+  ReadOnlyPropBag getReadOnlyItemXml(Item item);
+
+  /** Use the other version if possible */
+  ReadOnlyPropBag getReadOnlyItemXml(ItemKey key);
+
   List<Item> queryItems(List<Long> itemkeys);
 
   List<Item> queryItems(List<ItemIdKey> itemkeys, ItemSelect select);
@@ -21,6 +21,7 @@ package com.tle.core.item.service.impl;
 import static com.tle.beans.entity.LanguageBundle.initBundle;
 
 import com.dytech.devlib.PropBagEx;
+import com.dytech.devlib.ReadOnlyPropBag;
 import com.dytech.edge.common.Constants;
 import com.dytech.edge.common.LockedException;
 import com.dytech.edge.common.PropBagWrapper;
@@ -137,6 +138,7 @@ public class ItemServiceImpl
 
   private final Cache<String, Set<String>> privilegeCache =
       CacheBuilder.newBuilder().softValues().expireAfterAccess(30, TimeUnit.SECONDS).build();
+  private final ItemXmlCache itemXmlCache = new ItemXmlCache();
   private final Map<String, List<Extension>> operationExtensionMap =
       new HashMap<String, List<Extension>>();
   private final Collection<String> itemPrivileges;
@@ -278,13 +280,11 @@ public class ItemServiceImpl
     return getInternal(key, false);
   }
 
-  @Transactional
   @Override
   public void incrementViews(Item item) {
     ViewCountJavaDao.incrementSummaryViews(item.getItemId());
   }
 
-  @Transactional
   @Override
   public void incrementViews(Attachment attachment) {
     ViewCountJavaDao.incrementAttachmentViews(
@@ -360,6 +360,16 @@ public class ItemServiceImpl
     return getItemXmlPropBag(getInternal(key, true));
   }
 
+  @Override
+  public ReadOnlyPropBag getReadOnlyItemXml(Item item) {
+    return itemXmlCache.get(item);
+  }
+
+  @Override
+  public ReadOnlyPropBag getReadOnlyItemXml(ItemKey key) {
+    return getReadOnlyItemXml(getInternal(key, true));
+  }
+
   @Override
   public List<Item> queryItems(List<Long> itemkeys) {
     return dao.getItems(itemkeys, new ItemSelect(), CurrentInstitution.get());
@@ -0,0 +1,74 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.item.service.impl;
+
+import com.dytech.devlib.ReadOnlyPropBag;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.tle.beans.item.Item;
+import com.tle.beans.item.ItemXml;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsed item XML, keyed by item ID, which is per version. Entries are only used while the item's
+ * index date is unchanged, as every save bumps it, so edits on this or any other node never see a
+ * stale copy. The cached copies are read-only, so callers can't change what others are given.
+ */
+class ItemXmlCache {
+  private static final ReadOnlyPropBag EMPTY_XML = new ReadOnlyPropBag("<xml/>"); // $NON-NLS-1$
+
+  private final Cache<Long, CachedItemXml> cache =
+      CacheBuilder.newBuilder()
+          .maximumWeight(64 * 1024)
+          .<Long, CachedItemXml>weigher(
+              (id, cached) ->
+                  (int) Math.min(Integer.MAX_VALUE, cached.xml.sizeInBytes() / 1024 + 1))
+          .expireAfterAccess(30, TimeUnit.MINUTES)
+          .build();
+
+  ReadOnlyPropBag get(Item item) {
+    ItemXml itemXml = item.getItemXml();
+    String xml = itemXml == null ? null : itemXml.getXml();
+    if (xml == null) {
+      return EMPTY_XML;
+    }
+    Date modified = item.getDateForIndex();
+    if (item.getId() == 0 || modified == null) {
+      // Not saved yet
+      return new ReadOnlyPropBag(xml);
+    }
+    CachedItemXml cached = cache.getIfPresent(item.getId());
+    if (cached == null || cached.modified != modified.getTime()) {
+      cached = new CachedItemXml(modified.getTime(), new ReadOnlyPropBag(xml));
+      cache.put(item.getId(), cached);
+    }
+    return cached.xml;
+  }
+
+  private static class CachedItemXml {
+    final long modified;
+    final ReadOnlyPropBag xml;
+
+    CachedItemXml(long modified, ReadOnlyPropBag xml) {
+      this.modified = modified;
+      this.xml = xml;
+    }
+  }
+}
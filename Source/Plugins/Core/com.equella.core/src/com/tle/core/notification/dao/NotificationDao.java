@@ -49,7 +49,12 @@ public interface NotificationDao extends GenericInstitutionalDao<Notification, L
 
   boolean userIdChanged(ItemKey itemKey, String fromUserId, String toUserId);
 
-  NotifiedUser getUserToNotify(Date notAfter, String attemptId, boolean batched);
+  /**
+   * @return Up to maximum users with notifications that have not been tried in this attempt or
+   *     since notAfter
+   */
+  List<NotifiedUser> getUsersToNotify(
+      Date notAfter, String attemptId, boolean batched, int maximum);
 
   int updateLastAttempt(String user, boolean batched, Date date, String attemptId);
 
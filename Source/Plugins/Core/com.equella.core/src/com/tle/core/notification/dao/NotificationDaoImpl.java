@@ -232,11 +232,12 @@ public class NotificationDaoImpl extends GenericInstitionalDaoImpl<Notification,
                 });
   }
 
+  @SuppressWarnings("unchecked")
   @Override
   @Transactional(propagation = Propagation.MANDATORY)
-  public NotifiedUser getUserToNotify(
-      final Date notAfter, final String attemptId, final boolean batched) {
-    return (NotifiedUser)
+  public List<NotifiedUser> getUsersToNotify(
+      final Date notAfter, final String attemptId, final boolean batched, final int maximum) {
+    return (List<NotifiedUser>)
         getHibernateTemplate()
             .execute(
                 new HibernateCallback() {
@@ -250,12 +251,12 @@ public class NotificationDaoImpl extends GenericInstitionalDaoImpl<Notification,
                     query.setParameter("date", notAfter);
                     query.setParameter("batched", batched);
                     query.setParameter(ATTEMPT, attemptId);
-                    query.setMaxResults(1);
-                    Object[] vals = (Object[]) query.uniqueResult();
-                    if (vals == null) {
-                      return null;
+                    query.setMaxResults(maximum);
+                    List<NotifiedUser> users = new ArrayList<NotifiedUser>();
+                    for (Object[] vals : (List<Object[]>) query.list()) {
+                      users.add(new NotifiedUser((String) vals[0], ((Number) vals[1]).longValue()));
                     }
-                    return new NotifiedUser((String) vals[0], ((Number) vals[1]).longValue());
+                    return users;
                   }
                 });
   }
@@ -60,11 +60,14 @@ import java.util.UUID;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.PostConstruct;
 import javax.inject.Inject;
+import javax.inject.Named;
 import javax.inject.Singleton;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -84,9 +87,20 @@ public class NotificationServiceImpl implements NotificationService {
   private static String keyPrefix =
       PluginServiceImpl.getMyPluginId(NotificationServiceImpl.class) + ".";
 
-  private final Executor emailerPool =
-      Executors.newFixedThreadPool(
-          4, new NamedThreadFactory("NotificationServiceImpl.emailerPool"));
+  @com.google.inject.Inject(optional = true)
+  @Named("notifications.userBatchSize")
+  private int userBatchSize = 100;
+
+  @com.google.inject.Inject(optional = true)
+  @Named("notifications.renderThreads")
+  private int renderThreads = 4;
+
+  @com.google.inject.Inject(optional = true)
+  @Named("notifications.sendThreads")
+  private int sendThreads = 4;
+
+  private ExecutorService emailerPool;
+  private ExecutorService renderPool;
   private final Executor backgroundProcess = Executors.newSingleThreadExecutor();
 
   @Inject private RunAsInstitution runAs;
@@ -99,6 +113,16 @@ public class NotificationServiceImpl implements NotificationService {
 
   private PluginTracker<NotificationExtension> extensionTracker;
 
+  @PostConstruct
+  public void setupPools() {
+    emailerPool =
+        Executors.newFixedThreadPool(
+            sendThreads, new NamedThreadFactory("NotificationServiceImpl.emailerPool"));
+    renderPool =
+        Executors.newFixedThreadPool(
+            renderThreads, new NamedThreadFactory("NotificationServiceImpl.renderPool"));
+  }
+
   @Override
   @Transactional
   public void addNotification(ItemKey itemId, String reason, String userTo, boolean batched) {
@@ -176,26 +200,57 @@ public class NotificationServiceImpl implements NotificationService {
     return notification;
   }
 
+  /**
+   * Users with notifications are claimed a batch at a time. Their emails are rendered in parallel,
+   * one user per render thread, and handed to the emailer pool as soon as they are rendered. The
+   * next batch is only claimed once every user in the current one has been marked as attempted.
+   */
   public void emailTask(final boolean batched) {
+    final long start = System.currentTimeMillis();
     final Date notBefore = new Date(System.currentTimeMillis() - RETRY_MILLIS);
     final Date processTime = new Date();
     final String attemptId = UUID.randomUUID().toString();
     final ExecutorCompletionService<EmailResult<EmailKey>> completionService =
         new ExecutorCompletionService<EmailResult<EmailKey>>(emailerPool);
     final AtomicInteger emailCounter = new AtomicInteger();
+    final DeliveryCounts counts = new DeliveryCounts();
     Multimap<Long, Institution> availableInsts = institutionService.getAvailableMap();
-    for (Long schemaId : availableInsts.keySet()) {
+    for (final Long schemaId : availableInsts.keySet()) {
       schemaDataSourceService.executeWithSchema(
           schemaId,
           new Callable<Void>() {
             @Override
-            public Void call() {
+            public Void call() throws Exception {
+              List<NotifiedUser> users;
+              while (!(users = claimUsers(notBefore, attemptId, batched)).isEmpty()) {
+                List<Future<Void>> renders = Lists.newArrayList();
+                for (final NotifiedUser user : users) {
+                  renders.add(
+                      schemaDataSourceService.executeWithSchema(
+                          renderPool,
+                          schemaId,
+                          new Callable<Void>() {
+                            @Override
+                            public Void call() {
+                              processUser(
+                                  user,
+                                  processTime,
+                                  completionService,
+                                  emailCounter,
+                                  attemptId,
+                                  batched);
+                              return null;
+                            }
+                          }));
+                }
+                for (Future<Void> render : renders) {
+                  render.get();
+                }
+                counts.users += users.size();
 
-              while (processFirstUser(
-                  notBefore, processTime, completionService, emailCounter, attemptId, batched)) {
                 Future<EmailResult<EmailKey>> result;
                 while ((result = completionService.poll()) != null) {
-                  processResult(result, emailCounter);
+                  processResult(result, emailCounter, counts);
                 }
               }
               return null;
@@ -204,19 +259,43 @@ public class NotificationServiceImpl implements NotificationService {
     }
     try {
       while (emailCounter.intValue() > 0) {
-        processResult(completionService.take(), emailCounter);
+        processResult(completionService.take(), emailCounter, counts);
       }
     } catch (InterruptedException e) {
       LOGGER.error("Error waiting for emails");
     }
+
+    if (counts.users > 0) {
+      long millis = Math.max(1, System.currentTimeMillis() - start);
+      LOGGER.info(
+          "Notified "
+              + counts.users
+              + " users in "
+              + millis
+              + "ms, sent "
+              + counts.sent
+              + " emails ("
+              + counts.sent * 1000 / millis
+              + "/s), "
+              + counts.failed
+              + " failed. SMTP delivery "
+              + emailService.getDeliveryStatistics());
+    }
   }
 
   protected void processResult(
-      final Future<EmailResult<EmailKey>> result, AtomicInteger emailCounter) {
+      final Future<EmailResult<EmailKey>> result,
+      AtomicInteger emailCounter,
+      DeliveryCounts counts) {
     emailCounter.decrementAndGet();
     try {
       final EmailResult<EmailKey> emailResult = result.get();
       final EmailKey key = emailResult.getKey();
+      if (emailResult.getError() == null) {
+        counts.sent++;
+      } else {
+        counts.failed++;
+      }
       runAs.executeAsSystem(
           key.institution(),
           new Callable<Void>() {
@@ -249,48 +328,56 @@ public class NotificationServiceImpl implements NotificationService {
   }
 
   @Transactional
-  protected boolean processFirstUser(
-      Date notAfter,
+  protected List<NotifiedUser> claimUsers(Date notAfter, String attemptId, boolean batched) {
+    return dao.getUsersToNotify(notAfter, attemptId, batched, userBatchSize);
+  }
+
+  @Transactional
+  protected void processUser(
+      NotifiedUser userToNotify,
       final Date processTime,
       ExecutorCompletionService<EmailResult<EmailKey>> completionService,
       AtomicInteger emailCounter,
       final String attemptId,
       final boolean batched) {
-    NotifiedUser userToNotify = dao.getUserToNotify(notAfter, attemptId, batched);
-    if (userToNotify != null) {
-      final String user = userToNotify.getUser();
-      Institution institution = institutionService.getInstitution(userToNotify.getInstId());
-      try {
-        Iterable<Callable<EmailResult<EmailKey>>> emailer =
-            runAsUser.execute(
-                institution,
-                user,
-                new NotificationEmailer(batched, processTime, attemptId, dao, emailService));
-        for (Callable<EmailResult<EmailKey>> em : emailer) {
-          emailCounter.incrementAndGet();
-          completionService.submit(em);
-        }
-      } catch (UserException ue) {
-        runAs.executeAsSystem(
-            institution,
-            new Runnable() {
-              @Override
-              public void run() {
-                dao.updateLastAttempt(user, batched, processTime, attemptId);
-                Map<String, Integer> reasonCounts = dao.getReasonCounts(user, attemptId);
-                List<String> processed = Lists.newArrayList();
-                List<String> deletes = Lists.newArrayList();
-                for (Entry<String, Integer> reasonCount : reasonCounts.entrySet()) {
-                  String reason = reasonCount.getKey();
-                  (getExtensionForType(reason).isIndexed(reason) ? processed : deletes).add(reason);
-                }
-                dao.deleteUnindexed(user, deletes, attemptId);
-                dao.markProcessed(user, processed, attemptId);
-              }
-            });
+    final String user = userToNotify.getUser();
+    Institution institution = institutionService.getInstitution(userToNotify.getInstId());
+    try {
+      Iterable<Callable<EmailResult<EmailKey>>> emailer =
+          runAsUser.execute(
+              institution,
+              user,
+              new NotificationEmailer(batched, processTime, attemptId, dao, emailService));
+      for (Callable<EmailResult<EmailKey>> em : emailer) {
+        emailCounter.incrementAndGet();
+        completionService.submit(em);
       }
+    } catch (UserException ue) {
+      runAs.executeAsSystem(
+          institution,
+          new Runnable() {
+            @Override
+            public void run() {
+              dao.updateLastAttempt(user, batched, processTime, attemptId);
+              Map<String, Integer> reasonCounts = dao.getReasonCounts(user, attemptId);
+              List<String> processed = Lists.newArrayList();
+              List<String> deletes = Lists.newArrayList();
+              for (Entry<String, Integer> reasonCount : reasonCounts.entrySet()) {
+                String reason = reasonCount.getKey();
+                (getExtensionForType(reason).isIndexed(reason) ? processed : deletes).add(reason);
+              }
+              dao.deleteUnindexed(user, deletes, attemptId);
+              dao.markProcessed(user, processed, attemptId);
+            }
+          });
     }
-    return userToNotify != null;
+  }
+
+  /** Only updated by the thread running the task. */
+  private static class DeliveryCounts {
+    int users;
+    int sent;
+    int failed;
   }
 
   @Override
@@ -34,11 +34,17 @@ public interface QuotaService {
 
   long getFileSize(FileHandle file);
 
+  /**
+   * @return The bytes the institution stores, from the running total kept as files change. The
+   *     first call after startup scans the filestores in the background, and only counts the
+   *     changes since startup until the scan finishes.
+   */
   long getInstitutionalConsumption(Institution inst);
 
   Collection<Institution> getInstitutionsWithFilestoreLimits();
 
   boolean isInstitutionOverLimit(Institution inst);
 
+  /** Rescans the institution's filestores on a low priority thread to correct the running total */
   void refreshCache(Institution inst);
 }
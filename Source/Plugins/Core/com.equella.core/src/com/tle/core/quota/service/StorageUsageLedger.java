@@ -0,0 +1,193 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.quota.service;
+
+import com.tle.annotation.NonNullByDefault;
+import com.tle.annotation.Nullable;
+import com.tle.core.guice.Bind;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.inject.Singleton;
+
+/**
+ * Keeps a running total of the bytes each institution stores in each filestore, so that its
+ * consumption can be read without walking its folders. The file system service adds the change in
+ * size whenever it writes, copies, moves, commits or removes files of an institution, and a scan of
+ * the folders periodically replaces the total to correct anything the deltas missed, such as
+ * unzipped archives or files changed by other cluster nodes.
+ *
+ * <p>Totals are only reported once they have been set by a scan, since deltas alone say nothing
+ * about the files already stored. Deltas recorded while a scan is running are kept when the scan
+ * replaces the total.
+ */
+@NonNullByDefault
+@Bind
+@Singleton
+public class StorageUsageLedger {
+  public static final String DEFAULT_FILESTORE = "default";
+
+  private final ConcurrentMap<Long, ConcurrentMap<String, Usage>> usage =
+      new ConcurrentHashMap<Long, ConcurrentMap<String, Usage>>();
+
+  private final AtomicLong updates = new AtomicLong();
+  private final AtomicLong reconciliations = new AtomicLong();
+  private final AtomicLong drift = new AtomicLong();
+
+  /** @param filestoreId The filestore ID, or null for the default filestore */
+  public void add(long institutionId, @Nullable String filestoreId, long bytes) {
+    if (bytes != 0) {
+      getUsage(institutionId, filestoreId).add(bytes);
+      updates.incrementAndGet();
+    }
+  }
+
+  /**
+   * Call before scanning the filestore.
+   *
+   * @return A mark to pass to reconcile, so that the deltas recorded during the scan are kept
+   */
+  public long startScan(long institutionId, @Nullable String filestoreId) {
+    return getUsage(institutionId, filestoreId).getAdded();
+  }
+
+  /**
+   * Replaces the total with the size found by scanning the filestore, plus the deltas recorded
+   * since the scan started.
+   *
+   * @param mark What startScan returned before the scan
+   * @return The difference between the new total and the total it replaced
+   */
+  public long reconcile(long institutionId, @Nullable String filestoreId, long bytes, long mark) {
+    final Usage u = getUsage(institutionId, filestoreId);
+    final long replaced = u.reconcile(bytes, mark);
+    final long difference = u.reconciled != 0 ? replaced : 0;
+    u.reconciled = System.currentTimeMillis();
+    reconciliations.incrementAndGet();
+    drift.addAndGet(Math.abs(difference));
+    return difference;
+  }
+
+  /**
+   * @return The total bytes stored in the given filestores, or null if any of them have not been
+   *     scanned yet
+   */
+  @Nullable
+  public Long getUsage(long institutionId, Collection<String> filestoreIds) {
+    final Map<String, Usage> filestores = usage.get(institutionId);
+    if (filestores == null) {
+      return null;
+    }
+    long total = 0;
+    for (String filestoreId : filestoreIds) {
+      final Usage u = filestores.get(filestoreId);
+      if (u == null || u.reconciled == 0) {
+        return null;
+      }
+      total += u.getBytes();
+    }
+    return total;
+  }
+
+  /**
+   * @return The total bytes stored in the given filestores, whether they have been scanned or not.
+   *     Filestores that have never been scanned only count the deltas recorded since startup.
+   */
+  public long getRecordedUsage(long institutionId, Collection<String> filestoreIds) {
+    final Map<String, Usage> filestores = usage.get(institutionId);
+    if (filestores == null) {
+      return 0;
+    }
+    long total = 0;
+    for (String filestoreId : filestoreIds) {
+      final Usage u = filestores.get(filestoreId);
+      if (u != null) {
+        total += u.getBytes();
+      }
+    }
+    return total;
+  }
+
+  /** @return When the given filestores were last scanned, or zero if any have never been */
+  public long getReconciled(long institutionId, Collection<String> filestoreIds) {
+    final Map<String, Usage> filestores = usage.get(institutionId);
+    if (filestores == null) {
+      return 0;
+    }
+    long oldest = Long.MAX_VALUE;
+    for (String filestoreId : filestoreIds) {
+      final Usage u = filestores.get(filestoreId);
+      if (u == null) {
+        return 0;
+      }
+      oldest = Math.min(oldest, u.reconciled);
+    }
+    return oldest == Long.MAX_VALUE ? 0 : oldest;
+  }
+
+  private Usage getUsage(long institutionId, @Nullable String filestoreId) {
+    return usage
+        .computeIfAbsent(institutionId, id -> new ConcurrentHashMap<String, Usage>())
+        .computeIfAbsent(filestoreId == null ? DEFAULT_FILESTORE : filestoreId, id -> new Usage());
+  }
+
+  /** @return Deltas added since startup */
+  public long getUpdates() {
+    return updates.get();
+  }
+
+  public long getReconciliations() {
+    return reconciliations.get();
+  }
+
+  /** @return Total bytes that scans have found the running totals to be out by */
+  public long getDrift() {
+    return drift.get();
+  }
+
+  private static final class Usage {
+    private long bytes;
+    /** Every delta ever added, which scans use to tell which were recorded after they started */
+    private long added;
+
+    volatile long reconciled;
+
+    synchronized void add(long delta) {
+      bytes += delta;
+      added += delta;
+    }
+
+    synchronized long getBytes() {
+      return bytes;
+    }
+
+    synchronized long getAdded() {
+      return added;
+    }
+
+    /** @return The difference between the new total and the old */
+    synchronized long reconcile(long scanned, long mark) {
+      final long previous = bytes;
+      bytes = scanned + added - mark;
+      return bytes - previous;
+    }
+  }
+}
@@ -19,14 +19,14 @@
 package com.tle.core.quota.service.impl;
 
 import com.dytech.common.GeneralConstants;
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
+import com.google.common.base.Throwables;
 import com.tle.annotation.NonNullByDefault;
 import com.tle.annotation.Nullable;
 import com.tle.beans.Institution;
 import com.tle.beans.item.Item;
 import com.tle.common.Check;
 import com.tle.common.NameValue;
+import com.tle.common.NamedThreadFactory;
 import com.tle.common.PathUtils;
 import com.tle.common.filesystem.handle.AllInstitutionsFile;
 import com.tle.common.filesystem.handle.FileHandle;
@@ -41,6 +41,7 @@ import com.tle.core.guice.Bind;
 import com.tle.core.institution.InstitutionService;
 import com.tle.core.quota.dao.QuotaDao;
 import com.tle.core.quota.service.QuotaService;
+import com.tle.core.quota.service.StorageUsageLedger;
 import com.tle.core.security.impl.AclExpressionEvaluator;
 import com.tle.core.services.FileSystemService;
 import com.tle.core.settings.service.ConfigurationService;
@@ -48,23 +49,55 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import org.apache.log4j.Logger;
 import org.springframework.transaction.annotation.Transactional;
 
 /** @author Charles O'Farrell */
 @NonNullByDefault
+@SuppressWarnings("nls")
 @Bind(QuotaService.class)
 @Singleton
 public class QuotaServiceImpl implements QuotaService {
+  private static final Logger LOGGER = Logger.getLogger(QuotaServiceImpl.class);
+
+  /**
+   * Other cluster nodes do not report their changes to this node's ledger, so rescan in the
+   * background once a day
+   */
+  private static final long RESCAN_MILLIS = TimeUnit.HOURS.toMillis(24);
+
   @Inject private FileSystemService fileSystemService;
   @Inject private ConfigurationService configService;
   @Inject private InstitutionService institutionService;
   @Inject private QuotaDao quotaDao;
+  @Inject private StorageUsageLedger usageLedger;
+
+  private final Set<Long> scanning = ConcurrentHashMap.newKeySet();
 
-  private final Cache<Long, Long> cachedInstitutionConsumption =
-      CacheBuilder.newBuilder().expireAfterWrite(24, TimeUnit.HOURS).softValues().build();
+  /** Scans the filestores to reconcile the ledger without slowing down requests */
+  private final ExecutorService scanner =
+      Executors.newSingleThreadExecutor(
+          new ThreadFactory() {
+            private final ThreadFactory threadFactory =
+                new NamedThreadFactory("QuotaServiceImpl.scanner");
+
+            @Override
+            public Thread newThread(Runnable r) {
+              final Thread thread = threadFactory.newThread(r);
+              thread.setPriority(Thread.MIN_PRIORITY);
+              thread.setDaemon(true);
+              return thread;
+            }
+          });
 
   public QuotaServiceImpl() {
     super();
@@ -135,27 +168,70 @@ public class QuotaServiceImpl implements QuotaService {
 
   @Override
   public long getInstitutionalConsumption(Institution inst) {
-    Long cachedConsumption = cachedInstitutionConsumption.getIfPresent(inst.getUniqueId());
-    if (cachedConsumption != null) {
-      return cachedConsumption;
+    final List<String> filestoreIds = new ArrayList<String>();
+    for (NameValue filestore : fileSystemService.listFilestores()) {
+      filestoreIds.add(filestore.getValue());
+    }
+    final long instId = inst.getUniqueId();
+    final Long usage = usageLedger.getUsage(instId, filestoreIds);
+    if (usage == null
+        || System.currentTimeMillis() - usageLedger.getReconciled(instId, filestoreIds)
+            > RESCAN_MILLIS) {
+      scanInBackground(inst);
     }
-    cachedInstitutionConsumption.put(inst.getUniqueId(), calculateUsage(inst));
+    if (usage != null) {
+      return usage;
+    }
+    // Not scanned since startup. Walking the filestores could take minutes, so until the scan
+    // finishes only the changes since startup are known.
+    return usageLedger.getRecordedUsage(instId, filestoreIds);
+  }
 
-    return cachedInstitutionConsumption.getIfPresent(inst.getUniqueId());
+  private void scanInBackground(Institution inst) {
+    final long instId = inst.getUniqueId();
+    if (scanning.add(instId)) {
+      scanner.execute(
+          () -> {
+            try {
+              calculateUsage(inst);
+            } finally {
+              scanning.remove(instId);
+            }
+          });
+    }
   }
 
   @Override
   public void refreshCache(Institution inst) {
-    cachedInstitutionConsumption.put(inst.getUniqueId(), calculateUsage(inst));
+    try {
+      scanner.submit(() -> calculateUsage(inst)).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      throw Throwables.propagate(e.getCause());
+    }
   }
 
   private long calculateUsage(Institution inst) {
     long totes = 0;
     for (NameValue filestore : fileSystemService.listFilestores()) {
       final String filestoreId = filestore.getValue();
-      totes +=
-          getFileSize(
-              new FakeInstitutionFile(inst, filestoreId.equals("default") ? null : filestoreId));
+      final String handleFilestoreId =
+          filestoreId.equals(StorageUsageLedger.DEFAULT_FILESTORE) ? null : filestoreId;
+      final long mark = usageLedger.startScan(inst.getUniqueId(), handleFilestoreId);
+      final long size = getFileSize(new FakeInstitutionFile(inst, handleFilestoreId));
+      final long drift = usageLedger.reconcile(inst.getUniqueId(), handleFilestoreId, size, mark);
+      if (drift != 0) {
+        LOGGER.info(
+            "Storage used by institution "
+                + inst.getUniqueId()
+                + " in filestore "
+                + filestoreId
+                + " was out by "
+                + drift
+                + " bytes");
+      }
+      totes += size;
     }
     return totes;
   }
@@ -28,6 +28,7 @@ import org.mozilla.javascript.ClassShutter;
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.ImporterTopLevel;
 import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
 
 /** @author aholland */
 public class DefaultScriptContext implements ScriptContext {
@@ -63,8 +64,58 @@ public class DefaultScriptContext implements ScriptContext {
     this.logger = logger;
   }
 
-  public Scriptable getUserScriptScope(Context jsContext) {
-    Scriptable scope = new ImporterTopLevel(jsContext);
+  /**
+   * Creates the standard objects that every script scope inherits from. The Java access objects are
+   * removed and the scope is sealed, so one instance can be shared by all threads.
+   */
+  public static ScriptableObject createSharedScope(Context jsContext) {
+    return createStandardScope(jsContext, true);
+  }
+
+  /**
+   * Creates the standard objects for script scopes to inherit from, without the Java access
+   * objects. An unsealed scope lets scripts modify the standard prototypes, so it must only be used
+   * for a single execution.
+   */
+  @SuppressWarnings("nls")
+  public static ScriptableObject createStandardScope(Context jsContext, boolean sealed) {
+    ImporterTopLevel scope = new ImporterTopLevel(jsContext, sealed);
+
+    // Remove the ability to create new Java objects in the script. List
+    // comes from https://bugzilla.mozilla.org/show_bug.cgi?id=468385
+    scope.delete("Packages");
+    scope.delete("JavaImporter");
+    scope.delete("JavaAdapter");
+    scope.delete("getClass");
+    scope.delete("java");
+    scope.delete("javax");
+    scope.delete("com");
+    scope.delete("net");
+    scope.delete("edu");
+    scope.delete("org");
+
+    if (sealed) {
+      // Initialise the lazily loaded standard objects up front rather than
+      // on first use by whichever scripts happen to be running
+      for (Object id : scope.getAllIds()) {
+        if (id instanceof String) {
+          ScriptableObject.getProperty(scope, (String) id);
+        }
+      }
+      scope.sealObject();
+    }
+    return scope;
+  }
+
+  private static Scriptable newScope(Context jsContext, Scriptable sharedScope) {
+    Scriptable scope = jsContext.newObject(sharedScope);
+    scope.setPrototype(sharedScope);
+    scope.setParentScope(null);
+    return scope;
+  }
+
+  public Scriptable getUserScriptScope(Context jsContext, Scriptable sharedScope) {
+    Scriptable scope = newScope(jsContext, sharedScope);
     for (String name : userScriptObjects.keySet()) {
       Object obj = userScriptObjects.get(name);
       if (obj instanceof Boolean) {
@@ -78,9 +129,13 @@ public class DefaultScriptContext implements ScriptContext {
     return scope;
   }
 
+  /**
+   * @param sharedScope A scope created by {@link #createSharedScope(Context)} or {@link
+   *     #createStandardScope(Context, boolean)}
+   */
   @SuppressWarnings("nls")
-  public Scriptable getScope(Context jsContext) {
-    Scriptable scope = new ImporterTopLevel(jsContext);
+  public Scriptable getScope(Context jsContext, Scriptable sharedScope) {
+    Scriptable scope = newScope(jsContext, sharedScope);
 
     for (String name : scriptObjects.keySet()) {
       Object obj = scriptObjects.get(name);
@@ -92,19 +147,6 @@ public class DefaultScriptContext implements ScriptContext {
       }
     }
 
-    // Remove the ability to create new Java objects in the script. List
-    // comes from https://bugzilla.mozilla.org/show_bug.cgi?id=468385
-    scope.delete("Packages");
-    scope.delete("JavaImporter");
-    scope.delete("JavaAdapter");
-    scope.delete("getClass");
-    scope.delete("java");
-    scope.delete("javax");
-    scope.delete("com");
-    scope.delete("net");
-    scope.delete("edu");
-    scope.delete("org");
-
     try {
       // Prevent existingObject.getClass().forName('...')
       jsContext.setClassShutter(
@@ -21,6 +21,9 @@ package com.tle.core.scripting.service;
 import com.dytech.edge.common.PropBagWrapper;
 import com.dytech.edge.common.ScriptContext;
 import com.google.common.base.Predicate;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
 import com.tle.common.Check;
 import com.tle.common.Utils;
 import com.tle.common.scripting.ScriptException;
@@ -36,11 +39,14 @@ import com.tle.core.services.LoggingService;
 import com.tle.web.resources.PluginResourceHelper;
 import com.tle.web.resources.ResourcesService;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import javax.annotation.PostConstruct;
 import javax.inject.Inject;
+import javax.inject.Named;
 import javax.inject.Singleton;
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.ContextAction;
@@ -49,7 +55,9 @@ import org.mozilla.javascript.EcmaError;
 import org.mozilla.javascript.ErrorReporter;
 import org.mozilla.javascript.EvaluatorException;
 import org.mozilla.javascript.JavaScriptException;
+import org.mozilla.javascript.Script;
 import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
 import org.mozilla.javascript.commonjs.module.ModuleScriptProvider;
 import org.mozilla.javascript.commonjs.module.Require;
 import org.mozilla.javascript.commonjs.module.RequireBuilder;
@@ -72,6 +80,36 @@ public class ScriptingServiceImpl implements ScriptingService {
   private static final PluginResourceHelper r =
       ResourcesService.getResourceHelper(ScriptingServiceImpl.class);
 
+  /**
+   * Compiles scripts to Java bytecode rather than interpreting them. Compiled scripts run faster,
+   * but every distinct script loads a new class into the server, so this should only be enabled
+   * where the scripts in every institution are written by trusted administrators.
+   */
+  @com.google.inject.Inject(optional = true)
+  @Named("scripting.compileToBytecode")
+  private boolean compileToBytecode;
+
+  /**
+   * Shares one sealed set of standard objects between all script executions. Scripts that change
+   * the standard prototypes (e.g. {@code Array.prototype}) fail in a sealed scope, so turning this
+   * off gives every execution its own unsealed standard objects instead.
+   */
+  @com.google.inject.Inject(optional = true)
+  @Named("scripting.shareStandardObjects")
+  private boolean shareStandardObjects = true;
+
+  @com.google.inject.Inject(optional = true)
+  @Named("scripting.compiledScriptCacheSize")
+  private int compiledScriptCacheSize = 1000;
+
+  private Cache<String, Script> compiledScripts;
+  private volatile ScriptableObject sharedScope;
+
+  @PostConstruct
+  public void setupCache() {
+    compiledScripts = CacheBuilder.newBuilder().maximumSize(compiledScriptCacheSize).build();
+  }
+
   @Override
   public ScriptContext createScriptContext(ScriptContextCreationParams params) {
     Map<String, Object> scriptObjects = new HashMap<String, Object>();
@@ -165,15 +203,21 @@ public class ScriptingServiceImpl implements ScriptingService {
                     errorLogger = logger;
                   }
 
+                  cx.setOptimizationLevel(compileToBytecode ? 9 : -1);
+                  cx.setErrorReporter(new ScriptErrorReporter(errorLogger));
+
+                  Scriptable sharedScope =
+                      shareStandardObjects
+                          ? getSharedScope(cx)
+                          : DefaultScriptContext.createStandardScope(cx, false);
                   Scriptable userScriptScope =
-                      ((DefaultScriptContext) context).getUserScriptScope(cx);
+                      ((DefaultScriptContext) context).getUserScriptScope(cx, sharedScope);
                   ScriptableModuleSourceProvider sourceProvider =
                       new ScriptableModuleSourceProvider(userScriptScope);
                   ModuleScriptProvider scriptProvider =
                       new SoftCachingModuleScriptProvider(sourceProvider);
 
-                  cx.initStandardObjects();
-                  Scriptable scope = ((DefaultScriptContext) context).getScope(cx);
+                  Scriptable scope = ((DefaultScriptContext) context).getScope(cx, sharedScope);
 
                   RequireBuilder builder = new RequireBuilder();
                   // The "uri" property must not exist in a sandbox
@@ -182,9 +226,6 @@ public class ScriptingServiceImpl implements ScriptingService {
 
                   Require require = builder.createRequire(cx, scope);
 
-                  cx.setOptimizationLevel(-1);
-                  cx.setErrorReporter(new ScriptErrorReporter(errorLogger));
-
                   final String execScript =
                       (function
                           ? "function runScript() {\n" + script + "\n}\n runScript();"
@@ -195,7 +236,8 @@ public class ScriptingServiceImpl implements ScriptingService {
                     context.scriptEnter();
                     require.install(scope);
 
-                    Object result = cx.evaluateString(scope, execScript, execScriptName, 1, null);
+                    Object result =
+                        getCompiledScript(cx, execScript, execScriptName).exec(cx, scope);
 
                     context.scriptExit();
                     if (expectedResultClass == String.class) {
@@ -215,6 +257,48 @@ public class ScriptingServiceImpl implements ScriptingService {
     return Boolean.TRUE;
   }
 
+  /**
+   * The sealed standard objects that every script scope inherits from, created on first use since
+   * it needs a Rhino context.
+   */
+  private ScriptableObject getSharedScope(Context cx) {
+    ScriptableObject scope = sharedScope;
+    if (scope == null) {
+      synchronized (this) {
+        scope = sharedScope;
+        if (scope == null) {
+          scope = DefaultScriptContext.createSharedScope(cx);
+          sharedScope = scope;
+        }
+      }
+    }
+    return scope;
+  }
+
+  /**
+   * Compiled scripts hold no reference to the scope they were run in, so they are cached by a hash
+   * of their source and reused across threads and institutions.
+   */
+  private Script getCompiledScript(Context cx, String execScript, String execScriptName) {
+    final String key =
+        Hashing.sha256()
+            .newHasher()
+            .putInt(cx.getOptimizationLevel())
+            .putInt(cx.getLanguageVersion())
+            .putString(execScriptName, StandardCharsets.UTF_8)
+            .putChar('\0')
+            .putString(execScript, StandardCharsets.UTF_8)
+            .hash()
+            .toString();
+    Script compiled = compiledScripts.getIfPresent(key);
+    if (compiled == null) {
+      // Two threads may both compile a new script, which does no harm
+      compiled = cx.compileString(execScript, execScriptName, 1, null);
+      compiledScripts.put(key, compiled);
+    }
+    return compiled;
+  }
+
   public static final class ScriptErrorReporter implements ErrorReporter {
     private final Logger errorLogger;
 
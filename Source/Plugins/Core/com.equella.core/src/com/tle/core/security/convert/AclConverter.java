@@ -30,6 +30,7 @@ import com.tle.core.institution.convert.AbstractConverter;
 import com.tle.core.institution.convert.ConverterParams;
 import com.tle.core.institution.convert.DefaultMessageCallback;
 import com.tle.core.institution.convert.PostReadMigrator;
+import com.tle.core.security.TLEAclManager;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -52,6 +53,7 @@ public class AclConverter extends AbstractConverter<AclConverter.AclPostReadMigr
 
   @Inject private AclDao aclDao;
   @Inject private AccessExpressionDao accessExpressionDao;
+  @Inject private TLEAclManager aclManager;
 
   private static final String EXPRESSION_FILENAME = "acls/expressions.xml";
   private static final String ENTRY_FILENAME = "acls/entries.xml";
@@ -123,6 +125,7 @@ public class AclConverter extends AbstractConverter<AclConverter.AclPostReadMigr
   @Override
   public void doDelete(Institution institution, ConverterParams params) {
     aclDao.deleteAll();
+    aclManager.invalidateDecisionCache(institution);
   }
 
   @Override
@@ -244,6 +247,8 @@ public class AclConverter extends AbstractConverter<AclConverter.AclPostReadMigr
       aclDao.clear();
       message.incrementCurrent();
     }
+    // The entries were saved through the DAO, so the manager doesn't know they changed
+    aclManager.invalidateDecisionCache(institution);
   }
 
   @Override
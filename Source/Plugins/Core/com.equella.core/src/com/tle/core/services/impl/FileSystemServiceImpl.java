@@ -47,6 +47,7 @@ import com.tle.core.healthcheck.listeners.bean.ServiceStatus;
 import com.tle.core.healthcheck.listeners.bean.ServiceStatus.ServiceName;
 import com.tle.core.healthcheck.listeners.bean.ServiceStatus.Status;
 import com.tle.core.plugins.AbstractPluginService;
+import com.tle.core.quota.service.StorageUsageLedger;
 import com.tle.core.services.FileSystemService;
 import com.tle.core.services.ZipProgress;
 import com.tle.core.settings.service.ConfigurationService;
@@ -87,6 +88,7 @@ public class FileSystemServiceImpl implements FileSystemService, ServiceCheckReq
   @Inject private EventService eventService;
   @Inject private ZookeeperService zkService;
   @Inject private Map<String, Filestore> filestores;
+  @Inject private StorageUsageLedger usageLedger;
 
   @com.google.inject.Inject(optional = true)
   @Named("filestore.advanced")
@@ -163,6 +165,36 @@ public class FileSystemServiceImpl implements FileSystemService, ServiceCheckReq
     }
   }
 
+  /**
+   * @return Whether changes to the handle count towards the storage used by an institution. Only
+   *     valid once the handle has been prepared.
+   */
+  private boolean isUsageTracked(FileHandle handle) {
+    return handle instanceof InstitutionFile
+        && ((InstitutionFile) handle).getInstitution() != null;
+  }
+
+  private long trackedLength(FileHandle handle, File file) {
+    return isUsageTracked(handle) ? length(file) : 0;
+  }
+
+  private static long length(File file) {
+    try {
+      return FileSystemHelper.recursiveFileLength(file);
+    } catch (FileNotFoundException e) {
+      return 0;
+    }
+  }
+
+  private void recordUsage(FileHandle handle, long bytes) {
+    if (isUsageTracked(handle)) {
+      usageLedger.add(
+          ((InstitutionFile) handle).getInstitution().getUniqueId(),
+          handle.getFilestoreId(),
+          bytes);
+    }
+  }
+
   /*
    * (non-Javadoc)
    * @see
@@ -283,15 +315,18 @@ public class FileSystemServiceImpl implements FileSystemService, ServiceCheckReq
       }
     }
 
+    final long before = trackedLength(handle, file);
+    long byteCount;
     try (OutputStream out = getOutputStream(file, append)) {
-      long byteCount = copyStream(content, out, md5);
+      byteCount = copyStream(content, out, md5);
+    }
+    recordUsage(handle, trackedLength(handle, file) - before);
 
-      String md5Hex = null;
-      if (md5 != null) {
-        md5Hex = Md5.stringify(md5.digest());
-      }
-      return new FileInfo(byteCount, filename, md5Hex);
+    String md5Hex = null;
+    if (md5 != null) {
+      md5Hex = Md5.stringify(md5.digest());
     }
+    return new FileInfo(byteCount, filename, md5Hex);
   }
 
   @Override
@@ -341,11 +376,13 @@ public class FileSystemServiceImpl implements FileSystemService, ServiceCheckReq
       }
     }
 
+    final long before = trackedLength(handle, file);
     long byteCount = 0;
     try (Writer out =
         new OutputStreamWriter(getOutputStream(file, append), StandardCharsets.UTF_8)) {
       byteCount = CharStreams.copy(content, out);
     }
+    recordUsage(handle, trackedLength(handle, file) - before);
 
     return new FileInfo(byteCount, filename);
   }
@@ -373,6 +410,7 @@ public class FileSystemServiceImpl implements FileSystemService, ServiceCheckReq
 
     File from = getFile(staging);
     File to = getFile(destination);
+    final long replaced = trackedLength(destination, to);
 
     File trash = null;
     if (FileSystemHelper.exists(to)) {
@@ -388,6 +426,7 @@ public class FileSystemServiceImpl implements FileSystemService, ServiceCheckReq
     } else {
       FileSystemHelper.copy(from, to);
     }
+    recordUsage(destination, trackedLength(destination, to) - replaced);
 
     if (trash != null) {
       FileUtils.delete(trash.toPath(), null);
@@ -416,6 +455,10 @@ public class FileSystemServiceImpl implements FileSystemService, ServiceCheckReq
     final String toStr = to.getAbsolutePath();
     LOGGER.info("commitFiles: from [" + fromStr + "] to [" + toStr + "]");
 
+    // The staging folder is renamed rather than copied, so measure both sides beforehand
+    final long replaced = trackedLength(destination, to);
+    final long committed = trackedLength(destination, from);
+
     File trash = null;
     if (FileSystemHelper.exists(to)) {
       LOGGER.debug("Destination [" + to + "] exists.  Moving to a staging 'trash' folder");
@@ -459,6 +502,8 @@ public class FileSystemServiceImpl implements FileSystemService, ServiceCheckReq
       }
     }
 
+    recordUsage(destination, committed - replaced);
+
     if (trash != null) {
       LOGGER.debug("Deleting trash [" + trash + "]");
       FileUtils.delete(trash.toPath(), null);
@@ -536,7 +581,14 @@ public class FileSystemServiceImpl implements FileSystemService, ServiceCheckReq
     if (LOGGER.isDebugEnabled()) {
       LOGGER.debug("move: from " + from + " to " + to);
     }
-    return FileSystemHelper.rename(from, to, false);
+    final boolean tracked = isUsageTracked(handle) || isUsageTracked(newHandle);
+    final long moved = tracked ? length(from) : 0;
+    final boolean renamed = FileSystemHelper.rename(from, to, false);
+    if (renamed && tracked) {
+      recordUsage(handle, -moved);
+      recordUsage(newHandle, moved);
+    }
+    return renamed;
   }
 
   @Override
@@ -566,7 +618,7 @@ public class FileSystemServiceImpl implements FileSystemService, ServiceCheckReq
     if (LOGGER.isDebugEnabled()) {
       LOGGER.debug("copy: from " + from + " to " + to);
     }
-    return new FileInfo(doCopy(from, to, false), to.getName());
+    return new FileInfo(trackedCopy(toHandle, from, to), to.getName());
   }
 
   /*
@@ -580,7 +632,7 @@ public class FileSystemServiceImpl implements FileSystemService, ServiceCheckReq
     File from = getFile(source);
     File to = getFile(destination);
     if (from.exists()) {
-      return new FileInfo(doCopy(from, to, false), to.getName());
+      return new FileInfo(trackedCopy(destination, from, to), to.getName());
     } else {
       // throw new RuntimeException("Source does not exist");
       LOGGER.info("Source '" + source.getAbsolutePath() + "' does not exist");
@@ -626,6 +678,18 @@ public class FileSystemServiceImpl implements FileSystemService, ServiceCheckReq
     copyToStaging(handle, "", staging, "", ignoreInteralFiles);
   }
 
+  private long trackedCopy(FileHandle destination, File from, File to) {
+    if (!isUsageTracked(destination)) {
+      return doCopy(from, to, false);
+    }
+    // Only measure the destination when the copy overwrites something
+    final boolean existed = to.exists();
+    final long replaced = existed ? trackedLength(destination, to) : 0;
+    final long copied = doCopy(from, to, false);
+    recordUsage(destination, (existed ? trackedLength(destination, to) : copied) - replaced);
+    return copied;
+  }
+
   private long doCopy(File from, File to, boolean ignoreInternalFiles) {
     try {
       return FileSystemHelper.copy(from, to, ignoreInternalFiles, false);
@@ -1029,7 +1093,13 @@ public class FileSystemServiceImpl implements FileSystemService, ServiceCheckReq
                 callback.fileProcessed(file1.toFile(), file2 == null ? null : file2.toFile());
               }
             });
-    return FileUtils.delete(target.toPath(), wrappedCallback);
+    final long removed = trackedLength(handle, target);
+    final boolean deleted = FileUtils.delete(target.toPath(), wrappedCallback);
+    // A failed delete may still have removed some of the files, which the next scan corrects
+    if (deleted) {
+      recordUsage(handle, -removed);
+    }
+    return deleted;
   }
 
   /**
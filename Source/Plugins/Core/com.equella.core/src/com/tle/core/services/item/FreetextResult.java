@@ -18,10 +18,12 @@
 
 package com.tle.core.services.item;
 
+import com.tle.annotation.Nullable;
 import com.tle.beans.item.ItemId;
 import com.tle.beans.item.ItemIdKey;
 import com.tle.beans.item.ItemKey;
 import java.io.Serializable;
+import java.util.Date;
 
 public class FreetextResult implements Serializable {
   private static final long serialVersionUID = 1L;
@@ -31,6 +33,7 @@ public class FreetextResult implements Serializable {
   private final float relevance;
   private final boolean sortByRelevance;
   private boolean keywordFoundInAttachment;
+  @Nullable private Date dateModified;
 
   public FreetextResult(ItemIdKey key, float relevance, boolean sortByRelevance) {
     this.itemIdKey = key;
@@ -66,6 +69,16 @@ public class FreetextResult implements Serializable {
     this.keywordFoundInAttachment = keywordFoundInAttachment;
   }
 
+  /** @return The date modified kept in the index, to the second, or null if it wasn't loaded */
+  @Nullable
+  public Date getDateModified() {
+    return dateModified;
+  }
+
+  public void setDateModified(@Nullable Date dateModified) {
+    this.dateModified = dateModified;
+  }
+
   public ItemKey getItemKey() {
     return ItemId.fromKey(itemIdKey);
   }
@@ -45,6 +45,9 @@ public interface TermDao extends GenericDao<Term, Long> {
 
   List<Term> getAllTermsInOrder(Taxonomy taxonomy);
 
+  /** @return The value, left and right of every term in the taxonomy, ordered by left */
+  List<Object[]> getAllTermValuesInOrder(Taxonomy taxonomy);
+
   /**
    * @param taxonomy
    * @param parent
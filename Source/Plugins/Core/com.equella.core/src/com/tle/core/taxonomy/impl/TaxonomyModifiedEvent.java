@@ -18,22 +18,65 @@
 
 package com.tle.core.taxonomy.impl;
 
+import com.tle.annotation.Nullable;
 import com.tle.core.events.ApplicationEvent;
 
 public class TaxonomyModifiedEvent extends ApplicationEvent<TaxonomyModifiedListener> {
   private static final long serialVersionUID = 1L;
 
+  public enum TermChange {
+    ADDED,
+    RENAMED,
+    MOVED,
+    DELETED
+  }
+
   private final String taxonomyUuid;
+  @Nullable private final TermChange termChange;
+  @Nullable private final String termPath;
+  @Nullable private final String value;
 
   public TaxonomyModifiedEvent(String taxonomyUuid) {
+    this(taxonomyUuid, null, null, null);
+  }
+
+  /**
+   * @param termPath The full path of the changed term, or the parent of an added term
+   * @param value The value of an added or renamed term, or the full path of the new parent of a
+   *     moved term
+   */
+  public TaxonomyModifiedEvent(
+      String taxonomyUuid,
+      @Nullable TermChange termChange,
+      @Nullable String termPath,
+      @Nullable String value) {
     super(PostTo.POST_TO_ALL_CLUSTER_NODES);
     this.taxonomyUuid = taxonomyUuid;
+    this.termChange = termChange;
+    this.termPath = termPath;
+    this.value = value;
   }
 
   public String getTaxonomyUuid() {
     return taxonomyUuid;
   }
 
+  /** @return The single term change this event is for, or null if anything may have changed */
+  @Nullable
+  public TermChange getTermChange() {
+    return termChange;
+  }
+
+  @Nullable
+  public String getTermPath() {
+    return termPath;
+  }
+
+  @Nullable
+  public String getValue() {
+    return value;
+  }
+
   @Override
   public Class<TaxonomyModifiedListener> getListener() {
     return TaxonomyModifiedListener.class;
@@ -283,6 +283,10 @@ public class TaxonomyServiceImpl
 
   @Override
   public void taxonomyModifiedEvent(TaxonomyModifiedEvent event) {
+    // Term changes don't affect the data source
+    if (event.getTermChange() != null) {
+      return;
+    }
     synchronized (cacheLock) {
       final Cache<String, TaxonomyDataSource> instEntry =
           dataSourceCache.getIfPresent(CurrentInstitution.get());
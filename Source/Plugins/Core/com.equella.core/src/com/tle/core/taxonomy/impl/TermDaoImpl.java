@@ -106,6 +106,15 @@ public class TermDaoImpl extends GenericDaoImpl<Term, Long> implements TermDao {
             .find("FROM Term t WHERE t.taxonomy = ?0 ORDER BY t.left", new Object[] {taxonomy});
   }
 
+  @Override
+  public List<Object[]> getAllTermValuesInOrder(Taxonomy taxonomy) {
+    return (List<Object[]>)
+        getHibernateTemplate()
+            .find(
+                "SELECT t.value, t.left, t.right FROM Term t WHERE t.taxonomy = ?0 ORDER BY t.left",
+                new Object[] {taxonomy});
+  }
+
   @Override
   public Term getTerm(final Taxonomy taxonomy, final String termFullPath) {
     return (Term)
@@ -0,0 +1,637 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.taxonomy.impl;
+
+import com.tle.annotation.Nullable;
+import com.tle.common.Pair;
+import com.tle.common.taxonomy.SelectionRestriction;
+import com.tle.common.taxonomy.TaxonomyConstants;
+import com.tle.core.taxonomy.TermResult;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.regex.Pattern;
+
+/**
+ * An immutable in-memory copy of the terms of a taxonomy, for answering term searches without
+ * scanning the term table. It holds the tree in pre-order, so the descendants of a term are the
+ * terms following it up to the end of its subtree, and full paths are put together from the
+ * parents of a term rather than stored. Values are lower cased once, and indexed by
+ *
+ * <ul>
+ *   <li>their sort order, so that prefix searches are a binary search, and
+ *   <li>the three character sequences they contain, so that searches for text anywhere in a term
+ *       only check the terms containing all the sequences of the text.
+ * </ul>
+ *
+ * Changes to the taxonomy create a new index rather than modifying this one, so searches never see
+ * a partly applied change. The lower cased values and their indexes are only built when the new
+ * index is first searched.
+ */
+@SuppressWarnings("nls")
+public class TermIndex {
+  private static final char SEPARATOR = TaxonomyConstants.TERM_SEPARATOR.charAt(0);
+  private static final int GRAM = 3;
+
+  private final String[] values;
+  private final int[] parents;
+  /** Position after the last descendant of each term */
+  private final int[] ends;
+
+  private final long estimatedBytes;
+  /** Built by the first search, so that a run of changes only builds it once */
+  @Nullable private volatile Lookup lookup;
+
+  /**
+   * @param values Term values in pre-order, parents before children
+   * @param parents The position of the parent of each term, or -1 for root terms
+   */
+  public TermIndex(String[] values, int[] parents) {
+    final int count = values.length;
+    this.values = values;
+    this.parents = parents;
+    this.ends = new int[count];
+
+    long bytes = 64 + 4L * 4 * count;
+    long sequences = 0;
+    for (int i = count - 1; i >= 0; i--) {
+      final String value = values[i];
+      bytes += 2 * stringBytes(value);
+      sequences += Math.max(0, value.length() - GRAM + 1);
+      ends[i] = Math.max(ends[i], i + 1);
+      final int parent = parents[i];
+      if (parent >= 0) {
+        ends[parent] = Math.max(ends[parent], ends[i]);
+      }
+    }
+    // Each sequence in a value is a posting, and there are rarely more than 64k distinct sequences
+    estimatedBytes = bytes + 4 * sequences + 96 * Math.min(sequences, 1 << 16);
+  }
+
+  private Lookup getLookup() {
+    Lookup l = lookup;
+    if (l == null) {
+      synchronized (this) {
+        l = lookup;
+        if (l == null) {
+          l = new Lookup(values);
+          lookup = l;
+        }
+      }
+    }
+    return l;
+  }
+
+  /**
+   * @param values Term values, ordered by their left value
+   * @param lefts The left nested set value of each term
+   * @param rights The right nested set value of each term
+   */
+  public static TermIndex fromNestedSet(String[] values, int[] lefts, int[] rights) {
+    final int[] parents = new int[values.length];
+    final int[] open = new int[values.length];
+    int depth = 0;
+    for (int i = 0; i < values.length; i++) {
+      while (depth > 0 && rights[open[depth - 1]] < lefts[i]) {
+        depth--;
+      }
+      parents[i] = depth == 0 ? -1 : open[depth - 1];
+      open[depth++] = i;
+    }
+    return new TermIndex(values, parents);
+  }
+
+  public int size() {
+    return values.length;
+  }
+
+  public long getEstimatedBytes() {
+    return estimatedBytes;
+  }
+
+  public String getFullPath(int term) {
+    return path(values, term);
+  }
+
+  /** @return The position of the term with the given full path, or -1 if there isn't one */
+  public int find(@Nullable String fullPath) {
+    if (fullPath == null || fullPath.isEmpty()) {
+      return -1;
+    }
+    final String path = fullPath.charAt(0) == SEPARATOR ? fullPath.substring(1) : fullPath;
+    int found = -1;
+    int from = 0;
+    int to = values.length;
+    for (String value : path.split(TaxonomyConstants.TERM_SEPARATOR_REGEX)) {
+      found = findChild(from, to, value);
+      if (found < 0) {
+        return -1;
+      }
+      from = found + 1;
+      to = ends[found];
+    }
+    return found;
+  }
+
+  private int findChild(int from, int to, String value) {
+    for (int i = from; i < to; i = ends[i]) {
+      if (values[i].equals(value)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Finds terms like the term table's case insensitive LIKE searches, where * and % match any text
+   * and _ matches any single character.
+   *
+   * @param limit The most terms to return, or -1 for all of them
+   * @return The number of matching terms and the first of them in alphabetical order
+   */
+  public Pair<Long, List<TermResult>> search(
+      String query, SelectionRestriction restriction, int limit, boolean searchFullTerms) {
+    final Lookup l = getLookup();
+    final LikePattern pattern = new LikePattern(fold(query));
+    final Collector collector = new Collector(l, pattern, restriction, limit, searchFullTerms);
+
+    final int[] terms = candidates(l, pattern, searchFullTerms);
+    if (terms == null) {
+      for (int i = 0; i < values.length; i++) {
+        collector.check(i);
+      }
+    } else if (!searchFullTerms) {
+      for (int term : terms) {
+        collector.check(term);
+      }
+    } else {
+      // The descendants of a candidate have it in their full term
+      Arrays.sort(terms);
+      int covered = 0;
+      for (int term : terms) {
+        for (int i = Math.max(term, covered); i < ends[term]; i++) {
+          collector.check(i);
+        }
+        covered = Math.max(covered, ends[term]);
+      }
+    }
+
+    final List<Match> matches = collector.getMatches();
+    final List<TermResult> results = new ArrayList<TermResult>(matches.size());
+    for (Match match : matches) {
+      final int term = match.term;
+      results.add(new TermResult(values[term], path(values, term), ends[term] == term + 1));
+    }
+    return new Pair<Long, List<TermResult>>(collector.count, results);
+  }
+
+  /**
+   * Every matching term contains the literal parts of the query, and every part of a full term is
+   * part of the value of the term or one of its ancestors.
+   *
+   * @return The terms whose value contains the longest part of the query, or null to check every
+   *     term
+   */
+  @Nullable
+  private int[] candidates(Lookup l, LikePattern pattern, boolean searchFullTerms) {
+    String prefix = null;
+    String longest = "";
+    for (int p = 0; p < pattern.pieces.length; p++) {
+      final String[] parts =
+          searchFullTerms
+              ? pattern.pieces[p].split(TaxonomyConstants.TERM_SEPARATOR_REGEX, -1)
+              : new String[] {pattern.pieces[p]};
+      if (p == 0 && pattern.anchoredStart) {
+        prefix = parts[0];
+      }
+      for (String part : parts) {
+        if (part.length() > longest.length()) {
+          longest = part;
+        }
+      }
+    }
+
+    if (prefix != null && (prefix.length() >= longest.length() || longest.length() < GRAM)) {
+      return startingWith(l, prefix, searchFullTerms);
+    }
+    if (longest.length() >= GRAM) {
+      return containing(l, longest);
+    }
+    if (!longest.isEmpty()) {
+      // Too short for the sequence index, but checking values is still cheaper than full terms
+      final Postings terms = new Postings();
+      for (int i = 0; i < l.folded.length; i++) {
+        if (l.folded[i].contains(longest)) {
+          terms.add(i);
+        }
+      }
+      return terms.toArray();
+    }
+    return null;
+  }
+
+  private int[] startingWith(Lookup l, String prefix, boolean rootsOnly) {
+    final String[] folded = l.folded;
+    final int[] sorted = l.sorted;
+    int low = 0;
+    int high = sorted.length;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (folded[sorted[mid]].compareTo(prefix) < 0) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    final Postings terms = new Postings();
+    for (int i = low; i < sorted.length && folded[sorted[i]].startsWith(prefix); i++) {
+      if (!rootsOnly || parents[sorted[i]] < 0) {
+        terms.add(sorted[i]);
+      }
+    }
+    return terms.toArray();
+  }
+
+  private int[] containing(Lookup l, String text) {
+    final List<int[]> lists = new ArrayList<int[]>();
+    for (int c = 0; c + GRAM <= text.length(); c++) {
+      final int[] postings = l.grams.get(gram(text, c));
+      if (postings == null) {
+        return new int[0];
+      }
+      lists.add(postings);
+    }
+    lists.sort(Comparator.comparingInt((int[] postings) -> postings.length));
+
+    final Postings terms = new Postings();
+    for (int term : lists.get(0)) {
+      boolean all = true;
+      for (int n = 1; n < lists.size() && all; n++) {
+        all = Arrays.binarySearch(lists.get(n), term) >= 0;
+      }
+      if (all && l.folded[term].contains(text)) {
+        terms.add(term);
+      }
+    }
+    return terms.toArray();
+  }
+
+  private String path(String[] texts, int term) {
+    if (parents[term] < 0) {
+      return texts[term];
+    }
+    final StringBuilder path = new StringBuilder(texts[term]);
+    for (int p = parents[term]; p >= 0; p = parents[p]) {
+      path.insert(0, SEPARATOR).insert(0, texts[p]);
+    }
+    return path.toString();
+  }
+
+  /** @return An index with the term added as the last child of its parent, or null */
+  @Nullable
+  public TermIndex withTermAdded(@Nullable String parentPath, String value) {
+    final boolean root = parentPath == null || parentPath.isEmpty();
+    final int parent = root ? -1 : find(parentPath);
+    if (!root && parent < 0) {
+      return null;
+    }
+    if (findChild(parent + 1, root ? values.length : ends[parent], value) >= 0) {
+      // Already loaded
+      return this;
+    }
+    final int at = root ? values.length : ends[parent];
+    final String[] newValues = new String[values.length + 1];
+    final int[] newParents = new int[values.length + 1];
+    for (int i = 0, j = 0; i < newValues.length; i++) {
+      if (i == at) {
+        newValues[i] = value;
+        newParents[i] = parent;
+      } else {
+        newValues[i] = values[j];
+        newParents[i] = parents[j] >= at ? parents[j] + 1 : parents[j];
+        j++;
+      }
+    }
+    return new TermIndex(newValues, newParents);
+  }
+
+  /** @return An index with the term renamed, or null if it was not found */
+  @Nullable
+  public TermIndex withTermRenamed(String path, String value) {
+    final int term = find(path);
+    if (term < 0) {
+      return null;
+    }
+    final String[] newValues = values.clone();
+    newValues[term] = value;
+    return new TermIndex(newValues, parents);
+  }
+
+  /** @return An index without the term and its descendants */
+  public TermIndex withTermDeleted(String path) {
+    final int term = find(path);
+    if (term < 0) {
+      return this;
+    }
+    final int removed = ends[term] - term;
+    final String[] newValues = new String[values.length - removed];
+    final int[] newParents = new int[newValues.length];
+    for (int i = 0, j = 0; i < values.length; i++) {
+      if (i < term || i >= ends[term]) {
+        newValues[j] = values[i];
+        newParents[j] = parents[i] >= ends[term] ? parents[i] - removed : parents[i];
+        j++;
+      }
+    }
+    return new TermIndex(newValues, newParents);
+  }
+
+  /**
+   * @return An index with the term and its descendants moved to the end of the new parent's
+   *     children, or null if either was not found
+   */
+  @Nullable
+  public TermIndex withTermMoved(String path, @Nullable String parentPath) {
+    final int term = find(path);
+    final boolean root = parentPath == null || parentPath.isEmpty();
+    final int parent = root ? -1 : find(parentPath);
+    if (term < 0 || (!root && parent < 0) || (parent >= term && parent < ends[term])) {
+      return null;
+    }
+
+    // Take the subtree out, then put it back in after the new parent's last descendant
+    final int size = ends[term] - term;
+    final String[] rest = new String[values.length - size];
+    final int[] restParents = new int[rest.length];
+    for (int i = 0, j = 0; i < values.length; i++) {
+      if (i < term || i >= ends[term]) {
+        rest[j] = values[i];
+        restParents[j] = parents[i] >= ends[term] ? parents[i] - size : parents[i];
+        j++;
+      }
+    }
+    final int newParent = parent >= ends[term] ? parent - size : parent;
+    final int at =
+        root ? rest.length : (ends[parent] > term ? ends[parent] - size : ends[parent]);
+
+    final String[] newValues = new String[values.length];
+    final int[] newParents = new int[values.length];
+    for (int i = 0, j = 0; i < values.length; i++) {
+      if (i >= at && i < at + size) {
+        final int moved = term + i - at;
+        newValues[i] = values[moved];
+        newParents[i] = moved == term ? newParent : parents[moved] - term + at;
+      } else {
+        newValues[i] = rest[j];
+        newParents[i] = restParents[j] >= at ? restParents[j] + size : restParents[j];
+        j++;
+      }
+    }
+    return new TermIndex(newValues, newParents);
+  }
+
+  static String fold(String text) {
+    return text.toLowerCase(Locale.ROOT);
+  }
+
+  private static long gram(String text, int at) {
+    return ((long) text.charAt(at) << 32)
+        | ((long) text.charAt(at + 1) << 16)
+        | text.charAt(at + 2);
+  }
+
+  private static long stringBytes(String s) {
+    return 40 + 2L * s.length();
+  }
+
+  /** Counts the matching terms and keeps the first of them */
+  private final class Collector {
+    private final String[] folded;
+    private final LikePattern pattern;
+    private final SelectionRestriction restriction;
+    private final int limit;
+    private final boolean searchFullTerms;
+    private final PriorityQueue<Match> best;
+    private final List<Match> all = new ArrayList<Match>();
+    long count;
+
+    Collector(
+        Lookup lookup,
+        LikePattern pattern,
+        SelectionRestriction restriction,
+        int limit,
+        boolean searchFullTerms) {
+      this.folded = lookup.folded;
+      this.pattern = pattern;
+      this.restriction = restriction;
+      this.limit = limit;
+      this.searchFullTerms = searchFullTerms;
+      this.best =
+          new PriorityQueue<Match>(Math.max(1, Math.min(limit, 1000)), Collections.reverseOrder());
+    }
+
+    void check(int term) {
+      if (!isAllowed(term)) {
+        return;
+      }
+      final String text = searchFullTerms ? path(folded, term) : folded[term];
+      if (!pattern.matches(text)) {
+        return;
+      }
+      count++;
+      final Match match = new Match(text, term);
+      if (limit < 0) {
+        all.add(match);
+      } else if (best.size() < limit) {
+        best.add(match);
+      } else if (limit > 0 && match.compareTo(best.peek()) < 0) {
+        best.poll();
+        best.add(match);
+      }
+    }
+
+    private boolean isAllowed(int term) {
+      switch (restriction) {
+        case TOP_LEVEL_ONLY:
+          return parents[term] < 0;
+        case LEAF_ONLY:
+          return ends[term] == term + 1;
+        default:
+          return true;
+      }
+    }
+
+    List<Match> getMatches() {
+      final List<Match> matches = limit < 0 ? all : new ArrayList<Match>(best);
+      Collections.sort(matches);
+      return matches;
+    }
+  }
+
+  /** Lower cased values, indexed by sort order and by the sequences they contain */
+  private static final class Lookup {
+    final String[] folded;
+    /** Positions ordered by folded value */
+    final int[] sorted;
+
+    final Map<Long, int[]> grams;
+
+    Lookup(String[] values) {
+      final int count = values.length;
+      folded = new String[count];
+      final Map<Long, Postings> building = new HashMap<Long, Postings>();
+      for (int i = 0; i < count; i++) {
+        final String f = fold(values[i]);
+        folded[i] = f;
+        for (int c = 0; c + GRAM <= f.length(); c++) {
+          building.computeIfAbsent(gram(f, c), g -> new Postings()).add(i);
+        }
+      }
+      grams = new HashMap<Long, int[]>(building.size() * 4 / 3 + 1);
+      for (Map.Entry<Long, Postings> entry : building.entrySet()) {
+        grams.put(entry.getKey(), entry.getValue().toArray());
+      }
+
+      final Integer[] order = new Integer[count];
+      for (int i = 0; i < count; i++) {
+        order[i] = i;
+      }
+      Arrays.sort(order, Comparator.comparing((Integer i) -> folded[i]));
+      sorted = new int[count];
+      for (int i = 0; i < count; i++) {
+        sorted[i] = order[i];
+      }
+    }
+  }
+
+  private static final class Match implements Comparable<Match> {
+    final String text;
+    final int term;
+
+    Match(String text, int term) {
+      this.text = text;
+      this.term = term;
+    }
+
+    @Override
+    public int compareTo(Match other) {
+      final int c = text.compareTo(other.text);
+      return c != 0 ? c : Integer.compare(term, other.term);
+    }
+  }
+
+  /** A growable list of ascending term positions, each added once */
+  private static final class Postings {
+    private int[] terms = new int[4];
+    private int size;
+
+    void add(int term) {
+      if (size > 0 && terms[size - 1] == term) {
+        return;
+      }
+      if (size == terms.length) {
+        terms = Arrays.copyOf(terms, size * 2);
+      }
+      terms[size++] = term;
+    }
+
+    int[] toArray() {
+      return Arrays.copyOf(terms, size);
+    }
+  }
+
+  /** A lower cased LIKE pattern */
+  static final class LikePattern {
+    /** The literal text between the wildcards */
+    final String[] pieces;
+
+    final boolean anchoredStart;
+    private final boolean anchoredEnd;
+    private final boolean empty;
+    @Nullable private final Pattern regex;
+
+    LikePattern(String query) {
+      final List<String> parts = new ArrayList<String>();
+      final StringBuilder piece = new StringBuilder();
+      final StringBuilder regexText = new StringBuilder();
+      boolean single = false;
+      for (int i = 0; i < query.length(); i++) {
+        final char c = query.charAt(i);
+        if (c == '*' || c == '%' || c == '_') {
+          if (piece.length() > 0) {
+            parts.add(piece.toString());
+            regexText.append(Pattern.quote(piece.toString()));
+            piece.setLength(0);
+          }
+          single |= c == '_';
+          regexText.append(c == '_' ? "." : ".*");
+        } else {
+          piece.append(c);
+        }
+      }
+      if (piece.length() > 0) {
+        parts.add(piece.toString());
+        regexText.append(Pattern.quote(piece.toString()));
+      }
+      pieces = parts.toArray(new String[parts.size()]);
+      empty = query.isEmpty();
+      anchoredStart = !empty && !isWildcard(query.charAt(0));
+      anchoredEnd = !empty && !isWildcard(query.charAt(query.length() - 1));
+      regex = single ? Pattern.compile(regexText.toString(), Pattern.DOTALL) : null;
+    }
+
+    private static boolean isWildcard(char c) {
+      return c == '*' || c == '%' || c == '_';
+    }
+
+    boolean matches(String text) {
+      if (regex != null) {
+        return regex.matcher(text).matches();
+      }
+      if (empty) {
+        return text.isEmpty();
+      }
+      int from = 0;
+      for (int p = 0; p < pieces.length; p++) {
+        final String piece = pieces[p];
+        if (p == 0 && anchoredStart) {
+          if (!text.startsWith(piece)) {
+            return false;
+          }
+          from = piece.length();
+        } else if (p == pieces.length - 1 && anchoredEnd) {
+          return text.length() - piece.length() >= from && text.endsWith(piece);
+        } else {
+          final int found = text.indexOf(piece, from);
+          if (found < 0) {
+            return false;
+          }
+          from = found + piece.length();
+        }
+      }
+      return !anchoredEnd || from == text.length();
+    }
+  }
+}
@@ -21,6 +21,8 @@ package com.tle.core.taxonomy.impl;
 import com.dytech.edge.common.LockedException;
 import com.google.common.base.Function;
 import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Multimap;
@@ -33,12 +35,14 @@ import com.tle.common.beans.exception.NotFoundException;
 import com.tle.common.beans.exception.ValidationError;
 import com.tle.common.filesystem.handle.BucketFile;
 import com.tle.common.filesystem.handle.SubTemporaryFile;
+import com.tle.common.institution.CurrentInstitution;
 import com.tle.common.security.SecurityConstants;
 import com.tle.common.taxonomy.SelectionRestriction;
 import com.tle.common.taxonomy.Taxonomy;
 import com.tle.common.taxonomy.TaxonomyConstants;
 import com.tle.common.taxonomy.terms.Term;
 import com.tle.core.entity.service.EntityLockingService;
+import com.tle.core.events.services.EventService;
 import com.tle.core.guice.Bind;
 import com.tle.core.hibernate.equella.service.InitialiserService;
 import com.tle.core.institution.convert.ConverterParams;
@@ -48,6 +52,7 @@ import com.tle.core.security.impl.SecureOnCall;
 import com.tle.core.taxonomy.TermDao;
 import com.tle.core.taxonomy.TermResult;
 import com.tle.core.taxonomy.TermService;
+import com.tle.core.taxonomy.impl.TaxonomyModifiedEvent.TermChange;
 import com.tle.web.resources.PluginResourceHelper;
 import com.tle.web.resources.ResourcesService;
 import java.util.Collection;
@@ -57,7 +62,12 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PostConstruct;
 import javax.inject.Inject;
+import javax.inject.Named;
 import javax.inject.Singleton;
 import org.apache.log4j.Logger;
 import org.hibernate.criterion.Criterion;
@@ -65,11 +75,13 @@ import org.hibernate.criterion.Order;
 import org.hibernate.criterion.Restrictions;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 @SuppressWarnings("nls")
 @Bind(TermService.class)
 @Singleton
-public class TermServiceImpl implements TermService {
+public class TermServiceImpl implements TermService, TaxonomyModifiedListener {
   private static final Logger LOGGER = Logger.getLogger(TermService.class);
 
   private static final PluginResourceHelper resources =
@@ -79,6 +91,42 @@ public class TermServiceImpl implements TermService {
   @Inject private EntityLockingService lockingService;
   @Inject private InitialiserService initialiserService;
   @Inject private XmlHelper xmlHelper;
+  @Inject private EventService eventService;
+
+  @com.google.inject.Inject(optional = true)
+  @Named("taxonomy.termIndexMegabytes")
+  private int termIndexMegabytes = 64;
+
+  /**
+   * Term indexes keyed by institution and taxonomy UUID, weighed in kilobytes. A single segment, as
+   * Guava divides the maximum weight between segments and would evict an index larger than its
+   * share as soon as it is added. Taxonomies too large to index are remembered for a while so they
+   * aren't loaded on every search.
+   */
+  private Cache<String, TermIndex> termIndexes;
+
+  private Cache<String, Boolean> unindexed;
+  private final ConcurrentMap<String, Object> indexLocks = new ConcurrentHashMap<String, Object>();
+
+  @PostConstruct
+  void setupTermIndexes() {
+    termIndexes =
+        CacheBuilder.newBuilder()
+            .concurrencyLevel(1)
+            .maximumWeight(getMaximumKilobytes())
+            .weigher((String key, TermIndex index) -> getKilobytes(index))
+            .expireAfterAccess(1, TimeUnit.HOURS)
+            .build();
+    unindexed = CacheBuilder.newBuilder().expireAfterWrite(1, TimeUnit.HOURS).build();
+  }
+
+  private long getMaximumKilobytes() {
+    return Math.max(0, termIndexMegabytes) * 1024L;
+  }
+
+  private static int getKilobytes(TermIndex index) {
+    return (int) Math.min(Integer.MAX_VALUE, index.getEstimatedBytes() / 1024 + 1);
+  }
 
   @Override
   public List<String> listTerms(Taxonomy taxonomy, String parentFullPath) {
@@ -111,6 +159,11 @@ public class TermServiceImpl implements TermService {
       SelectionRestriction restriction,
       int limit,
       boolean searchFullTerms) {
+    final TermIndex index = getTermIndex(taxonomy);
+    if (index != null) {
+      return index.search(query, restriction, limit, searchFullTerms);
+    }
+
     final String searchField = (searchFullTerms ? "fullValue" : "value");
     final Criterion c1 = Restrictions.eq("taxonomy", taxonomy);
     final Criterion c2 = Restrictions.ilike(searchField, query.replace('*', '%'));
@@ -134,6 +187,137 @@ public class TermServiceImpl implements TermService {
     return new Pair<Long, List<TermResult>>(totalCount, results);
   }
 
+  /** @return The loaded index of the taxonomy's terms, or null to search the term table */
+  @Nullable
+  private TermIndex getTermIndex(Taxonomy taxonomy) {
+    if (termIndexMegabytes <= 0) {
+      return null;
+    }
+    final String key = getIndexKey(taxonomy.getUuid());
+    TermIndex index = termIndexes.getIfPresent(key);
+    if (index != null || unindexed.getIfPresent(key) != null) {
+      return index;
+    }
+
+    // Changes to the taxonomy wait for the load, and are then applied to what it loaded
+    synchronized (getIndexLock(key)) {
+      index = termIndexes.getIfPresent(key);
+      if (index != null || unindexed.getIfPresent(key) != null) {
+        return index;
+      }
+      final long start = System.currentTimeMillis();
+      index = loadTermIndex(taxonomy);
+      // Compared by weight, anything heavier would be evicted from the cache straight away
+      if (getKilobytes(index) > getMaximumKilobytes()) {
+        LOGGER.info(
+            "Taxonomy "
+                + taxonomy.getUuid()
+                + " with "
+                + index.size()
+                + " terms is too large to hold in memory, searching the database instead");
+        unindexed.put(key, Boolean.TRUE);
+        return null;
+      }
+      termIndexes.put(key, index);
+      LOGGER.debug(
+          "Loaded "
+              + index.size()
+              + " terms of taxonomy "
+              + taxonomy.getUuid()
+              + " in "
+              + (System.currentTimeMillis() - start)
+              + "ms");
+      return index;
+    }
+  }
+
+  private TermIndex loadTermIndex(Taxonomy taxonomy) {
+    final List<Object[]> rows = termDao.getAllTermValuesInOrder(taxonomy);
+    final int count = rows.size();
+    final String[] values = new String[count];
+    final int[] lefts = new int[count];
+    final int[] rights = new int[count];
+    for (int i = 0; i < count; i++) {
+      final Object[] row = rows.get(i);
+      values[i] = (String) row[0];
+      lefts[i] = ((Number) row[1]).intValue();
+      rights[i] = ((Number) row[2]).intValue();
+    }
+    return TermIndex.fromNestedSet(values, lefts, rights);
+  }
+
+  private String getIndexKey(String taxonomyUuid) {
+    return CurrentInstitution.get().getUniqueId() + ":" + taxonomyUuid;
+  }
+
+  private Object getIndexLock(String key) {
+    return indexLocks.computeIfAbsent(key, k -> new Object());
+  }
+
+  @Override
+  public void taxonomyModifiedEvent(TaxonomyModifiedEvent event) {
+    final String key = getIndexKey(event.getTaxonomyUuid());
+    if (event.getTermChange() == null) {
+      unindexed.invalidate(key);
+    }
+    synchronized (getIndexLock(key)) {
+      final TermIndex index = termIndexes.getIfPresent(key);
+      if (index == null) {
+        return;
+      }
+      final TermIndex changed = applyChange(index, event);
+      if (changed == null) {
+        termIndexes.invalidate(key);
+      } else if (changed != index) {
+        termIndexes.put(key, changed);
+      }
+    }
+  }
+
+  /** @return The index with the change applied, or null if it must be loaded again */
+  @Nullable
+  private TermIndex applyChange(TermIndex index, TaxonomyModifiedEvent event) {
+    final TermChange change = event.getTermChange();
+    final String path = event.getTermPath();
+    final String value = event.getValue();
+    if (change == null || (change != TermChange.ADDED && path == null)) {
+      return null;
+    }
+    switch (change) {
+      case ADDED:
+        return value == null ? null : index.withTermAdded(path, value);
+      case RENAMED:
+        return value == null ? null : index.withTermRenamed(path, value);
+      case MOVED:
+        return index.withTermMoved(path, value);
+      case DELETED:
+        return index.withTermDeleted(path);
+      default:
+        return null;
+    }
+  }
+
+  /** Tells every node about the change once it has been committed */
+  private void publishTermChange(
+      Taxonomy taxonomy,
+      @Nullable TermChange change,
+      @Nullable String termPath,
+      @Nullable String value) {
+    final TaxonomyModifiedEvent event =
+        new TaxonomyModifiedEvent(taxonomy.getUuid(), change, termPath, value);
+    if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+      eventService.publishApplicationEvent(event);
+      return;
+    }
+    TransactionSynchronizationManager.registerSynchronization(
+        new TransactionSynchronizationAdapter() {
+          @Override
+          public void afterCommit() {
+            eventService.publishApplicationEvent(event);
+          }
+        });
+  }
+
   private Criterion getSearchRestrictionCriterion(SelectionRestriction restriction) {
     switch (restriction) {
       case TOP_LEVEL_ONLY:
@@ -213,6 +397,7 @@ public class TermServiceImpl implements TermService {
 
     if (parent != null || root) {
       Term newTerm = termDao.insertNewTerm(taxonomy, parent, termUuid, term, index);
+      publishTermChange(taxonomy, TermChange.ADDED, root ? null : parent.getFullValue(), term);
       return newTerm.getFullValue();
     } else if (createHierarchy) {
       final String fullPathNoRoot =
@@ -235,6 +420,8 @@ public class TermServiceImpl implements TermService {
           pterm =
               termDao.insertNewTerm(
                   taxonomy, parent, (i == parts.length - 1 ? termUuid : null), parts[i], -1);
+          publishTermChange(
+              taxonomy, TermChange.ADDED, parent == null ? null : parent.getFullValue(), parts[i]);
         }
         parent = pterm;
       }
@@ -309,7 +496,14 @@ public class TermServiceImpl implements TermService {
   @Transactional(propagation = Propagation.REQUIRED)
   public void move(Taxonomy taxonomy, String termToMove, String moveToParent, int index) {
     ensureLocked(taxonomy);
-    termDao.move(getTerm(taxonomy, termToMove), getParentTermOrRoot(taxonomy, moveToParent), index);
+    final Term term = getTerm(taxonomy, termToMove);
+    final Term parent = getParentTermOrRoot(taxonomy, moveToParent);
+    publishTermChange(
+        taxonomy,
+        TermChange.MOVED,
+        term.getFullValue(),
+        parent == null ? null : parent.getFullValue());
+    termDao.move(term, parent, index);
   }
 
   @Override
@@ -317,10 +511,10 @@ public class TermServiceImpl implements TermService {
   @Transactional(propagation = Propagation.REQUIRED)
   public void move(Taxonomy taxonomy, TermResult termToMove, TermResult parentTerm, int index) {
     ensureLocked(taxonomy);
-    termDao.move(
-        getTermByUuid(taxonomy, termToMove.getUuid()),
-        getTermByUuid(taxonomy, parentTerm.getUuid()),
-        index);
+    final Term term = getTermByUuid(taxonomy, termToMove.getUuid());
+    final Term parent = getTermByUuid(taxonomy, parentTerm.getUuid());
+    publishTermChange(taxonomy, TermChange.MOVED, term.getFullValue(), parent.getFullValue());
+    termDao.move(term, parent, index);
   }
 
   @Override
@@ -336,7 +530,9 @@ public class TermServiceImpl implements TermService {
   @Transactional(propagation = Propagation.REQUIRED)
   public void renameTermValue(Taxonomy taxonomy, String termToRename, String newValue) {
     ensureLocked(taxonomy);
-    termDao.renameTermValue(getTerm(taxonomy, termToRename), newValue);
+    final Term term = getTerm(taxonomy, termToRename);
+    publishTermChange(taxonomy, TermChange.RENAMED, term.getFullValue(), newValue);
+    termDao.renameTermValue(term, newValue);
   }
 
   @Override
@@ -344,7 +540,9 @@ public class TermServiceImpl implements TermService {
   @Transactional(propagation = Propagation.REQUIRED)
   public void deleteTerm(Taxonomy taxonomy, String termFullPath) {
     ensureLocked(taxonomy);
-    termDao.delete(getTerm(taxonomy, termFullPath));
+    final Term term = getTerm(taxonomy, termFullPath);
+    publishTermChange(taxonomy, TermChange.DELETED, term.getFullValue(), null);
+    termDao.delete(term);
   }
 
   @Override
@@ -461,6 +659,7 @@ public class TermServiceImpl implements TermService {
   @Transactional(propagation = Propagation.REQUIRED)
   public void deleteForTaxonomy(Taxonomy taxonomy) {
     termDao.deleteForTaxonomy(taxonomy);
+    publishTermChange(taxonomy, null, null, null);
   }
 
   @Override
@@ -588,6 +787,7 @@ public class TermServiceImpl implements TermService {
             processTermChildren(nullTerm, childTermMap, part2message);
           }
         });
+    publishTermChange(taxonomy, null, null, null);
   }
 
   protected void addToChildTermMap(
@@ -32,6 +32,8 @@ import com.tle.common.usermanagement.user.valuebean.UserBean;
 import com.tle.core.encryption.EncryptionService;
 import com.tle.core.guice.Bind;
 import com.tle.core.usermanagement.standard.ldap.LDAP;
+import com.tle.core.usermanagement.standard.ldap.LDAPConnectionPool;
+import com.tle.core.usermanagement.standard.ldap.LDAPLookupCache;
 import com.tle.core.usermanagement.standard.service.LDAPService;
 import com.tle.exceptions.BadCredentialsException;
 import com.tle.plugins.ump.AbstractUserDirectory;
@@ -43,7 +45,9 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
 import javax.inject.Inject;
+import javax.inject.Named;
 import org.apache.log4j.Logger;
 
 @Bind
@@ -56,14 +60,74 @@ public class LDAPUserPlugin extends AbstractUserDirectory {
   @Inject private LDAPService ldapService;
   @Inject private EncryptionService encryptionService;
 
+  @com.google.inject.Inject(optional = true)
+  @Named("ldap.cacheSeconds")
+  private int cacheSeconds = 600;
+
+  @com.google.inject.Inject(optional = true)
+  @Named("ldap.negativeCacheSeconds")
+  private int negativeCacheSeconds = 60;
+
+  @com.google.inject.Inject(optional = true)
+  @Named("ldap.cacheSize")
+  private int cacheSize = 5000;
+
+  @com.google.inject.Inject(optional = true)
+  @Named("ldap.pool.maxSize")
+  private int poolSize = 10;
+
+  @com.google.inject.Inject(optional = true)
+  @Named("ldap.pool.idleSeconds")
+  private int poolIdleSeconds = 300;
+
+  @com.google.inject.Inject(optional = true)
+  @Named("ldap.pool.waitSeconds")
+  private int poolWaitSeconds = 15;
+
   private LDAP ldap;
+  private LDAPConnectionPool connectionPool;
+  private LDAPLookupCache<UserBean> userCache;
+  private LDAPLookupCache<GroupBean> groupCache;
 
   @Override
   protected boolean initialise(UserManagementSettings settings) {
     this.ldap = new LDAP((LDAPSettings) settings, encryptionService);
+    // A pool size of zero leaves connection pooling to JNDI
+    if (poolSize > 0) {
+      connectionPool =
+          new LDAPConnectionPool(
+              ldap::bindAsAdmin,
+              poolSize,
+              TimeUnit.SECONDS.toMillis(poolIdleSeconds),
+              TimeUnit.SECONDS.toMillis(poolWaitSeconds));
+      ldap.setConnectionPool(connectionPool);
+    }
+    userCache = new LDAPLookupCache<UserBean>(cacheSeconds, negativeCacheSeconds, cacheSize);
+    groupCache = new LDAPLookupCache<GroupBean>(cacheSeconds, negativeCacheSeconds, cacheSize);
     return false;
   }
 
+  @Override
+  public void close() throws Exception {
+    if (connectionPool != null) {
+      connectionPool.close();
+    }
+    LOGGER.info(
+        "LDAP lookups: users "
+            + userCache.getHits()
+            + " cached, "
+            + userCache.getNegativeHits()
+            + " cached as unknown, "
+            + userCache.getMisses()
+            + " searched; groups "
+            + groupCache.getHits()
+            + " cached, "
+            + groupCache.getNegativeHits()
+            + " cached as unknown, "
+            + groupCache.getMisses()
+            + " searched");
+  }
+
   @Override
   public ModifiableUserState authenticateUser(final String username, final String password) {
     try {
@@ -109,12 +173,20 @@ public class LDAPUserPlugin extends AbstractUserDirectory {
 
   @Override
   public UserBean getInformationForUser(final String userID) {
-    return ldapService.getUserBean(ldap, userID);
+    return UserDirectoryUtils.getSingleUserInfoFromMultipleInfo(this, userID);
   }
 
   @Override
   public Map<String, UserBean> getInformationForUsers(Collection<String> userIds) {
-    return UserDirectoryUtils.getMultipleUserInfosFromSingleInfos(this, userIds);
+    Map<String, UserBean> users;
+    try {
+      users = userCache.getAll(userIds, ids -> ldapService.getUserBeans(ldap, ids));
+    } catch (RuntimeException e) {
+      // Not cached, so the IDs are looked up again next time
+      LOGGER.error("Error looking up users in LDAP", e);
+      return null;
+    }
+    return users.isEmpty() ? null : users;
   }
 
   @Override
@@ -163,16 +235,25 @@ public class LDAPUserPlugin extends AbstractUserDirectory {
 
   @Override
   public GroupBean getInformationForGroup(final String groupID) {
-    return ldapService.getGroupBean(ldap, groupID);
+    return UserDirectoryUtils.getSingleGroupInfoFromMultipleInfo(this, groupID);
   }
 
   @Override
   public Map<String, GroupBean> getInformationForGroups(Collection<String> groupIds) {
-    return UserDirectoryUtils.getMultipleGroupInfosFromSingleInfos(this, groupIds);
+    Map<String, GroupBean> groups;
+    try {
+      groups = groupCache.getAll(groupIds, ids -> ldapService.getGroupBeans(ldap, ids));
+    } catch (RuntimeException e) {
+      LOGGER.error("Error looking up groups in LDAP", e);
+      return null;
+    }
+    return groups.isEmpty() ? null : groups;
   }
 
   @Override
   public void purgeFromCaches(String id) {
+    userCache.invalidate(id);
+    groupCache.invalidate(id);
     if (initGroupsCache.asMap().containsKey(id)) {
       initGroupsCache.invalidate(id);
     } else {
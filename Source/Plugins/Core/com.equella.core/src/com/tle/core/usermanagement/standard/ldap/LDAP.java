@@ -21,6 +21,7 @@ package com.tle.core.usermanagement.standard.ldap;
 import com.dytech.edge.common.Constants;
 import com.google.common.base.CharMatcher;
 import com.google.common.base.Splitter;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.tle.beans.usermanagement.standard.LDAPSettings;
 import com.tle.common.Check;
@@ -32,21 +33,27 @@ import com.tle.common.util.BlindSSLSocketFactory;
 import com.tle.core.encryption.EncryptionService;
 import com.tle.exceptions.BadCredentialsException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.SortedSet;
+import java.util.TreeMap;
 import java.util.TreeSet;
 import javax.naming.AuthenticationException;
+import javax.naming.CommunicationException;
 import javax.naming.Context;
 import javax.naming.InvalidNameException;
 import javax.naming.Name;
+import javax.naming.NameNotFoundException;
 import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
 import javax.naming.PartialResultException;
+import javax.naming.ServiceUnavailableException;
 import javax.naming.SizeLimitExceededException;
 import javax.naming.directory.Attribute;
 import javax.naming.directory.Attributes;
@@ -71,6 +78,9 @@ public class LDAP {
   public static final String OBJECTCLASS = "objectclass";
   public static final String[] ATTRIBUTES_NONE = {};
 
+  /** The most IDs looked up by a single search when fetching many users or groups at once. */
+  public static final int BATCH_SIZE = 100;
+
   private static final Logger LOGGER = Logger.getLogger(LDAP.class);
 
   protected final LDAPSettings config;
@@ -106,6 +116,7 @@ public class LDAP {
   private boolean blind;
 
   private transient GroupSearch groupSearch;
+  private LDAPConnectionPool connectionPool;
 
   public LDAP(LDAPSettings config, EncryptionService encryptionService) {
     this.config = config;
@@ -203,9 +214,33 @@ public class LDAP {
     }
   }
 
-  /** @return null if there are zero results */
+  /**
+   * Connection errors are thrown, so that a lost connection isn't taken for a user or group that
+   * doesn't exist. Other errors are logged and treated as no results.
+   *
+   * @return null if there are zero results
+   */
   private NamingEnumeration<SearchResult> search(
       DirContext ctx, Name base, String[] returnAttributes, Filter filter, boolean recurse) {
+    try {
+      return searchOrThrow(ctx, base, returnAttributes, filter, recurse);
+    } catch (CommunicationException | ServiceUnavailableException e) {
+      throw new RuntimeException("LDAP Error", e);
+    } catch (Exception e) {
+      LOGGER.warn(e);
+    }
+    return null;
+  }
+
+  /**
+   * As {@link #search(DirContext, Name, String[], Filter, boolean)}, but errors other than partial
+   * results are thrown, so that a broken connection is not mistaken for no results.
+   *
+   * @return null if there are zero results
+   */
+  private NamingEnumeration<SearchResult> searchOrThrow(
+      DirContext ctx, Name base, String[] returnAttributes, Filter filter, boolean recurse)
+      throws NamingException {
     SearchControls ctls = new SearchControls();
     ctls.setCountLimit(filter.getLimit());
     ctls.setReturningAttributes(returnAttributes);
@@ -225,13 +260,32 @@ public class LDAP {
       LOGGER.info(pre);
     } catch (SizeLimitExceededException slee) {
       LOGGER.info(slee);
-    } catch (Exception e) {
-      LOGGER.warn(e);
     }
 
     return null;
   }
 
+  /** Searches every base, throwing any error other than partial results */
+  private <T> List<T> searchAllBasesOrThrow(
+      DirContext ctx, Filter filter, HitsCollector<T> collector, boolean recurse)
+      throws NamingException {
+    collector.setup(ctx, this);
+    for (Name base : getBases()) {
+      NamingEnumeration<SearchResult> ne =
+          searchOrThrow(ctx, base, collector.getReturnAttributes(), filter, recurse);
+      try {
+        while (ne != null && ne.hasMore()) {
+          collector.addResult(ne.next(), base);
+        }
+      } catch (PartialResultException pre) {
+        LOGGER.info(pre);
+      } catch (SizeLimitExceededException slee) {
+        LOGGER.info(slee);
+      }
+    }
+    return collector.getResults();
+  }
+
   public <T> T searchFirstResult(
       DirContext ctx, Name base, Filter filter, HitsCollector<T> collector, boolean recurse)
       throws NamingException {
@@ -804,6 +858,83 @@ public class LDAP {
     }
   }
 
+  /**
+   * Fetches many users with one search per {@link #BATCH_SIZE} IDs, rather than one search each.
+   * Errors are thrown rather than logged, so that IDs are not taken to be unknown because the
+   * directory could not be searched.
+   *
+   * @return The users found, keyed by the ID they were asked for
+   */
+  public Map<String, UserBean> getUserBeans(DirContext ctx, Collection<String> userIDs)
+      throws NamingException {
+    Map<String, UserBean> rv = new TreeMap<String, UserBean>(String.CASE_INSENSITIVE_ORDER);
+    for (List<String> batch : Iterables.partition(userIDs, BATCH_SIZE)) {
+      OrFilter ids = new OrFilter();
+      for (String userID : batch) {
+        ids.addFilter(new SingleFilter(idField, userID));
+      }
+      Filter filter = new AndFilter(new SingleFilter(OBJECTCLASS, personObject), ids);
+      for (UserBean user : searchAllBasesOrThrow(ctx, filter, new UserBeanHitsCollector(), true)) {
+        rv.put(user.getUniqueID(), user);
+      }
+    }
+    return byRequestedId(userIDs, rv);
+  }
+
+  /**
+   * Fetches many groups with one search per {@link #BATCH_SIZE} IDs. Groups identified by their
+   * DN are read directly instead, as not every directory can search on the DN. As with {@link
+   * #getUserBeans(DirContext, Collection)} errors are thrown rather than logged.
+   *
+   * @return The groups found, keyed by the ID they were asked for
+   */
+  public Map<String, GroupBean> getGroupBeans(DirContext ctx, Collection<String> groupIDs)
+      throws NamingException {
+    Map<String, GroupBean> rv = new TreeMap<String, GroupBean>(String.CASE_INSENSITIVE_ORDER);
+    if (Check.isEmpty(groupIdField)) {
+      for (String groupID : groupIDs) {
+        try {
+          Name name = LDAP.parse(groupID);
+          GroupBean group =
+              getGroupBeanFromResult(
+                  new LDAPResult(name, ctx.getAttributes(name, groupAttributes)));
+          if (group != null) {
+            rv.put(groupID, group);
+          }
+        } catch (InvalidNameException | NameNotFoundException e) {
+          LOGGER.debug(e, e);
+        }
+      }
+      return byRequestedId(groupIDs, rv);
+    }
+
+    for (List<String> batch : Iterables.partition(groupIDs, BATCH_SIZE)) {
+      OrFilter ids = new OrFilter();
+      for (String groupID : batch) {
+        ids.addFilter(new SingleFilter(groupIdField, groupID));
+      }
+      Filter filter = new AndFilter(new SingleFilter(OBJECTCLASS, groupObject), ids);
+      for (GroupBean group :
+          searchAllBasesOrThrow(ctx, filter, new GroupBeanHitsCollector(), true)) {
+        rv.put(group.getUniqueID(), group);
+      }
+    }
+    return byRequestedId(groupIDs, rv);
+  }
+
+  /** The directory matches IDs without regard to case, so the results may differ from the IDs. */
+  private static <T> Map<String, T> byRequestedId(
+      Collection<String> requested, Map<String, T> found) {
+    Map<String, T> rv = new HashMap<String, T>();
+    for (String id : requested) {
+      T value = found.get(id);
+      if (value != null) {
+        rv.put(id, value);
+      }
+    }
+    return rv;
+  }
+
   public interface InContext<T> {
     T execute(DirContext ctx) throws NamingException;
   }
@@ -822,7 +953,28 @@ public class LDAP {
     }
   }
 
+  /**
+   * Makes {@link #doAsAdmin(InContext)} borrow its contexts from the pool, instead of binding a new
+   * context through the JNDI connection pool each time.
+   */
+  public void setConnectionPool(LDAPConnectionPool connectionPool) {
+    this.connectionPool = connectionPool;
+  }
+
+  /** Binds a context as the admin user that is not shared with the JNDI connection pool. */
+  public DirContext bindAsAdmin() throws NamingException {
+    return bind(adminUsername, adminPassword, true, false);
+  }
+
   public <T> T doAsAdmin(InContext<T> inContext) {
+    if (connectionPool != null) {
+      try {
+        return connectionPool.execute(inContext);
+      } catch (NamingException ne) {
+        throw new RuntimeException("LDAP Error", ne);
+      }
+    }
+
     DirContext ctx;
     try {
       ctx = bind(adminUsername, adminPassword, true, true);
@@ -0,0 +1,280 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.usermanagement.standard.ldap;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.naming.CommunicationException;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.ServiceUnavailableException;
+import javax.naming.directory.DirContext;
+import org.apache.log4j.Logger;
+
+/**
+ * A bounded pool of contexts bound as the admin user of one LDAP directory. It replaces the JNDI
+ * connection pool, whose size and timeouts can only be set JVM wide, so that a busy directory can
+ * neither open an unbounded number of connections nor starve the others.
+ *
+ * <p>Contexts are not thread-safe, so each is used by a single borrower at a time. Contexts left
+ * idle for longer than the idle timeout are closed when the pool is next used, and contexts which
+ * fail with a communication error are discarded rather than returned.
+ */
+@SuppressWarnings("nls")
+public class LDAPConnectionPool {
+  private static final Logger LOGGER = Logger.getLogger(LDAPConnectionPool.class);
+
+  public interface ContextFactory {
+    DirContext create() throws NamingException;
+  }
+
+  private final ContextFactory factory;
+  private final int maxSize;
+  private final long maxIdleMillis;
+  private final long borrowTimeoutMillis;
+
+  private final Semaphore permits;
+  private final Deque<IdleContext> idle = new ArrayDeque<IdleContext>();
+  private boolean closed;
+
+  private final AtomicLong created = new AtomicLong();
+  private final AtomicLong borrowed = new AtomicLong();
+  private final AtomicLong waited = new AtomicLong();
+  private final AtomicLong timeouts = new AtomicLong();
+  private final AtomicLong discarded = new AtomicLong();
+  private final AtomicLong expired = new AtomicLong();
+
+  public LDAPConnectionPool(
+      ContextFactory factory, int maxSize, long maxIdleMillis, long borrowTimeoutMillis) {
+    this.factory = factory;
+    this.maxSize = Math.max(1, maxSize);
+    this.maxIdleMillis = maxIdleMillis;
+    this.borrowTimeoutMillis = borrowTimeoutMillis;
+    this.permits = new Semaphore(this.maxSize, true);
+  }
+
+  /**
+   * Borrows a context, creating one if none are idle, and returns it to the pool once the callback
+   * finishes. The callback must not close the context.
+   */
+  public <T> T execute(LDAP.InContext<T> inContext) throws NamingException {
+    acquire();
+    DirContext ctx = null;
+    final AtomicBoolean broken = new AtomicBoolean();
+    try {
+      ctx = take();
+      borrowed.incrementAndGet();
+      return inContext.execute(track(ctx, DirContext.class, broken));
+    } catch (CommunicationException | ServiceUnavailableException e) {
+      broken.set(true);
+      throw e;
+    } catch (RuntimeException e) {
+      if (isConnectionError(e.getCause())) {
+        broken.set(true);
+      }
+      throw e;
+    } finally {
+      if (ctx != null) {
+        release(ctx, broken.get());
+      }
+      permits.release();
+    }
+  }
+
+  private static boolean isConnectionError(Throwable t) {
+    return t instanceof CommunicationException || t instanceof ServiceUnavailableException;
+  }
+
+  /**
+   * Wraps a borrowed context, and the enumerations it returns, to note connection errors. Many
+   * searches log errors and carry on, and the context must still not be handed out again.
+   */
+  @SuppressWarnings("unchecked")
+  private static <T> T track(final T target, Class<T> type, final AtomicBoolean broken) {
+    return (T)
+        Proxy.newProxyInstance(
+            LDAPConnectionPool.class.getClassLoader(),
+            new Class<?>[] {type},
+            (proxy, method, args) -> {
+              try {
+                final Object result = method.invoke(target, args);
+                if (result instanceof NamingEnumeration) {
+                  return track((NamingEnumeration<?>) result, NamingEnumeration.class, broken);
+                }
+                return result;
+              } catch (InvocationTargetException e) {
+                if (isConnectionError(e.getCause())) {
+                  broken.set(true);
+                }
+                throw e.getCause();
+              }
+            });
+  }
+
+  private void acquire() throws NamingException {
+    if (permits.tryAcquire()) {
+      return;
+    }
+    waited.incrementAndGet();
+    try {
+      if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+        timeouts.incrementAndGet();
+        throw new ServiceUnavailableException(
+            "Timed out after "
+                + borrowTimeoutMillis
+                + "ms waiting for one of "
+                + maxSize
+                + " LDAP connections");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ServiceUnavailableException("Interrupted waiting for an LDAP connection");
+    }
+  }
+
+  private DirContext take() throws NamingException {
+    final long now = System.currentTimeMillis();
+    synchronized (this) {
+      if (closed) {
+        throw new ServiceUnavailableException("LDAP connection pool is closed");
+      }
+      IdleContext ic;
+      while ((ic = idle.pollFirst()) != null) {
+        if (now - ic.since <= maxIdleMillis) {
+          return ic.ctx;
+        }
+        expired.incrementAndGet();
+        close(ic.ctx);
+      }
+    }
+    final DirContext ctx = factory.create();
+    created.incrementAndGet();
+    return ctx;
+  }
+
+  private void release(DirContext ctx, boolean broken) {
+    if (!broken) {
+      synchronized (this) {
+        if (!closed) {
+          // Most recently used first, so that the surplus contexts are the ones that expire
+          idle.addFirst(new IdleContext(ctx, System.currentTimeMillis()));
+          return;
+        }
+      }
+    } else {
+      discarded.incrementAndGet();
+    }
+    close(ctx);
+  }
+
+  /** Closes the idle contexts. Contexts in use are closed when they are returned. */
+  public void close() {
+    synchronized (this) {
+      closed = true;
+      for (IdleContext ic : idle) {
+        close(ic.ctx);
+      }
+      idle.clear();
+    }
+    LOGGER.info("Closed LDAP connection pool, " + getStatistics());
+  }
+
+  private static void close(DirContext ctx) {
+    try {
+      ctx.close();
+    } catch (NamingException e) {
+      LOGGER.debug("Error closing LDAP context", e);
+    }
+  }
+
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  /** @return Contexts currently borrowed */
+  public int getActive() {
+    return maxSize - permits.availablePermits();
+  }
+
+  public synchronized int getIdle() {
+    return idle.size();
+  }
+
+  public long getCreated() {
+    return created.get();
+  }
+
+  public long getBorrowed() {
+    return borrowed.get();
+  }
+
+  /** @return Borrows that had to wait for another borrower to return a context */
+  public long getWaited() {
+    return waited.get();
+  }
+
+  public long getTimeouts() {
+    return timeouts.get();
+  }
+
+  /** @return Contexts thrown away after a communication error */
+  public long getDiscarded() {
+    return discarded.get();
+  }
+
+  /** @return Contexts closed after sitting idle for too long */
+  public long getExpired() {
+    return expired.get();
+  }
+
+  public String getStatistics() {
+    return "active="
+        + getActive()
+        + " idle="
+        + getIdle()
+        + " created="
+        + getCreated()
+        + " borrowed="
+        + getBorrowed()
+        + " waited="
+        + getWaited()
+        + " timeouts="
+        + getTimeouts()
+        + " discarded="
+        + getDiscarded()
+        + " expired="
+        + getExpired();
+  }
+
+  private static final class IdleContext {
+    final DirContext ctx;
+    final long since;
+
+    IdleContext(DirContext ctx, long since) {
+      this.ctx = ctx;
+      this.since = since;
+    }
+  }
+}
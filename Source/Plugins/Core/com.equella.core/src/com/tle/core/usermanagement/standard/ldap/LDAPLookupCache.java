@@ -0,0 +1,118 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.usermanagement.standard.ldap;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Caches the results of looking up users or groups by ID, including IDs the directory does not
+ * know about. Those are kept for a shorter time, so that ACL screens listing deleted users do not
+ * search the directory for them on every request, but newly created users are found soon after.
+ */
+public class LDAPLookupCache<T> {
+  private final Cache<String, T> found;
+  private final Cache<String, Boolean> missing;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong negativeHits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  public LDAPLookupCache(long ttlSeconds, long negativeTtlSeconds, long maxSize) {
+    found =
+        CacheBuilder.newBuilder()
+            .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+            .maximumSize(maxSize)
+            .softValues()
+            .build();
+    missing =
+        CacheBuilder.newBuilder()
+            .expireAfterWrite(negativeTtlSeconds, TimeUnit.SECONDS)
+            .maximumSize(maxSize)
+            .build();
+  }
+
+  /**
+   * @param loader Looks up the IDs that are not cached, in as few requests as it can. IDs missing
+   *     from the map it returns are cached as unknown. If the directory can't be searched it must
+   *     throw, in which case nothing is cached.
+   * @return The values of the IDs the directory knows about
+   */
+  public Map<String, T> getAll(
+      Collection<String> ids, Function<Collection<String>, Map<String, T>> loader) {
+    final Map<String, T> rv = new LinkedHashMap<String, T>();
+    final Set<String> load = new LinkedHashSet<String>();
+    for (String id : ids) {
+      final T value = found.getIfPresent(id);
+      if (value != null) {
+        hits.incrementAndGet();
+        rv.put(id, value);
+      } else if (missing.getIfPresent(id) != null) {
+        negativeHits.incrementAndGet();
+      } else {
+        load.add(id);
+      }
+    }
+
+    if (!load.isEmpty()) {
+      misses.addAndGet(load.size());
+      final Map<String, T> loaded = loader.apply(load);
+      for (String id : load) {
+        final T value = loaded.get(id);
+        if (value != null) {
+          found.put(id, value);
+          rv.put(id, value);
+        } else {
+          missing.put(id, Boolean.TRUE);
+        }
+      }
+    }
+    return rv;
+  }
+
+  public void invalidate(String id) {
+    found.invalidate(id);
+    missing.invalidate(id);
+  }
+
+  public void invalidateAll() {
+    found.invalidateAll();
+    missing.invalidateAll();
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getNegativeHits() {
+    return negativeHits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+}
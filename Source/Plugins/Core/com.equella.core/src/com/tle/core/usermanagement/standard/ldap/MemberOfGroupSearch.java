@@ -35,8 +35,10 @@ import com.tle.core.usermanagement.standard.ldap.LDAP.UserBeanHitsCollector;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import javax.naming.Name;
 import javax.naming.NameParser;
@@ -75,7 +77,7 @@ public class MemberOfGroupSearch extends GroupSearch {
 
   @Override
   public GroupBean getParentGroupForGroup(DirContext ctx, String groupID) {
-    SubgroupResultHitsCollector collector = new SubgroupResultHitsCollector();
+    SubgroupResultHitsCollector collector = new SubgroupResultHitsCollector(new GroupMemo());
 
     SubgroupResultHitsCollector.SubgroupResult result = null;
     if (!Check.isEmpty(ldap.getGroupIdField())) {
@@ -119,10 +121,14 @@ public class MemberOfGroupSearch extends GroupSearch {
     }
 
     if (!Check.isEmpty(memberField)) {
-      // Get groups is an immediate member of
+      // Get groups is an immediate member of. The collector remembers every group it looks up,
+      // so groups reached through more than one path are only fetched once.
       List<SubgroupResultHitsCollector.SubgroupResult> immediateGroups =
           ldap.searchAllBases(
-              ctx, getMemberFilter(getUserUid(res)), new SubgroupResultHitsCollector(), true);
+              ctx,
+              getMemberFilter(getUserUid(res)),
+              new SubgroupResultHitsCollector(new GroupMemo()),
+              true);
 
       // Add known groups, then collect all parents for all above results
       Set<SubgroupResultHitsCollector.SubgroupResult> allGroups =
@@ -368,10 +374,22 @@ public class MemberOfGroupSearch extends GroupSearch {
     return new AndFilter(ldap.getGroupSearchFilter(query), groupsFilter);
   }
 
+  /** Groups already looked up while answering a single request. */
+  private static class GroupMemo {
+    final Map<Name, Attributes> attributes = new HashMap<Name, Attributes>();
+    final Map<Name, List<SubgroupResultHitsCollector.SubgroupResult>> parents =
+        new HashMap<Name, List<SubgroupResultHitsCollector.SubgroupResult>>();
+  }
+
   private class SubgroupResultHitsCollector
       extends HitsCollector<SubgroupResultHitsCollector.SubgroupResult> {
+    private final GroupMemo memo;
     private String[] returnAttributes;
 
+    public SubgroupResultHitsCollector(GroupMemo memo) {
+      this.memo = memo;
+    }
+
     @Override
     protected void setup(DirContext ctx, LDAP ldap) {
       super.setup(ctx, ldap);
@@ -406,6 +424,15 @@ public class MemberOfGroupSearch extends GroupSearch {
       }
 
       public List<SubgroupResult> getParentGroups() {
+        if (memo.parents.containsKey(name)) {
+          return memo.parents.get(name);
+        }
+        List<SubgroupResult> parents = findParentGroups();
+        memo.parents.put(name, parents);
+        return parents;
+      }
+
+      private List<SubgroupResult> findParentGroups() {
         if (!Check.isEmpty(memberOfField)) {
           Attribute attribute = attributes.get(memberOfField);
           if (attribute != null) {
@@ -415,10 +442,12 @@ public class MemberOfGroupSearch extends GroupSearch {
               while (atts.hasMoreElements()) {
                 String n = atts.nextElement().toString();
                 Name parentGroupName = LDAP.parse(n);
-                results.add(
-                    new SubgroupResult(
-                        parentGroupName,
-                        ldap.getAttributes(ctx, parentGroupName, returnAttributes)));
+                Attributes parentAttributes = memo.attributes.get(parentGroupName);
+                if (parentAttributes == null) {
+                  parentAttributes = ldap.getAttributes(ctx, parentGroupName, returnAttributes);
+                  memo.attributes.put(parentGroupName, parentAttributes);
+                }
+                results.add(new SubgroupResult(parentGroupName, parentAttributes));
               }
               return results;
             } catch (NamingException e) {
@@ -427,7 +456,10 @@ public class MemberOfGroupSearch extends GroupSearch {
           }
         } else if (!Check.isEmpty(memberField)) {
           return ldap.searchAllBases(
-              ctx, getMemberFilter(name.toString()), new SubgroupResultHitsCollector(), true);
+              ctx,
+              getMemberFilter(name.toString()),
+              new SubgroupResultHitsCollector(memo),
+              true);
         }
         return null;
       }
@@ -23,6 +23,7 @@ import com.tle.common.usermanagement.user.valuebean.UserBean;
 import com.tle.core.remoting.RemoteLDAPService;
 import com.tle.core.usermanagement.standard.ldap.LDAP;
 import java.util.Collection;
+import java.util.Map;
 
 public interface LDAPService extends RemoteLDAPService {
   String searchAuthenticate(LDAP ldap, String username, String password);
@@ -31,6 +32,8 @@ public interface LDAPService extends RemoteLDAPService {
 
   UserBean getUserBean(LDAP ldap, String userID);
 
+  Map<String, UserBean> getUserBeans(LDAP ldap, Collection<String> userIDs);
+
   Collection<GroupBean> getGroupsContainingUser(LDAP ldap, String userID);
 
   Collection<UserBean> getUsersInGroup(
@@ -42,6 +45,8 @@ public interface LDAPService extends RemoteLDAPService {
 
   GroupBean getGroupBean(LDAP ldap, String groupID);
 
+  Map<String, GroupBean> getGroupBeans(LDAP ldap, Collection<String> groupIDs);
+
   Collection<GroupBean> searchGroups(LDAP ldap, String query);
 
   Collection<GroupBean> searchGroups(LDAP ldap, String query, String parentGroupId);
@@ -31,6 +31,7 @@ import com.tle.core.usermanagement.standard.service.LDAPService;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import javax.naming.Name;
@@ -117,6 +118,17 @@ public class LDAPServiceImpl implements LDAPService {
         });
   }
 
+  @Override
+  public Map<String, UserBean> getUserBeans(final LDAP ldap, final Collection<String> userIDs) {
+    return ldap.doAsAdmin(
+        new InContext<Map<String, UserBean>>() {
+          @Override
+          public Map<String, UserBean> execute(DirContext ctx) throws NamingException {
+            return ldap.getUserBeans(ctx, userIDs);
+          }
+        });
+  }
+
   @Override
   public Collection<GroupBean> getGroupsContainingUser(final LDAP ldap, final String userID) {
     return ldap.doAsAdmin(
@@ -176,6 +188,17 @@ public class LDAPServiceImpl implements LDAPService {
         });
   }
 
+  @Override
+  public Map<String, GroupBean> getGroupBeans(final LDAP ldap, final Collection<String> groupIDs) {
+    return ldap.doAsAdmin(
+        new InContext<Map<String, GroupBean>>() {
+          @Override
+          public Map<String, GroupBean> execute(DirContext ctx) throws NamingException {
+            return ldap.getGroupBeans(ctx, groupIDs);
+          }
+        });
+  }
+
   @Override
   public Collection<GroupBean> searchGroups(final LDAP ldap, final String query) {
     return ldap.doAsAdmin(
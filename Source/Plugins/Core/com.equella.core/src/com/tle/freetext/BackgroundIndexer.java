@@ -41,4 +41,6 @@ public interface BackgroundIndexer extends Runnable {
   void synchronizeFull(Collection<Institution> institutions);
 
   boolean isRoomForItems(int size);
+
+  IndexerStatistics getStatistics();
 }
@@ -40,6 +40,8 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Stack;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -53,10 +55,6 @@ public class BackgroundIndexerImpl implements BackgroundIndexer {
 
   private static final Logger LOGGER = Logger.getLogger(BackgroundIndexerImpl.class);
 
-  private static final int MAXTHREADS = 4;
-  private static final int REAL_MAXTHREADS = MAXTHREADS * 2;
-  private static final int MAXBATCH = 50;
-
   private static final long WAITTIME = TimeUnit.SECONDS.toMillis(2);
   private static final long CHECKTIME = TimeUnit.SECONDS.toMillis(15);
   private static final long INTERRUPT_MILLIS = TimeUnit.MINUTES.toMillis(2);
@@ -82,6 +80,12 @@ public class BackgroundIndexerImpl implements BackgroundIndexer {
   private final Stack<IndexerThread> freeThreads = new Stack<IndexerThread>();
   private final List<IndexerThread> inuseThreads = new LinkedList<IndexerThread>();
 
+  private final IndexingScheduler scheduler = new IndexingScheduler();
+
+  // Holds at most one token; offering it wakes the event loop, or stops the next
+  // wait being a full WAITTIME if the loop is busy when something changes.
+  private final BlockingQueue<Boolean> wakeups = new ArrayBlockingQueue<Boolean>(1);
+
   private int indexerThreads;
   private long nextCheck;
 
@@ -89,8 +93,7 @@ public class BackgroundIndexerImpl implements BackgroundIndexer {
   private int docsDoneSinceLast;
   private int errors;
   private int deletions;
-  private boolean dead;
-  private volatile boolean wakeup;
+  private volatile boolean dead;
 
   private final DataSourceHolder dataSource;
   private final long schemaId;
@@ -115,15 +118,10 @@ public class BackgroundIndexerImpl implements BackgroundIndexer {
           return;
         }
 
-        wakeup = false;
         boolean wait = processEvent();
-        if (wait && !wakeup) {
+        if (wait) {
           try {
-            synchronized (this) {
-              if (!wakeup) {
-                wait(WAITTIME);
-              }
-            }
+            wakeups.poll(WAITTIME, TimeUnit.MILLISECONDS);
           } catch (InterruptedException e) {
             LOGGER.error("Interrupted"); // $NON-NLS-1$
           }
@@ -193,12 +191,14 @@ public class BackgroundIndexerImpl implements BackgroundIndexer {
   @SuppressWarnings("nls")
   private boolean checkBatchIndex(long now) {
     List<IndexedItem> batch = null;
+    boolean full = false;
     synchronized (listLock) {
       if (indexedList.isEmpty()) {
         return true;
       }
+      int maxBatch = scheduler.getBatchSize();
       boolean overdue = now >= indexedList.element().getExpectedReturnTime();
-      if (indexedList.size() >= MAXBATCH || indexerThreads == 0 || overdue) {
+      if (indexedList.size() >= maxBatch || indexerThreads == 0 || overdue) {
         int num = 0;
         if (overdue) {
           for (IndexedItem indItem : indexedList) {
@@ -208,8 +208,9 @@ public class BackgroundIndexerImpl implements BackgroundIndexer {
             num++;
           }
         } else {
-          num = Math.min(MAXBATCH, indexedList.size());
+          num = Math.min(maxBatch, indexedList.size());
         }
+        full = num >= maxBatch;
 
         List<IndexedItem> indexBatch = indexedList.subList(0, num);
         for (IndexedItem item : indexBatch) {
@@ -222,12 +223,14 @@ public class BackgroundIndexerImpl implements BackgroundIndexer {
       }
     }
 
+    long start = System.nanoTime();
     try {
       LOGGER.info("Indexing batch of " + batch.size() + " items");
       freetextIndex.indexBatch(batch);
     } catch (Exception e) {
       LOGGER.error("Serious Error indexing a batch", e);
     }
+    scheduler.recordWrite(batch.size(), System.nanoTime() - start, full);
     synchronized (listLock) {
       for (IndexedItem indexedItem : batch) {
         if (indexedItem.isFinishedAllIndexing()) {
@@ -243,13 +246,15 @@ public class BackgroundIndexerImpl implements BackgroundIndexer {
     IndexedItem item = null;
     List<IndexedItem> batch = null;
     synchronized (listLock) {
+      int maxThreads = scheduler.getMaxThreads();
       if (!waitingList.isEmpty()
-          && indexerThreads < REAL_MAXTHREADS
-          && (indexerThreads < MAXTHREADS
+          && indexerThreads < maxThreads * 2
+          && (indexerThreads < maxThreads
               || now >= waitingList.element().getExpectedReturnTime())) {
         item = waitingList.get(0);
         if (!item.isPrepared()) {
-          int batchSize = BATCH_PREPARE;
+          // Prepare enough to keep every thread busy
+          int batchSize = Math.max(BATCH_PREPARE, maxThreads);
           if (waitingList.size() < batchSize) {
             batchSize = waitingList.size();
           }
@@ -291,8 +296,10 @@ public class BackgroundIndexerImpl implements BackgroundIndexer {
 
   @SuppressWarnings("nls")
   private void populateItemBatch(List<IndexedItem> batch) {
+    long start = System.nanoTime();
     try {
       freetextIndex.prepareItemsForIndexing(batch);
+      scheduler.recordPrepare(batch.size(), System.nanoTime() - start);
     } catch (Exception t) {
       LOGGER.error("Failed to prepare batch for indexing, trying 1", t);
       freetextIndex.prepareItemsForIndexing(batch.subList(0, 1));
@@ -314,7 +321,9 @@ public class BackgroundIndexerImpl implements BackgroundIndexer {
               + errors
               + " errors, "
               + deletions
-              + " docs in Index but not in database");
+              + " docs in Index but not in database, "
+              + String.format("%.1f", getStatistics().getItemsPerSecond())
+              + " items/sec");
       synchronized (threadingLock) {
         Iterator<IndexerThread> iter = inuseThreads.iterator();
         while (iter.hasNext()) {
@@ -433,9 +442,8 @@ public class BackgroundIndexerImpl implements BackgroundIndexer {
     wakeup();
   }
 
-  private synchronized void wakeup() {
-    wakeup = true;
-    notifyAll();
+  private void wakeup() {
+    wakeups.offer(Boolean.TRUE);
   }
 
   private void addToIndexedList(IndexedItem item) {
@@ -494,6 +502,10 @@ public class BackgroundIndexerImpl implements BackgroundIndexer {
     wakeup();
   }
 
+  void recordExtraction(long wallNanos, long cpuNanos) {
+    scheduler.recordExtraction(wallNanos, cpuNanos);
+  }
+
   public void threadFinished(IndexerThread thread) {
     synchronized (threadingLock) {
       indexerThreads--;
@@ -518,19 +530,34 @@ public class BackgroundIndexerImpl implements BackgroundIndexer {
   public void kill() {
     LOGGER.debug("Kill");
 
-    synchronized (this) {
-      LOGGER.debug("dead=true");
-      dead = true;
-    }
+    LOGGER.debug("dead=true");
+    dead = true;
+    wakeup();
 
-    for (IndexerThread t : freeThreads) {
-      LOGGER.debug("freeThread.wakeup");
-      t.wakeup();
+    // Threads that are busy will notice once they finish their current item
+    synchronized (threadingLock) {
+      for (IndexerThread t : freeThreads) {
+        LOGGER.debug("freeThread.wakeup");
+        t.wakeup();
+      }
     }
+  }
 
-    for (IndexerThread t : inuseThreads) {
-      LOGGER.debug("inuseThread.wakeup");
-      t.wakeup();
+  @Override
+  public IndexerStatistics getStatistics() {
+    int waiting;
+    int inProgress;
+    int awaitingWrite;
+    int errorCount;
+    synchronized (listLock) {
+      waiting = waitingList.size();
+      inProgress = indexingMap.size();
+      awaitingWrite = indexedList.size();
+      errorCount = errors;
+    }
+    synchronized (threadingLock) {
+      return scheduler.getStatistics(
+          waiting, inProgress, awaitingWrite, indexerThreads, docsDone, errorCount);
     }
   }
 
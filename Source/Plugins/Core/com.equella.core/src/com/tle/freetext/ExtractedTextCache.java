@@ -0,0 +1,315 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.freetext;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import com.tle.annotation.Nullable;
+import com.tle.common.Check;
+import com.tle.core.TextExtracterExtension;
+import com.tle.core.guice.Bind;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import javax.inject.Singleton;
+import org.apache.log4j.Logger;
+
+/**
+ * Keeps the text extracted from attachment files on local disk, keyed by the MD5 of the file and
+ * the extracter that produced it, so reindexing an item whose files have not changed skips text
+ * extraction. Entries are gzipped and held next to the free text indexes, which means they survive
+ * the indexes being deleted and rebuilt. Once the total size passes the cap the least recently used
+ * entries are removed.
+ *
+ * <p>Files without a known MD5 would have to be read in full to calculate one, so the MD5 is also
+ * stored against the file's path, size and modification time. It is only calculated again when one
+ * of those changes.
+ */
+@Bind
+@Singleton
+@SuppressWarnings("nls")
+public class ExtractedTextCache {
+  private static final Logger LOGGER = Logger.getLogger(ExtractedTextCache.class);
+
+  /**
+   * Part of every key. Increase it when the output of the standard extracters changes, e.g. after
+   * upgrading Tika, so that text extracted by the old versions is no longer used.
+   */
+  private static final int EXTRACTION_VERSION = 1;
+
+  private static final String SUFFIX = ".txt.gz";
+  private static final String STAMP_SUFFIX = ".md5";
+  private static final Pattern MD5 = Pattern.compile("[0-9a-fA-F]{32}");
+
+  private final File cacheDir;
+
+  @Inject(optional = true)
+  @Named("textExtracter.cacheSizeMB")
+  private long cacheSizeMB = 1024;
+
+  @Inject(optional = true)
+  @Named("textExtracter.cacheEnabled")
+  private boolean enabled = true;
+
+  /** Size of each cached file in least to most recently used order, loaded on first use. */
+  private LinkedHashMap<String, Long> entries;
+
+  private long totalSize;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  @Inject
+  public ExtractedTextCache(@Named("freetext.index.location") File indexPath) {
+    this.cacheDir = new File(indexPath, "extractedtext");
+  }
+
+  /**
+   * @param md5 The MD5 of the file the text was extracted from, may be null if unknown
+   * @return The text previously extracted from a file with the same content by the same
+   *     extracter, or null if there is none
+   */
+  @Nullable
+  public String get(@Nullable String md5, TextExtracterExtension extracter) {
+    final String name = getName(md5, extracter);
+    if (name == null) {
+      return null;
+    }
+
+    synchronized (this) {
+      if (getEntries().get(name) == null) {
+        misses.incrementAndGet();
+        return null;
+      }
+    }
+
+    final File file = getFile(name);
+    try (InputStream in = new GZIPInputStream(new FileInputStream(file))) {
+      final String text = new String(ByteStreams.toByteArray(in), StandardCharsets.UTF_8);
+      // Keeps the order of use after a restart
+      file.setLastModified(System.currentTimeMillis());
+      hits.incrementAndGet();
+      return text;
+    } catch (IOException e) {
+      LOGGER.warn("Could not read cached text " + file + ", the text will be extracted again", e);
+      remove(name);
+      misses.incrementAndGet();
+      return null;
+    }
+  }
+
+  /**
+   * Stores text that has been successfully extracted. Failures are only logged, since indexing can
+   * carry on without the cache.
+   */
+  public void put(@Nullable String md5, TextExtracterExtension extracter, String text) {
+    final String name = getName(md5, extracter);
+    if (name != null) {
+      store(name, text, true);
+    }
+  }
+
+  /**
+   * @return The MD5 stored for the file at the path, or null if there is none or the file's size or
+   *     modification time have changed since it was stored
+   */
+  @Nullable
+  public String getMd5(String path, long size, long lastModified) {
+    if (!enabled) {
+      return null;
+    }
+    final String name = getStampName(path);
+    synchronized (this) {
+      if (getEntries().get(name) == null) {
+        return null;
+      }
+    }
+
+    final File file = getFile(name);
+    try {
+      final String[] stamp =
+          new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).trim().split(" ");
+      if (stamp.length == 3
+          && Long.parseLong(stamp[0]) == size
+          && Long.parseLong(stamp[1]) == lastModified
+          && MD5.matcher(stamp[2]).matches()) {
+        return stamp[2];
+      }
+    } catch (IOException | NumberFormatException e) {
+      LOGGER.warn("Could not read stored MD5 " + file + ", it will be calculated again", e);
+      remove(name);
+    }
+    return null;
+  }
+
+  /** Stores the MD5 of the file at the path, as of the given size and modification time. */
+  public void putMd5(String path, long size, long lastModified, String md5) {
+    if (enabled && !Check.isEmpty(md5) && MD5.matcher(md5).matches()) {
+      store(getStampName(path), size + " " + lastModified + " " + md5.toLowerCase(), false);
+    }
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /** @return The bytes used on disk by all entries, including stored MD5s */
+  public synchronized long getSize() {
+    getEntries();
+    return totalSize;
+  }
+
+  @Nullable
+  private String getName(@Nullable String md5, TextExtracterExtension extracter) {
+    if (!enabled || Check.isEmpty(md5) || !MD5.matcher(md5).matches()) {
+      return null;
+    }
+    return md5.toLowerCase()
+        + '-'
+        + extracter.getClass().getSimpleName()
+        + "-v"
+        + EXTRACTION_VERSION
+        + SUFFIX;
+  }
+
+  private static String getStampName(String path) {
+    return Hashing.sha256().hashString(path, StandardCharsets.UTF_8).toString() + STAMP_SUFFIX;
+  }
+
+  private void store(String name, String content, boolean compress) {
+    final File file = getFile(name);
+    try {
+      final File dir = file.getParentFile();
+      if (!dir.exists() && !dir.mkdirs() && !dir.exists()) {
+        throw new IOException("Could not create " + dir);
+      }
+      // Written to a temp file first so that readers never see a partial entry
+      final File temp = File.createTempFile(name, ".tmp", dir);
+      try {
+        final OutputStream fileOut = new FileOutputStream(temp);
+        try (OutputStream out = compress ? new GZIPOutputStream(fileOut) : fileOut) {
+          out.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      } finally {
+        Files.deleteIfExists(temp.toPath());
+      }
+    } catch (IOException e) {
+      LOGGER.warn("Could not cache " + file, e);
+      return;
+    }
+
+    final List<String> evicted;
+    synchronized (this) {
+      final Long previous = getEntries().put(name, file.length());
+      totalSize += file.length() - (previous == null ? 0 : previous);
+      evicted = evict();
+    }
+    for (String old : evicted) {
+      getFile(old).delete();
+    }
+  }
+
+  private File getFile(String name) {
+    return new File(new File(cacheDir, name.substring(0, 2)), name);
+  }
+
+  private synchronized void remove(String name) {
+    final Long size = getEntries().remove(name);
+    if (size != null) {
+      totalSize -= size;
+    }
+    getFile(name).delete();
+  }
+
+  /** @return Entries removed to bring the cache back under 90% of its cap */
+  private List<String> evict() {
+    final List<String> evicted = new ArrayList<String>();
+    final long maxSize = cacheSizeMB * 1024 * 1024;
+    if (totalSize > maxSize) {
+      final long target = maxSize / 10 * 9;
+      final Iterator<Map.Entry<String, Long>> iter = entries.entrySet().iterator();
+      while (totalSize > target && iter.hasNext()) {
+        final Map.Entry<String, Long> eldest = iter.next();
+        totalSize -= eldest.getValue();
+        evicted.add(eldest.getKey());
+        iter.remove();
+      }
+      LOGGER.info(
+          "Evicted " + evicted.size() + " cache entries, " + totalSize + " bytes remain cached");
+    }
+    return evicted;
+  }
+
+  private LinkedHashMap<String, Long> getEntries() {
+    if (entries == null) {
+      entries = new LinkedHashMap<String, Long>(1024, 0.75f, true);
+      totalSize = 0;
+
+      final List<File> files = new ArrayList<File>();
+      final long staleTemp = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1);
+      final File[] dirs = cacheDir.listFiles();
+      if (dirs != null) {
+        for (File dir : dirs) {
+          final File[] cached = dir.listFiles();
+          if (cached != null) {
+            for (File file : cached) {
+              if (file.getName().endsWith(SUFFIX) || file.getName().endsWith(STAMP_SUFFIX)) {
+                files.add(file);
+              } else if (file.lastModified() < staleTemp) {
+                // Left behind by an interrupted put
+                file.delete();
+              }
+            }
+          }
+        }
+      }
+
+      files.sort((f1, f2) -> Long.compare(f1.lastModified(), f2.lastModified()));
+      for (File file : files) {
+        final long size = file.length();
+        entries.put(file.getName(), size);
+        totalSize += size;
+      }
+      LOGGER.info("Loaded " + entries.size() + " cache entries (" + totalSize + " bytes)");
+    }
+    return entries;
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.freetext;
+
+import java.io.Serializable;
+
+/** Totals for a single text extracter since startup. */
+public class ExtractorStatistics implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  private String extractor;
+  private long files;
+  private long slowPathFiles;
+  private long bytes;
+  private long millis;
+  private long timeouts;
+  private long failures;
+  private long skipped;
+
+  public String getExtractor() {
+    return extractor;
+  }
+
+  public void setExtractor(String extractor) {
+    this.extractor = extractor;
+  }
+
+  /** Files the extracter finished, successfully or not. */
+  public long getFiles() {
+    return files;
+  }
+
+  public void setFiles(long files) {
+    this.files = files;
+  }
+
+  /** Files sent to the slow path executor because of their size. */
+  public long getSlowPathFiles() {
+    return slowPathFiles;
+  }
+
+  public void setSlowPathFiles(long slowPathFiles) {
+    this.slowPathFiles = slowPathFiles;
+  }
+
+  /** Size of the files the extracter finished, where known. */
+  public long getBytes() {
+    return bytes;
+  }
+
+  public void setBytes(long bytes) {
+    this.bytes = bytes;
+  }
+
+  /** Time spent extracting the finished files. */
+  public long getMillis() {
+    return millis;
+  }
+
+  public void setMillis(long millis) {
+    this.millis = millis;
+  }
+
+  /** Files abandoned because they ran past their time budget. */
+  public long getTimeouts() {
+    return timeouts;
+  }
+
+  public void setTimeouts(long timeouts) {
+    this.timeouts = timeouts;
+  }
+
+  public long getFailures() {
+    return failures;
+  }
+
+  public void setFailures(long failures) {
+    this.failures = failures;
+  }
+
+  /** Files not extracted because they were larger than the size budget. */
+  public long getSkipped() {
+    return skipped;
+  }
+
+  public void setSkipped(long skipped) {
+    this.skipped = skipped;
+  }
+}
@@ -19,6 +19,7 @@
 package com.tle.freetext;
 
 import com.google.common.collect.Multimap;
+import com.tle.annotation.Nullable;
 import com.tle.common.Pair;
 import com.tle.common.searching.Search;
 import com.tle.common.searching.SearchResults;
@@ -66,6 +67,15 @@ public interface FreetextIndex {
 
   int count(Search searchReq);
 
+  /**
+   * Counts several searches, acquiring a searcher once for each index they use.
+   *
+   * @param cacheKeys Null, or a key for each search to remember its count by until the index
+   *     changes
+   * @return The count for each search, or -1 for null searches
+   */
+  int[] count(List<? extends Search> searchReqs, @Nullable List<String> cacheKeys);
+
   /** @return Collection of value/count pairs */
   Multimap<String, Pair<String, Integer>> facetCount(Search search, Collection<String> fields);
 
@@ -24,6 +24,7 @@ import com.dytech.edge.exceptions.SearchingException;
 import com.google.common.collect.Multimap;
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
+import com.tle.annotation.Nullable;
 import com.tle.beans.Institution;
 import com.tle.beans.item.Item;
 import com.tle.beans.item.ItemPack;
@@ -62,6 +63,7 @@ import it.uniroma3.mat.extendedset.wrappers.LongSet;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
@@ -205,6 +207,46 @@ public class FreetextIndexImpl
     }
   }
 
+  @Override
+  public int[] count(List<? extends Search> searchReqs, @Nullable List<String> cacheKeys) {
+    final int[] counts = new int[searchReqs.size()];
+    final Map<String, List<Integer>> byIndex = new LinkedHashMap<String, List<Integer>>();
+    for (int i = 0; i < counts.length; i++) {
+      final Search search = searchReqs.get(i);
+      if (search == null) {
+        counts[i] = -1;
+      } else {
+        byIndex.computeIfAbsent(search.getSearchType(), t -> new ArrayList<Integer>()).add(i);
+      }
+    }
+
+    try {
+      final boolean searchAttachment = isSearchAttachment();
+      for (Map.Entry<String, List<Integer>> entry : byIndex.entrySet()) {
+        final List<Integer> positions = entry.getValue();
+        final List<Search> searches = new ArrayList<Search>(positions.size());
+        final List<String> keys = cacheKeys == null ? null : new ArrayList<String>();
+        for (int i : positions) {
+          searches.add(searchReqs.get(i));
+          if (keys != null) {
+            keys.add(cacheKeys.get(i));
+          }
+        }
+        final int[] indexCounts =
+            getIndexer(entry.getKey()).count(searches, keys, searchAttachment);
+        for (int i = 0; i < indexCounts.length; i++) {
+          counts[positions.get(i)] = indexCounts[i];
+        }
+      }
+      return counts;
+    } catch (SearchingException ex) {
+      if (!ex.isLogged()) {
+        LOGGER.error(ex);
+      }
+      throw ex;
+    }
+  }
+
   @Override
   public ItemIndex<? extends FreetextResult> getIndexer(String index) {
     return getIndexerMap().get(index);
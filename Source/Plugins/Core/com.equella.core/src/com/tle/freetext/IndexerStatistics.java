@@ -0,0 +1,221 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.freetext;
+
+import java.io.Serializable;
+import java.util.List;
+
+/** A snapshot of the background indexer's throughput, queues and per-stage timings. */
+public class IndexerStatistics implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  private double itemsPerSecond;
+  private long itemsWritten;
+  private long uptimeSeconds;
+  private int waiting;
+  private int inProgress;
+  private int awaitingWrite;
+  private int threadsInUse;
+  private int maxThreads;
+  private int batchSize;
+  private int docsDone;
+  private int errors;
+  private double prepareMillis;
+  private double extractionMillis;
+  private double writeMillis;
+  private long facetCacheBytes;
+  private long securityCacheBytes;
+  private double securityCacheHitRate;
+  private long resultCacheEntries;
+  private double resultCacheHitRate;
+  private List<ExtractorStatistics> extractors;
+
+  /** Items written to the Lucene index per second, averaged over recent samples. */
+  public double getItemsPerSecond() {
+    return itemsPerSecond;
+  }
+
+  public void setItemsPerSecond(double itemsPerSecond) {
+    this.itemsPerSecond = itemsPerSecond;
+  }
+
+  public long getItemsWritten() {
+    return itemsWritten;
+  }
+
+  public void setItemsWritten(long itemsWritten) {
+    this.itemsWritten = itemsWritten;
+  }
+
+  public long getUptimeSeconds() {
+    return uptimeSeconds;
+  }
+
+  public void setUptimeSeconds(long uptimeSeconds) {
+    this.uptimeSeconds = uptimeSeconds;
+  }
+
+  /** Items queued but not yet handed to an indexer thread. */
+  public int getWaiting() {
+    return waiting;
+  }
+
+  public void setWaiting(int waiting) {
+    this.waiting = waiting;
+  }
+
+  /** Items being extracted or waiting to be written to the index. */
+  public int getInProgress() {
+    return inProgress;
+  }
+
+  public void setInProgress(int inProgress) {
+    this.inProgress = inProgress;
+  }
+
+  /** Items extracted and waiting for the next Lucene batch. */
+  public int getAwaitingWrite() {
+    return awaitingWrite;
+  }
+
+  public void setAwaitingWrite(int awaitingWrite) {
+    this.awaitingWrite = awaitingWrite;
+  }
+
+  public int getThreadsInUse() {
+    return threadsInUse;
+  }
+
+  public void setThreadsInUse(int threadsInUse) {
+    this.threadsInUse = threadsInUse;
+  }
+
+  public int getMaxThreads() {
+    return maxThreads;
+  }
+
+  public void setMaxThreads(int maxThreads) {
+    this.maxThreads = maxThreads;
+  }
+
+  public int getBatchSize() {
+    return batchSize;
+  }
+
+  public void setBatchSize(int batchSize) {
+    this.batchSize = batchSize;
+  }
+
+  public int getDocsDone() {
+    return docsDone;
+  }
+
+  public void setDocsDone(int docsDone) {
+    this.docsDone = docsDone;
+  }
+
+  public int getErrors() {
+    return errors;
+  }
+
+  public void setErrors(int errors) {
+    this.errors = errors;
+  }
+
+  /** Average time per item spent loading items from the database before extraction. */
+  public double getPrepareMillis() {
+    return prepareMillis;
+  }
+
+  public void setPrepareMillis(double prepareMillis) {
+    this.prepareMillis = prepareMillis;
+  }
+
+  /** Average time per item spent in the indexing extensions (including text extraction). */
+  public double getExtractionMillis() {
+    return extractionMillis;
+  }
+
+  public void setExtractionMillis(double extractionMillis) {
+    this.extractionMillis = extractionMillis;
+  }
+
+  /** Average time per item spent writing batches to Lucene. */
+  public double getWriteMillis() {
+    return writeMillis;
+  }
+
+  public void setWriteMillis(double writeMillis) {
+    this.writeMillis = writeMillis;
+  }
+
+  /** Estimated heap used by the per-segment facet term ordinals of the item index. */
+  public long getFacetCacheBytes() {
+    return facetCacheBytes;
+  }
+
+  public void setFacetCacheBytes(long facetCacheBytes) {
+    this.facetCacheBytes = facetCacheBytes;
+  }
+
+  /** Estimated heap used by the per-segment security filter bitsets of the item index. */
+  public long getSecurityCacheBytes() {
+    return securityCacheBytes;
+  }
+
+  public void setSecurityCacheBytes(long securityCacheBytes) {
+    this.securityCacheBytes = securityCacheBytes;
+  }
+
+  /** Fraction of security filter bitsets served from the cache rather than built. */
+  public double getSecurityCacheHitRate() {
+    return securityCacheHitRate;
+  }
+
+  public void setSecurityCacheHitRate(double securityCacheHitRate) {
+    this.securityCacheHitRate = securityCacheHitRate;
+  }
+
+  /** Searches and counts held in the result cache of the item index. */
+  public long getResultCacheEntries() {
+    return resultCacheEntries;
+  }
+
+  public void setResultCacheEntries(long resultCacheEntries) {
+    this.resultCacheEntries = resultCacheEntries;
+  }
+
+  /** Fraction of item searches and counts answered from the result cache. */
+  public double getResultCacheHitRate() {
+    return resultCacheHitRate;
+  }
+
+  public void setResultCacheHitRate(double resultCacheHitRate) {
+    this.resultCacheHitRate = resultCacheHitRate;
+  }
+
+  /** Throughput, timeouts and failures of each text extracter. */
+  public List<ExtractorStatistics> getExtractors() {
+    return extractors;
+  }
+
+  public void setExtractors(List<ExtractorStatistics> extractors) {
+    this.extractors = extractors;
+  }
+}
@@ -23,6 +23,8 @@ import com.tle.core.freetext.indexer.IndexingExtension;
 import com.tle.core.guice.Bind;
 import com.tle.core.institution.RunAsInstitution;
 import java.util.Collection;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
 import javax.inject.Inject;
 import org.apache.log4j.Logger;
@@ -33,11 +35,13 @@ public class IndexerThread extends Thread {
 
   @Inject private RunAsInstitution runAs;
 
+  private final BlockingQueue<IndexedItem> work = new ArrayBlockingQueue<IndexedItem>(1);
+
   private BackgroundIndexerImpl background;
-  private IndexedItem indexedItem;
+  private volatile IndexedItem indexedItem;
   private Collection<IndexingExtension> extensions;
 
-  private long started;
+  private volatile long started;
 
   public IndexerThread() {
     setPriority(Thread.MIN_PRIORITY);
@@ -52,69 +56,67 @@ public class IndexerThread extends Thread {
     extensions = freetextIndex.getIndexingExtensions();
   }
 
-  public synchronized void startIndexing(IndexedItem backDoc) {
+  public void startIndexing(IndexedItem backDoc) {
     this.indexedItem = backDoc;
     started = System.currentTimeMillis();
     if (backDoc.isDeadlineAfterStart()) {
       backDoc.setExpectedReturnTime(started + backDoc.getTimeAfterStart());
     }
-    notifyAll();
+    work.add(backDoc);
   }
 
-  public synchronized void wakeup() {
-    notifyAll(); // NOSONAR
+  /** Only used to stop an idle thread waiting for work once the background indexer is dead. */
+  public void wakeup() {
+    interrupt();
   }
 
   @Override
   public void run() {
-    while (true) {
-      if (background.isDead()) {
-        return;
-      }
-
-      if (indexedItem == null) // NOSONAR
-      {
-        try {
-          synchronized (this) {
-            if (indexedItem == null) {
-              wait();
-            }
-          }
-        } catch (InterruptedException e1) {
+    while (!background.isDead()) {
+      final IndexedItem item;
+      try {
+        item = work.take();
+      } catch (InterruptedException e1) {
+        if (!background.isDead()) {
           LOGGER.error("Interrupted", e1); // $NON-NLS-1$
         }
-      } else {
-        final ItemIdKey key = indexedItem.getItemIdKey();
-
-        try {
-          runAs.executeAsSystem(
-              indexedItem.getInstitution(),
-              new Callable<Void>() {
-                @Override
-                public Void call() throws Exception {
-                  synchronized (indexedItem) {
-                    for (IndexingExtension indexer : extensions) {
-                      indexer.indexFast(indexedItem);
-                    }
-                    indexedItem.notifyAll();
-                    indexedItem.setFinishedFastIndexing(true);
-                  }
+        continue;
+      }
+
+      final ItemIdKey key = item.getItemIdKey();
+      final long wallStart = System.nanoTime();
+      final long cpuStart = IndexingScheduler.currentThreadCpuNanos();
+      try {
+        runAs.executeAsSystem(
+            item.getInstitution(),
+            new Callable<Void>() {
+              @Override
+              public Void call() throws Exception {
+                synchronized (item) {
                   for (IndexingExtension indexer : extensions) {
-                    indexer.indexSlow(indexedItem);
+                    indexer.indexFast(item);
                   }
-                  background.addIndexedDoc(indexedItem);
-                  return null;
+                  item.notifyAll();
+                  item.setFinishedFastIndexing(true);
                 }
-              });
-        } catch (Exception e) {
-          LOGGER.error("Error indexing: " + key, e); // $NON-NLS-1$
-          indexedItem.setError(e);
-          background.addErroredDoc(indexedItem);
-        }
-
-        indexedItem = null;
-        background.threadFinished(this);
+                for (IndexingExtension indexer : extensions) {
+                  indexer.indexSlow(item);
+                }
+                background.recordExtraction(
+                    System.nanoTime() - wallStart,
+                    cpuStart < 0 ? -1 : IndexingScheduler.currentThreadCpuNanos() - cpuStart);
+                background.addIndexedDoc(item);
+                return null;
+              }
+            });
+      } catch (Exception e) {
+        LOGGER.error("Error indexing: " + key, e); // $NON-NLS-1$
+        item.setError(e);
+        background.addErroredDoc(item);
       }
+
+      indexedItem = null;
+      background.threadFinished(this);
     }
   }
 
@@ -0,0 +1,171 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.freetext;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides how many indexer threads the background indexer may use and how many items go into each
+ * Lucene batch, based on what it has observed so far. Also collects the timings reported through
+ * {@link IndexerStatistics}.
+ *
+ * <p>Thread count follows the usual cores / (1 - blocking coefficient) rule: extraction that
+ * mostly waits on the database or the filestore gets more threads, CPU bound extraction gets
+ * roughly one per core. Batch size grows while writing a batch is cheap and shrinks when it gets
+ * slow enough to delay searchers seeing new items.
+ */
+@SuppressWarnings("nls")
+public class IndexingScheduler {
+  private static final int MIN_THREADS = 2;
+  private static final int MAX_THREADS = 32;
+
+  private static final int MIN_BATCH = 10;
+  private static final int INITIAL_BATCH = 50;
+  private static final int MAX_BATCH = 1000;
+  private static final long TARGET_WRITE_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+  /** Weight given to the newest sample in the moving averages. */
+  private static final double ALPHA = 0.1;
+
+  private static final ThreadMXBean THREAD_BEAN = ManagementFactory.getThreadMXBean();
+
+  private final int cores;
+  private final long started = System.nanoTime();
+
+  private int maxThreads;
+  private int batchSize = INITIAL_BATCH;
+
+  private double prepareNanosPerItem;
+  private double extractionNanos;
+  private double extractionCpuNanos;
+  private double writeNanosPerItem;
+  private double itemsPerSecond;
+
+  private long itemsWritten;
+  private long rateWritten;
+  private long rateSince = started;
+
+  public IndexingScheduler() {
+    this(Runtime.getRuntime().availableProcessors());
+  }
+
+  IndexingScheduler(int cores) {
+    this.cores = cores;
+    this.maxThreads = clampThreads(cores);
+  }
+
+  /** CPU time of the calling thread, or -1 if the JVM can't measure it. */
+  public static long currentThreadCpuNanos() {
+    if (THREAD_BEAN.isCurrentThreadCpuTimeSupported() && THREAD_BEAN.isThreadCpuTimeEnabled()) {
+      return THREAD_BEAN.getCurrentThreadCpuTime();
+    }
+    return -1;
+  }
+
+  public synchronized int getMaxThreads() {
+    return maxThreads;
+  }
+
+  public synchronized int getBatchSize() {
+    return batchSize;
+  }
+
+  public synchronized void recordPrepare(int items, long nanos) {
+    if (items > 0) {
+      prepareNanosPerItem = average(prepareNanosPerItem, nanos / (double) items);
+    }
+  }
+
+  /**
+   * @param wallNanos elapsed time spent running the indexing extensions for one item
+   * @param cpuNanos CPU time used by the indexer thread for the same work, or -1 if unknown
+   */
+  public synchronized void recordExtraction(long wallNanos, long cpuNanos) {
+    extractionNanos = average(extractionNanos, wallNanos);
+    if (cpuNanos >= 0) {
+      extractionCpuNanos = average(extractionCpuNanos, Math.min(cpuNanos, wallNanos));
+      if (extractionNanos > 0 && extractionCpuNanos > 0) {
+        double blocking = 1.0 - (extractionCpuNanos / extractionNanos);
+        maxThreads = clampThreads((int) Math.round(cores / Math.max(1.0 - blocking, 0.25)));
+      }
+    }
+  }
+
+  /**
+   * @param items number of items in the batch
+   * @param nanos time taken by FreetextIndex.indexBatch
+   * @param full whether the batch was limited by the current batch size
+   */
+  public synchronized void recordWrite(int items, long nanos, boolean full) {
+    if (items <= 0) {
+      return;
+    }
+    writeNanosPerItem = average(writeNanosPerItem, nanos / (double) items);
+    itemsWritten += items;
+
+    if (nanos > TARGET_WRITE_NANOS) {
+      batchSize = Math.max(MIN_BATCH, batchSize / 2);
+    } else if (full && nanos < TARGET_WRITE_NANOS / 2) {
+      batchSize = Math.min(MAX_BATCH, batchSize * 2);
+    }
+  }
+
+  public synchronized IndexerStatistics getStatistics(
+      int waiting, int inProgress, int awaitingWrite, int threadsInUse, int docsDone, int errors) {
+    long now = System.nanoTime();
+    long elapsed = now - rateSince;
+    if (elapsed >= TimeUnit.SECONDS.toNanos(1)) {
+      double rate = (itemsWritten - rateWritten) / (elapsed / (double) TimeUnit.SECONDS.toNanos(1));
+      itemsPerSecond = average(itemsPerSecond, rate);
+      rateWritten = itemsWritten;
+      rateSince = now;
+    }
+
+    IndexerStatistics stats = new IndexerStatistics();
+    stats.setItemsPerSecond(itemsPerSecond);
+    stats.setItemsWritten(itemsWritten);
+    stats.setUptimeSeconds(TimeUnit.NANOSECONDS.toSeconds(now - started));
+    stats.setWaiting(waiting);
+    stats.setInProgress(inProgress);
+    stats.setAwaitingWrite(awaitingWrite);
+    stats.setThreadsInUse(threadsInUse);
+    stats.setMaxThreads(maxThreads);
+    stats.setBatchSize(batchSize);
+    stats.setDocsDone(docsDone);
+    stats.setErrors(errors);
+    stats.setPrepareMillis(toMillis(prepareNanosPerItem));
+    stats.setExtractionMillis(toMillis(extractionNanos));
+    stats.setWriteMillis(toMillis(writeNanosPerItem));
+    return stats;
+  }
+
+  private static int clampThreads(int threads) {
+    return Math.max(MIN_THREADS, Math.min(MAX_THREADS, threads));
+  }
+
+  private static double average(double current, double sample) {
+    return current == 0 ? sample : current + ALPHA * (sample - current);
+  }
+
+  private static double toMillis(double nanos) {
+    return nanos / TimeUnit.MILLISECONDS.toNanos(1);
+  }
+}
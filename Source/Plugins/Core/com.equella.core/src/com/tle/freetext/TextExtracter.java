@@ -23,11 +23,13 @@ import com.dytech.edge.queries.FreeTextQuery;
 import com.google.common.io.Closeables;
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
+import com.tle.annotation.Nullable;
 import com.tle.beans.item.Item;
 import com.tle.beans.item.attachments.Attachment;
 import com.tle.beans.item.attachments.CustomAttachment;
 import com.tle.beans.item.attachments.HtmlAttachment;
 import com.tle.beans.mime.MimeEntry;
+import com.tle.common.Check;
 import com.tle.common.URLUtils;
 import com.tle.common.settings.standard.SearchSettings;
 import com.tle.core.TextExtracterExtension;
@@ -40,10 +42,12 @@ import com.tle.core.mimetypes.MimeTypeService;
 import com.tle.core.services.FileSystemService;
 import com.tle.core.util.ims.beans.IMSManifest;
 import com.tle.core.util.ims.beans.IMSResource;
+import com.tle.freetext.TextExtractionPool.ExtractionTimeoutException;
 import com.tle.ims.service.IMSService;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
@@ -76,6 +80,8 @@ public class TextExtracter {
   @Inject private ItemFileService itemFileService;
   @Inject private MimeTypeService mimeService;
   @Inject private IMSService imsService;
+  @Inject private ExtractedTextCache extractedTextCache;
+  @Inject private TextExtractionPool extractionPool;
 
   @Inject(optional = true)
   @Named("textExtracter.indexAttachments")
@@ -113,23 +119,14 @@ public class TextExtracter {
                 sbuf.append(filename);
                 sbuf.append(' ');
 
-                indexSingleFile(item, sbuf, filename);
+                indexSingleFile(item, sbuf, filename, attach.getMd5sum());
                 break;
               }
 
             case HTML:
               {
                 final HtmlAttachment htmlAttach = (HtmlAttachment) attach;
-                final String filename = htmlAttach.getFilename();
-                final MimeEntry mimeEntry = mimeService.getEntryForFilename(filename);
-
-                final List<TextExtracterExtension> extractors = getExtractors(mimeEntry);
-                if (!extractors.isEmpty()) {
-                  try (InputStream input =
-                      fileSystemService.read(itemFileService.getItemFile(item), filename)) {
-                    extractTextFromStream(extractors, input, mimeEntry, sbuf);
-                  }
-                }
+                indexSingleFile(item, sbuf, htmlAttach.getFilename(), null);
                 break;
               }
 
@@ -196,8 +193,13 @@ public class TextExtracter {
                     }
 
                     if (isIndexable) {
-                      ByteArrayInputStream binput = new ByteArrayInputStream(baos.toByteArray());
-                      extractTextFromStream(extractors, binput, mimeEntry, sbuf);
+                      byte[] bytes = baos.toByteArray();
+                      extractTextFromStream(
+                          extractors,
+                          new ByteArrayInputStream(bytes),
+                          bytes.length,
+                          mimeEntry,
+                          sbuf);
                     }
                   } finally {
                     Closeables.close(input, true);
@@ -211,7 +213,7 @@ public class TextExtracter {
               String type = customAttach.getType();
               if (type.equals(CloudProviderService.CloudAttachmentType())) {
                 for (String fname : CloudProviderService.filesToIndex(customAttach)) {
-                  indexSingleFile(item, sbuf, fname);
+                  indexSingleFile(item, sbuf, fname, null);
                 }
               } else if (type.equals("scorm") && indexImsPackages) {
                 indexIms(attach, sbuf, item);
@@ -275,17 +277,52 @@ public class TextExtracter {
     return fields;
   }
 
-  private void indexSingleFile(Item item, StringBuilder sbuf, String filename) throws Exception {
+  /**
+   * @param md5 The MD5 of the file if already known, otherwise it is calculated so the extracted
+   *     text can be looked up in the cache
+   */
+  private void indexSingleFile(
+      Item item, StringBuilder sbuf, String filename, @Nullable String md5) throws Exception {
     final MimeEntry mimeEntry = mimeService.getEntryForFilename(filename);
     final List<TextExtracterExtension> extractors = getExtractors(mimeEntry);
     if (!extractors.isEmpty()) {
-      try (InputStream input =
-          fileSystemService.read(itemFileService.getItemFile(item), filename)) {
-        extractTextFromStream(extractors, input, mimeEntry, sbuf);
+      final ItemFile itemFile = itemFileService.getItemFile(item);
+      final TextExtracterExtension extracter = extractors.get(0);
+      if (Check.isEmpty(md5) && fileSystemService.fileExists(itemFile, filename)) {
+        md5 = getMd5(itemFile, filename);
+      }
+
+      final String cached = extractedTextCache.get(md5, extracter);
+      if (cached != null) {
+        sbuf.append(cached);
+        return;
       }
+
+      final StringBuilder extracted = new StringBuilder();
+      final long size = fileSystemService.fileLength(itemFile, filename);
+      final boolean complete =
+          extractTextFromStream(
+              extractors, fileSystemService.read(itemFile, filename), size, mimeEntry, extracted);
+      if (complete) {
+        extractedTextCache.put(md5, extracter, extracted.toString());
+      }
+      sbuf.append(extracted);
     }
   }
 
+  /** Only reads the whole file if it has changed since its MD5 was last calculated. */
+  private String getMd5(ItemFile itemFile, String filename) throws IOException {
+    final String path = fileSystemService.getExternalFile(itemFile, filename).getAbsolutePath();
+    final long size = fileSystemService.fileLength(itemFile, filename);
+    final long lastModified = fileSystemService.lastModified(itemFile, filename);
+    String md5 = extractedTextCache.getMd5(path, size, lastModified);
+    if (md5 == null) {
+      md5 = fileSystemService.getMD5Checksum(itemFile, filename);
+      extractedTextCache.putMd5(path, size, lastModified, md5);
+    }
+    return md5;
+  }
+
   private void indexIms(Attachment imsAttach, StringBuilder sbuf, Item item) throws Exception {
     String imsFolder = imsAttach.getUrl();
     ItemFile file = itemFileService.getItemFile(item);
@@ -294,7 +331,7 @@ public class TextExtracter {
       List<IMSResource> allResources = imsManifest.getAllResources();
       for (IMSResource res : allResources) {
         String fullHref = res.getFullHref();
-        indexSingleFile(item, sbuf, imsFolder + '/' + fullHref);
+        indexSingleFile(item, sbuf, imsFolder + '/' + fullHref, null);
       }
     }
   }
@@ -312,22 +349,47 @@ public class TextExtracter {
     return mimeService.getTextExtractersForMimeEntry(mimeEntry);
   }
 
-  private void extractTextFromStream(
+  /**
+   * Extraction runs on the {@link TextExtractionPool} threads, within the pool's time and size
+   * budgets. A file which runs over its time budget is left out, rather than failing the rest of
+   * the attachment.
+   *
+   * @param inp Closed once the text has been extracted, as the extracter may still be reading it
+   *     after its time budget has run out
+   * @param size The size of the stream in bytes, or -1 if it is not known
+   * @return false if the stream was too large or too slow for its text to be extracted
+   */
+  private boolean extractTextFromStream(
       List<TextExtracterExtension> extracters,
       InputStream inp,
+      long size,
       MimeEntry mimeEntry,
       StringBuilder outputText)
       throws Exception {
     String mimeType = mimeEntry != null ? mimeEntry.getType() : null;
     if (extracters.size() > 0) {
-      extracters.get(0).extractText(mimeType, inp, outputText, SUMMARY_SIZE, parseDurationCap);
+      final String text;
+      try {
+        text =
+            extractionPool.extract(
+                extracters.get(0), mimeType, inp, size, SUMMARY_SIZE, parseDurationCap);
+      } catch (ExtractionTimeoutException e) {
+        LOGGER.warn("Not indexing the text of a " + mimeType + " file: " + e.getMessage());
+        return false;
+      }
+      if (text == null) {
+        return false;
+      }
+      outputText.append(text);
       outputText.append(' ');
     } else {
+      Closeables.close(inp, true);
       if (LOGGER.isDebugEnabled()) {
         LOGGER.debug(
             "Did not extract text for attachment with mimeType: " + mimeType); // $NON-NLS-1$
       }
     }
+    return true;
   }
 
   protected MimeEntry getMimeEntryFromContentType(String contentType) {
@@ -390,10 +452,13 @@ public class TextExtracter {
           urlcon.setConnectTimeout(URL_TIMEOUT);
           urlcon.setReadTimeout(URL_TIMEOUT);
 
-          try (InputStream inp = urlcon.getInputStream()) {
-            MimeEntry mimeType = getMimeEntryFromContentType(urlcon.getContentType());
-            extractTextFromStream(getExtractors(mimeType), inp, mimeType, buf);
-          }
+          MimeEntry mimeType = getMimeEntryFromContentType(urlcon.getContentType());
+          extractTextFromStream(
+              getExtractors(mimeType),
+              urlcon.getInputStream(),
+              urlcon.getContentLengthLong(),
+              mimeType,
+              buf);
         } catch (Exception e) {
           if (LOGGER.isDebugEnabled()) {
             LOGGER.debug("Error indexing second level url:" + relurl, e);
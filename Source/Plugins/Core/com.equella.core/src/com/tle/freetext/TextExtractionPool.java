@@ -0,0 +1,316 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.freetext;
+
+import com.google.common.io.Closeables;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import com.tle.annotation.Nullable;
+import com.tle.common.NamedThreadFactory;
+import com.tle.core.TextExtracterExtension;
+import com.tle.core.guice.Bind;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.PostConstruct;
+import javax.inject.Singleton;
+import org.apache.log4j.Logger;
+
+/**
+ * Runs text extracters on dedicated threads rather than on the indexer threads, so that a file
+ * which makes an extracter hang only costs the indexer its time budget.
+ *
+ * <ul>
+ *   <li>Each extracter, and therefore each family of MIME types, may only run on a limited number
+ *       of threads at once, which bounds the heap that one kind of file can take up.
+ *   <li>Files over textExtracter.slowPathBytes go to a separate, smaller executor, so small files
+ *       are never queued behind large ones.
+ *   <li>Files over textExtracter.maxFileBytes are not extracted at all.
+ *   <li>Each file must finish within the parse duration cap plus a grace period, after which the
+ *       extraction is interrupted and the indexer carries on without its text. An extracter which
+ *       doesn't stop keeps its thread, but gives up its per-format permit.
+ *   <li>At most textExtracter.queueSize files wait for each executor, beyond which files are
+ *       indexed without their text.
+ * </ul>
+ */
+@Bind
+@Singleton
+@SuppressWarnings("nls")
+public class TextExtractionPool {
+  private static final Logger LOGGER = Logger.getLogger(TextExtractionPool.class);
+
+  /**
+   * Extra time allowed over the parse duration cap, which the extracters check themselves, before
+   * the extraction is abandoned.
+   */
+  private static final long GRACE_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+  private static final int CORES = Runtime.getRuntime().availableProcessors();
+
+  @Inject(optional = true)
+  @Named("textExtracter.threads")
+  int threads = CORES;
+
+  @Inject(optional = true)
+  @Named("textExtracter.threadsPerFormat")
+  int threadsPerFormat = Math.max(1, CORES / 2);
+
+  @Inject(optional = true)
+  @Named("textExtracter.slowPathThreads")
+  private int slowPathThreads = Math.max(1, CORES / 4);
+
+  @Inject(optional = true)
+  @Named("textExtracter.slowPathBytes")
+  private long slowPathBytes = 10L * 1024 * 1024;
+
+  @Inject(optional = true)
+  @Named("textExtracter.maxFileBytes")
+  private long maxFileBytes = 512L * 1024 * 1024;
+
+  @Inject(optional = true)
+  @Named("textExtracter.queueSize")
+  private int queueSize = 100;
+
+  long graceMillis = GRACE_MILLIS;
+
+  private ThreadPoolExecutor fastExecutor;
+  private ThreadPoolExecutor slowExecutor;
+
+  private final ConcurrentMap<String, Semaphore> formatPermits =
+      new ConcurrentHashMap<String, Semaphore>();
+  private final ConcurrentMap<String, Counters> counters =
+      new ConcurrentHashMap<String, Counters>();
+
+  @PostConstruct
+  public void startExecutors() {
+    fastExecutor = createExecutor(threads, "TextExtraction.fast");
+    slowExecutor = createExecutor(slowPathThreads, "TextExtraction.slow");
+  }
+
+  private ThreadPoolExecutor createExecutor(int threads, String name) {
+    final ThreadPoolExecutor executor =
+        new ThreadPoolExecutor(
+            threads,
+            threads,
+            60L,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(queueSize),
+            new NamedThreadFactory(name));
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  /**
+   * Extracts the text of a file on the extraction threads, waiting for at most the file's time
+   * budget.
+   *
+   * @param input The file, which is closed once the extracter has finished with it. An extracter
+   *     which runs over its time budget may still be reading it after this method has returned.
+   * @param size The size of the file in bytes, or -1 if it is not known
+   * @param parseDurationCap The time the extracter itself is asked to stop parsing after
+   * @return The extracted text, or null if the file is larger than the size budget
+   * @throws ExtractionTimeoutException If there is no thread for the file or it doesn't finish in
+   *     time
+   * @throws IOException If extraction fails
+   */
+  @Nullable
+  public String extract(
+      final TextExtracterExtension extracter,
+      final String mimeType,
+      final InputStream input,
+      final long size,
+      final int maxSize,
+      final long parseDurationCap)
+      throws IOException {
+    final String name = extracter.getClass().getSimpleName();
+    final Counters count = getCounters(name);
+    if (size > maxFileBytes) {
+      count.skipped.incrementAndGet();
+      Closeables.closeQuietly(input);
+      LOGGER.info(
+          "Not extracting text from a " + size + " byte " + mimeType + " file, it is too large");
+      return null;
+    }
+
+    final long budget = parseDurationCap + graceMillis;
+    final boolean slowPath = size > slowPathBytes;
+    final Semaphore permits;
+    if (slowPath) {
+      // The slow path executor is small enough to bound these by itself
+      count.slowPathFiles.incrementAndGet();
+      permits = null;
+    } else {
+      permits = getPermits(name);
+      try {
+        if (!permits.tryAcquire(budget, TimeUnit.MILLISECONDS)) {
+          count.timeouts.incrementAndGet();
+          Closeables.closeQuietly(input);
+          throw new ExtractionTimeoutException(
+              "Timed out waiting for a " + name + " thread after " + budget + "ms");
+        }
+      } catch (InterruptedException e) {
+        Closeables.closeQuietly(input);
+        throw new InterruptedIOException();
+      }
+    }
+
+    // Whoever sets claimed owns the input, either the task when it starts, or this thread if the
+    // task is cancelled or rejected before it starts
+    final AtomicBoolean claimed = new AtomicBoolean();
+    final AtomicBoolean held = new AtomicBoolean(permits != null);
+    final Runnable release =
+        () -> {
+          if (held.compareAndSet(true, false)) {
+            permits.release();
+          }
+        };
+    final ClassLoader contextLoader = Thread.currentThread().getContextClassLoader();
+    final Callable<String> task =
+        () -> {
+          if (!claimed.compareAndSet(false, true)) {
+            return null;
+          }
+          final Thread thread = Thread.currentThread();
+          final ClassLoader oldLoader = thread.getContextClassLoader();
+          thread.setContextClassLoader(contextLoader);
+          final long start = System.currentTimeMillis();
+          try {
+            final StringBuilder text = new StringBuilder();
+            extracter.extractText(mimeType, input, text, maxSize, parseDurationCap);
+            return text.toString();
+          } catch (Exception e) {
+            count.failures.incrementAndGet();
+            throw e;
+          } finally {
+            count.files.incrementAndGet();
+            count.millis.addAndGet(System.currentTimeMillis() - start);
+            if (size > 0) {
+              count.bytes.addAndGet(size);
+            }
+            thread.setContextClassLoader(oldLoader);
+            Closeables.closeQuietly(input);
+            release.run();
+          }
+        };
+
+    final ThreadPoolExecutor executor = slowPath ? slowExecutor : fastExecutor;
+    final Future<String> future;
+    try {
+      future = executor.submit(task);
+    } catch (RejectedExecutionException e) {
+      count.timeouts.incrementAndGet();
+      Closeables.closeQuietly(input);
+      release.run();
+      throw new ExtractionTimeoutException(
+          "Too many files are waiting for " + name + ", extraction is not keeping up");
+    }
+
+    try {
+      return future.get(budget, TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      count.timeouts.incrementAndGet();
+      throw new ExtractionTimeoutException(name + " did not finish within " + budget + "ms");
+    } catch (InterruptedException e) {
+      throw new InterruptedIOException();
+    } catch (ExecutionException e) {
+      final Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IOException(cause);
+    } finally {
+      if (!future.isDone()) {
+        // Interrupting is only a request, a stuck extracter keeps its thread until it finishes.
+        // Its permit is given up so that it doesn't hold up other files of the same kind.
+        future.cancel(true);
+        if (claimed.compareAndSet(false, true)) {
+          executor.remove((Runnable) future);
+          Closeables.closeQuietly(input);
+        } else {
+          LOGGER.warn(name + " is still extracting text after being interrupted");
+        }
+        release.run();
+      }
+    }
+  }
+
+  public List<ExtractorStatistics> getStatistics() {
+    final List<ExtractorStatistics> stats = new ArrayList<ExtractorStatistics>();
+    for (Map.Entry<String, Counters> entry : counters.entrySet()) {
+      final Counters count = entry.getValue();
+      final ExtractorStatistics stat = new ExtractorStatistics();
+      stat.setExtractor(entry.getKey());
+      stat.setFiles(count.files.get());
+      stat.setSlowPathFiles(count.slowPathFiles.get());
+      stat.setBytes(count.bytes.get());
+      stat.setMillis(count.millis.get());
+      stat.setTimeouts(count.timeouts.get());
+      stat.setFailures(count.failures.get());
+      stat.setSkipped(count.skipped.get());
+      stats.add(stat);
+    }
+    return stats;
+  }
+
+  private Semaphore getPermits(String name) {
+    return formatPermits.computeIfAbsent(name, n -> new Semaphore(threadsPerFormat));
+  }
+
+  private Counters getCounters(String name) {
+    return counters.computeIfAbsent(name, n -> new Counters());
+  }
+
+  /** Thrown when there is no thread to extract a file's text on, or it doesn't finish in time */
+  public static class ExtractionTimeoutException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public ExtractionTimeoutException(String message) {
+      super(message);
+    }
+  }
+
+  private static final class Counters {
+    final AtomicLong files = new AtomicLong();
+    final AtomicLong slowPathFiles = new AtomicLong();
+    final AtomicLong bytes = new AtomicLong();
+    final AtomicLong millis = new AtomicLong();
+    final AtomicLong timeouts = new AtomicLong();
+    final AtomicLong failures = new AtomicLong();
+    final AtomicLong skipped = new AtomicLong();
+  }
+}
@@ -35,6 +35,7 @@ import com.tle.core.freetext.service.FreeTextService;
 import com.tle.core.i18n.BundleCache;
 import com.tle.core.i18n.service.LanguageService;
 import com.tle.core.institution.InstitutionService;
+import com.tle.core.item.ViewCountBuffer;
 import com.tle.core.item.edit.ItemEditorService;
 import com.tle.core.item.edit.attachment.AbstractAttachmentEditor;
 import com.tle.core.item.helper.ItemHelper;
@@ -237,6 +238,8 @@ public class LegacyGuice extends AbstractModule {
 
   @Inject public static UserSessionService userSessionService;
 
+  @Inject public static ViewCountBuffer viewCountBuffer;
+
   @Inject public static ViewItemService viewItemService;
 
   @Inject public static ViewItemUrlFactory viewItemUrlFactory;
@@ -18,7 +18,7 @@
 
 package com.tle.mycontent.service;
 
-import com.dytech.devlib.PropBagEx;
+import com.dytech.devlib.ReadOnlyPropBag;
 import com.google.inject.Provider;
 import com.tle.beans.entity.itemdef.ItemDefinition;
 import com.tle.beans.item.Item;
@@ -78,7 +78,7 @@ public class MyContentServiceImpl implements MyContentService {
 
   @Override
   public void forwardToEditor(SectionInfo info, ItemId itemId) {
-    PropBagEx itemxml = itemService.getItemXmlPropBag(itemId);
+    ReadOnlyPropBag itemxml = itemService.getReadOnlyItemXml(itemId);
     String handlerId = itemxml.getNode(MyContentConstants.CONTENT_TYPE_NODE);
     MyContentContributeSection.forwardToEdit(info, handlerId, itemId);
   }
@@ -126,7 +126,7 @@ public class MyContentServiceImpl implements MyContentService {
   @Override
   public MyContentFields getFieldsForItem(ItemId itemId) {
     MyContentFields fields = new MyContentFields();
-    PropBagEx itemXml = itemService.getItemXmlPropBag(itemId);
+    ReadOnlyPropBag itemXml = itemService.getReadOnlyItemXml(itemId);
     fields.setTitle(itemXml.getNode(MyContentConstants.NAME_NODE));
     fields.setTags(itemXml.getNode(MyContentConstants.KEYWORDS_NODE));
     fields.setResourceId(itemXml.getNode(MyContentConstants.CONTENT_TYPE_NODE));
@@ -18,7 +18,7 @@
 
 package com.tle.mycontent.web.search;
 
-import com.dytech.devlib.PropBagEx;
+import com.dytech.devlib.ReadOnlyPropBag;
 import com.tle.common.Check;
 import com.tle.core.guice.Bind;
 import com.tle.core.item.service.ItemService;
@@ -76,7 +76,7 @@ public class MyContentItemListEntry extends StandardItemListEntry {
   @Override
   public void init(RenderContext context, ListSettings<?> settings) {
     super.init(context, settings);
-    PropBagEx itemxml = itemService.getItemXmlPropBag(getItem());
+    ReadOnlyPropBag itemxml = itemService.getReadOnlyItemXml(getItem());
     String tags = itemxml.getNode(MyContentConstants.KEYWORDS_NODE);
     if (!Check.isEmpty(tags)) {
       addDelimitedMetadata(LABEL_TAGS, tags);
@@ -0,0 +1,61 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.web.api.server;
+
+import com.google.inject.Singleton;
+import com.tle.common.security.SecurityConstants;
+import com.tle.core.freetext.service.FreeTextService;
+import com.tle.core.guice.Bind;
+import com.tle.core.security.TLEAclManager;
+import com.tle.exceptions.AccessDeniedException;
+import com.tle.freetext.IndexerStatistics;
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import java.util.Set;
+import javax.inject.Inject;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+
+@Bind
+@Path("status/indexer")
+@Api(value = "Indexer status", description = "status")
+@Produces({"application/json"})
+@Singleton
+@SuppressWarnings("nls")
+public class IndexerStatusResource {
+  @Inject private FreeTextService freeTextService;
+  @Inject private TLEAclManager aclManager;
+
+  @GET
+  @Path("")
+  @ApiOperation("Background indexer throughput, queue depth and per-stage latency")
+  public IndexerStatistics getStatistics() {
+    ensurePriv();
+    return freeTextService.getIndexerStatistics();
+  }
+
+  private void ensurePriv() {
+    final Set<String> stillThere =
+        aclManager.filterNonGrantedPrivileges(SecurityConstants.EDIT_SYSTEM_SETTINGS);
+    if (stillThere.isEmpty()) {
+      throw new AccessDeniedException(SecurityConstants.EDIT_SYSTEM_SETTINGS + " not granted");
+    }
+  }
+}
@@ -81,6 +81,34 @@ public class BrowsePortletRenderer extends PortletContentRenderer<TopicDisplayMo
     Collection<String> keyResPrivs =
         Collections.singleton(selectionService.getSearchPrivilege(context));
     if (!Check.isEmpty(rootTopics)) {
+      // Topics we haven't counted yet (because we expanded the search set
+      // via the ManualVirtualization) are counted all at once. Given that
+      // we're dealing with a manual (ie finite) range of values, we can
+      // afford to conduct a search per value.
+      final String searchPriv = selectionService.getSearchPrivilege(context);
+      final List<Integer> uncounted = new ArrayList<Integer>();
+      final List<LiveItemSearch> subSearches = new ArrayList<LiveItemSearch>();
+      final List<String> cacheKeys = new ArrayList<String>();
+      for (int i = 0; i < rootTopics.size(); i++) {
+        final VirtualisableAndValue<HierarchyTopic> rootTopic = rootTopics.get(i);
+        if (rootTopic.getCount() == GeneralConstants.UNCALCULATED) {
+          uncounted.add(i);
+          subSearches.add(getSubSearch(context, rootTopic, collectionUuids));
+          cacheKeys.add(
+              buildTopicId(rootTopic.getVt(), rootTopic.getVirtualisedValue(), null)
+                  + '/'
+                  + searchPriv
+                  + '/'
+                  + collectionUuids);
+        }
+      }
+      final int[] counts =
+          subSearches.isEmpty()
+              ? new int[0]
+              : freeTextService.countsFromFilters(subSearches, cacheKeys);
+      for (int i = 0; i < counts.length; i++) {
+        rootTopics.get(uncounted.get(i)).setCount(counts[i]);
+      }
 
       for (VirtualisableAndValue<HierarchyTopic> rootTopic : rootTopics) {
         HierarchyTopic childTopic = rootTopic.getVt();
@@ -91,21 +119,6 @@ public class BrowsePortletRenderer extends PortletContentRenderer<TopicDisplayMo
             hierarchyService.getDynamicKeyResource(dynamicHierarchyId);
 
         int searchCount = rootTopic.getCount();
-        if (searchCount == GeneralConstants.UNCALCULATED) {
-          // It means we haven't conducted the search yet (because we
-          // expanded the search set via the ManualVirtualization).
-          // Given that we're dealing with a manual (ie finite) range
-          // of values, we can afford to conduct searches on a
-          // one-value-at-a-time basis.
-          LiveItemSearch subSearch = getSubSearch(context, rootTopic, collectionUuids);
-          int[] countsOfOne =
-              freeTextService.countsFromFilters(Collections.singletonList(subSearch));
-          if (countsOfOne.length > 0) {
-            searchCount = countsOfOne[0];
-          } else {
-            searchCount = 0;
-          }
-        }
 
         if (dynamicKeyResources != null) {
           searchCount += dynamicKeyResources.size();
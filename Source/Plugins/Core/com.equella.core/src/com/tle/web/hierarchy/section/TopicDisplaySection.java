@@ -205,6 +205,10 @@ public class TopicDisplaySection
     final List<VirtualisableAndValue<HierarchyTopic>> childTopics =
         hierarchyService.expandVirtualisedTopics(
             hierarchyService.getChildTopics(topic), values, collectionUuids);
+    final List<VirtualisableAndValue<HierarchyTopic>> uncounted =
+        new ArrayList<VirtualisableAndValue<HierarchyTopic>>();
+    final List<PresetSearch> searches = new ArrayList<PresetSearch>();
+    final List<String> cacheKeys = new ArrayList<String>();
     for (VirtualisableAndValue<HierarchyTopic> p : childTopics) {
       HierarchyTopic childTopic = p.getVt();
       String childValue = p.getVirtualisedValue();
@@ -218,7 +222,21 @@ public class TopicDisplaySection
                 true);
         search.setPrivilege(searchPriv);
         filterSearchCollections(search, collectionUuids);
-        p.setCount(freeTextService.countsFromFilters(Collections.singletonList(search))[0]);
+        uncounted.add(p);
+        searches.add(search);
+        cacheKeys.add(
+            buildTopicId(childTopic, childValue, values)
+                + '/'
+                + searchPriv
+                + '/'
+                + collectionUuids);
+      }
+    }
+    // Count them all at once, and only again once the index has changed
+    if (!searches.isEmpty()) {
+      final int[] counts = freeTextService.countsFromFilters(searches, cacheKeys);
+      for (int i = 0; i < counts.length; i++) {
+        uncounted.get(i).setCount(counts[i]);
       }
     }
 
@@ -18,7 +18,7 @@
 
 package com.tle.web.mycontent.api;
 
-import com.dytech.devlib.PropBagEx;
+import com.dytech.devlib.ReadOnlyPropBag;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.tle.beans.item.Item;
@@ -311,10 +311,9 @@ public class ScrapbookResource {
     final ItemId itemId = new ItemId(item.getUuid(), item.getVersion());
     ScrapbookItemBean scrapbookItem = new ScrapbookItemBean();
     scrapbookItem.setUuid(item.getUuid());
-    scrapbookItem.setTitle(itemService.getItemXmlPropBag(item).getNode("//name"));
-    PropBagEx xmlBag = new PropBagEx();
-    xmlBag.setXML(item.getItemXml().getXml());
-    String type = xmlBag.getNode("//content_type", "myresource").toLowerCase();
+    ReadOnlyPropBag itemXml = itemService.getReadOnlyItemXml(item);
+    scrapbookItem.setTitle(itemXml.getNode("//name"));
+    String type = itemXml.getNode("//content_type", "myresource").toLowerCase();
     scrapbookItem.setType(type);
     UnmodifiableIterable<Attachment> attachments = item.getAttachmentsUnmodifiable();
 
@@ -27,6 +27,15 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import javax.inject.Singleton;
@@ -41,17 +50,16 @@ import org.apache.commons.logging.LogFactory;
 @Singleton
 public class ContentStreamWriter {
   private static final int RANGEBUFFER_SIZE = 16384;
-  private static final Pattern RANGE_PATTERN = Pattern.compile("^bytes=(\\d*)-(\\d*)$");
+  private static final Pattern RANGE_PATTERN = Pattern.compile("^(\\d*)-(\\d*)$");
+  private static final String BYTES_UNIT = "bytes=";
+  // Anything more than this is more likely abuse than a real client
+  private static final int MAX_RANGES = 16;
   private static final Log LOGGER = LogFactory.getLog(ContentStreamWriter.class);
 
   private static final long[] NOT_RANGE_REQUEST =
       new long[] {
         -1L, -1L,
       };
-  private static final long[] INVALID_RANGE_REQUEST =
-      new long[] {
-        -2L, -2L,
-      };
 
   @Inject(optional = true)
   @Named("files.useXSendfile")
@@ -137,37 +145,49 @@ public class ContentStreamWriter {
           }
 
           // Check for a range request?
-          final long[] range = getRange(request, contentStream);
+          final List<long[]> ranges = getRanges(request, contentStream);
 
           // Invalid range request? Setup headers and return
           // serving nothing.
-          if (range == INVALID_RANGE_REQUEST) {
+          if (ranges == null) {
             response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
             response.setHeader("Content-Range", "bytes */" + contentLength);
             response.setContentLength(-1);
             return;
           }
 
+          // Multiple ranges can only be served cheaply from a file,
+          // otherwise we ignore the ranges and serve everything.
+          long[] range = NOT_RANGE_REQUEST;
+          if (ranges.size() == 1) {
+            range = ranges.get(0);
+          } else if (ranges.size() > 1 && directFile != null) {
+            serveMultipartFromFile(response, contentStream, directFile, outputStream, ranges);
+            return;
+          }
+
           // Valid range request. Modify headers for partial
           // content and continue to let the content be served.
           if (range != NOT_RANGE_REQUEST) {
             response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
-            response.setContentLength((int) (range[1] - range[0]));
+            response.setContentLengthLong(range[1] - range[0]);
             response.setHeader(
                 "Content-Range", "bytes " + range[0] + "-" + (range[1] - 1) + "/" + contentLength);
           }
 
+          final long start = range == NOT_RANGE_REQUEST ? 0L : range[0];
+          final long end = range == NOT_RANGE_REQUEST ? contentLength : range[1];
+
           // Is Tomcat's SendFile support available?
           if (contentLength > 0
               && Boolean.TRUE.equals(request.getAttribute("org.apache.tomcat.sendfile.support"))
               && directFile != null) {
-            final long start = range == NOT_RANGE_REQUEST ? 0L : range[0];
-            final long end = range == NOT_RANGE_REQUEST ? contentLength : range[1];
-
             request.setAttribute(
                 "org.apache.tomcat.sendfile.filename", directFile.getCanonicalPath());
             request.setAttribute("org.apache.tomcat.sendfile.start", start);
             request.setAttribute("org.apache.tomcat.sendfile.end", end);
+          } else if (contentLength > 0 && directFile != null) {
+            serveFromFile(response, directFile, outputStream, start, end);
           } else {
             serveFromStream(response, contentStream, outputStream, range);
           }
@@ -180,23 +200,126 @@ public class ContentStreamWriter {
     }
   }
 
-  private long[] getRange(HttpServletRequest request, ContentStream contentStream) {
+  /**
+   * @return An empty list if the whole content should be served, or null if the range request
+   *     can't be satisfied
+   */
+  @Nullable
+  private List<long[]> getRanges(HttpServletRequest request, ContentStream contentStream) {
     final long contentLength = contentStream.getContentLength();
     if (contentLength < 0) {
-      return NOT_RANGE_REQUEST;
+      return Collections.emptyList();
     }
 
     final String rangeHeader = request.getHeader("Range");
-    if (rangeHeader == null) {
-      return NOT_RANGE_REQUEST;
+    if (rangeHeader == null || !ifRangeMatches(request, contentStream)) {
+      return Collections.emptyList();
+    }
+
+    return parseRanges(rangeHeader, contentLength);
+  }
+
+  /** A Range header is only honoured if the If-Range validator (if any) still matches. */
+  private boolean ifRangeMatches(HttpServletRequest request, ContentStream contentStream) {
+    final String ifRange = request.getHeader("If-Range");
+    if (ifRange == null) {
+      return true;
+    }
+    if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+      // Only file ETags are cheap enough to calculate here
+      if (contentStream.getDirectFile() == null) {
+        return false;
+      }
+      final String etag = contentStream.calculateETag();
+      return etag != null && ifRange.equals('"' + etag + '"');
+    }
+    try {
+      final long lastModified = contentStream.getLastModified();
+      return request.getDateHeader("If-Range") == lastModified - (lastModified % 1000);
+    } catch (IllegalArgumentException e) {
+      return false;
+    }
+  }
+
+  private void serveFromFile(
+      HttpServletResponse response,
+      File file,
+      @Nullable OutputStream outputStream,
+      long start,
+      long end)
+      throws IOException {
+    final OutputStream out = (outputStream == null ? response.getOutputStream() : outputStream);
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      transfer(channel, start, end, Channels.newChannel(out));
+    }
+    out.flush();
+  }
+
+  private void serveMultipartFromFile(
+      HttpServletResponse response,
+      ContentStream contentStream,
+      File file,
+      @Nullable OutputStream outputStream,
+      List<long[]> ranges)
+      throws IOException {
+    final long contentLength = contentStream.getContentLength();
+    final String mimeType = contentStream.getMimeType();
+    final String boundary = UUID.randomUUID().toString().replace("-", "");
+
+    // Work out the part headers first so the total length can be sent
+    final List<byte[]> partHeaders = new ArrayList<byte[]>();
+    long total = 0;
+    for (long[] range : ranges) {
+      final StringBuilder header = new StringBuilder("\r\n--").append(boundary).append("\r\n");
+      if (mimeType != null) {
+        header.append("Content-Type: ").append(mimeType).append("\r\n");
+      }
+      header
+          .append("Content-Range: bytes ")
+          .append(range[0])
+          .append('-')
+          .append(range[1] - 1)
+          .append('/')
+          .append(contentLength)
+          .append("\r\n\r\n");
+      final byte[] headerBytes = header.toString().getBytes(StandardCharsets.US_ASCII);
+      partHeaders.add(headerBytes);
+      total += headerBytes.length + range[1] - range[0];
     }
+    final byte[] trailer = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+    total += trailer.length;
 
-    long[] range = parseRange(rangeHeader, contentLength);
-    if (range == null) {
-      return INVALID_RANGE_REQUEST;
+    response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+    response.setContentType("multipart/byteranges; boundary=" + boundary);
+    response.setContentLengthLong(total);
+
+    final OutputStream out = (outputStream == null ? response.getOutputStream() : outputStream);
+    final WritableByteChannel target = Channels.newChannel(out);
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      for (int i = 0; i < ranges.size(); i++) {
+        final long[] range = ranges.get(i);
+        out.write(partHeaders.get(i));
+        transfer(channel, range[0], range[1], target);
+      }
     }
+    out.write(trailer);
+    out.flush();
+  }
 
-    return range;
+  /**
+   * Reads by position, so unlike {@link InputStream#skip(long)} nothing before the start of the
+   * range is read, and lets the channel avoid copying through the heap where it can.
+   */
+  private static void transfer(
+      FileChannel channel, long start, long end, WritableByteChannel target) throws IOException {
+    long position = start;
+    while (position < end) {
+      final long sent = channel.transferTo(position, end - position, target);
+      if (sent <= 0) {
+        throw new IOException("File is shorter than expected");
+      }
+      position += sent;
+    }
   }
 
   private void serveFromStream(
@@ -239,32 +362,103 @@ public class ContentStreamWriter {
     }
   }
 
-  private long[] parseRange(String rangeHeader, long length) {
-    Matcher matcher = RANGE_PATTERN.matcher(rangeHeader);
-    if (!matcher.matches()) {
+  /**
+   * Unsatisfiable ranges in a list of several are dropped, but if none of them can be satisfied the
+   * whole request can't be. Overlapping ranges are merged, so the same bytes aren't sent twice.
+   *
+   * @return null if the header is malformed or none of the ranges can be satisfied
+   */
+  @Nullable
+  private List<long[]> parseRanges(String rangeHeader, long length) {
+    if (!rangeHeader.startsWith(BYTES_UNIT)) {
       return null;
     }
+    final String[] specs = rangeHeader.substring(BYTES_UNIT.length()).split(",");
+    if (specs.length > MAX_RANGES) {
+      return Collections.emptyList();
+    }
 
+    final List<long[]> ranges = new ArrayList<long[]>(specs.length);
+    for (String spec : specs) {
+      Matcher matcher = RANGE_PATTERN.matcher(spec.trim());
+      if (!matcher.matches()) {
+        return null;
+      }
+      long[] range = parseRange(matcher.group(1), matcher.group(2), length);
+      if (range != null) {
+        ranges.add(range);
+      }
+    }
+    return ranges.isEmpty() ? null : coalesce(ranges);
+  }
+
+  /**
+   * A suffix range longer than the content covers all of it, and an end past the last byte is
+   * taken to be the last byte.
+   */
+  @Nullable
+  private long[] parseRange(String rangeStart, String rangeEnd, long length) {
     long start;
     long end = length;
-    String rangeStart = matcher.group(1);
-    String rangeEnd = matcher.group(2);
-    if (rangeStart.isEmpty()) {
-      start = length - Long.parseLong(rangeEnd);
-    } else {
-      start = Long.parseLong(rangeStart);
-      if (!rangeEnd.isEmpty()) {
-        end = Long.parseLong(rangeEnd) + 1;
+    try {
+      if (rangeStart.isEmpty()) {
+        if (rangeEnd.isEmpty()) {
+          return null;
+        }
+        final long suffix = Long.parseLong(rangeEnd);
+        if (suffix == 0) {
+          return null;
+        }
+        start = Math.max(0, length - suffix);
+      } else {
+        start = Long.parseLong(rangeStart);
+        if (!rangeEnd.isEmpty()) {
+          final long last = Long.parseLong(rangeEnd);
+          if (last < start) {
+            return null;
+          }
+          end = Math.min(length, last + 1);
+        }
       }
+    } catch (NumberFormatException e) {
+      return null;
     }
 
-    if (start < 0 || start >= length || end > length || end <= start) {
+    if (start >= length) {
       return null;
     }
 
     return new long[] {start, end};
   }
 
+  /** Ranges which don't overlap are served in the order they were asked for. */
+  private static List<long[]> coalesce(List<long[]> ranges) {
+    boolean overlapping = false;
+    for (int i = 0; i < ranges.size() && !overlapping; i++) {
+      for (int j = i + 1; j < ranges.size() && !overlapping; j++) {
+        overlapping = ranges.get(i)[0] < ranges.get(j)[1] && ranges.get(j)[0] < ranges.get(i)[1];
+      }
+    }
+    if (!overlapping) {
+      return ranges;
+    }
+
+    final List<long[]> sorted = new ArrayList<long[]>(ranges);
+    sorted.sort((a, b) -> Long.compare(a[0], b[0]));
+    final List<long[]> merged = new ArrayList<long[]>();
+    long[] current = sorted.get(0).clone();
+    for (long[] range : sorted.subList(1, sorted.size())) {
+      if (range[0] <= current[1]) {
+        current[1] = Math.max(current[1], range[1]);
+      } else {
+        merged.add(current);
+        current = range.clone();
+      }
+    }
+    merged.add(current);
+    return merged;
+  }
+
   protected boolean checkModifiedSince(
       HttpServletRequest request,
       HttpServletResponse response,
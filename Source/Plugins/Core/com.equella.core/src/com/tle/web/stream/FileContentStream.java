@@ -18,7 +18,6 @@
 
 package com.tle.web.stream;
 
-import com.tle.common.filesystem.FileSystemHelper;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -44,14 +43,14 @@ public class FileContentStream extends AbstractContentStream {
     return file.length();
   }
 
+  /**
+   * Built from the file's size and modification time rather than its contents, so large files
+   * don't have to be read just to answer a conditional request.
+   */
   @Override
   public String calculateETag() {
     if (etag == null) {
-      try {
-        etag = FileSystemHelper.md5recurse(file, new byte[Short.MAX_VALUE]);
-      } catch (IOException e) {
-        throw new RuntimeException(e);
-      }
+      etag = Long.toHexString(file.lastModified()) + '-' + Long.toHexString(file.length());
     }
     return etag;
   }
@@ -0,0 +1,185 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.auditlog.impl;
+
+import com.tle.beans.Institution;
+import com.tle.core.auditlog.QueuedAuditEntry;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.sql.DataSource;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class AuditLogWriterTest {
+  private final DataSource first = dataSource();
+  private final DataSource second = dataSource();
+  private final Institution institution = new Institution();
+
+  private RecordingStore store;
+  private AuditLogWriter writer;
+
+  @Before
+  public void setUp() {
+    store = new RecordingStore();
+    writer = new AuditLogWriter(store);
+    writer.queueSize = 100;
+    writer.batchSize = 10;
+    writer.overflowPolicyName = "SYNCHRONOUS";
+  }
+
+  @After
+  public void tearDown() {
+    store.unblock.countDown();
+    writer.stop();
+  }
+
+  @Test
+  public void entriesAreWrittenOnTheCallingThreadUntilStarted() {
+    writer.write(entry(first, "before"));
+    Assert.assertEquals(1, store.batches.size());
+    Assert.assertEquals(Thread.currentThread(), store.threads.get(0));
+    Assert.assertEquals(1, writer.getWrittenCount());
+  }
+
+  @Test
+  public void queuedEntriesAreWrittenInTheBackground() throws Exception {
+    writer.startup();
+    store.expect(1);
+    writer.write(entry(first, "queued"));
+
+    Assert.assertTrue(store.written.await(5, TimeUnit.SECONDS));
+    Assert.assertNotSame(Thread.currentThread(), store.threads.get(0));
+    Assert.assertEquals("queued", store.batches.get(0).get(0).getType());
+  }
+
+  @Test
+  public void flushWritesQueuedEntriesPerDataSource() throws Exception {
+    store.block();
+    writer.startup();
+    // The writer thread takes the first entry and waits in the store
+    writer.write(entry(first, "taken"));
+    Assert.assertTrue(store.entered.await(5, TimeUnit.SECONDS));
+
+    writer.write(entry(first, "one"));
+    writer.write(entry(second, "two"));
+    writer.write(entry(first, "three"));
+    Assert.assertEquals(3, writer.getQueueSize());
+
+    writer.flush();
+
+    Assert.assertEquals(0, writer.getQueueSize());
+    // The writer thread is still waiting, so both batches were written by this one
+    Assert.assertEquals(2, store.batches.size());
+    Assert.assertEquals(first, store.dataSources.get(0));
+    Assert.assertEquals("one,three", types(store.batches.get(0)));
+    Assert.assertEquals(second, store.dataSources.get(1));
+    Assert.assertEquals("two", types(store.batches.get(1)));
+    Assert.assertEquals(Thread.currentThread(), store.threads.get(0));
+    Assert.assertEquals(Thread.currentThread(), store.threads.get(1));
+  }
+
+  @Test
+  public void stopWritesEverythingStillQueued() throws Exception {
+    store.block();
+    writer.startup();
+    writer.write(entry(first, "taken"));
+    Assert.assertTrue(store.entered.await(5, TimeUnit.SECONDS));
+    for (int i = 0; i < 25; i++) {
+      writer.write(entry(first, "queued" + i));
+    }
+
+    writer.stop();
+
+    Assert.assertEquals(26, writer.getWrittenCount());
+    Assert.assertEquals(0, writer.getQueueSize());
+    // Anything written after stopping goes straight to the store
+    writer.write(entry(second, "after"));
+    Assert.assertEquals(27, writer.getWrittenCount());
+  }
+
+  private QueuedAuditEntry entry(DataSource dataSource, String type) {
+    return new QueuedAuditEntry(
+        "user", "session", "TEST", type, null, null, null, null, null, institution, dataSource);
+  }
+
+  private static String types(List<QueuedAuditEntry> entries) {
+    List<String> types = new ArrayList<>();
+    for (QueuedAuditEntry entry : entries) {
+      types.add(entry.getType());
+    }
+    return String.join(",", types);
+  }
+
+  private static DataSource dataSource() {
+    return (DataSource)
+        Proxy.newProxyInstance(
+            AuditLogWriterTest.class.getClassLoader(),
+            new Class<?>[] {DataSource.class},
+            (proxy, method, args) -> {
+              if (method.getName().equals("equals")) {
+                return proxy == args[0];
+              }
+              if (method.getName().equals("hashCode")) {
+                return System.identityHashCode(proxy);
+              }
+              throw new UnsupportedOperationException(method.getName());
+            });
+  }
+
+  private static class RecordingStore implements AuditLogWriter.Store {
+    final List<List<QueuedAuditEntry>> batches = Collections.synchronizedList(new ArrayList<>());
+    final List<DataSource> dataSources = Collections.synchronizedList(new ArrayList<>());
+    final List<Thread> threads = Collections.synchronizedList(new ArrayList<>());
+    final CountDownLatch entered = new CountDownLatch(1);
+    final CountDownLatch unblock = new CountDownLatch(1);
+    volatile CountDownLatch written = new CountDownLatch(0);
+    volatile boolean blocking;
+
+    void block() {
+      blocking = true;
+    }
+
+    void expect(int batches) {
+      written = new CountDownLatch(batches);
+    }
+
+    @Override
+    public void write(DataSource dataSource, List<QueuedAuditEntry> entries) {
+      if (blocking && entered.getCount() == 1) {
+        entered.countDown();
+        try {
+          unblock.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      batches.add(new ArrayList<>(entries));
+      dataSources.add(dataSource);
+      threads.add(Thread.currentThread());
+      written.countDown();
+    }
+  }
+}
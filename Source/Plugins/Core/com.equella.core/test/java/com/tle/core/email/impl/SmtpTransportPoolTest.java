@@ -0,0 +1,241 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.email.impl;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.mail.Message.RecipientType;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class SmtpTransportPoolTest {
+  private SmtpStub stub;
+  private Session session;
+
+  @Before
+  public void startStub() throws IOException {
+    stub = new SmtpStub();
+    Properties props = new Properties();
+    props.put("mail.transport.protocol", "smtp");
+    props.put("mail.smtp.host", "localhost");
+    props.put("mail.smtp.port", Integer.toString(stub.getPort()));
+    session = Session.getInstance(props);
+  }
+
+  @After
+  public void stopStub() throws IOException {
+    stub.close();
+  }
+
+  @Test
+  public void reusesConnections() throws Exception {
+    final SmtpTransportPool pool = new SmtpTransportPool(2, 100, 60000, 0, 0, 1);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<Void>> sends = new ArrayList<Future<Void>>();
+      for (int i = 0; i < 30; i++) {
+        final int index = i;
+        sends.add(
+            executor.submit(
+                () -> {
+                  pool.send(session, "stub", message(index));
+                  return null;
+                }));
+      }
+      for (Future<Void> send : sends) {
+        send.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    Assert.assertEquals(30, stub.messages.get());
+    Assert.assertEquals(30, pool.getSent());
+    Assert.assertTrue(stub.connections.get() <= 2);
+    Assert.assertEquals(stub.connections.get(), pool.getConnections());
+
+    pool.closeIdle();
+    Assert.assertEquals(0, pool.getOpen());
+  }
+
+  @Test
+  public void limitsMessagesPerConnection() throws Exception {
+    SmtpTransportPool pool = new SmtpTransportPool(1, 5, 60000, 0, 0, 1);
+    for (int i = 0; i < 12; i++) {
+      pool.send(session, "stub", message(i));
+    }
+    Assert.assertEquals(12, stub.messages.get());
+    Assert.assertEquals(3, stub.connections.get());
+  }
+
+  @Test
+  public void closesExpiredConnections() throws Exception {
+    SmtpTransportPool pool = new SmtpTransportPool(2, 100, 200, 0, 0, 1);
+    pool.send(session, "stub", message(0));
+    pool.closeExpired();
+    Assert.assertEquals(1, pool.getOpen());
+
+    Thread.sleep(400);
+    pool.closeExpired();
+    Assert.assertEquals(0, pool.getOpen());
+
+    pool.send(session, "stub", message(1));
+    Assert.assertEquals(2, stub.connections.get());
+  }
+
+  @Test
+  public void retriesTemporaryFailures() throws Exception {
+    SmtpTransportPool pool = new SmtpTransportPool(1, 100, 60000, 0, 3, 1);
+    stub.fail(2, "451 Try again later");
+    pool.send(session, "stub", message(0));
+
+    Assert.assertEquals(1, stub.messages.get());
+    Assert.assertEquals(2, pool.getRetried());
+    Assert.assertEquals(0, pool.getFailed());
+  }
+
+  @Test
+  public void doesNotRetryPermanentFailures() throws Exception {
+    SmtpTransportPool pool = new SmtpTransportPool(1, 100, 60000, 0, 3, 1);
+    stub.fail(1, "550 Mailbox unavailable");
+    try {
+      pool.send(session, "stub", message(0));
+      Assert.fail("Expected the message to be rejected");
+    } catch (MessagingException e) {
+      // Expected
+    }
+    Assert.assertEquals(0, pool.getRetried());
+    Assert.assertEquals(1, pool.getFailed());
+
+    // The pool carries on with a new connection
+    pool.send(session, "stub", message(1));
+    Assert.assertEquals(1, stub.messages.get());
+  }
+
+  private MimeMessage message(int index) throws MessagingException {
+    MimeMessage message = new MimeMessage(session);
+    message.setFrom(new InternetAddress("sender@example.com"));
+    message.addRecipient(RecipientType.TO, new InternetAddress("user" + index + "@example.com"));
+    message.setSubject("Notification " + index);
+    message.setText("Message " + index);
+    return message;
+  }
+
+  /** Accepts everything, except for the next few messages when told to fail them. */
+  private static class SmtpStub implements Runnable {
+    final AtomicInteger connections = new AtomicInteger();
+    final AtomicInteger messages = new AtomicInteger();
+    private final AtomicInteger failures = new AtomicInteger();
+    private volatile String failReply;
+    private final ServerSocket server;
+
+    SmtpStub() throws IOException {
+      server = new ServerSocket(0);
+      Thread thread = new Thread(this, "SmtpStub");
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    int getPort() {
+      return server.getLocalPort();
+    }
+
+    void fail(int count, String reply) {
+      failReply = reply;
+      failures.set(count);
+    }
+
+    void close() throws IOException {
+      server.close();
+    }
+
+    @Override
+    public void run() {
+      while (!server.isClosed()) {
+        try {
+          final Socket socket = server.accept();
+          connections.incrementAndGet();
+          Thread handler = new Thread(() -> handle(socket), "SmtpStub connection");
+          handler.setDaemon(true);
+          handler.start();
+        } catch (IOException e) {
+          // Closed
+        }
+      }
+    }
+
+    private void handle(Socket socket) {
+      try (Socket s = socket) {
+        BufferedReader in =
+            new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+        OutputStream out = s.getOutputStream();
+        reply(out, "220 localhost SmtpStub");
+        String line;
+        while ((line = in.readLine()) != null) {
+          String command = line.length() >= 4 ? line.substring(0, 4).toUpperCase() : line;
+          switch (command) {
+            case "DATA":
+              reply(out, "354 End data with <CR><LF>.<CR><LF>");
+              while ((line = in.readLine()) != null && !line.equals(".")) {
+                // Discard the message
+              }
+              if (failures.getAndDecrement() > 0) {
+                reply(out, failReply);
+              } else {
+                messages.incrementAndGet();
+                reply(out, "250 OK");
+              }
+              break;
+            case "QUIT":
+              reply(out, "221 Bye");
+              return;
+            default:
+              reply(out, "250 OK");
+          }
+        }
+      } catch (IOException e) {
+        // Client went away
+      }
+    }
+
+    private static void reply(OutputStream out, String reply) throws IOException {
+      out.write((reply + "\r\n").getBytes(StandardCharsets.UTF_8));
+      out.flush();
+    }
+  }
+}
@@ -0,0 +1,201 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.freetext.index;
+
+import com.dytech.edge.queries.FreeTextQuery;
+import com.tle.beans.Institution;
+import com.tle.beans.item.ItemIdKey;
+import com.tle.common.institution.CurrentInstitution;
+import com.tle.common.searching.Field;
+import com.tle.common.searching.VeryBasicSearch;
+import com.tle.common.settings.standard.SearchSettings;
+import com.tle.common.util.Dates;
+import com.tle.common.util.UtcDate;
+import com.tle.core.services.item.FreetextResult;
+import com.tle.freetext.FreetextIndex;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field.Index;
+import org.apache.lucene.document.Field.Store;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Checks that counting searches in a batch gives the same counts as counting them one by one. */
+@SuppressWarnings("nls")
+public class BatchedCountTest {
+  private static final int DOCS = 500;
+  private static final long DAY = TimeUnit.DAYS.toMillis(1);
+  private static final long START = 1577836800000L; // 2020-01-01
+
+  @Rule public TemporaryFolder temp = new TemporaryFolder();
+
+  private TestIndex index;
+
+  @Before
+  public void setUp() throws IOException {
+    CurrentInstitution.set(institution(1));
+
+    index = new TestIndex();
+    index.freetextIndex =
+        (FreetextIndex)
+            Proxy.newProxyInstance(
+                FreetextIndex.class.getClassLoader(),
+                new Class<?>[] {FreetextIndex.class},
+                (proxy, method, args) -> {
+                  switch (method.getName()) {
+                    case "getSearchSettings":
+                      return new SearchSettings();
+                    case "getDefaultOperator":
+                      return "AND";
+                    case "getAnalyzerLanguage":
+                      return "en";
+                    default:
+                      return null;
+                  }
+                });
+    index.setIndexPath(temp.newFolder("index"));
+    index.afterPropertiesSet();
+
+    final Random random = new Random(42);
+    index.modifyIndex(
+        (nrtManager, writer) -> {
+          long generation = -1;
+          for (int i = 0; i < DOCS; i++) {
+            Document doc = new Document();
+            doc.add(field(FreeTextQuery.FIELD_ALL, "1"));
+            doc.add(field(FreeTextQuery.FIELD_INSTITUTION, random.nextInt(10) == 0 ? "2" : "1"));
+            doc.add(field("collection", "c" + random.nextInt(3)));
+            doc.add(field("status", random.nextInt(4) == 0 ? "draft" : "live"));
+            doc.add(
+                field(
+                    FreeTextQuery.FIELD_REALLASTMODIFIED,
+                    new UtcDate(START + random.nextInt(90) * DAY).format(Dates.ISO)));
+            generation = writer.addDocument(doc);
+          }
+          return generation;
+        });
+  }
+
+  @After
+  public void tearDown() {
+    CurrentInstitution.remove();
+  }
+
+  @Test
+  public void batchedCountsMatchSingleCounts() {
+    final List<TestSearch> searches =
+        Arrays.asList(
+            new TestSearch("c0", null, null),
+            new TestSearch("c1", null, null),
+            null,
+            new TestSearch("c0", "draft", null),
+            new TestSearch("c0", null, range(0, 30)),
+            new TestSearch("c0", null, range(30, 60)),
+            new TestSearch("c0", "draft", range(30, 60)),
+            new TestSearch(null, "live", range(60, 90)));
+    // The same caller key for every search, as a topic would give for searches that only differ in
+    // their dates and excluded statuses
+    final List<String> cacheKeys = Collections.nCopies(searches.size(), "topic");
+
+    final int[] expected = new int[searches.size()];
+    for (int i = 0; i < expected.length; i++) {
+      TestSearch search = searches.get(i);
+      expected[i] = search == null ? -1 : index.count(search, false);
+    }
+    Assert.assertTrue("Drafts should be excluded", expected[3] < expected[0]);
+    Assert.assertTrue("Dates should be filtered", expected[4] + expected[5] < expected[0]);
+
+    for (int run = 0; run < 2; run++) {
+      // The second run is answered from the count cache
+      Assert.assertEquals(
+          Arrays.toString(expected),
+          Arrays.toString(index.count(searches, cacheKeys, false)));
+      Assert.assertEquals(
+          Arrays.toString(expected), Arrays.toString(index.count(searches, null, false)));
+    }
+  }
+
+  private static Date[] range(int fromDay, int toDay) {
+    return new Date[] {new Date(START + fromDay * DAY), new Date(START + toDay * DAY - 1)};
+  }
+
+  private static org.apache.lucene.document.Field field(String name, String value) {
+    return new org.apache.lucene.document.Field(name, value, Store.NO, Index.NOT_ANALYZED_NO_NORMS);
+  }
+
+  private static Institution institution(long id) {
+    Institution inst = new Institution();
+    inst.setDatabaseId(id);
+    inst.setUniqueId(id);
+    return inst;
+  }
+
+  private static class TestSearch extends VeryBasicSearch {
+    private static final long serialVersionUID = 1L;
+
+    private final List<List<Field>> must = new ArrayList<List<Field>>();
+    private final List<List<Field>> mustNot = new ArrayList<List<Field>>();
+    private final Date[] dateRange;
+
+    TestSearch(String collection, String notStatus, Date[] dateRange) {
+      if (collection != null) {
+        must.add(Collections.singletonList(new Field("collection", collection)));
+      }
+      if (notStatus != null) {
+        mustNot.add(Collections.singletonList(new Field("status", notStatus)));
+      }
+      this.dateRange = dateRange;
+    }
+
+    @Override
+    public List<List<Field>> getMust() {
+      return must;
+    }
+
+    @Override
+    public List<List<Field>> getMustNot() {
+      return mustNot;
+    }
+
+    @Override
+    public Date[] getDateRange() {
+      return dateRange;
+    }
+  }
+
+  private static class TestIndex extends ItemIndex<FreetextResult> {
+    @Override
+    protected FreetextResult createResult(
+        ItemIdKey key, Document doc, float relevance, boolean sortByRelevance) {
+      return new FreetextResult(key, relevance, sortByRelevance);
+    }
+  }
+}
@@ -0,0 +1,92 @@
+package com.tle.core.freetext.index;
+
+import com.tle.beans.item.ItemIdKey;
+import com.tle.core.remoting.MatrixResults;
+import com.tle.core.remoting.MatrixResults.MatrixEntry;
+import com.tle.core.services.item.FreetextResult;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.apache.lucene.analysis.KeywordAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.OpenBitSet;
+import org.apache.lucene.util.Version;
+import org.junit.Assert;
+import org.junit.Test;
+
+/** Checks that the compressed matrix engine gives the same results as the bitset engine. */
+@SuppressWarnings("nls")
+public class MatrixSearchTest {
+  private static final int DOCS = 5000;
+  private static final List<String> FIELDS = Arrays.asList("/xml/subject", "/xml/level");
+
+  @Test
+  public void enginesAgree() throws Exception {
+    RAMDirectory dir = new RAMDirectory();
+    IndexWriter writer =
+        new IndexWriter(dir, new IndexWriterConfig(Version.LUCENE_36, new KeywordAnalyzer()));
+    Random random = new Random(42);
+    for (int i = 0; i < DOCS; i++) {
+      Document doc = new Document();
+      if (random.nextInt(10) != 0) {
+        doc.add(field(FIELDS.get(0), "subject" + random.nextInt(50)));
+      }
+      if (random.nextInt(4) != 0) {
+        doc.add(field(FIELDS.get(1), "level" + random.nextInt(5)));
+      }
+      writer.addDocument(doc);
+      // Several segments, so that the per-segment ordinals are combined
+      if (i % 1000 == 0) {
+        writer.commit();
+      }
+    }
+    writer.close();
+
+    IndexReader reader = IndexReader.open(dir);
+    try {
+      OpenBitSet filtered = new OpenBitSet(reader.maxDoc());
+      for (int i = 0; i < reader.maxDoc(); i += 3) {
+        filtered.set(i);
+      }
+
+      TestIndexEngine engine = new TestIndexEngine();
+      for (boolean countOnly : new boolean[] {true, false}) {
+        List<String> expected = entries(engine.bitSetMatrix(reader, filtered, FIELDS, countOnly));
+        List<String> actual =
+            entries(engine.compressedMatrix(reader, filtered, FIELDS, countOnly));
+        Assert.assertFalse(expected.isEmpty());
+        Assert.assertEquals(expected, actual);
+      }
+    } finally {
+      reader.close();
+    }
+  }
+
+  private static Field field(String name, String value) {
+    return new Field(name, value, Field.Store.NO, Field.Index.NOT_ANALYZED_NO_NORMS);
+  }
+
+  private static List<String> entries(MatrixResults results) {
+    List<String> entries = new ArrayList<String>();
+    for (MatrixEntry entry : results.getEntries()) {
+      entries.add(entry.getFieldValues() + "=" + entry.getCount());
+    }
+    Collections.sort(entries);
+    return entries;
+  }
+
+  class TestIndexEngine extends ItemIndex<FreetextResult> {
+    @Override
+    protected FreetextResult createResult(
+        ItemIdKey key, Document doc, float relevance, boolean sortByRelevance) {
+      return new FreetextResult(key, relevance, sortByRelevance);
+    }
+  }
+}
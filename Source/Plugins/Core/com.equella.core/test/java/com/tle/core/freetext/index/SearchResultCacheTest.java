@@ -0,0 +1,77 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.freetext.index;
+
+import com.tle.common.searching.SearchResults;
+import com.tle.common.searching.SimpleSearchResults;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class SearchResultCacheTest {
+  @Test
+  public void returnsCopies() {
+    SearchResultCache<String> cache = new SearchResultCache<String>(100);
+    String key = cache.getKey(1, 0, "q");
+    cache.put(key, results("a", "b"));
+
+    SearchResults<String> cached = cache.get(key);
+    Assert.assertEquals(Arrays.asList("a", "b"), cached.getResults());
+    cached.getResults().clear();
+    Assert.assertEquals(2, cache.get(key).getResults().size());
+    Assert.assertNull(cache.get(cache.getKey(1, 0, "other")));
+    Assert.assertEquals(2.0 / 3, cache.getHitRate(), 0.01);
+  }
+
+  @Test
+  public void changesOnlyAffectTheirInstitution() {
+    SearchResultCache<String> cache = new SearchResultCache<String>(100);
+    cache.put(cache.getKey(1, 5, "q"), results("a"));
+    cache.put(cache.getKey(2, 5, "q"), results("b"));
+
+    cache.changed(1, 7);
+    // The searcher has not been reopened with the change yet
+    Assert.assertNull(cache.getKey(1, 6, "q"));
+    Assert.assertEquals(1, cache.getBypassed());
+
+    Assert.assertNull(cache.get(cache.getKey(1, 7, "q")));
+    Assert.assertEquals(Arrays.asList("b"), cache.get(cache.getKey(2, 7, "q")).getResults());
+
+    // Older changes do not take the generation backwards
+    cache.changed(1, 6);
+    Assert.assertNull(cache.getKey(1, 6, "q"));
+  }
+
+  @Test
+  public void evictsByResults() {
+    SearchResultCache<String> cache = new SearchResultCache<String>(10);
+    for (int i = 0; i < 20; i++) {
+      cache.put(cache.getKey(1, 0, "q" + i), results("a", "b", "c", "d"));
+    }
+    Assert.assertTrue(cache.getSize() <= 2);
+  }
+
+  private static SearchResults<String> results(String... results) {
+    List<String> list = new ArrayList<String>(Arrays.asList(results));
+    return new SimpleSearchResults<String>(list, list.size(), 0, list.size());
+  }
+}
@@ -0,0 +1,391 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.harvester;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.tle.common.harvester.HarvesterProfile;
+import com.tle.core.harvester.AbstractHarvesterProtocol.HarvestPage;
+import com.tle.core.harvester.oai.OAIClient;
+import com.tle.core.harvester.oai.data.Header;
+import com.tle.core.harvester.oai.data.List;
+import com.tle.core.harvester.oai.data.ResumptionToken;
+import com.tle.core.harvester.old.LearningObject;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class HarvestPipelineTest {
+  private RepositoryStub stub;
+  private ExecutorService fetchers;
+
+  @Before
+  public void startStub() throws IOException {
+    stub = new RepositoryStub();
+    fetchers = Executors.newFixedThreadPool(3);
+  }
+
+  @After
+  public void stopStub() {
+    fetchers.shutdownNow();
+    stub.close();
+  }
+
+  @Test
+  public void pagesResumeFromToken() throws Exception {
+    OAIClient client = new OAIClient(stub.getUrl("/oai"));
+    List first = client.listIdentifiers(null, "2020-01-01", null, "oai_dc");
+    Assert.assertEquals(Arrays.asList("id0", "id1", "id2", "id3", "id4"), identifiers(first));
+    Assert.assertEquals("page1", first.getResumptionToken().getToken());
+
+    // A later run only has the checkpointed token
+    ResumptionToken checkpoint = new ResumptionToken();
+    checkpoint.setToken("page2");
+    List last = client.listIdentifiers(checkpoint);
+    Assert.assertEquals(Arrays.asList("id10", "id11"), identifiers(last));
+    Assert.assertTrue(last.getResumptionToken().getToken().isEmpty());
+
+    checkpoint.setToken("expired");
+    Assert.assertNull(client.listIdentifiers(checkpoint));
+  }
+
+  @Test
+  public void interruptedRunResumesFromCheckpoint() throws Exception {
+    HarvesterProfile profile = new HarvesterProfile();
+    StubHarvest harvest = new StubHarvest(profile);
+    harvest.interruptAt = "id7";
+    try {
+      new HarvestRun(profile, harvest).run();
+      Assert.fail();
+    } catch (InterruptedException ex) {
+      // The server was shut down part way through the second page
+    }
+    Assert.assertEquals(Arrays.asList("id0", "id1", "id2", "id3", "id4"), harvest.processed);
+    Assert.assertEquals("page1", profile.getAttribute(HarvesterProfileService.RESUMPTION_TOKEN));
+    String started = profile.getAttribute(HarvesterProfileService.RESUMPTION_STARTED);
+
+    harvest = new StubHarvest(profile);
+    HarvestRun run = new HarvestRun(profile, harvest);
+    run.run();
+    Assert.assertEquals(
+        Arrays.asList("id5", "id6", "id7", "id8", "id9", "id10", "id11"), harvest.processed);
+    Assert.assertEquals(7, run.getSize());
+    Assert.assertEquals(Arrays.asList("page2", null), harvest.checkpoints);
+    // The next run must pick up changes made since the interrupted run began
+    Assert.assertEquals(Long.parseLong(started), run.getStarted().getTime());
+    Assert.assertNull(profile.getAttribute(HarvesterProfileService.RESUMPTION_TOKEN));
+    Assert.assertNull(profile.getAttribute(HarvesterProfileService.RESUMPTION_STARTED));
+  }
+
+  @Test
+  public void expiredCheckpointRestartsTheRun() throws Exception {
+    HarvesterProfile profile = new HarvesterProfile();
+    profile.setAttribute(HarvesterProfileService.RESUMPTION_TOKEN, "expired");
+    profile.setAttribute(HarvesterProfileService.RESUMPTION_STARTED, "0");
+    Date before = new Date();
+
+    StubHarvest harvest = new StubHarvest(profile);
+    HarvestRun run = new HarvestRun(profile, harvest);
+    run.run();
+    Assert.assertEquals(12, harvest.processed.size());
+    Assert.assertEquals("id0", harvest.processed.get(0));
+    Assert.assertEquals(Arrays.asList("page1", "page2", null), harvest.checkpoints);
+    Assert.assertFalse(run.getStarted().before(before));
+    Assert.assertNull(profile.getAttribute(HarvesterProfileService.RESUMPTION_TOKEN));
+    Assert.assertNull(profile.getAttribute(HarvesterProfileService.RESUMPTION_STARTED));
+  }
+
+  @Test
+  public void singlePageRunLeavesNoCheckpoint() throws Exception {
+    HarvesterProfile profile = new HarvesterProfile();
+    StubHarvest harvest = new StubHarvest(profile);
+    harvest.firstToken = "page2";
+    new HarvestRun(profile, harvest).run();
+
+    Assert.assertEquals(Arrays.asList("id10", "id11"), harvest.processed);
+    Assert.assertTrue(harvest.checkpoints.isEmpty());
+  }
+
+  @Test
+  public void boundsConcurrentDownloads() throws Exception {
+    RecordingStages stages = new RecordingStages();
+    HarvestPipeline<String> pipeline = new HarvestPipeline<String>(stages, fetchers, 4);
+    pipeline.process(objects(10));
+
+    Assert.assertEquals(10, stub.downloads.get());
+    Assert.assertTrue(stub.maxConcurrent.get() <= 3);
+    Assert.assertTrue(stub.maxConcurrent.get() > 1);
+    Assert.assertEquals(Arrays.asList(4, 4, 2), stages.batches);
+    Assert.assertEquals(10, pipeline.getUploaded());
+  }
+
+  @Test
+  public void failuresOnlyLoseTheirObject() throws Exception {
+    RecordingStages stages = new RecordingStages();
+    stages.current = "id1";
+    stages.missing = "id2";
+    stages.unsaveable = "id3";
+    HarvestPipeline<String> pipeline = new HarvestPipeline<String>(stages, fetchers, 10);
+    pipeline.process(objects(6));
+
+    // The batch with id3 failed, and the rest were saved one at a time
+    Assert.assertEquals(Collections.singletonList(4), stages.batches);
+    Assert.assertEquals(Arrays.asList("id0", "id4", "id5"), stages.singles);
+    Assert.assertEquals(Arrays.asList("id2", "id3"), stages.failures);
+    Assert.assertEquals(3, pipeline.getUploaded());
+    Assert.assertEquals(2, pipeline.getFailed());
+  }
+
+  @Test
+  public void repeatedObjectsStartANewBatch() throws Exception {
+    RecordingStages stages = new RecordingStages();
+    HarvestPipeline<String> pipeline = new HarvestPipeline<String>(stages, fetchers, 10);
+    java.util.List<LearningObject> page = objects(3);
+    page.add(new LearningObject("id1", "", new Date(), true));
+    pipeline.process(page);
+
+    Assert.assertEquals(Arrays.asList(3, 1), stages.batches);
+  }
+
+  private static java.util.List<String> identifiers(List list) {
+    java.util.List<String> identifiers = new ArrayList<String>();
+    for (Object header : list) {
+      identifiers.add(((Header) header).getIdentifier());
+    }
+    return identifiers;
+  }
+
+  private static java.util.List<LearningObject> objects(int count) {
+    java.util.List<LearningObject> objects = new ArrayList<LearningObject>();
+    for (int i = 0; i < count; i++) {
+      objects.add(new LearningObject("id" + i, "", new Date(), true));
+    }
+    return objects;
+  }
+
+  /** Lists from the stub as OAIProtocol does, and checkpoints as the profile service does */
+  private class StubHarvest implements HarvestRun.Harvest {
+    final java.util.List<String> processed = new ArrayList<String>();
+    final java.util.List<String> checkpoints = new ArrayList<String>();
+    final HarvesterProfile profile;
+    String firstToken;
+    String interruptAt;
+
+    StubHarvest(HarvesterProfile profile) {
+      this.profile = profile;
+    }
+
+    @Override
+    public HarvestPage getPage(String resumptionToken) throws Exception {
+      OAIClient client = new OAIClient(stub.getUrl("/oai"));
+      String token = resumptionToken != null ? resumptionToken : firstToken;
+      List list;
+      if (token == null) {
+        list = client.listIdentifiers(null, "2020-01-01", null, "oai_dc");
+      } else {
+        ResumptionToken resume = new ResumptionToken();
+        resume.setToken(token);
+        list = client.listIdentifiers(resume);
+        if (list == null) {
+          throw new IOException("Bad resumption token");
+        }
+      }
+      java.util.List<LearningObject> objects = new ArrayList<LearningObject>();
+      for (String identifier : identifiers(list)) {
+        objects.add(new LearningObject(identifier, "", new Date(), true));
+      }
+      String next = list.getResumptionToken().getToken();
+      return new HarvestPage(objects, next.isEmpty() ? null : next);
+    }
+
+    @Override
+    public void process(Collection<LearningObject> learningObjects) throws InterruptedException {
+      for (LearningObject lobject : learningObjects) {
+        if (lobject.getIdentifier().equals(interruptAt)) {
+          throw new InterruptedException();
+        }
+      }
+      for (LearningObject lobject : learningObjects) {
+        processed.add(lobject.getIdentifier());
+      }
+    }
+
+    @Override
+    public void checkpoint(String resumptionToken, Date started) {
+      checkpoints.add(resumptionToken);
+      if (resumptionToken == null) {
+        profile.removeAttribute(HarvesterProfileService.RESUMPTION_TOKEN);
+        profile.removeAttribute(HarvesterProfileService.RESUMPTION_STARTED);
+      } else {
+        profile.setAttribute(HarvesterProfileService.RESUMPTION_TOKEN, resumptionToken);
+        profile.setAttribute(
+            HarvesterProfileService.RESUMPTION_STARTED, Long.toString(started.getTime()));
+      }
+    }
+  }
+
+  private class RecordingStages implements HarvestPipeline.Stages<String> {
+    final java.util.List<Integer> batches = new ArrayList<Integer>();
+    final java.util.List<String> singles = new ArrayList<String>();
+    final java.util.List<String> failures = new ArrayList<String>();
+    String current;
+    String missing;
+    String unsaveable;
+
+    @Override
+    public String prepare(LearningObject lobject) {
+      return lobject.getIdentifier().equals(current) ? null : lobject.getIdentifier();
+    }
+
+    @Override
+    public void fetch(String item) throws IOException {
+      String path = item.equals(missing) ? "/missing" : "/files/" + item;
+      try (InputStream in = stub.getUrl(path).openStream()) {
+        while (in.read() != -1) {
+          // Read it all
+        }
+      }
+    }
+
+    @Override
+    public void upload(java.util.List<String> items) {
+      batches.add(items.size());
+      if (items.contains(unsaveable)) {
+        throw new IllegalStateException();
+      }
+    }
+
+    @Override
+    public void upload(String item) {
+      if (item.equals(unsaveable)) {
+        throw new IllegalStateException();
+      }
+      singles.add(item);
+    }
+
+    @Override
+    public void failed(LearningObject lobject, Exception ex) {
+      failures.add(lobject.getIdentifier());
+    }
+  }
+
+  /**
+   * Stands in for a remote repository. Lists twelve identifiers over three pages of OAI-PMH and
+   * serves a file for each, slowly enough that downloads overlap.
+   */
+  private static class RepositoryStub {
+    private static final int PAGE_SIZE = 5;
+    private static final int TOTAL = 12;
+
+    final AtomicInteger downloads = new AtomicInteger();
+    final AtomicInteger concurrent = new AtomicInteger();
+    final AtomicInteger maxConcurrent = new AtomicInteger();
+
+    private final HttpServer server;
+    private final ExecutorService handlers = Executors.newCachedThreadPool();
+
+    RepositoryStub() throws IOException {
+      server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+      server.createContext("/oai", this::listIdentifiers);
+      server.createContext("/files/", this::download);
+      server.setExecutor(handlers);
+      server.start();
+    }
+
+    URL getUrl(String path) throws IOException {
+      return new URL("http", "localhost", server.getAddress().getPort(), path);
+    }
+
+    private void listIdentifiers(HttpExchange exchange) throws IOException {
+      String query = exchange.getRequestURI().getQuery();
+      int page = 0;
+      if (query.contains("resumptionToken=")) {
+        String token = query.substring(query.indexOf("resumptionToken=") + 16);
+        if (!token.startsWith("page")) {
+          respond(exchange, oai("<error code=\"badResumptionToken\">Expired</error>"));
+          return;
+        }
+        page = Integer.parseInt(token.substring(4));
+      }
+
+      StringBuilder headers = new StringBuilder("<ListIdentifiers>");
+      int end = Math.min(TOTAL, (page + 1) * PAGE_SIZE);
+      for (int i = page * PAGE_SIZE; i < end; i++) {
+        headers.append("<header><identifier>id").append(i).append("</identifier>");
+        headers.append("<datestamp>2020-01-02</datestamp></header>");
+      }
+      headers.append("<resumptionToken completeListSize=\"" + TOTAL + "\">");
+      if (end < TOTAL) {
+        headers.append("page").append(page + 1);
+      }
+      headers.append("</resumptionToken></ListIdentifiers>");
+      respond(exchange, oai(headers.toString()));
+    }
+
+    private void download(HttpExchange exchange) throws IOException {
+      int now = concurrent.incrementAndGet();
+      maxConcurrent.accumulateAndGet(now, Math::max);
+      try {
+        Thread.sleep(50);
+        downloads.incrementAndGet();
+        respond(exchange, exchange.getRequestURI().getPath());
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      } finally {
+        concurrent.decrementAndGet();
+      }
+    }
+
+    private static String oai(String body) {
+      return "<?xml version=\"1.0\" encoding=\"UTF-8\"?><OAI-PMH>"
+          + "<responseDate>2020-01-03T00:00:00Z</responseDate>"
+          + body
+          + "</OAI-PMH>";
+    }
+
+    private static void respond(HttpExchange exchange, String body) throws IOException {
+      byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+      exchange.sendResponseHeaders(200, bytes.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(bytes);
+      }
+    }
+
+    void close() {
+      server.stop(0);
+      handlers.shutdownNow();
+    }
+  }
+}
@@ -0,0 +1,176 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.institution.convert;
+
+import com.google.common.io.ByteStreams;
+import com.tle.core.util.archive.ArchiveCreator;
+import com.tle.core.util.archive.ArchiveEntry;
+import com.tle.core.util.archive.ArchiveExtractor;
+import com.tle.core.util.archive.ArchiveProgress;
+import com.tle.core.util.archive.ArchiveType;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+@SuppressWarnings("nls")
+public class ZippingConverterTest {
+  private static final String CONTENT = "The quick brown fox jumps over the lazy dog";
+
+  @Rule public TemporaryFolder temp = new TemporaryFolder();
+
+  private Path folder;
+  private Path first;
+  private Path second;
+  private final List<String> progressed = new ArrayList<>();
+
+  @Before
+  public void setUp() throws IOException {
+    folder = temp.newFolder("files").toPath();
+    first = Files.write(folder.resolve("first.txt"), CONTENT.getBytes(StandardCharsets.UTF_8));
+    second = Files.write(folder.resolve("second.txt"), CONTENT.getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void fileGrowingWhileArchivedKeepsItsSizeWhenOpened() throws IOException {
+    Map<String, String> entries =
+        archive(
+            name -> append(folder.resolve(name), " and runs away"),
+            path -> {
+              // nothing
+            });
+
+    Assert.assertEquals(2, entries.size());
+    Assert.assertEquals(CONTENT, entries.get("first.txt"));
+    Assert.assertEquals(CONTENT, entries.get("second.txt"));
+  }
+
+  @Test
+  public void fileShrinkingWhileArchivedIsPadded() throws IOException {
+    Map<String, String> entries =
+        archive(
+            name -> truncate(folder.resolve(name), 3),
+            path -> {
+              // nothing
+            });
+
+    Assert.assertEquals(2, entries.size());
+    for (String content : entries.values()) {
+      Assert.assertEquals(CONTENT.length(), content.length());
+      Assert.assertTrue(content.startsWith("The\0\0"));
+    }
+  }
+
+  @Test
+  public void fileDeletedWhileArchivingIsSkipped() throws IOException {
+    Map<String, String> entries =
+        archive(
+            name -> {
+              // nothing
+            },
+            path -> {
+              try {
+                Files.deleteIfExists(folder.resolve(path).equals(first) ? second : first);
+              } catch (IOException e) {
+                throw new AssertionError(e);
+              }
+            });
+
+    Assert.assertEquals(1, entries.size());
+    Assert.assertEquals(CONTENT, entries.values().iterator().next());
+    Assert.assertEquals(1, progressed.size());
+  }
+
+  private Map<String, String> archive(Consumer<String> onNewEntry, Consumer<String> onProgress)
+      throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (ArchiveCreator archiver = ArchiveType.TAR_GZ.createArchiver(out)) {
+      ArchiveCreator changing =
+          new ArchiveCreator() {
+            @Override
+            public OutputStream newEntry(String name, long size) throws IOException {
+              onNewEntry.accept(name);
+              return archiver.newEntry(name, size);
+            }
+
+            @Override
+            public void closeEntry() throws IOException {
+              archiver.closeEntry();
+            }
+
+            @Override
+            public void close() throws IOException {
+              archiver.close();
+            }
+          };
+      ArchiveProgress progress =
+          new ArchiveProgress(2) {
+            @Override
+            public void nextEntry(String entryPath) {
+              progressed.add(entryPath);
+              onProgress.accept(entryPath);
+            }
+          };
+      ZippingConverter.archiveFolder(changing, folder, "", null, null, progress);
+    }
+
+    Map<String, String> entries = new LinkedHashMap<>();
+    ArchiveExtractor extractor =
+        ArchiveType.TAR_GZ.createExtractor(
+            new ByteArrayInputStream(out.toByteArray()), StandardCharsets.UTF_8);
+    ArchiveEntry entry;
+    while ((entry = extractor.getNextEntry()) != null) {
+      byte[] data = ByteStreams.toByteArray(extractor.getStream());
+      Assert.assertEquals(entry.getSize(), data.length);
+      entries.put(entry.getName(), new String(data, StandardCharsets.UTF_8));
+    }
+    return entries;
+  }
+
+  private static void append(Path file, String text) {
+    try {
+      Files.write(file, text.getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+    } catch (IOException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private static void truncate(Path file, long size) {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+      channel.truncate(size);
+    } catch (IOException e) {
+      throw new AssertionError(e);
+    }
+  }
+}
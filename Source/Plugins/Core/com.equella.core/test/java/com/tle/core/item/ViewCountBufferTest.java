@@ -0,0 +1,188 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.item;
+
+import com.tle.beans.Institution;
+import com.tle.core.db.types.DbUUID;
+import com.tle.core.item.ViewCountBuffer.PendingViews;
+import com.tle.core.item.ViewCountBuffer.ViewKey;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import scala.Option;
+import scala.Tuple2;
+import scala.collection.JavaConverters;
+import scala.collection.Seq;
+
+@SuppressWarnings("nls")
+public class ViewCountBufferTest {
+  private static final String ITEM = "0b1d9f64-6f5c-4b4a-8d2e-0f6a4c0b7a11";
+  private static final String OTHER_ITEM = "5e0e7c2a-1d63-4f0e-9a43-7c5f0f2b9d20";
+  private static final String ATTACHMENT = "a3c1b2d4-2f1e-4e5d-8c7b-6a5f4e3d2c1b";
+
+  private final Institution inst1 = institution(1);
+  private final Institution inst2 = institution(2);
+
+  private RecordingWriter writer;
+  private ViewCountBuffer buffer;
+
+  @Before
+  public void setUp() {
+    writer = new RecordingWriter();
+    buffer = new ViewCountBuffer(writer);
+  }
+
+  @Test
+  public void flushAddsViewsPerInstitution() {
+    buffer.increment(item(1, ITEM), inst1);
+    buffer.increment(item(1, ITEM), inst1);
+    buffer.increment(attachment(1, ITEM), inst1);
+    buffer.increment(item(2, OTHER_ITEM), inst2);
+    Assert.assertEquals(2, buffer.pendingCount(item(1, ITEM)));
+
+    buffer.flush();
+
+    Assert.assertEquals(2, writer.written.size());
+    Map<ViewKey, PendingViews> first = writer.written.get(inst1);
+    Assert.assertEquals(2, first.size());
+    Assert.assertEquals(2, first.get(item(1, ITEM)).count());
+    Assert.assertEquals(1, first.get(attachment(1, ITEM)).count());
+    Assert.assertEquals(1, writer.written.get(inst2).get(item(2, OTHER_ITEM)).count());
+    Assert.assertEquals(0, buffer.pendingCount(item(1, ITEM)));
+    Assert.assertEquals(0, buffer.pendingCount(attachment(1, ITEM)));
+  }
+
+  @Test
+  public void failedWritesAreRetriedOnTheNextFlush() {
+    buffer.increment(item(1, ITEM), inst1);
+    buffer.increment(item(1, ITEM), inst1);
+    writer.onWrite =
+        views -> {
+          throw new IllegalStateException("Database is down");
+        };
+
+    buffer.flush();
+    Assert.assertTrue(writer.written.isEmpty());
+    Assert.assertEquals(2, buffer.pendingCount(item(1, ITEM)));
+
+    writer.onWrite = null;
+    buffer.increment(item(1, ITEM), inst1);
+    buffer.flush();
+    Assert.assertEquals(3, writer.written.get(inst1).get(item(1, ITEM)).count());
+    Assert.assertEquals(0, buffer.pendingCount(item(1, ITEM)));
+  }
+
+  @Test
+  public void discardedViewsAreNotWritten() {
+    buffer.increment(item(1, ITEM), inst1);
+    buffer.increment(attachment(1, ITEM), inst1);
+    buffer.increment(item(1, OTHER_ITEM), inst1);
+    buffer.discard(1, UUID.fromString(ITEM), 1);
+    Assert.assertEquals(0, buffer.pendingCount(item(1, ITEM)));
+
+    buffer.flush();
+
+    Map<ViewKey, PendingViews> written = writer.written.get(inst1);
+    Assert.assertEquals(1, written.size());
+    Assert.assertTrue(written.containsKey(item(1, OTHER_ITEM)));
+    Assert.assertTrue(writer.deleted.isEmpty());
+  }
+
+  @Test
+  public void viewsOfItemsDiscardedDuringAFlushAreDeletedAgain() {
+    buffer.increment(item(1, ITEM), inst1);
+    writer.onWrite = views -> buffer.discard(1, UUID.fromString(ITEM), 1);
+
+    buffer.flush();
+
+    Assert.assertEquals(1, writer.deleted.size());
+    Assert.assertEquals(new DbUUID(UUID.fromString(ITEM)), writer.deleted.get(0)._1());
+    Assert.assertEquals(1, writer.deleted.get(0)._2());
+    Assert.assertEquals(0, buffer.pendingCount(item(1, ITEM)));
+  }
+
+  @Test
+  public void stopWritesPendingViews() {
+    buffer.increment(item(1, ITEM), inst1);
+    buffer.stop();
+    Assert.assertEquals(1, writer.written.get(inst1).get(item(1, ITEM)).count());
+  }
+
+  @Test
+  public void viewsAreAddedToTheStoredCount() {
+    Instant earlier = Instant.parse("2020-01-01T00:00:00Z");
+    Instant later = Instant.parse("2020-01-02T00:00:00Z");
+    PendingViews views = new PendingViews(2, earlier);
+
+    Assert.assertEquals(views, ViewCountBuffer.addToStored(Option.empty(), views));
+    Assert.assertEquals(
+        new PendingViews(7, later),
+        ViewCountBuffer.addToStored(Option.apply(new PendingViews(5, later)), views));
+    Assert.assertEquals(
+        new PendingViews(7, later),
+        ViewCountBuffer.addToStored(
+            Option.apply(new PendingViews(5, earlier)), new PendingViews(2, later)));
+  }
+
+  private static Institution institution(long id) {
+    Institution inst = new Institution();
+    inst.setDatabaseId(id);
+    inst.setUniqueId(id);
+    return inst;
+  }
+
+  private static ViewKey item(long inst, String uuid) {
+    return new ViewKey(inst, UUID.fromString(uuid), 1, Option.empty());
+  }
+
+  private static ViewKey attachment(long inst, String uuid) {
+    return new ViewKey(
+        inst, UUID.fromString(uuid), 1, Option.apply(new DbUUID(UUID.fromString(ATTACHMENT))));
+  }
+
+  private static class RecordingWriter implements ViewCountBuffer.Writer {
+    final Map<Institution, Map<ViewKey, PendingViews>> written = new HashMap<>();
+    final List<Tuple2<DbUUID, Object>> deleted = new ArrayList<>();
+    Consumer<List<Tuple2<ViewKey, PendingViews>>> onWrite;
+
+    @Override
+    public void addViews(Institution inst, Seq<Tuple2<ViewKey, PendingViews>> views) {
+      List<Tuple2<ViewKey, PendingViews>> batch = JavaConverters.seqAsJavaList(views);
+      if (onWrite != null) {
+        onWrite.accept(batch);
+      }
+      Map<ViewKey, PendingViews> stored = written.computeIfAbsent(inst, i -> new HashMap<>());
+      for (Tuple2<ViewKey, PendingViews> view : batch) {
+        stored.merge(view._1(), view._2(), PendingViews::$plus);
+      }
+    }
+
+    @Override
+    public void deleteViews(Institution inst, Seq<Tuple2<DbUUID, Object>> items) {
+      deleted.addAll(JavaConverters.seqAsJavaList(items));
+    }
+  }
+}
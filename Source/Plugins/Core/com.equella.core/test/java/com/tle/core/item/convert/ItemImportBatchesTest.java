@@ -0,0 +1,64 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.item.convert;
+
+import com.tle.core.item.convert.ItemImportBatches.ItemEntry;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class ItemImportBatchesTest {
+  @Test
+  public void readEntry() throws Exception {
+    String xml =
+        "<com.tle.beans.item.Item><id>12</id>"
+            + "<institution><uuid>not-this-one</uuid><version>7</version></institution>"
+            + "<uuid> 6ef1a1e4-ae7e-4a8c-a1ab-d2c0b4f5e7a3 </uuid><version>3</version>"
+            + "<owner>admin</owner></com.tle.beans.item.Item>";
+    ItemEntry entry =
+        ItemImportBatches.readEntry(
+            "1/12.xml", new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+    Assert.assertEquals("6ef1a1e4-ae7e-4a8c-a1ab-d2c0b4f5e7a3", entry.uuid);
+    Assert.assertEquals(3, entry.version);
+  }
+
+  @Test
+  public void versionsStayTogetherInOrder() {
+    List<ItemEntry> entries =
+        Arrays.asList(
+            new ItemEntry("a2.xml", "a", 2),
+            new ItemEntry("b1.xml", "b", 1),
+            new ItemEntry("a1.xml", "a", 1),
+            new ItemEntry("c1.xml", "c", 1),
+            new ItemEntry("bad.xml", null, 0),
+            new ItemEntry("a3.xml", "a", 3));
+
+    List<List<String>> batches = ItemImportBatches.partition(entries, 2);
+    Assert.assertEquals(
+        Arrays.asList(
+            Arrays.asList("a1.xml", "a2.xml", "a3.xml"),
+            Arrays.asList("b1.xml", "c1.xml"),
+            Arrays.asList("bad.xml")),
+        batches);
+  }
+}
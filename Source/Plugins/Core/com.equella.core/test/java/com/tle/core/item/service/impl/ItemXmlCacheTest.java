@@ -0,0 +1,85 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.item.service.impl;
+
+import com.dytech.devlib.PropBagEx;
+import com.dytech.devlib.ReadOnlyPropBag;
+import com.tle.beans.item.Item;
+import com.tle.beans.item.ItemXml;
+import java.util.Date;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class ItemXmlCacheTest {
+  private static final String XML = "<xml><item><name>Original</name></item></xml>";
+
+  private ItemXmlCache cache;
+  private Item item;
+
+  @Before
+  public void setUp() {
+    cache = new ItemXmlCache();
+    item = new Item();
+    item.setId(1);
+    item.setDateForIndex(new Date(1000));
+    item.setItemXml(new ItemXml(XML));
+  }
+
+  @Test
+  public void parsedOncePerIndexDate() {
+    ReadOnlyPropBag xml = cache.get(item);
+    Assert.assertEquals("Original", xml.getNode("item/name"));
+    Assert.assertSame(xml, cache.get(item));
+  }
+
+  @Test
+  public void modifiedCopiesAreNotShared() {
+    PropBagEx copy = cache.get(item).toPropBag();
+    copy.setNode("item/name", "Changed");
+
+    ReadOnlyPropBag cached = cache.get(item);
+    Assert.assertEquals("Original", cached.getNode("item/name"));
+    Assert.assertEquals("Original", cached.toPropBag().getNode("item/name"));
+  }
+
+  @Test
+  public void savedChangesAreSeen() {
+    ReadOnlyPropBag original = cache.get(item);
+
+    PropBagEx edited = original.toPropBag();
+    edited.setNode("item/name", "Saved");
+    item.getItemXml().setXml(edited.toString());
+    item.setDateForIndex(new Date(2000));
+
+    ReadOnlyPropBag saved = cache.get(item);
+    Assert.assertNotSame(original, saved);
+    Assert.assertEquals("Saved", saved.getNode("item/name"));
+    Assert.assertEquals("Original", original.getNode("item/name"));
+  }
+
+  @Test
+  public void unsavedItemsAreNotCached() {
+    item.setId(0);
+    ReadOnlyPropBag xml = cache.get(item);
+    Assert.assertEquals("Original", xml.getNode("item/name"));
+    Assert.assertNotSame(xml, cache.get(item));
+  }
+}
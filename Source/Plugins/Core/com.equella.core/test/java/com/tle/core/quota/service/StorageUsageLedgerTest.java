@@ -0,0 +1,114 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.quota.service;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class StorageUsageLedgerTest {
+  private static final List<String> DEFAULT_ONLY =
+      Collections.singletonList(StorageUsageLedger.DEFAULT_FILESTORE);
+
+  @Test
+  public void unknownUntilScanned() {
+    StorageUsageLedger ledger = new StorageUsageLedger();
+    ledger.add(1, null, 100);
+    Assert.assertNull(ledger.getUsage(1, DEFAULT_ONLY));
+    Assert.assertEquals(0, ledger.getReconciled(1, DEFAULT_ONLY));
+
+    reconcile(ledger, 1, null, 1000);
+    Assert.assertEquals(Long.valueOf(1000), ledger.getUsage(1, DEFAULT_ONLY));
+    Assert.assertTrue(ledger.getReconciled(1, DEFAULT_ONLY) > 0);
+    Assert.assertEquals(0, ledger.getDrift());
+  }
+
+  @Test
+  public void deltasPerInstitutionAndFilestore() {
+    StorageUsageLedger ledger = new StorageUsageLedger();
+    reconcile(ledger, 1, null, 1000);
+    reconcile(ledger, 1, "fast", 500);
+    reconcile(ledger, 2, null, 0);
+
+    ledger.add(1, null, 200);
+    ledger.add(1, "fast", -100);
+    ledger.add(2, null, 50);
+    ledger.add(2, null, 0);
+
+    Assert.assertEquals(Long.valueOf(1200), ledger.getUsage(1, DEFAULT_ONLY));
+    Assert.assertEquals(
+        Long.valueOf(1600),
+        ledger.getUsage(1, Arrays.asList(StorageUsageLedger.DEFAULT_FILESTORE, "fast")));
+    Assert.assertEquals(Long.valueOf(50), ledger.getUsage(2, DEFAULT_ONLY));
+    Assert.assertNull(ledger.getUsage(2, Arrays.asList("default", "fast")));
+    Assert.assertEquals(3, ledger.getUpdates());
+  }
+
+  @Test
+  public void recordedUsageBeforeTheFirstScan() {
+    StorageUsageLedger ledger = new StorageUsageLedger();
+    Assert.assertEquals(0, ledger.getRecordedUsage(1, DEFAULT_ONLY));
+    ledger.add(1, null, 100);
+    ledger.add(1, "fast", 50);
+    Assert.assertEquals(
+        150,
+        ledger.getRecordedUsage(1, Arrays.asList(StorageUsageLedger.DEFAULT_FILESTORE, "fast")));
+
+    reconcile(ledger, 1, null, 1000);
+    Assert.assertEquals(1000, ledger.getRecordedUsage(1, DEFAULT_ONLY));
+  }
+
+  @Test
+  public void deltasDuringAScanAreKept() {
+    StorageUsageLedger ledger = new StorageUsageLedger();
+    reconcile(ledger, 1, null, 1000);
+    ledger.add(1, null, 100);
+
+    long mark = ledger.startScan(1, null);
+    // Written while the scan walks the folders
+    ledger.add(1, null, 300);
+    ledger.add(1, null, -50);
+    Assert.assertEquals(0, ledger.reconcile(1, null, 1100, mark));
+
+    Assert.assertEquals(Long.valueOf(1350), ledger.getUsage(1, DEFAULT_ONLY));
+    Assert.assertEquals(0, ledger.getDrift());
+  }
+
+  @Test
+  public void scanCorrectsDrift() {
+    StorageUsageLedger ledger = new StorageUsageLedger();
+    reconcile(ledger, 1, null, 1000);
+    ledger.add(1, null, 300);
+
+    // Some of the files were written by another node
+    Assert.assertEquals(200, reconcile(ledger, 1, null, 1500));
+    Assert.assertEquals(Long.valueOf(1500), ledger.getUsage(1, DEFAULT_ONLY));
+    Assert.assertEquals(200, ledger.getDrift());
+    Assert.assertEquals(2, ledger.getReconciliations());
+  }
+
+  private static long reconcile(
+      StorageUsageLedger ledger, long institutionId, String filestoreId, long bytes) {
+    return ledger.reconcile(
+        institutionId, filestoreId, bytes, ledger.startScan(institutionId, filestoreId));
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.scripting;
+
+import com.dytech.devlib.PropBagEx;
+import com.dytech.edge.common.PropBagWrapper;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextFactory;
+import org.mozilla.javascript.EvaluatorException;
+import org.mozilla.javascript.ImporterTopLevel;
+import org.mozilla.javascript.Script;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+
+/**
+ * Checks that a wizard control visibility script gives the same answers run the old way, with new
+ * standard objects and an interpreted evaluation every time, as it does in the shared sealed scope,
+ * both interpreted and compiled to bytecode.
+ */
+@SuppressWarnings("nls")
+public class SharedScopeTest {
+  private static final String VISIBILITY_SCRIPT =
+      "function runScript() {\n"
+          + "var type = xml.get('item/type');\n"
+          + "if (type == 'Book') {\n"
+          + "  return xml.contains('item/keywords/keyword', 'science')\n"
+          + "    || xml.count('item/authors/author') > 2;\n"
+          + "}\n"
+          + "return xml.exists('item/description') && type != 'Journal';\n"
+          + "}\n runScript();";
+
+  private static final String[] ITEMS = {
+    "<xml><item><type>Book</type><keywords><keyword>science</keyword></keywords></item></xml>",
+    "<xml><item><type>Book</type><authors><author>a</author></authors></item></xml>",
+    "<xml><item><type>Article</type><description>d</description></item></xml>",
+    "<xml><item><type>Journal</type><description>d</description></item></xml>"
+  };
+
+  @Test
+  public void sameAnswersInSharedScope() {
+    final ScriptableObject sharedScope =
+        (ScriptableObject) ContextFactory.getGlobal().call(DefaultScriptContext::createSharedScope);
+
+    Assert.assertEquals("undefined", evaluate(sharedScope, "typeof Packages"));
+    Assert.assertEquals("undefined", evaluate(sharedScope, "typeof java"));
+    Assert.assertTrue(sharedScope.isSealed());
+
+    final Script interpreted = compile(VISIBILITY_SCRIPT, -1);
+    final Script bytecode = compile(VISIBILITY_SCRIPT, 9);
+    for (int i = 0; i < ITEMS.length; i++) {
+      final Object expected = runUncached(i);
+      Assert.assertEquals(ITEMS[i], expected, run(sharedScope, interpreted, i));
+      Assert.assertEquals(ITEMS[i], expected, run(sharedScope, bytecode, i));
+    }
+  }
+
+  @Test
+  public void prototypesCanOnlyBeModifiedInUnsealedScopes() {
+    final String script =
+        "Array.prototype.first = function() { return this[0]; };\n[5, 6].first();";
+    final ScriptableObject sharedScope =
+        (ScriptableObject) ContextFactory.getGlobal().call(DefaultScriptContext::createSharedScope);
+    try {
+      evaluate(sharedScope, script);
+      Assert.fail("The shared scope should be sealed");
+    } catch (EvaluatorException e) {
+      // expected
+    }
+    Assert.assertEquals("undefined", evaluate(sharedScope, "typeof Array.prototype.first"));
+
+    Assert.assertEquals("5", evaluate(createUnsealedScope(), script));
+    Assert.assertEquals("undefined", evaluate(createUnsealedScope(), "typeof Packages"));
+    Assert.assertEquals(
+        "undefined", evaluate(createUnsealedScope(), "typeof Array.prototype.first"));
+  }
+
+  private static ScriptableObject createUnsealedScope() {
+    return (ScriptableObject)
+        ContextFactory.getGlobal().call(cx -> DefaultScriptContext.createStandardScope(cx, false));
+  }
+
+  private static DefaultScriptContext createContext(int item) {
+    Map<String, Object> scriptObjects = new HashMap<String, Object>();
+    PropBagWrapper xml = new PropBagWrapper(new PropBagEx(ITEMS[item]));
+    scriptObjects.put("xml", xml);
+    return new DefaultScriptContext(scriptObjects, new HashMap<String, Object>(), xml);
+  }
+
+  private static Script compile(String script, int optimizationLevel) {
+    return (Script)
+        ContextFactory.getGlobal()
+            .call(
+                cx -> {
+                  cx.setOptimizationLevel(optimizationLevel);
+                  return cx.compileString(script, "visibility", 1, null);
+                });
+  }
+
+  /** As scripts were run before the shared scope, apart from the module loading */
+  private static Object runUncached(int item) {
+    final DefaultScriptContext context = createContext(item);
+    return ContextFactory.getGlobal()
+        .call(
+            cx -> {
+              cx.setOptimizationLevel(-1);
+              cx.initStandardObjects();
+              Scriptable scope = new ImporterTopLevel(cx);
+              for (Map.Entry<String, Object> entry : context.getScriptObjects().entrySet()) {
+                scope.put(entry.getKey(), scope, Context.toObject(entry.getValue(), scope));
+              }
+              return Context.toString(
+                  cx.evaluateString(scope, VISIBILITY_SCRIPT, "visibility", 1, null));
+            });
+  }
+
+  private static Object run(ScriptableObject sharedScope, Script script, int item) {
+    final DefaultScriptContext context = createContext(item);
+    return ContextFactory.getGlobal()
+        .call(
+            cx -> {
+              Scriptable scope = context.getScope(cx, sharedScope);
+              return Context.toString(script.exec(cx, scope));
+            });
+  }
+
+  private static Object evaluate(ScriptableObject sharedScope, String source) {
+    return run(sharedScope, compile(source, -1), 0);
+  }
+}
@@ -0,0 +1,179 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.security.impl;
+
+import com.google.common.cache.CacheLoader;
+import com.google.common.collect.ImmutableMultimap;
+import com.tle.beans.Institution;
+import com.tle.common.institution.CurrentInstitution;
+import com.tle.core.dao.AclDao;
+import com.tle.core.events.ApplicationEvent;
+import com.tle.core.events.services.EventService;
+import com.tle.core.institution.InstitutionService;
+import com.tle.core.institution.events.InstitutionEvent;
+import com.tle.core.institution.events.InstitutionEvent.InstitutionEventType;
+import com.tle.core.institution.impl.InstitutionCacheImpl;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Checks that ACLs written behind the manager's back are seen as soon as it is told. */
+@SuppressWarnings("nls")
+public class AclDecisionCacheTest {
+  private static final String PRIV = "DISCOVER_ITEM";
+  private static final String TARGET = "C:1:";
+  private static final List<Long> EXPRESSIONS = Arrays.asList(1L, 2L);
+
+  private final Institution institution = institution(1);
+  private final List<Object[]> rows = new ArrayList<Object[]>();
+  private final List<ApplicationEvent<?>> published = new ArrayList<ApplicationEvent<?>>();
+  private int queries;
+
+  private TLEAclManagerImpl aclManager;
+
+  @Before
+  public void setUp() {
+    aclManager = new TLEAclManagerImpl();
+    aclManager.aclDao = fake(AclDao.class, this::getPrivilegesForTargets);
+    aclManager.eventService =
+        fake(
+            EventService.class,
+            args -> {
+              published.add((ApplicationEvent<?>) args[args.length - 1]);
+              return null;
+            });
+    aclManager.setInstitutionService(
+        fake(InstitutionService.class, args -> newInstitutionCache((CacheLoader<?, ?>) args[0])));
+    CurrentInstitution.set(institution);
+  }
+
+  @After
+  public void tearDown() {
+    CurrentInstitution.remove();
+  }
+
+  @Test
+  public void decisionsAreCached() {
+    grant("0100G");
+    Assert.assertEquals("0100G", decide());
+    Assert.assertEquals("0100G", decide());
+    Assert.assertEquals(1, queries);
+  }
+
+  @Test
+  public void importedAclsAreSeenImmediately() {
+    grant("0100G");
+    Assert.assertEquals("0100G", decide());
+
+    // What AclConverter does after saving the imported entries through the DAO
+    grant("0200R");
+    aclManager.invalidateDecisionCache(institution);
+
+    Assert.assertEquals("0200R", decide());
+    Assert.assertEquals(2, queries);
+    Assert.assertEquals(1, published.size());
+    Assert.assertTrue(published.get(0) instanceof AclChangedEvent);
+  }
+
+  @Test
+  public void deletedAclsAreSeenImmediately() {
+    grant("0100G");
+    Assert.assertEquals("0100G", decide());
+
+    rows.clear();
+    aclManager.invalidateDecisionCache(institution);
+
+    Assert.assertNull(decide());
+  }
+
+  @Test
+  public void migratedAclsAreSeenWhenTheInstitutionIsAvailable() {
+    grant("0100G");
+    Assert.assertEquals("0100G", decide());
+
+    grant("0200R");
+    aclManager.institutionEvent(
+        new InstitutionEvent(
+            InstitutionEventType.AVAILABLE, ImmutableMultimap.of(1L, institution)));
+
+    Assert.assertEquals("0200R", decide());
+    Assert.assertTrue("Nothing changed on the other nodes", published.isEmpty());
+  }
+
+  @Test
+  public void otherInstitutionsKeepTheirDecisions() {
+    grant("0100G");
+    Assert.assertEquals("0100G", decide());
+
+    grant("0200R");
+    aclManager.invalidateDecisionCache(institution(2));
+
+    Assert.assertEquals("0100G", decide());
+    Assert.assertEquals(1, queries);
+  }
+
+  /** The ordering of the winning entry, or null if no entry applies. */
+  private String decide() {
+    List<Object[]> results =
+        aclManager.getPrivilegesForTargets(
+            Collections.singleton(PRIV), Collections.singleton(TARGET), EXPRESSIONS);
+    return results.isEmpty() ? null : (String) results.get(0)[0];
+  }
+
+  private void grant(String ordering) {
+    rows.clear();
+    rows.add(new Object[] {ordering, PRIV, TARGET});
+  }
+
+  private List<Object[]> getPrivilegesForTargets(Object[] args) {
+    queries++;
+    return new ArrayList<Object[]>(rows);
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private static Object newInstitutionCache(CacheLoader<?, ?> loader) {
+    return new InstitutionCacheImpl((CacheLoader<Institution, ?>) loader);
+  }
+
+  private static Institution institution(long id) {
+    Institution inst = new Institution();
+    inst.setDatabaseId(id);
+    inst.setUniqueId(id);
+    return inst;
+  }
+
+  /** Every method of the interface answers with the given function. */
+  private static <T> T fake(Class<T> type, Answer answer) {
+    return type.cast(
+        Proxy.newProxyInstance(
+            type.getClassLoader(),
+            new Class<?>[] {type},
+            (proxy, method, args) -> answer.apply(args == null ? new Object[0] : args)));
+  }
+
+  private interface Answer {
+    Object apply(Object[] args);
+  }
+}
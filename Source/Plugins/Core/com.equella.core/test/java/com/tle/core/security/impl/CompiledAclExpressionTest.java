@@ -0,0 +1,131 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.security.impl;
+
+import static com.tle.common.security.SecurityConstants.getRecipient;
+
+import com.tle.beans.user.TLEUser;
+import com.tle.common.security.SecurityConstants.Recipient;
+import com.tle.common.usermanagement.user.DefaultUserState;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks that compiled expressions agree with the string evaluator over a few thousand random
+ * expressions, for a number of logins.
+ */
+@SuppressWarnings("nls")
+public class CompiledAclExpressionTest {
+  private static final int EXPRESSIONS = 2000;
+  private static final int LOGINS = 20;
+
+  @Test
+  public void agreesWithEvaluator() {
+    Random random = new Random(42);
+    List<String> expressions = new ArrayList<String>();
+    for (int i = 0; i < EXPRESSIONS; i++) {
+      expressions.add(randomExpression(random, 1 + random.nextInt(4)));
+    }
+    expressions.add(getRecipient(Recipient.IP_ADDRESS, "10.0.0.0/8"));
+    expressions.add(getRecipient(Recipient.HTTP_REFERRER, "*example.com*"));
+    expressions.add(getRecipient(Recipient.HTTP_REFERRER, "http://other.org/"));
+
+    List<DefaultUserState> users = new ArrayList<DefaultUserState>();
+    for (int i = 0; i < LOGINS; i++) {
+      users.add(randomUser(random, i));
+    }
+
+    List<CompiledAclExpression> compiled = new ArrayList<CompiledAclExpression>();
+    for (String expression : expressions) {
+      compiled.add(CompiledAclExpression.compile(expression));
+    }
+
+    // Check every combination
+    int matches = 0;
+    for (DefaultUserState user : users) {
+      AclExpressionEvaluator evaluator = new AclExpressionEvaluator();
+      CompiledAclExpression.Subject subject = new CompiledAclExpression.Subject(user);
+      for (int i = 0; i < expressions.size(); i++) {
+        for (boolean owner : new boolean[] {true, false}) {
+          for (boolean ipRefer : new boolean[] {true, false}) {
+            boolean expected = evaluator.evaluate(expressions.get(i), user, owner, ipRefer);
+            Assert.assertEquals(
+                expressions.get(i), expected, compiled.get(i).evaluate(subject, owner, ipRefer));
+            if (expected) {
+              matches++;
+            }
+          }
+        }
+      }
+    }
+    Assert.assertTrue(matches > 0);
+  }
+
+  private static String randomExpression(Random random, int depth) {
+    if (depth == 0) {
+      switch (random.nextInt(6)) {
+        case 0:
+          return getRecipient(Recipient.GROUP, "group " + random.nextInt(200));
+        case 1:
+          return getRecipient(Recipient.ROLE, "role" + random.nextInt(50));
+        case 2:
+          return getRecipient(Recipient.USER, "user" + random.nextInt(LOGINS));
+        case 3:
+          return getRecipient(Recipient.OWNER);
+        case 4:
+          return getRecipient(Recipient.EVERYONE);
+        default:
+          return getRecipient(Recipient.GROUP, "group " + random.nextInt(200));
+      }
+    }
+    switch (random.nextInt(3)) {
+      case 0:
+        return randomExpression(random, depth - 1) + " NOT";
+      case 1:
+        return randomExpression(random, depth - 1)
+            + ' '
+            + randomExpression(random, depth - 1)
+            + " AND";
+      default:
+        return randomExpression(random, depth - 1)
+            + ' '
+            + randomExpression(random, depth - 1)
+            + " OR";
+    }
+  }
+
+  private static DefaultUserState randomUser(Random random, int index) {
+    TLEUser user = new TLEUser();
+    user.setUuid("user" + index);
+    DefaultUserState state = new DefaultUserState();
+    state.setLoggedInUser(user);
+    for (int i = 0; i < 20; i++) {
+      state.getUsersGroups().add("group " + random.nextInt(200));
+    }
+    for (int i = 0; i < 3; i++) {
+      state.getUsersRoles().add("role" + random.nextInt(50));
+    }
+    state.setIpAddress("10.1.2." + index);
+    state.setHostReferrer(index % 2 == 0 ? "http://www.Example.com/page" : null);
+    return state;
+  }
+}
@@ -0,0 +1,159 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.taxonomy.impl;
+
+import com.tle.common.Pair;
+import com.tle.common.taxonomy.SelectionRestriction;
+import com.tle.core.taxonomy.TermResult;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class TermIndexTest {
+  /**
+   * Animals\Birds\Eagle, Animals\Birds\Sparrow, Animals\Mammals\Dog, Animals\Mammals\Cat, Plants,
+   * Plants\Trees\Oak
+   */
+  private static TermIndex sample() {
+    return TermIndex.fromNestedSet(
+        new String[] {
+          "Animals", "Birds", "Eagle", "Sparrow", "Mammals", "Dog", "Cat", "Plants", "Trees", "Oak"
+        },
+        new int[] {1, 2, 3, 5, 8, 9, 11, 15, 16, 17},
+        new int[] {14, 7, 4, 6, 13, 10, 12, 20, 19, 18});
+  }
+
+  @Test
+  public void fromNestedSet() {
+    TermIndex index = sample();
+    Assert.assertEquals(10, index.size());
+    Assert.assertEquals("Animals\\Mammals\\Cat", index.getFullPath(6));
+    Assert.assertEquals("Plants", index.getFullPath(7));
+    Assert.assertEquals(6, index.find("Animals\\Mammals\\Cat"));
+    Assert.assertEquals(6, index.find("\\Animals\\Mammals\\Cat"));
+    Assert.assertEquals(-1, index.find("Animals\\Cat"));
+  }
+
+  @Test
+  public void prefixAndInfix() {
+    TermIndex index = sample();
+    Assert.assertEquals(Arrays.asList("Oak"), values(search(index, "o*", false)));
+    Assert.assertEquals(
+        Arrays.asList("Animals", "Mammals", "Plants"), values(search(index, "*a*s*", false)));
+    Assert.assertEquals(Arrays.asList("Mammals"), values(search(index, "*AMMAL*", false)));
+    Assert.assertEquals(Arrays.asList("Cat"), values(search(index, "c_t", false)));
+    Assert.assertEquals(Arrays.asList("Dog"), values(search(index, "dog", false)));
+    Assert.assertTrue(values(search(index, "*xyz*", false)).isEmpty());
+  }
+
+  @Test
+  public void fullTerms() {
+    TermIndex index = sample();
+    Pair<Long, List<TermResult>> results = search(index, "*mammals*", true);
+    Assert.assertEquals(3, results.getFirst().longValue());
+    Assert.assertEquals(
+        Arrays.asList("Animals\\Mammals", "Animals\\Mammals\\Cat", "Animals\\Mammals\\Dog"),
+        paths(results));
+    Assert.assertEquals(
+        Arrays.asList("Plants\\Trees\\Oak"), paths(search(index, "plants\\*\\oak", true)));
+  }
+
+  @Test
+  public void restrictionsAndLimits() {
+    TermIndex index = sample();
+    Assert.assertEquals(
+        Arrays.asList("Animals", "Plants"),
+        values(index.search("*", SelectionRestriction.TOP_LEVEL_ONLY, -1, false)));
+    Assert.assertEquals(
+        Arrays.asList("Cat", "Dog", "Eagle", "Oak", "Sparrow"),
+        values(index.search("*", SelectionRestriction.LEAF_ONLY, -1, false)));
+
+    Pair<Long, List<TermResult>> limited =
+        index.search("*a*", SelectionRestriction.UNRESTRICTED, 2, false);
+    Assert.assertEquals(7, limited.getFirst().longValue());
+    Assert.assertEquals(Arrays.asList("Animals", "Cat"), values(limited));
+    Assert.assertTrue(
+        index.search("*", SelectionRestriction.UNRESTRICTED, 0, false).getSecond().isEmpty());
+  }
+
+  @Test
+  public void addAndRename() {
+    TermIndex index = sample().withTermAdded("Animals\\Birds", "Owl");
+    Assert.assertEquals(11, index.size());
+    Assert.assertEquals(Arrays.asList("Animals\\Birds\\Owl"), paths(search(index, "*owl", true)));
+    Assert.assertTrue(search(index, "*owl*", false).getSecond().get(0).isLeaf());
+    Assert.assertFalse(search(index, "plants", false).getSecond().get(0).isLeaf());
+    Assert.assertSame(index, index.withTermAdded("Animals\\Birds", "Owl"));
+    Assert.assertNull(index.withTermAdded("Fungi", "Mushroom"));
+
+    index = index.withTermAdded(null, "Fungi");
+    Assert.assertEquals("Fungi", index.getFullPath(index.find("Fungi")));
+
+    index = index.withTermRenamed("Animals\\Mammals", "Mammalia");
+    Assert.assertEquals(
+        Arrays.asList("Animals\\Mammalia\\Cat"), paths(search(index, "*\\cat", true)));
+    Assert.assertNull(index.withTermRenamed("Animals\\Mammals", "Mammalia"));
+  }
+
+  @Test
+  public void moveAndDelete() {
+    TermIndex index = sample().withTermMoved("Animals\\Birds", "Plants\\Trees");
+    Assert.assertEquals(
+        Arrays.asList("Plants\\Trees\\Birds\\Eagle"), paths(search(index, "*eagle", true)));
+    Assert.assertEquals(
+        Arrays.asList("Animals\\Mammals\\Dog"), paths(search(index, "*dog", true)));
+    Assert.assertNull(index.withTermMoved("Plants", "Plants\\Trees"));
+
+    index = index.withTermMoved("Animals\\Mammals", null);
+    Assert.assertEquals(Arrays.asList("Mammals\\Cat"), paths(search(index, "*cat", true)));
+    Assert.assertEquals(
+        Arrays.asList("Animals", "Mammals", "Plants"),
+        values(index.search("*", SelectionRestriction.TOP_LEVEL_ONLY, -1, false)));
+
+    index = index.withTermDeleted("Plants\\Trees");
+    Assert.assertEquals(5, index.size());
+    Assert.assertTrue(search(index, "*eagle*", true).getSecond().isEmpty());
+    Assert.assertEquals(Arrays.asList("Mammals\\Dog"), paths(search(index, "*dog", true)));
+    Assert.assertSame(index, index.withTermDeleted("Plants\\Trees"));
+  }
+
+  private static Pair<Long, List<TermResult>> search(
+      TermIndex index, String query, boolean searchFullTerms) {
+    return index.search(query, SelectionRestriction.UNRESTRICTED, -1, searchFullTerms);
+  }
+
+  private static List<String> values(Pair<Long, List<TermResult>> results) {
+    List<String> values = new ArrayList<String>();
+    for (TermResult result : results.getSecond()) {
+      values.add(result.getTerm());
+    }
+    return values;
+  }
+
+  private static List<String> paths(Pair<Long, List<TermResult>> results) {
+    List<String> paths = new ArrayList<String>();
+    for (TermResult result : results.getSecond()) {
+      paths.add(result.getFullTerm());
+    }
+    return paths;
+  }
+}
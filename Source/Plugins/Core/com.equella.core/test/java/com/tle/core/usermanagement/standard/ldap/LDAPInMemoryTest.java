@@ -0,0 +1,387 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.usermanagement.standard.ldap;
+
+import com.tle.beans.usermanagement.standard.LDAPSettings;
+import com.tle.common.usermanagement.user.valuebean.GroupBean;
+import com.tle.common.usermanagement.user.valuebean.UserBean;
+import com.tle.core.encryption.EncryptionService;
+import com.unboundid.ldap.listener.InMemoryDirectoryServer;
+import com.unboundid.ldap.listener.InMemoryDirectoryServerConfig;
+import com.unboundid.ldap.listener.interceptor.InMemoryInterceptedSearchRequest;
+import com.unboundid.ldap.listener.interceptor.InMemoryOperationInterceptor;
+import com.unboundid.ldap.sdk.LDAPException;
+import com.unboundid.ldap.sdk.ResultCode;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import javax.naming.CommunicationException;
+import javax.naming.NamingEnumeration;
+import javax.naming.directory.DirContext;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class LDAPInMemoryTest {
+  private static final String BASE = "dc=example,dc=com";
+  private static final String ADMIN = "cn=admin," + BASE;
+  private static final int USERS = 250;
+
+  private final AtomicLong searches = new AtomicLong();
+  private volatile boolean unavailable;
+  private InMemoryDirectoryServer server;
+  private LDAP ldap;
+
+  @Before
+  public void startServer() throws Exception {
+    InMemoryDirectoryServerConfig config = new InMemoryDirectoryServerConfig(BASE);
+    config.addAdditionalBindCredentials(ADMIN, "password");
+    config.addInMemoryOperationInterceptor(
+        new InMemoryOperationInterceptor() {
+          @Override
+          public void processSearchRequest(InMemoryInterceptedSearchRequest request)
+              throws LDAPException {
+            searches.incrementAndGet();
+            if (unavailable) {
+              throw new LDAPException(ResultCode.UNAVAILABLE);
+            }
+          }
+        });
+    server = new InMemoryDirectoryServer(config);
+    server.startListening();
+
+    server.add("dn: " + BASE, "objectClass: domain", "dc: example");
+    server.add("dn: ou=people," + BASE, "objectClass: organizationalUnit", "ou: people");
+    server.add("dn: ou=groups," + BASE, "objectClass: organizationalUnit", "ou: groups");
+    for (int i = 0; i < USERS; i++) {
+      server.add(
+          "dn: uid=user" + i + ",ou=people," + BASE,
+          "objectClass: inetOrgPerson",
+          "uid: user" + i,
+          "cn: User " + i,
+          "givenName: User",
+          "sn: " + i,
+          "mail: user" + i + "@example.com");
+    }
+    // staff and admins are both in everyone, so everyone is reached twice from user0
+    server.add(group("everyone", group("staff"), group("admins")));
+    server.add(group("staff", user(0), user(1)));
+    server.add(group("admins", user(0)));
+    server.add(group("unrelated", user(2)));
+
+    LDAPSettings settings = new LDAPSettings();
+    settings.setUrl("ldap://localhost:" + server.getListenPort());
+    settings.setBases(Collections.singletonList(BASE));
+    settings.setAdminUsername(ADMIN);
+    settings.setAdminPassword("password");
+    settings.setPersonObject("inetOrgPerson");
+    settings.setGroupObject("groupOfNames");
+    Map<String, String> attributes = new HashMap<String, String>();
+    attributes.put("id", "uid");
+    attributes.put("username", "uid");
+    attributes.put("givenname", "givenName");
+    attributes.put("surname", "sn");
+    attributes.put("email", "mail");
+    attributes.put("groupId", "cn");
+    attributes.put("groupName", "cn");
+    attributes.put("member", "member");
+    settings.setAttributes(attributes);
+
+    ldap = new LDAP(settings, new PlainEncryptionService());
+  }
+
+  @After
+  public void stopServer() {
+    server.shutDown(true);
+  }
+
+  @Test
+  public void fetchManyUsers() {
+    List<String> ids = new ArrayList<String>();
+    for (int i = 0; i < USERS; i++) {
+      ids.add("user" + i);
+    }
+    ids.add("USER7");
+    ids.add("nobody");
+
+    long searchesBefore = searches();
+    Map<String, UserBean> users = ldap.doAsAdmin(ctx -> ldap.getUserBeans(ctx, ids));
+    Assert.assertEquals(USERS + 1, users.size());
+    Assert.assertEquals("user7", users.get("USER7").getUniqueID());
+    Assert.assertEquals("user42@example.com", users.get("user42").getEmailAddress());
+    Assert.assertFalse(users.containsKey("nobody"));
+
+    int batches = (ids.size() + LDAP.BATCH_SIZE - 1) / LDAP.BATCH_SIZE;
+    Assert.assertEquals(batches, searches() - searchesBefore);
+  }
+
+  @Test
+  public void fetchManyGroups() {
+    Map<String, GroupBean> groups =
+        ldap.doAsAdmin(
+            ctx -> ldap.getGroupBeans(ctx, Arrays.asList("staff", "admins", "missing")));
+    Assert.assertEquals(new TreeSet<String>(Arrays.asList("staff", "admins")), groups.keySet());
+    Assert.assertEquals("staff", groups.get("staff").getName());
+  }
+
+  @Test
+  public void nestedGroups() {
+    Assert.assertEquals(
+        new TreeSet<String>(Arrays.asList("staff", "admins", "everyone")), groupsOf("user0"));
+    Assert.assertEquals(new TreeSet<String>(Arrays.asList("staff", "everyone")), groupsOf("user1"));
+    Assert.assertEquals(Collections.singleton("unrelated"), groupsOf("user2"));
+    Assert.assertTrue(groupsOf("user3").isEmpty());
+
+    // One search for the user, one for its groups and one for the parents of each group, even
+    // though everyone is reached through both staff and admins
+    long searchesBefore = searches();
+    groupsOf("user0");
+    Assert.assertEquals(5, searches() - searchesBefore);
+  }
+
+  @Test
+  public void boundedPool() throws Exception {
+    LDAPConnectionPool pool = new LDAPConnectionPool(ldap::bindAsAdmin, 3, 60000, 10000);
+    ldap.setConnectionPool(pool);
+
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<Set<String>>> results = new ArrayList<Future<Set<String>>>();
+      for (int i = 0; i < 40; i++) {
+        results.add(executor.submit(() -> groupsOf("user0")));
+      }
+      for (Future<Set<String>> result : results) {
+        Assert.assertEquals(3, result.get().size());
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    Assert.assertTrue(pool.getCreated() <= 3);
+    Assert.assertEquals(40, pool.getBorrowed());
+    Assert.assertEquals(0, pool.getActive());
+    Assert.assertEquals(pool.getCreated(), pool.getIdle());
+
+    pool.close();
+    Assert.assertEquals(0, pool.getIdle());
+  }
+
+  @Test
+  public void cacheUnknownIds() {
+    LDAPLookupCache<UserBean> cache = new LDAPLookupCache<UserBean>(600, 60, 100);
+    AtomicInteger loads = new AtomicInteger();
+    for (int i = 0; i < 3; i++) {
+      Map<String, UserBean> users =
+          cache.getAll(
+              Arrays.asList("user1", "nobody"),
+              ids -> {
+                loads.incrementAndGet();
+                return ldap.doAsAdmin(ctx -> ldap.getUserBeans(ctx, ids));
+              });
+      Assert.assertEquals(Collections.singleton("user1"), users.keySet());
+    }
+    Assert.assertEquals(1, loads.get());
+    Assert.assertEquals(2, cache.getHits());
+    Assert.assertEquals(2, cache.getNegativeHits());
+
+    cache.invalidate("nobody");
+    cache.getAll(Collections.singleton("nobody"), ids -> Collections.emptyMap());
+    Assert.assertEquals(3, cache.getMisses());
+  }
+
+  @Test
+  public void failedLookupsAreNotCached() {
+    LDAPConnectionPool pool = new LDAPConnectionPool(ldap::bindAsAdmin, 2, 60000, 10000);
+    ldap.setConnectionPool(pool);
+    LDAPLookupCache<UserBean> cache = new LDAPLookupCache<UserBean>(600, 60, 100);
+    AtomicInteger loads = new AtomicInteger();
+    Function<Collection<String>, Map<String, UserBean>> loader =
+        ids -> {
+          loads.incrementAndGet();
+          return ldap.doAsAdmin(ctx -> ldap.getUserBeans(ctx, ids));
+        };
+
+    unavailable = true;
+    try {
+      cache.getAll(Collections.singleton("user1"), loader);
+      Assert.fail("The directory was unavailable");
+    } catch (RuntimeException e) {
+      // Expected
+    }
+    // The context which failed isn't returned to the pool
+    Assert.assertEquals(1, pool.getDiscarded());
+    Assert.assertEquals(0, pool.getIdle());
+
+    unavailable = false;
+    Map<String, UserBean> users = cache.getAll(Collections.singleton("user1"), loader);
+    Assert.assertEquals(Collections.singleton("user1"), users.keySet());
+    Assert.assertEquals(2, loads.get());
+    Assert.assertEquals(0, cache.getNegativeHits());
+    pool.close();
+  }
+
+  @Test
+  public void brokenContextsAreNotReused() throws Exception {
+    AtomicBoolean dropSearch = new AtomicBoolean();
+    AtomicBoolean dropRead = new AtomicBoolean();
+    LDAPConnectionPool pool =
+        new LDAPConnectionPool(
+            () -> dropping(ldap.bindAsAdmin(), dropSearch, dropRead), 2, 60000, 10000);
+    ldap.setConnectionPool(pool);
+    Assert.assertEquals(Collections.singletonList("user1"), findUser("user1"));
+    Assert.assertEquals(1, pool.getIdle());
+
+    // A lost connection must not look like the user doesn't exist
+    dropSearch.set(true);
+    try {
+      findUser("user1");
+      Assert.fail("The connection was lost");
+    } catch (RuntimeException e) {
+      // Expected
+    }
+    dropSearch.set(false);
+    Assert.assertEquals(1, pool.getDiscarded());
+    Assert.assertEquals(0, pool.getIdle());
+
+    // Errors reading the results are logged and the search carries on, but the context is still
+    // discarded
+    findUser("user1");
+    dropRead.set(true);
+    Assert.assertTrue(findUser("user1").isEmpty());
+    dropRead.set(false);
+    Assert.assertEquals(2, pool.getDiscarded());
+    Assert.assertEquals(0, pool.getIdle());
+
+    Assert.assertEquals(Collections.singletonList("user1"), findUser("user1"));
+    Assert.assertEquals(3, pool.getCreated());
+    pool.close();
+  }
+
+  private List<String> findUser(String userId) {
+    List<UserBean> users =
+        ldap.doAsAdmin(
+            ctx ->
+                ldap.searchAllBases(
+                    ctx, ldap.getUserIDFilter(userId), new LDAP.UserBeanHitsCollector(), true));
+    List<String> ids = new ArrayList<String>();
+    for (UserBean user : users) {
+      ids.add(user.getUniqueID());
+    }
+    return ids;
+  }
+
+  /** A context whose connection drops when searching or reading the results, as requested */
+  private static DirContext dropping(
+      DirContext ctx, AtomicBoolean dropSearch, AtomicBoolean dropRead) {
+    ClassLoader loader = LDAPInMemoryTest.class.getClassLoader();
+    return (DirContext)
+        Proxy.newProxyInstance(
+            loader,
+            new Class<?>[] {DirContext.class},
+            (proxy, method, args) -> {
+              if (!method.getName().equals("search")) {
+                return invoke(ctx, method, args);
+              }
+              if (dropSearch.get()) {
+                throw new CommunicationException("Connection closed");
+              }
+              Object results = invoke(ctx, method, args);
+              return Proxy.newProxyInstance(
+                  loader,
+                  new Class<?>[] {NamingEnumeration.class},
+                  (enumProxy, enumMethod, enumArgs) -> {
+                    if (dropRead.get() && enumMethod.getName().equals("next")) {
+                      throw new CommunicationException("Connection closed");
+                    }
+                    return invoke(results, enumMethod, enumArgs);
+                  });
+            });
+  }
+
+  private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+    try {
+      return method.invoke(target, args);
+    } catch (InvocationTargetException e) {
+      throw e.getCause();
+    }
+  }
+
+  private Set<String> groupsOf(String userId) {
+    Collection<GroupBean> groups =
+        ldap.doAsAdmin(ctx -> ldap.getGroupSearch().getGroupsContainingUser(ctx, userId));
+    Set<String> ids = new TreeSet<String>();
+    for (GroupBean group : groups) {
+      ids.add(group.getUniqueID());
+    }
+    return ids;
+  }
+
+  private long searches() {
+    return searches.get();
+  }
+
+  private static String user(int index) {
+    return "uid=user" + index + ",ou=people," + BASE;
+  }
+
+  private static String group(String name) {
+    return "cn=" + name + ",ou=groups," + BASE;
+  }
+
+  private static String[] group(String name, String... members) {
+    List<String> ldif = new ArrayList<String>();
+    ldif.add("dn: " + group(name));
+    ldif.add("objectClass: groupOfNames");
+    ldif.add("cn: " + name);
+    for (String member : members) {
+      ldif.add("member: " + member);
+    }
+    return ldif.toArray(new String[ldif.size()]);
+  }
+
+  private static class PlainEncryptionService implements EncryptionService {
+    @Override
+    public String encrypt(String value) {
+      return value;
+    }
+
+    @Override
+    public String decrypt(String value) {
+      return value;
+    }
+  }
+}
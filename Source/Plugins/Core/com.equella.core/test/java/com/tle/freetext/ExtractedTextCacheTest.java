@@ -0,0 +1,132 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.freetext;
+
+import com.tle.beans.mime.MimeEntry;
+import com.tle.core.TextExtracterExtension;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+@SuppressWarnings("nls")
+public class ExtractedTextCacheTest {
+  private static final String MD5 = "9e107d9d372bb6826bd81d3542a419d6";
+  private static final String OTHER_MD5 = "e4d909c290d0fb1ca068ffaddf22cbd0";
+  private static final String PATH = "/filestore/Institutions/inst/Attachments/1/item/file.pdf";
+
+  @Rule public TemporaryFolder temp = new TemporaryFolder();
+
+  private final TextExtracterExtension extracter = new StubExtracter();
+  private File indexPath;
+  private ExtractedTextCache cache;
+
+  @Before
+  public void setUp() throws IOException {
+    indexPath = temp.newFolder("freetext");
+    cache = new ExtractedTextCache(indexPath);
+  }
+
+  @Test
+  public void missThenHit() {
+    Assert.assertNull(cache.get(MD5, extracter));
+    Assert.assertEquals(1, cache.getMisses());
+
+    cache.put(MD5, extracter, "The extracted text");
+
+    Assert.assertEquals("The extracted text", cache.get(MD5, extracter));
+    Assert.assertEquals(1, cache.getHits());
+    Assert.assertTrue(cache.getSize() > 0);
+  }
+
+  @Test
+  public void changedFileMisses() {
+    cache.put(MD5, extracter, "The extracted text");
+    Assert.assertNull(cache.get(OTHER_MD5, extracter));
+    Assert.assertNull(cache.get(null, extracter));
+  }
+
+  @Test
+  public void md5IsReusedWhileTheFileIsUnchanged() {
+    Assert.assertNull(cache.getMd5(PATH, 100, 1000));
+
+    cache.putMd5(PATH, 100, 1000, MD5);
+
+    Assert.assertEquals(MD5, cache.getMd5(PATH, 100, 1000));
+    Assert.assertNull(cache.getMd5(PATH + ".other", 100, 1000));
+  }
+
+  @Test
+  public void md5IsNotReusedOnceTheFileChanges() {
+    cache.putMd5(PATH, 100, 1000, MD5);
+
+    Assert.assertNull("Size changed", cache.getMd5(PATH, 101, 1000));
+    Assert.assertNull("Modified", cache.getMd5(PATH, 100, 2000));
+
+    cache.putMd5(PATH, 100, 2000, OTHER_MD5);
+    Assert.assertEquals(OTHER_MD5, cache.getMd5(PATH, 100, 2000));
+    Assert.assertNull(cache.getMd5(PATH, 100, 1000));
+  }
+
+  @Test
+  public void entriesAreKeptAcrossRestarts() {
+    cache.put(MD5, extracter, "The extracted text");
+    cache.putMd5(PATH, 100, 1000, MD5);
+
+    ExtractedTextCache restarted = new ExtractedTextCache(indexPath);
+    Assert.assertEquals("The extracted text", restarted.get(MD5, extracter));
+    Assert.assertEquals(MD5, restarted.getMd5(PATH, 100, 1000));
+  }
+
+  private static class StubExtracter implements TextExtracterExtension {
+    @Override
+    public void extractText(
+        String mimeType,
+        InputStream input,
+        StringBuilder outputText,
+        int maxSize,
+        long parseDurationCap) {
+      // nothing
+    }
+
+    @Override
+    public void setEnabledForMimeEntry(MimeEntry mimeType, boolean enabled) {
+      // nothing
+    }
+
+    @Override
+    public boolean isEnabledForMimeEntry(MimeEntry mimeEntry) {
+      return true;
+    }
+
+    @Override
+    public boolean isMimeTypeSupported(String mimeType) {
+      return true;
+    }
+
+    @Override
+    public String getNameKey() {
+      return "stub";
+    }
+  }
+}
@@ -0,0 +1,180 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.freetext;
+
+import com.tle.beans.mime.MimeEntry;
+import com.tle.core.TextExtracterExtension;
+import com.tle.freetext.TextExtractionPool.ExtractionTimeoutException;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class TextExtractionPoolTest {
+  private static final long PARSE_MILLIS = 200;
+
+  private TextExtractionPool pool;
+  private final CountDownLatch unblock = new CountDownLatch(1);
+
+  @Before
+  public void setUp() {
+    pool = new TextExtractionPool();
+    pool.threads = 2;
+    pool.threadsPerFormat = 1;
+    pool.graceMillis = 0;
+    pool.startExecutors();
+  }
+
+  @After
+  public void tearDown() {
+    unblock.countDown();
+  }
+
+  @Test
+  public void abandonedExtractionKeepsItsStream() throws Exception {
+    StubExtracter stuck = new StubExtracter(unblock);
+    TrackedStream input = new TrackedStream("stuck");
+    try {
+      pool.extract(stuck, "text/plain", input, 5, 100, PARSE_MILLIS);
+      Assert.fail("Extraction should have timed out");
+    } catch (ExtractionTimeoutException e) {
+      // expected
+    }
+    Assert.assertFalse("The stream was closed under the extracter", input.closed);
+
+    unblock.countDown();
+    Assert.assertTrue(stuck.finished.await(5, TimeUnit.SECONDS));
+    Assert.assertEquals("stuck", stuck.text);
+    for (int i = 0; i < 50 && !input.closed; i++) {
+      Thread.sleep(100);
+    }
+    Assert.assertTrue("The extracter should close the stream when it finishes", input.closed);
+  }
+
+  @Test
+  public void abandonedExtractionGivesUpItsPermit() throws Exception {
+    StubExtracter stuck = new StubExtracter(unblock);
+    try {
+      pool.extract(stuck, "text/plain", new TrackedStream("stuck"), 5, 100, PARSE_MILLIS);
+      Assert.fail("Extraction should have timed out");
+    } catch (ExtractionTimeoutException e) {
+      // expected
+    }
+
+    // Only one thread is allowed per format, and the first extracter still has it
+    TrackedStream input = new TrackedStream("next");
+    Assert.assertEquals(
+        "next", pool.extract(new StubExtracter(null), "text/plain", input, 4, 100, PARSE_MILLIS));
+    Assert.assertTrue(input.closed);
+  }
+
+  @Test
+  public void tooLargeFilesAreClosedAndSkipped() throws Exception {
+    TrackedStream input = new TrackedStream("large");
+    Assert.assertNull(
+        pool.extract(
+            new StubExtracter(null), "text/plain", input, Long.MAX_VALUE, 100, PARSE_MILLIS));
+    Assert.assertTrue(input.closed);
+  }
+
+  private static class StubExtracter implements TextExtracterExtension {
+    private final CountDownLatch block;
+    final CountDownLatch finished = new CountDownLatch(1);
+    volatile String text;
+
+    StubExtracter(CountDownLatch block) {
+      this.block = block;
+    }
+
+    @Override
+    public void extractText(
+        String mimeType,
+        InputStream input,
+        StringBuilder outputText,
+        int maxSize,
+        long parseDurationCap)
+        throws IOException {
+      if (block != null) {
+        // Ignores being interrupted, like an extracter stuck in a parser
+        boolean done = false;
+        while (!done) {
+          try {
+            done = block.await(10, TimeUnit.SECONDS);
+          } catch (InterruptedException e) {
+            // keep waiting
+          }
+        }
+      }
+      byte[] data = new byte[maxSize];
+      int len = input.read(data);
+      text = new String(data, 0, len, StandardCharsets.UTF_8);
+      outputText.append(text);
+      finished.countDown();
+    }
+
+    @Override
+    public void setEnabledForMimeEntry(MimeEntry mimeType, boolean enabled) {
+      // nothing
+    }
+
+    @Override
+    public boolean isEnabledForMimeEntry(MimeEntry mimeEntry) {
+      return true;
+    }
+
+    @Override
+    public boolean isMimeTypeSupported(String mimeType) {
+      return true;
+    }
+
+    @Override
+    public String getNameKey() {
+      return "stub";
+    }
+  }
+
+  private static class TrackedStream extends ByteArrayInputStream {
+    volatile boolean closed;
+
+    TrackedStream(String content) {
+      super(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public synchronized int read(byte[] b, int off, int len) {
+      if (closed) {
+        throw new IllegalStateException("Stream is closed");
+      }
+      return super.read(b, off, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+      closed = true;
+      super.close();
+    }
+  }
+}
@@ -0,0 +1,287 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.web.stream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class ContentStreamWriterTest {
+  private static final long LAST_MODIFIED = 1600000000000L;
+
+  private final ContentStreamWriter writer = new ContentStreamWriter();
+  private final Map<String, String> requestHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+  private final FakeResponse response = new FakeResponse();
+  private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+  private File file;
+  private String content;
+  private FileContentStream stream;
+
+  @Before
+  public void setUp() throws IOException {
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 100; i++) {
+      text.append("0123456789");
+    }
+    content = text.toString();
+    file = File.createTempFile("content", ".txt");
+    Files.write(file.toPath(), content.getBytes(StandardCharsets.US_ASCII));
+    file.setLastModified(LAST_MODIFIED);
+    stream = new FileContentStream(file, "content.txt", "text/plain");
+  }
+
+  @After
+  public void tearDown() {
+    file.delete();
+  }
+
+  @Test
+  public void noRangeServesEverything() {
+    serve();
+    Assert.assertEquals(HttpServletResponse.SC_OK, response.status);
+    Assert.assertEquals(content, body());
+    Assert.assertNull(response.headers.get("Content-Range"));
+  }
+
+  @Test
+  public void suffixRange() {
+    assertPartial("bytes=-500", 500, 999);
+  }
+
+  @Test
+  public void suffixLongerThanTheFileServesAllOfIt() {
+    assertPartial("bytes=-5000", 0, 999);
+  }
+
+  @Test
+  public void openEndedRange() {
+    assertPartial("bytes=900-", 900, 999);
+  }
+
+  @Test
+  public void endPastTheLastByteIsTheLastByte() {
+    assertPartial("bytes=990-2000", 990, 999);
+  }
+
+  @Test
+  public void overlappingRangesAreMerged() {
+    assertPartial("bytes=100-199,0-99,150-249", 0, 249);
+  }
+
+  @Test
+  public void unsatisfiableRange() {
+    requestHeaders.put("Range", "bytes=1000-1100");
+    serve();
+    Assert.assertEquals(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE, response.status);
+    Assert.assertEquals("bytes */1000", response.headers.get("Content-Range"));
+    Assert.assertEquals("", body());
+  }
+
+  @Test
+  public void emptySuffixIsUnsatisfiable() {
+    requestHeaders.put("Range", "bytes=-0");
+    serve();
+    Assert.assertEquals(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE, response.status);
+  }
+
+  @Test
+  public void unsatisfiableRangesAmongOthersAreDropped() {
+    assertPartial("bytes=2000-3000,10-19", 10, 19);
+  }
+
+  @Test
+  public void ifRangeWithMatchingETag() {
+    requestHeaders.put("If-Range", '"' + stream.calculateETag() + '"');
+    assertPartial("bytes=0-9", 0, 9);
+  }
+
+  @Test
+  public void ifRangeWithChangedETagServesEverything() {
+    requestHeaders.put("If-Range", "\"changed\"");
+    requestHeaders.put("Range", "bytes=0-9");
+    serve();
+    Assert.assertEquals(HttpServletResponse.SC_OK, response.status);
+    Assert.assertEquals(content, body());
+  }
+
+  @Test
+  public void ifRangeWithMatchingDate() {
+    requestHeaders.put("If-Range", httpDate(LAST_MODIFIED));
+    assertPartial("bytes=0-9", 0, 9);
+  }
+
+  @Test
+  public void ifRangeWithOlderDateServesEverything() {
+    requestHeaders.put("If-Range", httpDate(LAST_MODIFIED - 60000));
+    requestHeaders.put("Range", "bytes=0-9");
+    serve();
+    Assert.assertEquals(HttpServletResponse.SC_OK, response.status);
+    Assert.assertEquals(content, body());
+  }
+
+  @Test
+  public void multipleRangesAreSentAsMultipart() {
+    requestHeaders.put("Range", "bytes=500-509,0-9");
+    serve();
+
+    Assert.assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, response.status);
+    final String prefix = "multipart/byteranges; boundary=";
+    Assert.assertTrue(response.contentType, response.contentType.startsWith(prefix));
+    final String boundary = response.contentType.substring(prefix.length());
+    final String sent = body();
+    Assert.assertEquals(sent.length(), response.contentLength);
+
+    final String expected =
+        "\r\n--"
+            + boundary
+            + "\r\nContent-Type: text/plain\r\nContent-Range: bytes 500-509/1000\r\n\r\n"
+            + content.substring(500, 510)
+            + "\r\n--"
+            + boundary
+            + "\r\nContent-Type: text/plain\r\nContent-Range: bytes 0-9/1000\r\n\r\n"
+            + content.substring(0, 10)
+            + "\r\n--"
+            + boundary
+            + "--\r\n";
+    Assert.assertEquals(expected, sent);
+  }
+
+  private void assertPartial(String range, int first, int last) {
+    requestHeaders.put("Range", range);
+    serve();
+    Assert.assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, response.status);
+    Assert.assertEquals(
+        "bytes " + first + "-" + last + "/1000", response.headers.get("Content-Range"));
+    Assert.assertEquals(last - first + 1, response.contentLength);
+    Assert.assertEquals(content.substring(first, last + 1), body());
+  }
+
+  private void serve() {
+    writer.outputStream(request(), response.proxy(), stream, body);
+  }
+
+  private String body() {
+    return new String(body.toByteArray(), StandardCharsets.US_ASCII);
+  }
+
+  private static String httpDate(long millis) {
+    return DateTimeFormatter.RFC_1123_DATE_TIME.format(
+        Instant.ofEpochMilli(millis).atZone(ZoneOffset.UTC));
+  }
+
+  private HttpServletRequest request() {
+    return (HttpServletRequest)
+        Proxy.newProxyInstance(
+            getClass().getClassLoader(),
+            new Class<?>[] {HttpServletRequest.class},
+            (proxy, method, args) -> {
+              switch (method.getName()) {
+                case "getMethod":
+                  return "GET";
+                case "getHeader":
+                  return requestHeaders.get((String) args[0]);
+                case "getDateHeader":
+                  String date = requestHeaders.get((String) args[0]);
+                  try {
+                    return date == null
+                        ? -1L
+                        : Instant.from(DateTimeFormatter.RFC_1123_DATE_TIME.parse(date))
+                            .toEpochMilli();
+                  } catch (DateTimeParseException e) {
+                    throw new IllegalArgumentException(date);
+                  }
+                default:
+                  return defaultValue(method);
+              }
+            });
+  }
+
+  private static Object defaultValue(Method method) {
+    Class<?> type = method.getReturnType();
+    if (type == boolean.class) {
+      return false;
+    }
+    if (type == int.class) {
+      return 0;
+    }
+    if (type == long.class) {
+      return 0L;
+    }
+    return null;
+  }
+
+  private static class FakeResponse {
+    final Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    int status = HttpServletResponse.SC_OK;
+    String contentType;
+    long contentLength = -1;
+
+    HttpServletResponse proxy() {
+      return (HttpServletResponse)
+          Proxy.newProxyInstance(
+              getClass().getClassLoader(),
+              new Class<?>[] {HttpServletResponse.class},
+              (proxy, method, args) -> {
+                switch (method.getName()) {
+                  case "setStatus":
+                  case "sendError":
+                    status = (Integer) args[0];
+                    break;
+                  case "setHeader":
+                  case "addHeader":
+                    headers.put((String) args[0], (String) args[1]);
+                    break;
+                  case "setDateHeader":
+                    headers.put((String) args[0], httpDate((Long) args[1]));
+                    break;
+                  case "setContentType":
+                    contentType = (String) args[0];
+                    break;
+                  case "setContentLength":
+                    contentLength = (Integer) args[0];
+                    break;
+                  case "setContentLengthLong":
+                    contentLength = (Long) args[0];
+                    break;
+                  default:
+                    return defaultValue(method);
+                }
+                return null;
+              });
+    }
+  }
+}
@@ -18,8 +18,7 @@
 
 package com.tle.core.reporting;
 
-import com.dytech.devlib.PropBagEx;
-import com.dytech.devlib.PropBagEx.ValueThoroughIterator;
+import com.dytech.devlib.ReadOnlyPropBag;
 import com.dytech.edge.exceptions.SearchingException;
 import com.tle.beans.item.ItemId;
 import com.tle.beans.item.ItemIdKey;
@@ -241,11 +240,11 @@ public class FreetextQueryDelegate extends SimpleTypeQuery {
         row.add(result.getVersion());
 
         if (fields.size() > 0) {
-          PropBagEx xml = itemService.getItemXmlPropBag(result);
+          ReadOnlyPropBag xml = itemService.getReadOnlyItemXml(result);
           for (String field : fields) {
-            ValueThoroughIterator vals = xml.iterateAllValues(field);
-            if (vals.hasNext()) {
-              row.add(vals.next());
+            List<String> vals = xml.getAllValues(field);
+            if (!vals.isEmpty()) {
+              row.add(vals.get(0));
             } else {
               row.add(""); // $NON-NLS-1$
             }
@@ -37,6 +37,7 @@ public class MessageSender {
   private final BlockingDeque<byte[]> msgQueue = new LinkedBlockingDeque<>();
   private long totalQueueSize;
   private long headOffset = 0;
+  private long droppedMessages;
 
   public MessageSender(String receiverId) {
     this.receiverId = receiverId;
@@ -110,6 +111,7 @@ public class MessageSender {
       droppedMsgs++;
     }
     if (droppedMsgs > 0) {
+      droppedMessages += droppedMsgs;
       LOGGER.warn("Dropped " + droppedMsgs + " messages from queue for NODE: " + receiverId);
     }
 
@@ -121,4 +123,24 @@ public class MessageSender {
 
     msgQueue.add(msg);
   }
+
+  public String getReceiverId() {
+    return receiverId;
+  }
+
+  public int getQueueDepth() {
+    return msgQueue.size();
+  }
+
+  public synchronized long getQueuedBytes() {
+    return totalQueueSize;
+  }
+
+  public synchronized long getSentMessages() {
+    return headOffset - droppedMessages;
+  }
+
+  public synchronized long getDroppedMessages() {
+    return droppedMessages;
+  }
 }
@@ -37,6 +37,9 @@ public class ClusterModule extends AbstractModule {
       bindProp("messaging.bindAddress");
       bindInt("messaging.bindPort", 8999);
       bindBoolean("messaging.useHostname");
+      bindProp("messaging.transport", "legacy");
+      bindInt("messaging.selectorThreads", 2);
+      bindInt("messaging.compressThreshold", 16384);
     }
   }
 
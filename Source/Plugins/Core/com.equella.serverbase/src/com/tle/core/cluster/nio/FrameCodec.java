@@ -0,0 +1,106 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.cluster.nio;
+
+import com.google.common.io.ByteStreams;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Frames are a four byte length, followed by a flags byte and the payload. The length includes the
+ * flags byte. Payloads at or above the compression threshold are deflated if that makes them
+ * smaller.
+ */
+@SuppressWarnings("nls")
+final class FrameCodec {
+  static final int HEADER_SIZE = 4;
+  static final byte FLAG_HANDSHAKE = 1;
+  static final byte FLAG_DEFLATED = 2;
+
+  private final int compressThreshold;
+
+  /** @param compressThreshold Minimum payload size to compress, or a negative number to never */
+  FrameCodec(int compressThreshold) {
+    this.compressThreshold = compressThreshold;
+  }
+
+  byte[] encode(byte[] message) {
+    byte flags = 0;
+    byte[] payload = message;
+    if (compressThreshold >= 0 && message.length >= compressThreshold) {
+      byte[] deflated = deflate(message);
+      if (deflated.length < message.length) {
+        payload = deflated;
+        flags = FLAG_DEFLATED;
+      }
+    }
+    return frame(flags, payload);
+  }
+
+  byte[] handshake(String fromNodeId, String toNodeId) {
+    return frame(
+        FLAG_HANDSHAKE, (fromNodeId + '\n' + toNodeId).getBytes(StandardCharsets.UTF_8));
+  }
+
+  /** @return The from and to node IDs */
+  String[] readHandshake(byte[] payload) throws IOException {
+    String[] ids = new String(payload, StandardCharsets.UTF_8).split("\n");
+    if (ids.length != 2) {
+      throw new IOException("Invalid handshake");
+    }
+    return ids;
+  }
+
+  byte[] decode(byte flags, byte[] payload) throws IOException {
+    if ((flags & FLAG_DEFLATED) != 0) {
+      try (InflaterInputStream in = new InflaterInputStream(new ByteArrayInputStream(payload))) {
+        return ByteStreams.toByteArray(in);
+      }
+    }
+    return payload;
+  }
+
+  private static byte[] frame(byte flags, byte[] payload) {
+    ByteBuffer frame = ByteBuffer.allocate(HEADER_SIZE + 1 + payload.length);
+    frame.putInt(payload.length + 1);
+    frame.put(flags);
+    frame.put(payload);
+    return frame.array();
+  }
+
+  private static byte[] deflate(byte[] data) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2);
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    try (DeflaterOutputStream dos = new DeflaterOutputStream(out, deflater)) {
+      dos.write(data);
+    } catch (IOException e) {
+      // Can't happen with a byte array
+      throw new RuntimeException(e);
+    } finally {
+      deflater.end();
+    }
+    return out.toByteArray();
+  }
+}
@@ -0,0 +1,554 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.cluster.nio;
+
+import com.tle.core.cluster.service.ClusterMessagingService;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.log4j.Logger;
+
+/**
+ * Sends messages to the other cluster nodes over non-blocking sockets, with all connections
+ * multiplexed on a small number of selector threads.
+ *
+ * <p>Each node opens one outbound connection to every peer and pushes length prefixed frames down
+ * it. Whatever is queued for a peer when its socket becomes writable is coalesced into a single
+ * write. Inbound connections start with a handshake naming the sending node and the node it
+ * expects to be talking to, so connections to a stale address are rejected. A full queue drops the
+ * oldest messages, as the blocking transport does.
+ */
+@SuppressWarnings("nls")
+public class NioMessageTransport implements Closeable {
+  private static final Logger LOGGER = Logger.getLogger(NioMessageTransport.class);
+
+  private static final long RECONNECT_MILLIS = 1000;
+  private static final int MAX_COALESCED_BYTES = 256 * 1024;
+  private static final int MAX_FRAME_SIZE = ClusterMessagingService.MAX_MSG_SIZE + 1;
+
+  public interface Listener {
+    /** Called on a selector thread, so should hand off any real work. */
+    void messageReceived(String fromNodeId, byte[] message);
+  }
+
+  private interface Handler {
+    void ready(SelectionKey key) throws IOException;
+
+    void failed(Exception e);
+  }
+
+  private final String nodeId;
+  private final Listener listener;
+  private final FrameCodec codec;
+  private final SelectorLoop[] loops;
+  private final AtomicInteger nextLoop = new AtomicInteger();
+  private final Map<String, Peer> peers = new ConcurrentHashMap<>();
+  private final Map<String, AtomicLong> received = new ConcurrentHashMap<>();
+  private volatile boolean closed;
+  private ServerSocketChannel server;
+
+  /**
+   * @param nodeId This node
+   * @param selectorThreads Number of threads to multiplex the connections over
+   * @param compressThreshold Messages of at least this many bytes are compressed, negative to never
+   *     compress
+   */
+  public NioMessageTransport(
+      String nodeId, int selectorThreads, int compressThreshold, Listener listener)
+      throws IOException {
+    this.nodeId = nodeId;
+    this.listener = listener;
+    this.codec = new FrameCodec(compressThreshold);
+    this.loops = new SelectorLoop[Math.max(1, selectorThreads)];
+    for (int i = 0; i < loops.length; i++) {
+      loops[i] = new SelectorLoop("NioMessageTransport.selector-" + i);
+    }
+  }
+
+  /** @return The address actually bound, which is useful when binding to port 0 */
+  public InetSocketAddress bind(InetSocketAddress address) throws IOException {
+    server = ServerSocketChannel.open();
+    server.bind(address);
+    server.configureBlocking(false);
+    final SelectorLoop loop = loops[0];
+    loop.execute(() -> loop.register(server, SelectionKey.OP_ACCEPT, new Acceptor()));
+    return (InetSocketAddress) server.getLocalAddress();
+  }
+
+  public void addPeer(String remoteId, String host, int port) {
+    Peer peer = new Peer(remoteId, new InetSocketAddress(host, port), nextLoop());
+    Peer old = peers.put(remoteId, peer);
+    if (old != null) {
+      old.remove();
+    }
+    peer.loop.execute(peer::connect);
+  }
+
+  public void removePeer(String remoteId) {
+    Peer peer = peers.remove(remoteId);
+    if (peer != null) {
+      peer.remove();
+    }
+  }
+
+  public Set<String> getPeerIds() {
+    return peers.keySet();
+  }
+
+  /**
+   * Queues the message to be sent to the node.
+   *
+   * @return false if the node isn't known
+   */
+  public boolean send(String remoteId, byte[] message) {
+    Peer peer = peers.get(remoteId);
+    if (peer == null) {
+      return false;
+    }
+    peer.enqueue(codec.encode(message));
+    return true;
+  }
+
+  /** Sends the message to every known node, only encoding (and compressing) it once. */
+  public void sendToAll(byte[] message) {
+    if (!peers.isEmpty()) {
+      byte[] frame = codec.encode(message);
+      for (Peer peer : peers.values()) {
+        peer.enqueue(frame);
+      }
+    }
+  }
+
+  public List<PeerStatistics> getStatistics() {
+    List<PeerStatistics> stats = new ArrayList<PeerStatistics>();
+    long now = System.nanoTime();
+    for (Peer peer : peers.values()) {
+      PeerStatistics ps = new PeerStatistics();
+      ps.setNodeId(peer.remoteId);
+      ps.setConnected(peer.connected);
+      ps.setQueueDepth(peer.depth.get());
+      ps.setQueuedBytes(peer.queuedBytes.get());
+      QueuedFrame oldest = peer.queue.peek();
+      ps.setLagMillis(oldest == null ? 0 : TimeUnit.NANOSECONDS.toMillis(now - oldest.queued));
+      ps.setSentMessages(peer.sentMessages.get());
+      ps.setSentBytes(peer.sentBytes.get());
+      ps.setDroppedMessages(peer.dropped.get());
+      AtomicLong count = received.get(peer.remoteId);
+      ps.setReceivedMessages(count == null ? 0 : count.get());
+      stats.add(ps);
+    }
+    return stats;
+  }
+
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    for (SelectorLoop loop : loops) {
+      loop.selector.wakeup();
+    }
+    if (server != null) {
+      server.close();
+    }
+  }
+
+  private SelectorLoop nextLoop() {
+    return loops[(nextLoop.getAndIncrement() & Integer.MAX_VALUE) % loops.length];
+  }
+
+  private static void closeQuietly(SelectableChannel channel) {
+    if (channel != null) {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        // Nothing to do
+      }
+    }
+  }
+
+  private final class SelectorLoop implements Runnable {
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    SelectorLoop(String name) throws IOException {
+      selector = Selector.open();
+      Thread thread = new Thread(this, name);
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    void execute(Runnable task) {
+      tasks.add(task);
+      selector.wakeup();
+    }
+
+    SelectionKey register(SelectableChannel channel, int ops, Handler handler) {
+      try {
+        return channel.register(selector, ops, handler);
+      } catch (IOException e) {
+        handler.failed(e);
+        return null;
+      }
+    }
+
+    @Override
+    public void run() {
+      while (!closed) {
+        try {
+          selector.select(RECONNECT_MILLIS);
+          Runnable task;
+          while ((task = tasks.poll()) != null) {
+            task.run();
+          }
+          Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
+          while (iter.hasNext()) {
+            SelectionKey key = iter.next();
+            iter.remove();
+            Handler handler = (Handler) key.attachment();
+            try {
+              if (key.isValid()) {
+                handler.ready(key);
+              }
+            } catch (Exception e) {
+              handler.failed(e);
+            }
+          }
+          for (Peer peer : peers.values()) {
+            if (peer.loop == this) {
+              peer.reconnectIfDue();
+            }
+          }
+        } catch (Throwable t) {
+          LOGGER.error("Error in cluster messaging selector", t);
+        }
+      }
+      for (SelectionKey key : selector.keys()) {
+        closeQuietly(key.channel());
+      }
+      try {
+        selector.close();
+      } catch (IOException e) {
+        // Nothing to do
+      }
+    }
+  }
+
+  private final class Acceptor implements Handler {
+    @Override
+    public void ready(SelectionKey key) throws IOException {
+      SocketChannel channel;
+      while ((channel = server.accept()) != null) {
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+        final SocketChannel accepted = channel;
+        final SelectorLoop loop = nextLoop();
+        loop.execute(
+            () -> loop.register(accepted, SelectionKey.OP_READ, new Inbound(accepted)));
+      }
+    }
+
+    @Override
+    public void failed(Exception e) {
+      LOGGER.error("Error accepting cluster messaging connection", e);
+    }
+  }
+
+  private static final class QueuedFrame {
+    final byte[] frame;
+    final long queued = System.nanoTime();
+
+    QueuedFrame(byte[] frame) {
+      this.frame = frame;
+    }
+  }
+
+  /** The outbound connection to a remote node. */
+  private final class Peer implements Handler {
+    final String remoteId;
+    final InetSocketAddress address;
+    final SelectorLoop loop;
+    final Queue<QueuedFrame> queue = new ConcurrentLinkedQueue<>();
+    final AtomicInteger depth = new AtomicInteger();
+    final AtomicLong queuedBytes = new AtomicLong();
+    final AtomicLong sentMessages = new AtomicLong();
+    final AtomicLong sentBytes = new AtomicLong();
+    final AtomicLong dropped = new AtomicLong();
+    // Set while the selector thread knows there is something to write
+    final AtomicBoolean writeScheduled = new AtomicBoolean();
+    volatile boolean connected;
+    volatile boolean removed;
+
+    // Only touched on the selector thread
+    private SocketChannel channel;
+    private SelectionKey key;
+    private ByteBuffer pending;
+    private long nextConnect;
+    private boolean loggedFailure;
+
+    Peer(String remoteId, InetSocketAddress address, SelectorLoop loop) {
+      this.remoteId = remoteId;
+      this.address = address;
+      this.loop = loop;
+    }
+
+    void enqueue(byte[] frame) {
+      int droppedNow = 0;
+      while (queuedBytes.get() + frame.length > ClusterMessagingService.MAX_QUEUE_SIZE) {
+        QueuedFrame oldest = queue.poll();
+        if (oldest == null) {
+          break;
+        }
+        taken(oldest);
+        droppedNow++;
+      }
+      if (droppedNow > 0) {
+        dropped.addAndGet(droppedNow);
+        LOGGER.warn("Dropped " + droppedNow + " messages from queue for NODE: " + remoteId);
+      }
+      queue.add(new QueuedFrame(frame));
+      depth.incrementAndGet();
+      queuedBytes.addAndGet(frame.length);
+      if (writeScheduled.compareAndSet(false, true)) {
+        loop.execute(this::enableWrite);
+      }
+    }
+
+    private void taken(QueuedFrame frame) {
+      depth.decrementAndGet();
+      queuedBytes.addAndGet(-frame.frame.length);
+    }
+
+    void remove() {
+      removed = true;
+      loop.execute(this::disconnect);
+    }
+
+    void reconnectIfDue() {
+      if (channel == null && !removed && System.currentTimeMillis() >= nextConnect) {
+        connect();
+      }
+    }
+
+    void connect() {
+      if (removed || channel != null) {
+        return;
+      }
+      try {
+        channel = SocketChannel.open();
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        channel.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+        if (channel.connect(address)) {
+          key = channel.register(loop.selector, 0, this);
+          connected();
+        } else {
+          key = channel.register(loop.selector, SelectionKey.OP_CONNECT, this);
+        }
+      } catch (IOException e) {
+        failed(e);
+      }
+    }
+
+    private void connected() {
+      LOGGER.info("Connected to NODE: " + remoteId + " at " + address);
+      loggedFailure = false;
+      connected = true;
+      pending = ByteBuffer.wrap(codec.handshake(nodeId, remoteId));
+      writeScheduled.set(true);
+      key.interestOps(SelectionKey.OP_WRITE);
+    }
+
+    private void enableWrite() {
+      if (connected && key != null && key.isValid()) {
+        key.interestOps(SelectionKey.OP_WRITE);
+      }
+    }
+
+    @Override
+    public void ready(SelectionKey key) throws IOException {
+      if (key.isConnectable()) {
+        channel.finishConnect();
+        connected();
+      } else if (key.isWritable()) {
+        write();
+      }
+    }
+
+    private void write() throws IOException {
+      while (true) {
+        if (pending == null || !pending.hasRemaining()) {
+          pending = coalesce();
+          if (pending == null) {
+            writeScheduled.set(false);
+            // Something may have been queued after coalescing but before clearing the flag
+            if (queue.isEmpty() || !writeScheduled.compareAndSet(false, true)) {
+              key.interestOps(0);
+              return;
+            }
+            continue;
+          }
+        }
+        channel.write(pending);
+        if (pending.hasRemaining()) {
+          // Socket buffer is full, wait until it's writable again
+          return;
+        }
+      }
+    }
+
+    private ByteBuffer coalesce() {
+      List<byte[]> frames = new ArrayList<byte[]>();
+      int total = 0;
+      QueuedFrame frame;
+      while (total < MAX_COALESCED_BYTES && (frame = queue.poll()) != null) {
+        taken(frame);
+        frames.add(frame.frame);
+        total += frame.frame.length;
+      }
+      if (frames.isEmpty()) {
+        return null;
+      }
+      ByteBuffer buffer = ByteBuffer.allocate(total);
+      for (byte[] f : frames) {
+        buffer.put(f);
+      }
+      buffer.flip();
+      sentMessages.addAndGet(frames.size());
+      sentBytes.addAndGet(total);
+      return buffer;
+    }
+
+    @Override
+    public void failed(Exception e) {
+      if (!loggedFailure && !removed) {
+        LOGGER.error(
+            "Error communicating with NODE: " + remoteId + ", Error message was: " + e.getMessage());
+        loggedFailure = true;
+      }
+      disconnect();
+      nextConnect = System.currentTimeMillis() + RECONNECT_MILLIS;
+    }
+
+    private void disconnect() {
+      connected = false;
+      if (key != null) {
+        key.cancel();
+        key = null;
+      }
+      closeQuietly(channel);
+      channel = null;
+      // Whatever was partially written is lost with the connection
+      pending = null;
+    }
+  }
+
+  /** A connection from a remote node, which only ever receives. */
+  private final class Inbound implements Handler {
+    private final SocketChannel channel;
+    private ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+    private String remoteId;
+    private AtomicLong receivedCount;
+
+    Inbound(SocketChannel channel) {
+      this.channel = channel;
+    }
+
+    @Override
+    public void ready(SelectionKey key) throws IOException {
+      int read;
+      while ((read = channel.read(buffer)) > 0) {
+        readFrames();
+      }
+      if (read < 0) {
+        throw new IOException("Connection closed by NODE: " + remoteId);
+      }
+    }
+
+    private void readFrames() throws IOException {
+      buffer.flip();
+      while (buffer.remaining() >= FrameCodec.HEADER_SIZE) {
+        int length = buffer.getInt(buffer.position());
+        if (length < 1 || length > MAX_FRAME_SIZE) {
+          throw new IOException("Invalid frame length " + length + " from NODE: " + remoteId);
+        }
+        if (buffer.remaining() < FrameCodec.HEADER_SIZE + length) {
+          if (buffer.capacity() < FrameCodec.HEADER_SIZE + length) {
+            ByteBuffer bigger = ByteBuffer.allocate(FrameCodec.HEADER_SIZE + length);
+            bigger.put(buffer);
+            buffer = bigger;
+            return;
+          }
+          break;
+        }
+        buffer.getInt();
+        byte flags = buffer.get();
+        byte[] payload = new byte[length - 1];
+        buffer.get(payload);
+        frame(flags, payload);
+      }
+      buffer.compact();
+    }
+
+    private void frame(byte flags, byte[] payload) throws IOException {
+      if (remoteId == null) {
+        if ((flags & FrameCodec.FLAG_HANDSHAKE) == 0) {
+          throw new IOException("Expected handshake");
+        }
+        String[] ids = codec.readHandshake(payload);
+        if (!nodeId.equals(ids[1])) {
+          throw new IOException(
+              "Remote NODE trying to communicate with stale reference to this NODE");
+        }
+        remoteId = ids[0];
+        receivedCount = received.computeIfAbsent(remoteId, id -> new AtomicLong());
+        LOGGER.info("Successful connection from NODE: " + remoteId);
+        return;
+      }
+      receivedCount.incrementAndGet();
+      listener.messageReceived(remoteId, codec.decode(flags, payload));
+    }
+
+    @Override
+    public void failed(Exception e) {
+      if (remoteId != null || !(e instanceof IOException)) {
+        LOGGER.error(
+            "Error communicating with NODE: " + remoteId + ", Error message was: " + e.getMessage());
+      }
+      closeQuietly(channel);
+    }
+  }
+}
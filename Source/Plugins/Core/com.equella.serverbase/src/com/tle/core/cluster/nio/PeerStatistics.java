@@ -0,0 +1,112 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.cluster.nio;
+
+import java.io.Serializable;
+
+/** A snapshot of the messaging state for a single remote node. */
+public class PeerStatistics implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  private String nodeId;
+  private boolean connected;
+  private int queueDepth;
+  private long queuedBytes;
+  private long lagMillis;
+  private long sentMessages;
+  private long sentBytes;
+  private long droppedMessages;
+  private long receivedMessages;
+
+  public String getNodeId() {
+    return nodeId;
+  }
+
+  public void setNodeId(String nodeId) {
+    this.nodeId = nodeId;
+  }
+
+  public boolean isConnected() {
+    return connected;
+  }
+
+  public void setConnected(boolean connected) {
+    this.connected = connected;
+  }
+
+  /** Messages waiting to be sent to the node. */
+  public int getQueueDepth() {
+    return queueDepth;
+  }
+
+  public void setQueueDepth(int queueDepth) {
+    this.queueDepth = queueDepth;
+  }
+
+  public long getQueuedBytes() {
+    return queuedBytes;
+  }
+
+  public void setQueuedBytes(long queuedBytes) {
+    this.queuedBytes = queuedBytes;
+  }
+
+  /** How long the oldest queued message has been waiting. */
+  public long getLagMillis() {
+    return lagMillis;
+  }
+
+  public void setLagMillis(long lagMillis) {
+    this.lagMillis = lagMillis;
+  }
+
+  public long getSentMessages() {
+    return sentMessages;
+  }
+
+  public void setSentMessages(long sentMessages) {
+    this.sentMessages = sentMessages;
+  }
+
+  /** Bytes written to the socket, after framing and compression. */
+  public long getSentBytes() {
+    return sentBytes;
+  }
+
+  public void setSentBytes(long sentBytes) {
+    this.sentBytes = sentBytes;
+  }
+
+  /** Messages discarded because the queue for the node was full. */
+  public long getDroppedMessages() {
+    return droppedMessages;
+  }
+
+  public void setDroppedMessages(long droppedMessages) {
+    this.droppedMessages = droppedMessages;
+  }
+
+  public long getReceivedMessages() {
+    return receivedMessages;
+  }
+
+  public void setReceivedMessages(long receivedMessages) {
+    this.receivedMessages = receivedMessages;
+  }
+}
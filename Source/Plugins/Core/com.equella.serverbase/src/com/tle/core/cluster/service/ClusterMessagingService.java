@@ -18,7 +18,9 @@
 
 package com.tle.core.cluster.service;
 
+import com.tle.core.cluster.nio.PeerStatistics;
 import java.io.Serializable;
+import java.util.List;
 
 public interface ClusterMessagingService {
   static final int MAX_MSG_SIZE = 5 * 1024 * 1024;
@@ -27,4 +29,7 @@ public interface ClusterMessagingService {
   void postMessage(Serializable msg);
 
   void postMessage(String toNodeIdOnly, Serializable msg);
+
+  /** @return The state of the outgoing queue for each known node */
+  List<PeerStatistics> getPeerStatistics();
 }
@@ -34,8 +34,12 @@ import com.tle.core.application.StartupBean;
 import com.tle.core.cluster.ClusterMessageHandler;
 import com.tle.core.cluster.MessageReceiver;
 import com.tle.core.cluster.MessageSender;
+import com.tle.core.cluster.exception.MessagingException;
+import com.tle.core.cluster.nio.NioMessageTransport;
+import com.tle.core.cluster.nio.PeerStatistics;
 import com.tle.core.cluster.service.ClusterMessagingService;
 import com.tle.core.guice.Bind;
+import com.tle.core.plugins.PluginAwareObjectInputStream;
 import com.tle.core.plugins.PluginAwareObjectOutputStream;
 import com.tle.core.plugins.PluginTracker;
 import com.tle.core.zookeeper.ZookeeperService;
@@ -51,6 +55,7 @@ import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.UnknownHostException;
 import java.text.MessageFormat;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
@@ -87,6 +92,19 @@ public class ClusterMessagingServiceImpl
   @Named("messaging.bindPort")
   private int bindPort;
 
+  /** Either "legacy" or "nio". Every node in the cluster must use the same transport. */
+  @Inject(optional = true)
+  @Named("messaging.transport")
+  private String transport;
+
+  @Inject(optional = true)
+  @Named("messaging.selectorThreads")
+  private int selectorThreads = 2;
+
+  @Inject(optional = true)
+  @Named("messaging.compressThreshold")
+  private int compressThreshold = 16384;
+
   @Inject private PluginTracker<ClusterMessageHandler> handlerTracker;
   @Inject private ZookeeperService zookeeperService;
 
@@ -124,12 +142,16 @@ public class ClusterMessagingServiceImpl
                 }
               });
 
+  private volatile NioMessageTransport nioTransport;
+
   @Override
   public void startup() {
     if (!zookeeperService.hasStarted()) {
       throw new RuntimeException("Dependent ZK service not started!");
     }
-    if (zookeeperService.isCluster()) {
+    if (zookeeperService.isCluster() && "nio".equalsIgnoreCase(transport)) {
+      startNio();
+    } else if (zookeeperService.isCluster()) {
       Thread thread =
           new Thread() {
             @Override
@@ -199,6 +221,37 @@ public class ClusterMessagingServiceImpl
     }
   }
 
+  private void startNio() {
+    setupBindAddress();
+    try {
+      LOGGER.info("Binding to " + bindAddress + ":" + bindPort + " using NIO transport");
+      nioTransport =
+          new NioMessageTransport(
+              zookeeperService.getNodeId(),
+              selectorThreads,
+              compressThreshold,
+              // Deserialised on the selector thread so handlers see messages in the order sent
+              (fromNodeId, data) -> dispatch(data));
+      nioTransport.bind(new InetSocketAddress(bindAddress, bindPort));
+      zookeeperService.createNode(MESSAGING_ZKPATH, bindAddress + ":" + bindPort);
+      zookeeperService.createPathCache(MESSAGING_ZKPATH, true, this);
+    } catch (IOException ex) {
+      LOGGER.error("Error while binding socket " + bindAddress + ":" + bindPort, ex);
+      Throwables.propagate(ex);
+    }
+  }
+
+  private void dispatch(byte[] data) {
+    // Same as MessageReceiver
+    Object msg = PluginAwareObjectInputStream.fromBytes(data);
+    for (ClusterMessageHandler h : handlerTracker.getBeanList()) {
+      Runnable handler = h.canHandle(msg);
+      if (handler != null) {
+        msgExecutor.execute(handler);
+      }
+    }
+  }
+
   private void setupBindAddress() {
     try {
       // Verify the bind address
@@ -233,7 +286,13 @@ public class ClusterMessagingServiceImpl
       String remoteId = ZKPaths.getNodeFromPath(event.getData().getPath());
       String[] clientInfo = new String(event.getData().getData()).split(":");
       if (!isThisNode(remoteId) && !hasSameInfo(clientInfo)) {
-        if (type.equals(Type.CHILD_ADDED)) {
+        if (nioTransport != null) {
+          if (type.equals(Type.CHILD_REMOVED)) {
+            nioTransport.removePeer(remoteId);
+          } else {
+            nioTransport.addPeer(remoteId, clientInfo[0], Integer.parseInt(clientInfo[1]));
+          }
+        } else if (type.equals(Type.CHILD_ADDED)) {
           senders.get(remoteId);
           addReceiver(remoteId, clientInfo);
         } else if (type.equals(Type.CHILD_UPDATED)) {
@@ -284,6 +343,17 @@ public class ClusterMessagingServiceImpl
   public void postMessage(String toNodeIdOnly, Serializable msg) {
     Collection<String> recipients;
     byte[] message = PluginAwareObjectOutputStream.toBytes(msg);
+    if (nioTransport != null) {
+      if (message.length > MAX_MSG_SIZE) {
+        throw new MessagingException("Message is too large");
+      }
+      if (toNodeIdOnly != null) {
+        nioTransport.send(toNodeIdOnly, message);
+      } else {
+        nioTransport.sendToAll(message);
+      }
+      return;
+    }
     if (toNodeIdOnly != null) {
       recipients = Collections.singletonList(toNodeIdOnly);
     } else {
@@ -296,4 +366,23 @@ public class ClusterMessagingServiceImpl
       }
     }
   }
+
+  @Override
+  public List<PeerStatistics> getPeerStatistics() {
+    if (nioTransport != null) {
+      return nioTransport.getStatistics();
+    }
+    List<PeerStatistics> stats = new ArrayList<PeerStatistics>();
+    for (MessageSender sender : senders.asMap().values()) {
+      PeerStatistics ps = new PeerStatistics();
+      ps.setNodeId(sender.getReceiverId());
+      ps.setConnected(receivers.containsKey(sender.getReceiverId()));
+      ps.setQueueDepth(sender.getQueueDepth());
+      ps.setQueuedBytes(sender.getQueuedBytes());
+      ps.setSentMessages(sender.getSentMessages());
+      ps.setDroppedMessages(sender.getDroppedMessages());
+      stats.add(ps);
+    }
+    return stats;
+  }
 }
@@ -81,5 +81,11 @@ public interface GenericDao<T, ID extends Serializable> {
 
   void clear();
 
+  /**
+   * Sends the inserts and updates of each flush of the current session in JDBC batches of this
+   * size. Only affects the current session.
+   */
+  void setJdbcBatchSize(int batchSize);
+
   void evict(T object);
 }
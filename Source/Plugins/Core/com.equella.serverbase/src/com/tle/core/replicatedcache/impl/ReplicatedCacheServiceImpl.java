@@ -28,6 +28,7 @@ import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.Striped;
 import com.tle.annotation.NonNull;
 import com.tle.annotation.NonNullByDefault;
 import com.tle.annotation.Nullable;
@@ -49,10 +50,12 @@ import com.tle.core.replicatedcache.dao.ReplicatedCacheDao;
 import com.tle.core.scheduler.ScheduledTask;
 import com.tle.core.zookeeper.ZookeeperService;
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import org.apache.commons.logging.Log;
@@ -74,26 +77,40 @@ public class ReplicatedCacheServiceImpl
   /** Caches identified by cacheId. */
   private final Cache<String, ReplicatedCacheImpl<?>> caches = CacheBuilder.newBuilder().build();
 
+  /** Number of lock stripes used to serialise writes to the same key. */
+  private static final int WRITE_STRIPES = 64;
+
   private static final Log LOGGER = LogFactory.getLog(ReplicatedCacheServiceImpl.class);
 
   @Override
-  public synchronized <V extends Serializable> ReplicatedCache<V> getCache(
-      String cacheId, long maxLocalCacheSize, long ttl, TimeUnit ttlUnit) {
+  public <V extends Serializable> ReplicatedCache<V> getCache(
+      final String cacheId, final long maxLocalCacheSize, final long ttl, final TimeUnit ttlUnit) {
     Preconditions.checkNotNull(cacheId, "cacheId cannot be null");
 
-    @SuppressWarnings("unchecked")
-    ReplicatedCacheImpl<V> cache = (ReplicatedCacheImpl<V>) caches.getIfPresent(cacheId);
-    if (cache == null) {
-      cache = new ReplicatedCacheImpl<V>(cacheId, maxLocalCacheSize, ttl, ttlUnit);
-      caches.put(cacheId, cache);
+    try {
+      @SuppressWarnings("unchecked")
+      ReplicatedCacheImpl<V> cache =
+          (ReplicatedCacheImpl<V>)
+              caches.get(
+                  cacheId,
+                  () -> new ReplicatedCacheImpl<V>(cacheId, maxLocalCacheSize, ttl, ttlUnit));
+      return cache;
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
     }
-    return cache;
   }
 
+  /**
+   * Reads never take a lock: each key is loaded independently, and concurrent loads of the same key
+   * share a single DB read (a LoadingCache only ever runs one load or refresh per key at a time).
+   * Writes to a key are serialised on a lock stripe so that the DB, the local cache and the other
+   * cluster nodes see them in the same order, without blocking writes to unrelated keys.
+   */
   @NonNullByDefault
   private class ReplicatedCacheImpl<V extends Serializable> implements ReplicatedCache<V> {
     private final String cacheId;
     private final LoadingCache<Institution, LoadingCache<String, Optional<ExpiringValue<V>>>> cache;
+    private final Striped<Lock> writeLocks = Striped.lock(WRITE_STRIPES);
     private final long ttl;
     private final TimeUnit ttlUnit;
 
@@ -147,15 +164,17 @@ public class ReplicatedCacheServiceImpl
     }
 
     @Override
-    public synchronized Optional<V> get(@NonNull String key) {
+    public Optional<V> get(@NonNull String key) {
       checkNotNull(key);
-      if (zookeeperService.isCluster()) {
-        cache.refresh(CurrentInstitution.get());
-      }
 
       LoadingCache<String, Optional<ExpiringValue<V>>> c;
       try {
         c = cache.get(CurrentInstitution.get());
+        if (zookeeperService.isCluster()) {
+          // Another node may have changed the value, so re-read just this key. If a read of the
+          // key is already in flight this returns immediately rather than issuing another one.
+          c.refresh(key);
+        }
         Optional<ExpiringValue<V>> op = c.getUnchecked(key);
         if (op.isPresent()) {
           V ev = op.get().getValue();
@@ -169,51 +188,68 @@ public class ReplicatedCacheServiceImpl
     }
 
     @Override
-    public synchronized void put(@NonNull String key, @NonNull V value) {
+    public void put(@NonNull String key, @NonNull V value) {
       checkNotNull(key);
       checkNotNull(value);
 
       LoadingCache<String, Optional<ExpiringValue<V>>> c =
           cache.getUnchecked(CurrentInstitution.get());
 
-      // Do nothing if the value hasn't changed
-      Optional<ExpiringValue<V>> opExVal = c.getIfPresent(key);
-      if (opExVal != null && opExVal.isPresent()) {
-        V oldValue = opExVal.get().getValue();
-        if (oldValue != null && oldValue.equals(value)) {
-          return;
+      Lock lock = writeLocks.get(key);
+      lock.lock();
+      try {
+        // Do nothing if the value hasn't changed
+        Optional<ExpiringValue<V>> opExVal = c.getIfPresent(key);
+        if (opExVal != null && opExVal.isPresent()) {
+          V oldValue = opExVal.get().getValue();
+          if (oldValue != null && oldValue.equals(value)) {
+            return;
+          }
         }
-      }
 
-      // Update the DB state if it's clustered
-      if (zookeeperService.isCluster()) {
-        dao.put(
-            cacheId,
-            key,
-            new Date(System.currentTimeMillis() + ttlUnit.toMillis(ttl)),
-            PluginAwareObjectOutputStream.toBytes(value));
-      }
+        // Update the DB state if it's clustered
+        if (zookeeperService.isCluster()) {
+          dao.put(
+              cacheId,
+              key,
+              new Date(System.currentTimeMillis() + ttlUnit.toMillis(ttl)),
+              PluginAwareObjectOutputStream.toBytes(value));
+        }
 
-      // Invalidate other servers caches
-      invalidateOthers(key);
+        // Invalidate other servers caches
+        invalidateOthers(key);
 
-      // Update our local cache
-      c.put(key, Optional.of(ExpiringValue.expireAfter(value, ttl, ttlUnit)));
+        // Update our local cache
+        c.put(key, Optional.of(ExpiringValue.expireAfter(value, ttl, ttlUnit)));
+      } finally {
+        lock.unlock();
+      }
     }
 
     @Override
-    public synchronized void invalidate(@NonNull String... keys) {
+    public void invalidate(@NonNull String... keys) {
       if (Check.isEmpty(keys)) {
         // Nothing to do
         return;
       }
 
-      if (zookeeperService.isCluster()) {
-        dao.invalidate(cacheId, keys);
+      // bulkGet returns stripes in a consistent order, so concurrent invalidates cannot deadlock
+      Iterable<Lock> locks = writeLocks.bulkGet(Arrays.asList(keys));
+      for (Lock lock : locks) {
+        lock.lock();
       }
+      try {
+        if (zookeeperService.isCluster()) {
+          dao.invalidate(cacheId, keys);
+        }
 
-      invalidateOthers(keys);
-      invalidateLocal(keys);
+        invalidateOthers(keys);
+        invalidateLocal(keys);
+      } finally {
+        for (Lock lock : locks) {
+          lock.unlock();
+        }
+      }
     }
 
     public void invalidateLocal(String... keys) {
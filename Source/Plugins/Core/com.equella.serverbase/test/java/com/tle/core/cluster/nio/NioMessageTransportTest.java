@@ -0,0 +1,132 @@
+package com.tle.core.cluster.nio;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.TestCase;
+
+/** Runs several transports over loopback, each talking to all of the others. */
+@SuppressWarnings("nls")
+public class NioMessageTransportTest extends TestCase {
+  private static final int NODES = 3;
+  private static final int MESSAGES = 2000;
+
+  private final List<NioMessageTransport> transports = new ArrayList<NioMessageTransport>();
+  private final Map<String, AtomicInteger> received = new ConcurrentHashMap<>();
+  private final Map<String, byte[]> lastMessage = new ConcurrentHashMap<>();
+  private volatile CountDownLatch latch;
+
+  @Override
+  protected void setUp() throws Exception {
+    List<InetSocketAddress> addresses = new ArrayList<InetSocketAddress>();
+    for (int i = 0; i < NODES; i++) {
+      final String nodeId = "node" + i;
+      received.put(nodeId, new AtomicInteger());
+      NioMessageTransport transport =
+          new NioMessageTransport(
+              nodeId,
+              2,
+              1024,
+              (from, message) -> {
+                lastMessage.put(nodeId, message);
+                received.get(nodeId).incrementAndGet();
+                latch.countDown();
+              });
+      addresses.add(
+          transport.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0)));
+      transports.add(transport);
+    }
+    for (int i = 0; i < NODES; i++) {
+      for (int j = 0; j < NODES; j++) {
+        if (i != j) {
+          InetSocketAddress address = addresses.get(j);
+          transports.get(i).addPeer("node" + j, address.getHostString(), address.getPort());
+        }
+      }
+    }
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    for (NioMessageTransport transport : transports) {
+      transport.close();
+    }
+  }
+
+  public void testFullMesh() throws Exception {
+    int expected = NODES * (NODES - 1) * MESSAGES;
+    latch = new CountDownLatch(expected);
+    for (int m = 0; m < MESSAGES; m++) {
+      byte[] message = ByteBuffer.allocate(64).putInt(m).array();
+      for (NioMessageTransport transport : transports) {
+        transport.sendToAll(message);
+      }
+    }
+    assertTrue("Timed out waiting for messages", latch.await(60, TimeUnit.SECONDS));
+
+    for (int i = 0; i < NODES; i++) {
+      assertEquals((NODES - 1) * MESSAGES, received.get("node" + i).get());
+    }
+    for (NioMessageTransport transport : transports) {
+      for (PeerStatistics stats : transport.getStatistics()) {
+        assertEquals(0, stats.getQueueDepth());
+        assertEquals(MESSAGES, stats.getSentMessages());
+        assertEquals(MESSAGES, stats.getReceivedMessages());
+        assertEquals(0, stats.getDroppedMessages());
+      }
+    }
+  }
+
+  public void testLargeCompressedMessage() throws Exception {
+    byte[] message = new byte[2 * 1024 * 1024];
+    Random random = new Random(1);
+    for (int i = 0; i < message.length; i++) {
+      message[i] = (byte) ('a' + random.nextInt(4));
+    }
+    latch = new CountDownLatch(1);
+    assertTrue(transports.get(0).send("node1", message));
+    assertTrue("Timed out waiting for message", latch.await(30, TimeUnit.SECONDS));
+    assertTrue(Arrays.equals(message, lastMessage.get("node1")));
+  }
+
+  public void testReconnect() throws Exception {
+    latch = new CountDownLatch(1);
+    transports.get(0).send("node1", new byte[] {1});
+    assertTrue(latch.await(30, TimeUnit.SECONDS));
+
+    // Replace node1 with a fresh transport on a new port and point node0 at it
+    transports.get(1).close();
+    NioMessageTransport replacement =
+        new NioMessageTransport(
+            "node1",
+            1,
+            -1,
+            (from, message) -> {
+              lastMessage.put("node1", message);
+              latch.countDown();
+            });
+    transports.set(1, replacement);
+    InetSocketAddress address =
+        replacement.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    transports.get(0).addPeer("node1", address.getHostString(), address.getPort());
+
+    latch = new CountDownLatch(1);
+    transports.get(0).send("node1", new byte[] {2});
+    assertTrue(latch.await(30, TimeUnit.SECONDS));
+    assertTrue(Arrays.equals(new byte[] {2}, lastMessage.get("node1")));
+  }
+
+  public void testUnknownPeer() throws IOException {
+    assertFalse(transports.get(0).send("nobody", new byte[] {1}));
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.web.service.oai;
+
+import com.dytech.edge.queries.FreeTextQuery;
+import com.tle.common.search.DefaultSearch;
+import com.tle.common.searching.Field;
+import com.tle.common.searching.Search.SortType;
+import com.tle.core.services.item.FreetextResult;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Lists items in order of date modified, and resumes from the last item listed rather than from an
+ * offset. An offset would make every page search and skip over all the items before it, and so
+ * harvesting everything gets slower the further it goes.
+ *
+ * <p>The index only keeps the date modified to the second, so the next page starts at the second
+ * the last item was modified and leaves out the items of that second already listed.
+ */
+class HarvestSearch extends DefaultSearch {
+  private static final long serialVersionUID = 1L;
+
+  private Date after;
+  private HashSet<String> listed = new HashSet<String>();
+
+  HarvestSearch() {
+    setSortFields(SortType.DATEMODIFIED.getSortField(true));
+  }
+
+  /**
+   * Moves on past the hits of the page just listed. The hits are used rather than the items, as
+   * items which have gone from the database since they were indexed are left out of the page.
+   *
+   * @param hits The search hits of the page, in order
+   */
+  void resumeAfter(List<? extends FreetextResult> hits) {
+    Date last = after;
+    for (FreetextResult hit : hits) {
+      if (hit.getDateModified() != null) {
+        last = hit.getDateModified();
+      }
+    }
+
+    final HashSet<String> ids = new HashSet<String>();
+    if (after != null && sameSecond(after, last)) {
+      ids.addAll(listed);
+    }
+    for (FreetextResult hit : hits) {
+      // Hits without a date can only be left out by ID
+      final Date modified = hit.getDateModified();
+      if (modified == null || sameSecond(modified, last)) {
+        ids.add(Long.toString(hit.getItemIdKey().getKey()));
+      }
+    }
+    after = last;
+    listed = ids;
+  }
+
+  private static boolean sameSecond(Date date1, Date date2) {
+    return date1.getTime() / 1000 == date2.getTime() / 1000;
+  }
+
+  @Override
+  public Date[] getDateRange() {
+    final Date[] range = super.getDateRange();
+    if (after == null) {
+      return range;
+    }
+    final Date from = range != null ? range[0] : null;
+    final Date until = range != null ? range[1] : null;
+    return new Date[] {from != null && from.after(after) ? from : after, until};
+  }
+
+  @Override
+  protected void addExtraMustNots(List<List<Field>> mustNots) {
+    if (!listed.isEmpty()) {
+      mustNots.add(createFields(FreeTextQuery.FIELD_ID, listed));
+    }
+  }
+}
@@ -39,7 +39,6 @@ import com.tle.common.Check;
 import com.tle.common.URLUtils;
 import com.tle.common.i18n.CurrentLocale;
 import com.tle.common.search.DefaultSearch;
-import com.tle.common.searching.Search.SortType;
 import com.tle.common.util.Dates;
 import com.tle.common.util.UtcDate;
 import com.tle.core.dynacollection.DynaCollectionService;
@@ -240,12 +239,12 @@ public class OAICatalog extends AbstractCatalog {
   }
 
   private static class ResumptionToken implements Serializable {
-    private final DefaultSearch request;
+    private final HarvestSearch request;
     private final String format;
-    private final int start;
+    private final int cursor;
 
-    public ResumptionToken(int start, DefaultSearch request, String format) {
-      this.start = start;
+    public ResumptionToken(int cursor, HarvestSearch request, String format) {
+      this.cursor = cursor;
       this.request = request;
       this.format = format;
     }
@@ -263,7 +262,7 @@ public class OAICatalog extends AbstractCatalog {
       resumptionTokens.invalidate(stoken);
 
       ResumptionToken token = maybeToken.get();
-      return list(token.request, token.format, token.start + MAX_RESULTS, handler);
+      return list(token.request, token.format, token.cursor, handler);
     } catch (NoRecordsMatchException e) {
       LOGGER.error("No records match", e);
       throw new BadResumptionTokenException();
@@ -274,8 +273,7 @@ public class OAICatalog extends AbstractCatalog {
       String set, String from, String until, String metadataFormat, Handler handler)
       throws NoRecordsMatchException, BadArgumentException, OAIInternalServerError {
     final OAIUtils utils = OAIUtils.getInstance(institutionService, configService);
-    DefaultSearch search = new DefaultSearch();
-    search.setSortType(SortType.DATEMODIFIED);
+    HarvestSearch search = new HarvestSearch();
 
     if (utils.isUseDownloadItemAcl()) {
       search.setPrivilege("DOWNLOAD_ITEM");
@@ -345,14 +343,15 @@ public class OAICatalog extends AbstractCatalog {
     search.setFreeTextQuery(dynaCollectionService.getSearchClause(dc, virtualiseValue));
   }
 
+  /** @param cursor The number of items listed before this page */
   private Map<String, Map<?, ?>> list(
-      DefaultSearch request, String format, int start, Handler handler)
+      HarvestSearch request, String format, int cursor, Handler handler)
       throws NoRecordsMatchException, OAIInternalServerError {
     try {
       Map<String, Map<?, ?>> items = new HashMap<String, Map<?, ?>>();
 
       FreetextSearchResults<FreetextResult> results =
-          freeTextService.search(request, start, MAX_RESULTS);
+          freeTextService.search(request, 0, MAX_RESULTS);
 
       int available = results.getAvailable();
       if (available == 0) {
@@ -362,10 +361,13 @@ public class OAICatalog extends AbstractCatalog {
         handler.add(item, format);
       }
 
-      if (available > start + MAX_RESULTS) {
+      // Resume from the hits, as items which have gone from the database are left out
+      List<FreetextResult> hits = results.getSearchResults();
+      if (available > hits.size()) {
+        request.resumeAfter(hits);
         String uuid = UUID.randomUUID().toString();
-        Map<?, ?> map = getResumptionMap(uuid, available, start);
-        ResumptionToken token = new ResumptionToken(start, request, format);
+        Map<?, ?> map = getResumptionMap(uuid, cursor + available, cursor);
+        ResumptionToken token = new ResumptionToken(cursor + hits.size(), request, format);
         resumptionTokens.put(uuid, token);
         items.put("resumptionMap", map); // $NON-NLS-1$
       }
@@ -25,6 +25,8 @@ import ORG.oclc.oai.server.crosswalk.Crosswalks;
 import ORG.oclc.oai.server.verb.CannotDisseminateFormatException;
 import ORG.oclc.oai.server.verb.ServerVerb;
 import com.dytech.devlib.PropBagEx;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.tle.beans.entity.Schema;
 import com.tle.beans.entity.SchemaTransform;
 import com.tle.beans.item.Item;
@@ -35,22 +37,37 @@ import com.tle.core.item.helper.ItemHelper;
 import com.tle.core.item.service.ItemService;
 import com.tle.core.schema.service.SchemaService;
 import com.tle.core.settings.service.ConfigurationService;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.TimeUnit;
 import javax.inject.Inject;
 import org.apache.log4j.Logger;
 
 public class XMLRecordFactory extends RecordFactory {
   private static final Logger LOGGER = Logger.getLogger(XMLRecordFactory.class);
 
+  private static final long MAX_CACHED_CHARS = 32L * 1024 * 1024;
+
   @Inject private ItemService itemService;
   @Inject private SchemaService schemaService;
   @Inject private ConfigurationService configService;
   @Inject private InstitutionService institutionService;
   @Inject private ItemHelper itemHelper;
 
+  /**
+   * Crosswalked metadata keyed on the versions of the item and schema it was made from, so that
+   * harvesting unchanged items again does not repeat the transform.
+   */
+  private final Cache<String, String> metadata =
+      CacheBuilder.newBuilder()
+          .maximumWeight(MAX_CACHED_CHARS)
+          .<String, String>weigher((key, value) -> key.length() + value.length())
+          .expireAfterAccess(1, TimeUnit.HOURS)
+          .build();
+
   /*
    * DO NOT REMOVE ARGUMENT! Called by Reflection - very necessary.
    */
@@ -155,6 +172,11 @@ public class XMLRecordFactory extends RecordFactory {
     @Override
     public String createMetadata(Object nativeItem) throws CannotDisseminateFormatException {
       Item item = (Item) nativeItem;
+      final String key = getMetadataKey(item);
+      final String cached = metadata.getIfPresent(key);
+      if (cached != null) {
+        return cached;
+      }
       try {
         ItemPack pack = new ItemPack();
         pack.setItem(item);
@@ -164,6 +186,7 @@ public class XMLRecordFactory extends RecordFactory {
         String s =
             schemaService.transformForExport(getSchema(item).getId(), metadataPrefix, xml, true);
         if (s != null) {
+          metadata.put(key, s);
           return s;
         }
       } catch (Exception ex) {
@@ -173,6 +196,26 @@ public class XMLRecordFactory extends RecordFactory {
       throw new CannotDisseminateFormatException(metadataPrefix);
     }
 
+    @SuppressWarnings("nls")
+    private String getMetadataKey(Item item) {
+      final Schema schema = getSchema(item);
+      return item.getInstitution().getUniqueId()
+          + ":"
+          + item.getId()
+          + ":"
+          + getTime(item.getDateModified())
+          + ":"
+          + schema.getId()
+          + ":"
+          + getTime(schema.getDateModified())
+          + ":"
+          + metadataPrefix;
+    }
+
+    private long getTime(Date date) {
+      return date == null ? 0 : date.getTime();
+    }
+
     private Schema getSchema(Item xml) {
       return xml.getItemDefinition().getSchema();
     }
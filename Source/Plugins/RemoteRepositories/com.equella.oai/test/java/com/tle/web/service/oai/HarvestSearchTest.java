@@ -0,0 +1,124 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.web.service.oai;
+
+import com.dytech.edge.queries.FreeTextQuery;
+import com.tle.beans.item.ItemIdKey;
+import com.tle.common.searching.Field;
+import com.tle.core.services.item.FreetextResult;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.Assert;
+import org.junit.Test;
+
+@SuppressWarnings("nls")
+public class HarvestSearchTest {
+  private static final long SECOND = 1000;
+  private static final long START = 1600000000000L;
+
+  @Test
+  public void firstPageSearchesTheRequestedRange() {
+    HarvestSearch search = new HarvestSearch();
+    Date[] range = {new Date(START), null};
+    search.setDateRange(range);
+
+    Assert.assertSame(range, search.getDateRange());
+    Assert.assertTrue(listed(search).isEmpty());
+  }
+
+  @Test
+  public void resumesFromTheLastHit() {
+    HarvestSearch search = new HarvestSearch();
+    search.resumeAfter(Arrays.asList(hit(1, 0), hit(2, SECOND), hit(3, 2 * SECOND), hit(4, 2500)));
+
+    Assert.assertEquals(new Date(START + 2500), search.getDateRange()[0]);
+    Assert.assertNull(search.getDateRange()[1]);
+    Assert.assertEquals(ids(3, 4), listed(search));
+  }
+
+  @Test
+  public void sameSecondCarriesOverPages() {
+    HarvestSearch search = new HarvestSearch();
+    search.resumeAfter(Arrays.asList(hit(1, 0), hit(2, SECOND)));
+    Assert.assertEquals(ids(2), listed(search));
+
+    // The whole page was modified in the same second as the end of the last
+    search.resumeAfter(Arrays.asList(hit(3, SECOND + 200), hit(4, SECOND + 900)));
+    Assert.assertEquals(ids(2, 3, 4), listed(search));
+
+    search.resumeAfter(Arrays.asList(hit(5, SECOND + 900), hit(6, 3 * SECOND)));
+    Assert.assertEquals(ids(6), listed(search));
+    Assert.assertEquals(new Date(START + 3 * SECOND), search.getDateRange()[0]);
+  }
+
+  @Test
+  public void keepsALaterFromDate() {
+    HarvestSearch search = new HarvestSearch();
+    Date until = new Date(START + 10 * SECOND);
+    search.setDateRange(new Date[] {new Date(START + 5 * SECOND), until});
+    search.resumeAfter(Collections.singletonList(hit(1, 0)));
+
+    Assert.assertEquals(new Date(START + 5 * SECOND), search.getDateRange()[0]);
+    Assert.assertSame(until, search.getDateRange()[1]);
+
+    search.resumeAfter(Collections.singletonList(hit(2, 6 * SECOND)));
+    Assert.assertEquals(new Date(START + 6 * SECOND), search.getDateRange()[0]);
+  }
+
+  @Test
+  public void hitsWithoutADateAreLeftOutById() {
+    HarvestSearch search = new HarvestSearch();
+    search.resumeAfter(Collections.singletonList(hit(1, 0)));
+    FreetextResult undated = new FreetextResult(new ItemIdKey(2, "uuid2", 1), 0, false);
+    search.resumeAfter(Collections.singletonList(undated));
+
+    Assert.assertEquals(new Date(START), search.getDateRange()[0]);
+    Assert.assertEquals(ids(1, 2), listed(search));
+  }
+
+  private static FreetextResult hit(long id, long modified) {
+    FreetextResult hit = new FreetextResult(new ItemIdKey(id, "uuid" + id, 1), 0, false);
+    hit.setDateModified(new Date(START + modified));
+    return hit;
+  }
+
+  private static Set<String> ids(long... ids) {
+    Set<String> set = new HashSet<String>();
+    for (long id : ids) {
+      set.add(Long.toString(id));
+    }
+    return set;
+  }
+
+  private static Set<String> listed(HarvestSearch search) {
+    Set<String> listed = new HashSet<String>();
+    for (List<Field> fields : search.getMustNot()) {
+      for (Field field : fields) {
+        if (field.getField().equals(FreeTextQuery.FIELD_ID)) {
+          listed.add(field.getValue());
+        }
+      }
+    }
+    return listed;
+  }
+}
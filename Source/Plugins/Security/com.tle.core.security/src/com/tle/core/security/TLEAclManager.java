@@ -18,7 +18,9 @@
 
 package com.tle.core.security;
 
+import com.google.common.cache.CacheStats;
 import com.google.common.collect.ListMultimap;
+import com.tle.beans.Institution;
 import com.tle.beans.security.AccessEntry;
 import com.tle.beans.security.AccessExpression;
 import com.tle.common.Triple;
@@ -53,6 +55,18 @@ public interface TLEAclManager extends RemoteTLEAclManager {
   <T> Map<T, Map<String, Boolean>> getPrivilegesForObjects(
       Collection<String> privileges, Collection<T> domainObjs);
 
+  /**
+   * Hit, miss and eviction counts of the privilege decision cache used by
+   * getPrivilegesForObjects/filterNonGrantedPrivileges for the current institution.
+   */
+  CacheStats getDecisionCacheStats();
+
+  /**
+   * Drops the cached privilege decisions for an institution on every node. Only needed by code
+   * that writes ACLs without going through this manager, such as institution import.
+   */
+  void invalidateDecisionCache(Institution institution);
+
   /** Filters out privileges that the user does not have for any domain object. */
   Set<String> filterNonGrantedPrivileges(
       Collection<String> privileges, boolean includePossibleOwnerAcls);
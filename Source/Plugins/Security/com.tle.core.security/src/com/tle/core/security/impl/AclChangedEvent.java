@@ -0,0 +1,48 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.security.impl;
+
+import com.tle.core.events.ApplicationEvent;
+
+/**
+ * Tells other cluster nodes that ACL entries of the current institution have changed and any
+ * cached privilege decisions must be thrown away.
+ */
+public class AclChangedEvent extends ApplicationEvent<AclChangedListener> {
+  private static final long serialVersionUID = 1L;
+
+  public AclChangedEvent() {
+    super(PostTo.POST_TO_OTHER_CLUSTER_NODES);
+  }
+
+  @Override
+  public Class<AclChangedListener> getListener() {
+    return AclChangedListener.class;
+  }
+
+  @Override
+  public void postEvent(AclChangedListener listener) {
+    listener.aclsChanged();
+  }
+
+  @Override
+  public boolean requiresInstitution() {
+    return true;
+  }
+}
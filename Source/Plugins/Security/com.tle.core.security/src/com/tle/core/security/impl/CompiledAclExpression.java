@@ -0,0 +1,192 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0, (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tle.core.security.impl;
+
+import com.dytech.edge.common.IpAddressUtils;
+import com.dytech.edge.common.IpAddressUtils.Matcher;
+import com.tle.common.security.SecurityConstants;
+import com.tle.common.security.expressions.PostfixExpressionParser.BooleanOp;
+import com.tle.common.usermanagement.user.UserState;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.Stack;
+
+/**
+ * A postfix ACL expression parsed once into a tree of immutable nodes, so that it can be evaluated
+ * for any number of users without tokenising and decoding it again. Evaluation gives the same
+ * results as {@link AclExpressionEvaluator}. Instances are thread-safe.
+ *
+ * @see Subject
+ */
+@SuppressWarnings("nls")
+public final class CompiledAclExpression {
+  private final String expression;
+  private final Node root;
+
+  private CompiledAclExpression(String expression, Node root) {
+    this.expression = expression;
+    this.root = root;
+  }
+
+  /**
+   * @throws IllegalArgumentException If the expression contains an unknown recipient
+   * @throws java.util.EmptyStackException If an operator is missing operands
+   */
+  public static CompiledAclExpression compile(String expression) {
+    Stack<Node> operands = new Stack<Node>();
+    for (String token : expression.split("\\s")) {
+      BooleanOp op = BooleanOp.getOperator(token);
+      if (op == null) {
+        operands.push(compileOperand(token));
+      } else {
+        switch (op) {
+          case NOT_TOKEN:
+            {
+              final Node operand = operands.pop();
+              operands.push((s, owner, ipRefer) -> !operand.evaluate(s, owner, ipRefer));
+              break;
+            }
+          case AND_TOKEN:
+            {
+              final Node operand1 = operands.pop();
+              final Node operand2 = operands.pop();
+              operands.push(
+                  (s, owner, ipRefer) ->
+                      operand1.evaluate(s, owner, ipRefer)
+                          && operand2.evaluate(s, owner, ipRefer));
+              break;
+            }
+          case OR_TOKEN:
+            {
+              final Node operand1 = operands.pop();
+              final Node operand2 = operands.pop();
+              operands.push(
+                  (s, owner, ipRefer) ->
+                      operand1.evaluate(s, owner, ipRefer)
+                          || operand2.evaluate(s, owner, ipRefer));
+              break;
+            }
+          default:
+            throw new IllegalStateException();
+        }
+      }
+    }
+    return new CompiledAclExpression(expression, operands.pop());
+  }
+
+  private static Node compileOperand(String token) {
+    final String value = SecurityConstants.getRecipientValue(token);
+    switch (SecurityConstants.getRecipientType(token)) {
+      case EVERYONE:
+        return (s, owner, ipRefer) -> true;
+      case OWNER:
+        return (s, owner, ipRefer) -> !s.guest && owner;
+      case USER:
+        return (s, owner, ipRefer) -> !s.guest && s.userId.equals(value);
+      case GROUP:
+        return (s, owner, ipRefer) -> s.groups.contains(value);
+      case ROLE:
+        return (s, owner, ipRefer) -> s.roles.contains(value);
+      case IP_ADDRESS:
+        return (s, owner, ipRefer) -> !ipRefer || s.matchesIpAddress(value);
+      case HTTP_REFERRER:
+        if (!value.isEmpty() && value.charAt(0) == '*') {
+          String t = value.substring(1);
+          if (t.endsWith("*")) {
+            t = t.substring(0, t.length() - 1);
+          }
+          final String contained = t.toLowerCase();
+          return (s, owner, ipRefer) ->
+              !ipRefer || (s.referrer != null && s.referrer.toLowerCase().contains(contained));
+        }
+        return (s, owner, ipRefer) -> !ipRefer || value.equalsIgnoreCase(s.referrer);
+      case SHARE_PASS:
+        return (s, owner, ipRefer) -> Objects.equals(s.sharePassEmail, value);
+      case TOKEN_SECRET_ID:
+        return (s, owner, ipRefer) -> Objects.equals(s.tokenSecretId, value);
+      default:
+        throw new IllegalStateException();
+    }
+  }
+
+  public String getExpression() {
+    return expression;
+  }
+
+  /**
+   * @param isOwner Whether the user should be considered the owner of the target
+   * @param enableIpReferAcl When false, IP address and referrer recipients always match
+   */
+  public boolean evaluate(Subject subject, boolean isOwner, boolean enableIpReferAcl) {
+    return root.evaluate(subject, isOwner, enableIpReferAcl);
+  }
+
+  @Override
+  public String toString() {
+    return expression;
+  }
+
+  private interface Node {
+    boolean evaluate(Subject subject, boolean isOwner, boolean enableIpReferAcl);
+  }
+
+  /**
+   * The parts of a user's state that expressions are evaluated against, gathered once so that many
+   * expressions can be evaluated for the same user. Group and role membership is checked through
+   * hashed sets. Not thread-safe.
+   */
+  public static final class Subject {
+    final boolean guest;
+    final String userId;
+    final Set<String> groups;
+    final Set<String> roles;
+    final String ipAddress;
+    final String referrer;
+    final String sharePassEmail;
+    final String tokenSecretId;
+    private Matcher ipAddressMatcher;
+
+    public Subject(UserState userState) {
+      guest = userState.isGuest();
+      userId = guest ? null : userState.getUserBean().getUniqueID();
+      groups = hashed(userState.getUsersGroups());
+      roles = hashed(userState.getUsersRoles());
+      ipAddress = userState.getIpAddress();
+      referrer = userState.getHostReferrer();
+      sharePassEmail = userState.getSharePassEmail();
+      tokenSecretId = userState.getTokenSecretId();
+    }
+
+    private static Set<String> hashed(Set<String> values) {
+      return values instanceof HashSet ? values : new HashSet<String>(values);
+    }
+
+    boolean matchesIpAddress(String cidrAddress) {
+      // IPv6, no current implementation for this
+      if (ipAddress == null || ipAddress.contains(":")) {
+        return false;
+      }
+      if (ipAddressMatcher == null) {
+        ipAddressMatcher = IpAddressUtils.matchRangesAgainstIpAddress(ipAddress);
+      }
+      return ipAddressMatcher.matches(cidrAddress);
+    }
+  }
+}
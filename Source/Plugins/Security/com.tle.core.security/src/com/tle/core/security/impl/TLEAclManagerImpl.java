@@ -32,11 +32,17 @@ import static com.tle.common.security.SecurityConstants.TARGET_EVERYTHING;
 import static com.tle.common.security.SecurityConstants.getRecipient;
 
 import com.dytech.common.collections.CombinedCollection;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableMap.Builder;
+import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
+import com.tle.beans.Institution;
 import com.tle.beans.security.ACLEntryMapping;
 import com.tle.beans.security.AccessEntry;
 import com.tle.beans.security.AccessExpression;
@@ -50,7 +56,13 @@ import com.tle.common.usermanagement.user.ModifiableUserState;
 import com.tle.common.usermanagement.user.UserState;
 import com.tle.core.dao.AccessExpressionDao;
 import com.tle.core.dao.AclDao;
+import com.tle.core.events.services.EventService;
 import com.tle.core.guice.Bind;
+import com.tle.core.institution.InstitutionCache;
+import com.tle.core.institution.InstitutionService;
+import com.tle.core.institution.events.InstitutionEvent;
+import com.tle.core.institution.events.InstitutionEvent.InstitutionEventType;
+import com.tle.core.institution.events.listeners.InstitutionListener;
 import com.tle.core.plugins.PluginService;
 import com.tle.core.plugins.PluginTracker;
 import com.tle.core.security.DomainObjectPrivilegeFilterExtension;
@@ -70,7 +82,9 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -78,18 +92,41 @@ import org.hibernate.criterion.Criterion;
 import org.hibernate.criterion.Restrictions;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 /** @author Nicholas Read */
 @SuppressWarnings("nls")
 @Bind(TLEAclManager.class)
 @Singleton
-public class TLEAclManagerImpl implements TLEAclManager {
+public class TLEAclManagerImpl implements TLEAclManager, AclChangedListener, InstitutionListener {
   private static final String OBJECT_PRIORITY_DB_FORMAT =
       String.format(
           "%04d", SecurityConstants.PRIORITY_OBJECT_INSTANCE + SecurityConstants.PRIORITY_MAX);
 
-  @Inject private AclDao aclDao;
+  /** Maximum number of privilege decisions held in memory for each institution. */
+  private static final long DECISION_CACHE_SIZE = 100000;
+  /** Maximum number of compiled ACL expressions held in memory for each institution. */
+  private static final long EXPRESSION_CACHE_SIZE = 50000;
+  /** Marks a decision where no ACL entry applies, since the cache cannot hold nulls. */
+  private static final String NO_DECISION = "";
+
+  @Inject AclDao aclDao;
   @Inject private AccessExpressionDao expressionDao;
+  @Inject EventService eventService;
+
+  /**
+   * The winning ACL entry ordering (see AccessEntry.aggregateOrdering) for an expression set,
+   * target and privilege. Invalidated whenever ACLs change on any cluster node.
+   */
+  private InstitutionCache<Cache<DecisionKey, String>> decisionCache;
+
+  /**
+   * Compiled forms of the access expressions, by expression ID. Cleared along with the decision
+   * cache, and each entry is checked against the current expression text before use.
+   */
+  private InstitutionCache<Cache<Long, CompiledAclExpression>> compiledExpressions;
 
   private PluginTracker<SecurityTargetHandler> ownerHandlers;
   private PluginTracker<SecurityTargetHandler> labellingHandlers;
@@ -97,6 +134,31 @@ public class TLEAclManagerImpl implements TLEAclManager {
   private PluginTracker<SecurityPostProcessor> postProcessors;
   @Inject private PluginTracker<DomainObjectPrivilegeFilterExtension> domainObjectPrivFilters;
 
+  @Inject
+  public void setInstitutionService(InstitutionService service) {
+    decisionCache =
+        service.newInstitutionAwareCache(
+            new CacheLoader<Institution, Cache<DecisionKey, String>>() {
+              @Override
+              public Cache<DecisionKey, String> load(Institution key) {
+                // Expiry is only a safety net in case an invalidation event is lost
+                return CacheBuilder.newBuilder()
+                    .maximumSize(DECISION_CACHE_SIZE)
+                    .expireAfterWrite(1, TimeUnit.HOURS)
+                    .recordStats()
+                    .build();
+              }
+            });
+    compiledExpressions =
+        service.newInstitutionAwareCache(
+            new CacheLoader<Institution, Cache<Long, CompiledAclExpression>>() {
+              @Override
+              public Cache<Long, CompiledAclExpression> load(Institution key) {
+                return CacheBuilder.newBuilder().maximumSize(EXPRESSION_CACHE_SIZE).build();
+              }
+            });
+  }
+
   @Inject
   public void setPluginService(PluginService pluginService) {
     ownerHandlers =
@@ -221,11 +283,132 @@ public class TLEAclManagerImpl implements TLEAclManager {
         new CombinedCollection<Long>(currentUser.getCommonAclExpressions(), ownerOrNotOwner);
 
     if (!targetMapping.isEmpty() && !expressions.isEmpty()) {
-      return aclDao.getPrivilegesForTargets(privileges, targetMapping.keySet(), expressions);
+      return getPrivilegesForTargets(privileges, targetMapping.keySet(), expressions);
     }
     return Collections.emptyList();
   }
 
+  /**
+   * Equivalent to AclDao.getPrivilegesForTargets, but only the winning entry for each target and
+   * privilege is returned, and only the combinations not already in the decision cache go to the
+   * database. Results are in descending order of precedence, as the DAO returns them.
+   */
+  List<Object[]> getPrivilegesForTargets(
+      Collection<String> privileges, Collection<String> targets, Collection<Long> expressions) {
+    final Set<Long> signature = ImmutableSortedSet.copyOf(expressions);
+    final Cache<DecisionKey, String> cache = decisionCache.getCache();
+
+    final List<Object[]> results = new ArrayList<Object[]>();
+    final Set<DecisionKey> cached = new HashSet<DecisionKey>();
+    final Set<String> missingTargets = new HashSet<String>();
+    final Set<String> missingPrivileges = new HashSet<String>();
+    for (String target : targets) {
+      for (String privilege : privileges) {
+        final DecisionKey key = new DecisionKey(signature, target, privilege);
+        final String ordering = cache.getIfPresent(key);
+        if (ordering == null) {
+          missingTargets.add(target);
+          missingPrivileges.add(privilege);
+        } else {
+          cached.add(key);
+          if (!ordering.equals(NO_DECISION)) {
+            results.add(new Object[] {ordering, privilege, target});
+          }
+        }
+      }
+    }
+
+    if (!missingTargets.isEmpty()) {
+      // Rows come back highest precedence first, so the first one seen wins
+      final Map<DecisionKey, String> loaded = new HashMap<DecisionKey, String>();
+      for (Object[] entry :
+          aclDao.getPrivilegesForTargets(missingPrivileges, missingTargets, expressions)) {
+        final DecisionKey key = new DecisionKey(signature, (String) entry[2], (String) entry[1]);
+        if (!loaded.containsKey(key)) {
+          loaded.put(key, (String) entry[0]);
+        }
+      }
+
+      for (String target : missingTargets) {
+        for (String privilege : missingPrivileges) {
+          final DecisionKey key = new DecisionKey(signature, target, privilege);
+          if (!cached.contains(key)) {
+            final String ordering = loaded.get(key);
+            cache.put(key, ordering == null ? NO_DECISION : ordering);
+            if (ordering != null) {
+              results.add(new Object[] {ordering, privilege, target});
+            }
+          }
+        }
+      }
+    }
+
+    Collections.sort(results, (e1, e2) -> ((String) e2[0]).compareTo((String) e1[0]));
+    return results;
+  }
+
+  @Override
+  public CacheStats getDecisionCacheStats() {
+    return decisionCache.getCache().stats();
+  }
+
+  @Override
+  public void invalidateDecisionCache(Institution institution) {
+    invalidateDecisions(Collections.singleton(institution));
+  }
+
+  @Override
+  public void aclsChanged() {
+    decisionCache.clear();
+    compiledExpressions.clear();
+  }
+
+  @Override
+  public void institutionEvent(InstitutionEvent event) {
+    // Migrations write ACLs straight to the database while the institution is offline, so
+    // anything cached before then is dropped when it comes back
+    if (event.getEventType() == InstitutionEventType.AVAILABLE) {
+      for (Institution institution : event.getChanges().values()) {
+        decisionCache.clear(institution);
+        compiledExpressions.clear(institution);
+      }
+    }
+  }
+
+  private void invalidateDecisions() {
+    invalidateDecisions(Collections.singleton(CurrentInstitution.get()));
+  }
+
+  /**
+   * Drops the cached decisions and compiled expressions for the given institutions, both now and
+   * once the current transaction has completed (so that decisions read in the meantime are not
+   * kept), and tells the other cluster nodes to do the same once the changes are committed.
+   */
+  private void invalidateDecisions(final Collection<Institution> institutions) {
+    for (Institution institution : institutions) {
+      decisionCache.clear(institution);
+      compiledExpressions.clear(institution);
+    }
+
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(
+          new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCompletion(int status) {
+              for (Institution institution : institutions) {
+                decisionCache.clear(institution);
+                compiledExpressions.clear(institution);
+              }
+              if (status == TransactionSynchronization.STATUS_COMMITTED) {
+                eventService.publishApplicationEvent(institutions, new AclChangedEvent());
+              }
+            }
+          });
+    } else {
+      eventService.publishApplicationEvent(institutions, new AclChangedEvent());
+    }
+  }
+
   /** Adds each object to a map, stating whether each privilege is granted or revoked. */
   private <T> void mapObjectsToPrivileges(
       Map<String, Set<T>> targetMapping,
@@ -424,6 +607,7 @@ public class TLEAclManagerImpl implements TLEAclManager {
 
     // If don't flush then they don't return from getAclExpressions()
     aclDao.flush();
+    invalidateDecisions();
 
     // Update the user's expression list, just to ensure that the new entity
     // works.
@@ -453,6 +637,7 @@ public class TLEAclManagerImpl implements TLEAclManager {
     }
 
     addAccessEntry(target, privilegeNode, grant, override, 0, privilege, expression, expiry);
+    invalidateDecisions();
   }
 
   @Override
@@ -558,16 +743,16 @@ public class TLEAclManagerImpl implements TLEAclManager {
     Collection<Long> owner = new ArrayList<Long>();
     Collection<Long> notOwner = new ArrayList<Long>();
 
-    AclExpressionEvaluator evaluator = new AclExpressionEvaluator();
+    CompiledAclExpression.Subject subject = new CompiledAclExpression.Subject(userState);
     for (Triple<Long, String, Boolean> exp : expressionDao.getMatchingExpressions(values)) {
       long expressionID = exp.getFirst();
-      String expression = exp.getSecond();
+      CompiledAclExpression expression = getCompiledExpression(expressionID, exp.getSecond());
       boolean isDynamic = exp.getThird();
 
       // If it's a dynamic expression...
       if (isDynamic) {
-        boolean own = evaluator.evaluate(expression, userState, true, enableIpReferAcl);
-        boolean nOwn = evaluator.evaluate(expression, userState, false, enableIpReferAcl);
+        boolean own = expression.evaluate(subject, true, enableIpReferAcl);
+        boolean nOwn = expression.evaluate(subject, false, enableIpReferAcl);
 
         if (own && nOwn) {
           common.add(expressionID);
@@ -576,7 +761,7 @@ public class TLEAclManagerImpl implements TLEAclManager {
         } else if (nOwn) {
           notOwner.add(expressionID);
         }
-      } else if (evaluator.evaluate(expression, userState, true)) {
+      } else if (expression.evaluate(subject, true, true)) {
         common.add(expressionID);
       }
     }
@@ -584,6 +769,16 @@ public class TLEAclManagerImpl implements TLEAclManager {
         common, owner, notOwner);
   }
 
+  private CompiledAclExpression getCompiledExpression(long expressionID, String expression) {
+    final Cache<Long, CompiledAclExpression> cache = compiledExpressions.getCache();
+    CompiledAclExpression compiled = cache.getIfPresent(expressionID);
+    if (compiled == null || !compiled.getExpression().equals(expression)) {
+      compiled = CompiledAclExpression.compile(expression);
+      cache.put(expressionID, compiled);
+    }
+    return compiled;
+  }
+
   @Override
   @Transactional(propagation = Propagation.MANDATORY)
   public void deleteAllEntityChildren(Node type, long id) {
@@ -608,6 +803,7 @@ public class TLEAclManagerImpl implements TLEAclManager {
     String target = prefix + ":" + id + ":";
     aclDao.deleteAll(
         target, true, Arrays.asList(type.getOverridePriority(), -type.getOverridePriority()));
+    invalidateDecisions();
   }
 
   @Override
@@ -615,9 +811,14 @@ public class TLEAclManagerImpl implements TLEAclManager {
   public void deleteExpiredAccessEntries() {
     Criterion c1 = Restrictions.isNotNull("expiry");
     Criterion c2 = Restrictions.lt("expiry", new Date());
+    Set<Institution> changed = new HashSet<Institution>();
     for (AccessEntry entry : aclDao.findAllByCriteria(c1, c2)) {
+      changed.add(entry.getInstitution());
       aclDao.delete(entry);
     }
+    if (!changed.isEmpty()) {
+      invalidateDecisions(changed);
+    }
   }
 
   /**
@@ -781,6 +982,43 @@ public class TLEAclManagerImpl implements TLEAclManager {
     for (Entry<Long, Long> entry : oldToNewIds.entrySet()) {
       aclDao.remapExpressionId(entry.getKey(), entry.getValue());
     }
+    if (!oldToNewIds.isEmpty()) {
+      invalidateDecisions();
+    }
+  }
+
+  private static final class DecisionKey {
+    private final Set<Long> expressions;
+    private final String target;
+    private final String privilege;
+    private final int hashCode;
+
+    DecisionKey(Set<Long> expressions, String target, String privilege) {
+      this.expressions = expressions;
+      this.target = target;
+      this.privilege = privilege;
+      this.hashCode = Objects.hash(expressions, target, privilege);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof DecisionKey)) {
+        return false;
+      }
+      DecisionKey other = (DecisionKey) obj;
+      return hashCode == other.hashCode
+          && target.equals(other.target)
+          && privilege.equals(other.privilege)
+          && expressions.equals(other.expressions);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
   }
 
   @Override